@@ -0,0 +1,27 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+import net.nicoulaj.maven.plugins.soot.IntegrationProjectGenerator
+
+// Generate the sources of each module: packages of classes, plus their interfaces and a main class. The number of
+// generated classes is passed to postbuild.groovy.
+[ "medium": [ 40, 50 ], "large": [ 200, 100 ], "whole-program": [ 100, 50 ] ].each { module, size ->
+  context.put( module, new IntegrationProjectGenerator( new File( basedir, module ) ).generate( size[0], size[1] ) )
+}
+
+return true
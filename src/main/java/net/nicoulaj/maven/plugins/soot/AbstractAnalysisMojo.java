@@ -0,0 +1,369 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Parameter;
+import soot.G;
+import soot.PackManager;
+import soot.Scene;
+import soot.SceneTransformer;
+import soot.SootMethod;
+import soot.Transform;
+import soot.options.Options;
+import soot.tagkit.Host;
+import soot.tagkit.LineNumberTag;
+import soot.tagkit.Tag;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Base class for mojos that run a whole-program analysis on the Soot {@link soot.Scene} and report on it.
+ * <p/>
+ * The analysis is registered as a transformation in the Whole-Jimple Transformation Pack (<tt>wjtp</tt>), so it runs
+ * once the call graph has been built. Whole program mode is always enabled and no Soot output is produced.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public abstract class AbstractAnalysisMojo
+    extends AbstractSootMojo
+{
+
+    /**
+     * The options the {@link #callGraphCache} keys depend on, besides the input classes.
+     */
+    private static final List<String> CALL_GRAPH_KEY_OPTIONS = Collections.unmodifiableList( Arrays.asList(
+        "applicationMode", "prependClasspath", "sourcePrecedence", "fullResolver", "allowPhantomRefs",
+        "noBodiesForExcluded", "mainClass", "j2me", "throwAnalysis", "omitExceptingUnitEdges", "trimCfgs",
+        "ignoreResolutionErrors", "includes", "excludes", "includeAll", "dynamicClasses", "dynamicPackages",
+        "keepLineNumber", "keepBytecodeOffset" ) );
+
+    /**
+     * Values for {@link #callGraphAlgorithm} option.
+     */
+    public enum CallGraphAlgorithm
+    {
+
+        /**
+         * Class Hierarchy Analysis: a virtual call may target every override of the method in the subtypes of the
+         * declared receiver type. Fast, but imprecise.
+         */
+        CHA,
+
+        /**
+         * Points-to analysis with Spark: a virtual call may only target the overrides in the types the receiver may
+         * actually point to. Slower, but much more precise.
+         */
+        SPARK
+    }
+
+    /**
+     * The algorithm used to build the call graph the analysis relies on.
+     */
+    @Parameter( defaultValue = "CHA" )
+    protected CallGraphAlgorithm callGraphAlgorithm;
+
+    /**
+     * Reuse the call graph built by a previous analysis of the same classes, for instance by another analysis goal of
+     * the same build, instead of building it again. Call graphs are stored in {@link #callGraphCacheDirectory}, keyed
+     * by the content of the {@link #processDirectory} and {@link #sootClasspath} entries and by the options they
+     * depend on.
+     * <p/>
+     * Soot can only build a call graph from the whole program, so a stored call graph is only reused when no class
+     * changed, otherwise it is built from scratch. Restoring it still builds the bodies of the calling methods, but
+     * saves resolving the call targets, and with {@link CallGraphAlgorithm#SPARK} the points-to analysis, whose
+     * results the analyses do not use and which are not restored.
+     */
+    @Parameter( property = "soot.callGraphCache", defaultValue = "false" )
+    protected boolean callGraphCache;
+
+    /**
+     * The directory the call graphs are stored in, in {@link #callGraphCache} mode.
+     */
+    @Parameter( defaultValue = "${project.build.directory}/soot-callgraphs" )
+    protected File callGraphCacheDirectory;
+
+    /**
+     * The artifacts of the plugin, part of the {@link #callGraphCache} keys.
+     */
+    @Parameter( defaultValue = "${plugin.artifacts}", required = true, readonly = true )
+    protected List pluginArtifacts;
+
+    /**
+     * The call graph cache entry of the analysed classes, <tt>null</tt> if {@link #callGraphCache} is disabled.
+     */
+    private CallGraphCache callGraphCacheEntry;
+
+    /**
+     * @throws MojoExecutionException
+     * @throws MojoFailureException
+     */
+    @Override
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        G.reset();
+        configureLogging();
+        configureOptions();
+        configureAnalysis();
+        run();
+        report();
+    }
+
+    @Override
+    protected void configureOptions()
+        throws MojoExecutionException
+    {
+        super.configureOptions();
+        final Options options = Options.v();
+        options.set_whole_program( true );
+        options.set_output_format( Options.output_format_none );
+        if ( callGraphAlgorithm == CallGraphAlgorithm.SPARK )
+        {
+            options.setPhaseOption( "cg.spark", "enabled:true" );
+        }
+        if ( callGraphCache )
+        {
+            callGraphCacheEntry = new CallGraphCache( callGraphCacheDirectory, computeCallGraphKey() );
+            if ( callGraphCacheEntry.exists() )
+            {
+                options.setPhaseOption( "cg", "enabled:false" );
+            }
+        }
+    }
+
+    /**
+     * Compute the {@link #callGraphCache} key of the analysed classes.
+     *
+     * @return the key.
+     * @throws MojoExecutionException if an input could not be read.
+     */
+    protected String computeCallGraphKey()
+        throws MojoExecutionException
+    {
+        final Map<String, Serializable> captured = OptionValues.capture( this );
+        final Map<String, Serializable> options = new TreeMap<String, Serializable>();
+        for ( String option : CALL_GRAPH_KEY_OPTIONS )
+        {
+            options.put( option, captured.get( option ) );
+        }
+        options.put( "callGraphAlgorithm", callGraphAlgorithm );
+
+        final List<File> inputs = new ArrayList<File>();
+        if ( processDirectory != null )
+        {
+            for ( Object directory : processDirectory )
+            {
+                inputs.add( new File( directory.toString() ) );
+            }
+        }
+        if ( sootClasspath != null )
+        {
+            for ( String entry : sootClasspath.split( File.pathSeparator ) )
+            {
+                if ( entry.length() > 0 )
+                {
+                    inputs.add( new File( entry ) );
+                }
+            }
+        }
+        if ( dynamicDirectories != null )
+        {
+            for ( Object directory : dynamicDirectories )
+            {
+                inputs.add( new File( directory.toString() ) );
+            }
+        }
+
+        final List<String> versions = new ArrayList<String>();
+        for ( Iterator it = pluginArtifacts.iterator(); it.hasNext(); )
+        {
+            versions.add( ( (Artifact) it.next() ).getId() );
+        }
+        if ( prependClasspath )
+        {
+            versions.add( "java " + System.getProperty( "java.version" ) );
+        }
+
+        try
+        {
+            return BuildCache.computeKey( options, inputs, versions );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed computing call graph cache key", e );
+        }
+    }
+
+    protected void configureAnalysis()
+    {
+        if ( callGraphCacheEntry != null )
+        {
+            PackManager.v().getPack( "wjtp" ).add( new Transform( "wjtp.cgcache", new SceneTransformer()
+            {
+                @Override
+                protected void internalTransform( String phaseName, Map options )
+                {
+                    restoreOrStoreCallGraph();
+                }
+            } ) );
+        }
+        PackManager.v().getPack( "wjtp" ).add( new Transform( "wjtp." + getPhaseName(), new SceneTransformer()
+        {
+            @Override
+            protected void internalTransform( String phaseName, Map options )
+            {
+                analyze();
+            }
+        } ) );
+    }
+
+    /**
+     * Restore the call graph from the {@link #callGraphCache} if the <tt>cg</tt> pack was disabled for it, building it
+     * if the entry could not be restored, or store the call graph the <tt>cg</tt> pack built.
+     */
+    protected void restoreOrStoreCallGraph()
+    {
+        if ( !Scene.v().hasCallGraph() )
+        {
+            try
+            {
+                if ( callGraphCacheEntry.restore() )
+                {
+                    getLog().info( "Restored call graph from " + callGraphCacheEntry );
+                    return;
+                }
+                getLog().warn( "Call graph cache entry " + callGraphCacheEntry + " does not match the classes" );
+            }
+            catch ( IOException e )
+            {
+                getLog().warn( "Failed reading call graph cache entry " + callGraphCacheEntry, e );
+            }
+            Options.v().setPhaseOption( "cg", "enabled:true" );
+            PackManager.v().getPack( "cg" ).apply();
+        }
+        try
+        {
+            if ( !callGraphCacheEntry.store( Scene.v().getCallGraph() ) )
+            {
+                getLog().warn( "Call sites of the call graph could not be located, not storing it" );
+            }
+        }
+        catch ( IOException e )
+        {
+            // The cache is an optimization, failing to populate it must not fail the build.
+            getLog().warn( "Failed storing call graph cache entry " + callGraphCacheEntry, e );
+        }
+    }
+
+    /**
+     * Get the concrete methods of application classes reachable in the call graph, with their active bodies
+     * retrieved.
+     *
+     * @return the methods, sorted by signature.
+     */
+    protected List<SootMethod> getReachableApplicationMethods()
+    {
+        final List<SootMethod> methods = new ArrayList<SootMethod>();
+        for ( Iterator it = Scene.v().getReachableMethods().listener(); it.hasNext(); )
+        {
+            final SootMethod method = (SootMethod) it.next();
+            if ( method.isConcrete() && method.getDeclaringClass().isApplicationClass() )
+            {
+                method.retrieveActiveBody();
+                methods.add( method );
+            }
+        }
+        Collections.sort( methods, new Comparator<SootMethod>()
+        {
+            public int compare( SootMethod a, SootMethod b )
+            {
+                return a.getSignature().compareTo( b.getSignature() );
+            }
+        } );
+        return methods;
+    }
+
+    /**
+     * Get the source line number of a statement, available when {@link #keepLineNumber} is enabled.
+     *
+     * @param host the statement.
+     * @return the line number, or -1 if unknown.
+     */
+    protected static int getLineNumber( Host host )
+    {
+        final Tag tag = host.getTag( "LineNumberTag" );
+        return tag instanceof LineNumberTag ? ( (LineNumberTag) tag ).getLineNumber() : -1;
+    }
+
+    /**
+     * Open a report file in the {@link #reportsDirectory} for writing.
+     *
+     * @param name the report file name.
+     * @return the writer.
+     * @throws MojoExecutionException if the file could not be opened.
+     */
+    protected PrintWriter openReport( String name )
+        throws MojoExecutionException
+    {
+        final File file = new File( reportsDirectory, name );
+        file.getParentFile().mkdirs();
+        try
+        {
+            return new PrintWriter( new FileWriter( file ) );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed opening report " + file, e );
+        }
+    }
+
+    /**
+     * Get the name of the analysis sub-phase in the <tt>wjtp</tt> pack.
+     *
+     * @return the phase name, without the pack prefix.
+     */
+    protected abstract String getPhaseName();
+
+    /**
+     * Run the analysis on the {@link soot.Scene}, once the call graph is available.
+     */
+    protected abstract void analyze();
+
+    /**
+     * Write the analysis results, once Soot has finished.
+     *
+     * @throws MojoExecutionException if the results could not be written.
+     * @throws MojoFailureException   if the results do not meet the configured requirements.
+     */
+    protected abstract void report()
+        throws MojoExecutionException, MojoFailureException;
+}
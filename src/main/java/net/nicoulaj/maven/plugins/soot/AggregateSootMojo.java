@@ -0,0 +1,314 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+import soot.G;
+import soot.SourceLocator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Mojo that invokes <a href="http://www.sable.mcgill.ca/soot">Soot</a> once for the whole reactor.
+ * <p/>
+ * The output directories of all the modules of the reactor are analyzed together as application classes, so that
+ * whole program analyses and optimizations see calls across modules. The mojo only runs on the last project of the
+ * reactor, and Soot output is written back to the module each class comes from.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+@Mojo(
+    name = AggregateSootMojo.NAME,
+    defaultPhase = LifecyclePhase.COMPILE,
+    requiresDependencyResolution = ResolutionScope.COMPILE,
+    threadSafe = false )
+public final class AggregateSootMojo
+    extends AbstractSootMojo
+{
+
+    /**
+     * Mojo name.
+     */
+    public static final String NAME = "aggregate";
+
+    /**
+     * The projects of the reactor.
+     */
+    @Parameter( defaultValue = "${reactorProjects}", required = true, readonly = true )
+    protected List reactorProjects;
+
+    /**
+     * Artifact ids of the reactor modules that should not be analyzed. Modules with <tt>pom</tt> packaging are always
+     * excluded.
+     */
+    @Parameter
+    protected List excludedModules;
+
+    /**
+     * The directory Soot writes the aggregated output to, before it is dispatched to the modules.
+     */
+    @Parameter( defaultValue = "${project.build.directory}/soot-aggregate" )
+    protected File aggregateDirectory;
+
+    /**
+     * The directory where each module receives its Soot output, relative to the module build directory. Defaults to the
+     * module build output directory.
+     */
+    @Parameter
+    protected String moduleOutputDirectory;
+
+    /**
+     * @throws MojoExecutionException
+     * @throws MojoFailureException
+     */
+    @Override
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( !project.equals( reactorProjects.get( reactorProjects.size() - 1 ) ) )
+        {
+            getLog().info( "Skipping, the aggregate analysis runs on the last project of the reactor" );
+            return;
+        }
+
+        if ( outputJar )
+        {
+            throw new MojoExecutionException( "The " + NAME + " goal does not support the outputJar option" );
+        }
+
+        final List<MavenProject> modules = getModules();
+        if ( modules.isEmpty() )
+        {
+            getLog().info( "No module to analyze" );
+            return;
+        }
+
+        try
+        {
+            FileUtils.deleteDirectory( aggregateDirectory );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed cleaning " + aggregateDirectory, e );
+        }
+
+        G.reset();
+        configureLogging();
+        final Map<String, MavenProject> owners = getClassOwners( modules );
+        processDirectory = new ArrayList<String>();
+        final Set<String> classpath = new LinkedHashSet<String>();
+        for ( MavenProject module : modules )
+        {
+            processDirectory.add( module.getBuild().getOutputDirectory() );
+            classpath.addAll( getClasspathElements( module ) );
+        }
+        if ( sootClasspath != null )
+        {
+            classpath.add( sootClasspath );
+        }
+        sootClasspath = join( classpath );
+        outputDirectory = aggregateDirectory.getPath();
+        configureOptions();
+        run();
+        dispatch( owners );
+    }
+
+    /**
+     * Get the reactor modules to analyze.
+     *
+     * @return the modules, in reactor order.
+     */
+    private List<MavenProject> getModules()
+    {
+        final List<MavenProject> modules = new ArrayList<MavenProject>();
+        for ( Iterator it = reactorProjects.iterator(); it.hasNext(); )
+        {
+            final MavenProject module = (MavenProject) it.next();
+            if ( "pom".equals( module.getPackaging() )
+                || ( excludedModules != null && excludedModules.contains( module.getArtifactId() ) )
+                || !new File( module.getBuild().getOutputDirectory() ).isDirectory() )
+            {
+                getLog().debug( "Not analyzing module " + module.getId() );
+                continue;
+            }
+            modules.add( module );
+        }
+        return modules;
+    }
+
+    /**
+     * Get the module each class comes from.
+     *
+     * @param modules the modules.
+     * @return the modules indexed by class name.
+     */
+    private Map<String, MavenProject> getClassOwners( List<MavenProject> modules )
+    {
+        final Map<String, MavenProject> owners = new HashMap<String, MavenProject>();
+        for ( MavenProject module : modules )
+        {
+            for ( Object className : SourceLocator.v().getClassesUnder( module.getBuild().getOutputDirectory() ) )
+            {
+                if ( owners.containsKey( className ) )
+                {
+                    getLog().warn( "Class " + className + " is defined in both " + owners.get( className ).getId()
+                                   + " and " + module.getId() + ", keeping the first one" );
+                    continue;
+                }
+                owners.put( (String) className, module );
+            }
+        }
+        return owners;
+    }
+
+    /**
+     * Get the compile classpath of a module, falling back to its output directory if it was not resolved. The
+     * dependencies of the module are then missing from the Soot classpath, and the classes they define are phantoms.
+     *
+     * @param module the module.
+     * @return the classpath elements.
+     */
+    private List getClasspathElements( MavenProject module )
+    {
+        try
+        {
+            return module.getCompileClasspathElements();
+        }
+        catch ( DependencyResolutionRequiredException e )
+        {
+            getLog().warn( "Dependencies of " + module.getId() + " are not resolved, classes they define will be "
+                           + "phantoms: " + e.getMessage() );
+            final List<String> elements = new ArrayList<String>();
+            elements.add( module.getBuild().getOutputDirectory() );
+            return elements;
+        }
+    }
+
+    /**
+     * Copy the files produced by Soot to the modules the classes come from.
+     *
+     * @param owners the modules indexed by class name.
+     * @throws MojoExecutionException if a file could not be copied.
+     */
+    private void dispatch( Map<String, MavenProject> owners )
+        throws MojoExecutionException
+    {
+        if ( !aggregateDirectory.isDirectory() )
+        {
+            return;
+        }
+
+        final Map<MavenProject, Integer> counts = new HashMap<MavenProject, Integer>();
+        try
+        {
+            for ( Object file : FileUtils.getFileNames( aggregateDirectory, "**/*", null, false ) )
+            {
+                final String path = (String) file;
+                final MavenProject owner = owners.get( getClassName( path ) );
+                if ( owner == null )
+                {
+                    getLog().warn( "Could not find the module " + path + " comes from, leaving it in "
+                                   + aggregateDirectory );
+                    continue;
+                }
+                FileUtils.copyFile( new File( aggregateDirectory, path ),
+                                    new File( getModuleOutputDirectory( owner ), path ) );
+                counts.put( owner, counts.containsKey( owner ) ? counts.get( owner ) + 1 : 1 );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed dispatching Soot output to modules", e );
+        }
+
+        for ( Map.Entry<MavenProject, Integer> count : counts.entrySet() )
+        {
+            getLog().info( "Wrote " + count.getValue() + " files to " + count.getKey().getId() );
+        }
+    }
+
+    /**
+     * Get the directory a module receives its Soot output in.
+     *
+     * @param module the module.
+     * @return the directory.
+     */
+    private File getModuleOutputDirectory( MavenProject module )
+    {
+        if ( moduleOutputDirectory == null )
+        {
+            return new File( module.getBuild().getOutputDirectory() );
+        }
+        return new File( module.getBuild().getDirectory(), moduleOutputDirectory );
+    }
+
+    /**
+     * Get the name of the class a Soot output file was produced for.
+     * <p/>
+     * Soot writes class files in package directories, and other formats directly in the output directory, with the
+     * fully qualified class name as file name.
+     *
+     * @param path the path of the output file, relative to the output directory.
+     * @return the class name.
+     */
+    static String getClassName( String path )
+    {
+        String name = path.replace( '\\', '.' ).replace( '/', '.' );
+        if ( name.endsWith( ".gz" ) )
+        {
+            name = name.substring( 0, name.length() - ".gz".length() );
+        }
+        final int extension = name.lastIndexOf( '.' );
+        return extension < 0 ? name : name.substring( 0, extension );
+    }
+
+    /**
+     * Join classpath elements with the system path separator.
+     *
+     * @param elements the classpath elements.
+     * @return the classpath.
+     */
+    private static String join( Set<String> elements )
+    {
+        final StringBuilder classpath = new StringBuilder();
+        for ( String element : elements )
+        {
+            if ( classpath.length() > 0 )
+            {
+                classpath.append( File.pathSeparatorChar );
+            }
+            classpath.append( element );
+        }
+        return classpath.toString();
+    }
+}
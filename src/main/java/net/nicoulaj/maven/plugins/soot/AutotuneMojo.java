@@ -0,0 +1,430 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import soot.G;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mojo that runs Soot with several combinations of optimization options, benchmarks the transformed classes with
+ * <a href="http://openjdk.java.net/projects/code-tools/jmh/">JMH</a>, and recommends the fastest combination.
+ * <p/>
+ * Each combination of the {@link #autotuneOptions} is applied on top of the plugin configuration, and Soot writes the
+ * transformed classes to a directory of {@link #autotuneDirectory}. The {@link #benchmarks} are then run in a forked
+ * JVM, with the transformed classes first on the test classpath, and the <tt>gc</tt> profiler measuring allocations.
+ * The untransformed classes are benchmarked as a baseline, so the goal fails if the <tt>soot</tt> or <tt>watch</tt>
+ * goal already wrote its output over the {@link #processDirectory} classes: run it after a clean build instead. A
+ * combination Soot fails on is reported as not benchmarked, as is one whose benchmarks fail. Scores, allocations and
+ * speedups compared to the baseline are written to <tt>autotune.txt</tt> in {@link #reportsDirectory}, and the
+ * combination with the best geometric mean speedup is recommended.
+ * <p/>
+ * The benchmarks, usually in the test sources, must be compiled with the JMH annotation processor, and JMH must be a
+ * test dependency of the project.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @see JmhResults
+ * @since 0.2
+ */
+@Mojo(
+    name = AutotuneMojo.NAME,
+    requiresDependencyResolution = ResolutionScope.TEST,
+    threadSafe = false )
+public final class AutotuneMojo
+    extends AbstractSootMojo
+{
+
+    /**
+     * Mojo name.
+     */
+    public static final String NAME = "autotune";
+
+    /**
+     * The name of the report file.
+     */
+    public static final String REPORT_FILE = "autotune.txt";
+
+    /**
+     * The name of the baseline configuration, the untransformed classes.
+     */
+    public static final String BASELINE = "javac";
+
+    /**
+     * The options that can be tuned.
+     */
+    private static final List<String> TUNABLE_OPTIONS = Arrays.asList( "viaGrimp", "viaShimple", "optimize",
+                                                                        "throwAnalysis" );
+
+    /**
+     * The JMH arguments used when {@link #jmhArguments} is not set.
+     */
+    private static final List<String> DEFAULT_JMH_ARGUMENTS = Arrays.asList( "-f", "1", "-wi", "3", "-i", "5" );
+
+    /**
+     * The JMH benchmarks to run, as regular expressions matched against the benchmark names, for instance
+     * <tt>com\.acme\.bench\..*</tt>.
+     */
+    @Parameter( required = true )
+    protected List benchmarks;
+
+    /**
+     * The options tuned, all their combinations are benchmarked: <tt>viaGrimp</tt>, <tt>viaShimple</tt> and
+     * <tt>optimize</tt> are toggled, <tt>throwAnalysis</tt> switches between <tt>UNIT</tt> and <tt>PEDANTIC</tt>.
+     * Defaults to all of them.
+     */
+    @Parameter
+    protected List autotuneOptions;
+
+    /**
+     * The arguments passed to JMH, defaults to one fork, 3 warmup iterations and 5 measurement iterations.
+     */
+    @Parameter
+    protected List jmhArguments;
+
+    /**
+     * The arguments passed to the JVM running JMH.
+     */
+    @Parameter
+    protected List benchmarkJvmArgs;
+
+    /**
+     * The directory the transformed classes and the JMH results of each combination are written to.
+     */
+    @Parameter( defaultValue = "${project.build.directory}/soot-autotune" )
+    protected File autotuneDirectory;
+
+    /**
+     * @throws MojoExecutionException if the benchmarks could not be run or the report could not be written.
+     * @throws MojoFailureException   if the {@link #processDirectory} classes were already transformed by Soot.
+     */
+    @Override
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( processDirectory != null )
+        {
+            for ( Object directory : processDirectory )
+            {
+                final File marker = getInPlaceMarker( new File( directory.toString() ) );
+                if ( marker.isFile() )
+                {
+                    throw new MojoFailureException( directory + " holds Soot output rather than the classes as "
+                                                    + "compiled (see " + marker + "), run the " + NAME
+                                                    + " goal after a clean build" );
+                }
+            }
+        }
+
+        final List<String> classpath;
+        try
+        {
+            classpath = new ArrayList<String>( project.getTestClasspathElements() );
+        }
+        catch ( DependencyResolutionRequiredException e )
+        {
+            throw new MojoExecutionException( "Failed resolving the test classpath", e );
+        }
+
+        final Map<String, Map<String, JmhResults.Score>> results =
+            new LinkedHashMap<String, Map<String, JmhResults.Score>>();
+        results.put( BASELINE, benchmark( BASELINE, null, classpath ) );
+
+        final Map<String, Map<String, Serializable>> configurations =
+            new LinkedHashMap<String, Map<String, Serializable>>();
+        final Map<String, Serializable> original = OptionValues.capture( this );
+        try
+        {
+            for ( Map<String, Serializable> configuration : getConfigurations() )
+            {
+                final String name = getName( configuration );
+                configurations.put( name, configuration );
+                final File classes = new File( new File( autotuneDirectory, name ), "classes" );
+                OptionValues.apply( this, original );
+                OptionValues.apply( this, configuration );
+                outputDirectory = classes.getPath();
+                outputFormat = OutputFormat.CLASS;
+                outputJar = false;
+                getLog().info( "Running Soot with " + name );
+                G.reset();
+                configureLogging();
+                configureOptions();
+                try
+                {
+                    run();
+                }
+                catch ( MojoFailureException e )
+                {
+                    getLog().warn( "Soot failed for " + name + ", not benchmarking it", e );
+                    results.put( name, new LinkedHashMap<String, JmhResults.Score>() );
+                    continue;
+                }
+                catch ( RuntimeException e )
+                {
+                    getLog().warn( "Soot failed for " + name + ", not benchmarking it", e );
+                    results.put( name, new LinkedHashMap<String, JmhResults.Score>() );
+                    continue;
+                }
+                results.put( name, benchmark( name, classes, classpath ) );
+            }
+        }
+        finally
+        {
+            OptionValues.apply( this, original );
+        }
+
+        report( results, configurations );
+    }
+
+    /**
+     * Get the combinations of the {@link #autotuneOptions}.
+     *
+     * @return the option values of each combination, indexed by field name.
+     * @throws MojoExecutionException if an option cannot be tuned.
+     */
+    protected List<Map<String, Serializable>> getConfigurations()
+        throws MojoExecutionException
+    {
+        final List<String> tuned = new ArrayList<String>();
+        for ( Object option : autotuneOptions == null ? TUNABLE_OPTIONS : autotuneOptions )
+        {
+            if ( !TUNABLE_OPTIONS.contains( option.toString() ) )
+            {
+                throw new MojoExecutionException( "Cannot tune option " + option + ", tunable options are "
+                                                  + TUNABLE_OPTIONS );
+            }
+            tuned.add( option.toString() );
+        }
+
+        final List<Map<String, Serializable>> configurations = new ArrayList<Map<String, Serializable>>();
+        for ( int mask = 0; mask < 1 << tuned.size(); mask++ )
+        {
+            final Map<String, Serializable> configuration = new LinkedHashMap<String, Serializable>();
+            for ( int i = 0; i < tuned.size(); i++ )
+            {
+                final boolean enabled = ( mask & ( 1 << i ) ) != 0;
+                configuration.put( tuned.get( i ), "throwAnalysis".equals( tuned.get( i ) )
+                    ? enabled ? ThrowAnalysis.PEDANTIC : ThrowAnalysis.UNIT
+                    : Boolean.valueOf( enabled ) );
+            }
+            configurations.add( configuration );
+        }
+        return configurations;
+    }
+
+    /**
+     * Get the name of a combination of options, also used as its directory name.
+     *
+     * @param configuration the option values.
+     * @return the name.
+     */
+    private static String getName( Map<String, Serializable> configuration )
+    {
+        final StringBuilder name = new StringBuilder();
+        for ( Map.Entry<String, Serializable> option : configuration.entrySet() )
+        {
+            if ( Boolean.TRUE.equals( option.getValue() ) )
+            {
+                name.append( name.length() > 0 ? "+" : "" ).append( option.getKey() );
+            }
+            else if ( option.getValue() instanceof ThrowAnalysis && option.getValue() != ThrowAnalysis.UNIT )
+            {
+                name.append( name.length() > 0 ? "+" : "" ).append( option.getKey() ).append( '-' ).append(
+                    option.getValue() );
+            }
+        }
+        return name.length() > 0 ? name.toString() : "soot";
+    }
+
+    /**
+     * Run the benchmarks in a forked JVM.
+     *
+     * @param name      the configuration name.
+     * @param classes   the transformed classes directory, put first on the classpath, or <tt>null</tt> for the
+     *                  baseline.
+     * @param classpath the test classpath.
+     * @return the scores indexed by benchmark, empty if the benchmarks failed.
+     * @throws MojoExecutionException if JMH could not be started or its results not be read.
+     */
+    private Map<String, JmhResults.Score> benchmark( String name, File classes, List<String> classpath )
+        throws MojoExecutionException
+    {
+        final File directory = new File( autotuneDirectory, name );
+        final File results = new File( directory, "jmh.csv" );
+        directory.mkdirs();
+        results.delete();
+
+        final StringBuilder path = new StringBuilder( classes == null ? "" : classes.getAbsolutePath() );
+        for ( String element : classpath )
+        {
+            path.append( path.length() > 0 ? File.pathSeparator : "" ).append( element );
+        }
+
+        final List<String> command = new ArrayList<String>();
+        command.add( new File( System.getProperty( "java.home" ), "bin" + File.separator + "java" ).getPath() );
+        if ( benchmarkJvmArgs != null )
+        {
+            for ( Object argument : benchmarkJvmArgs )
+            {
+                command.add( argument.toString() );
+            }
+        }
+        command.addAll( Arrays.asList( "-cp", path.toString(), "org.openjdk.jmh.Main" ) );
+        for ( Object benchmark : benchmarks )
+        {
+            command.add( benchmark.toString() );
+        }
+        command.addAll( Arrays.asList( "-prof", "gc", "-rf", "csv", "-rff", results.getAbsolutePath() ) );
+        for ( Object argument : jmhArguments == null ? DEFAULT_JMH_ARGUMENTS : jmhArguments )
+        {
+            command.add( argument.toString() );
+        }
+
+        getLog().info( "Benchmarking " + name );
+        try
+        {
+            final ProcessBuilder builder = new ProcessBuilder( command );
+            builder.redirectErrorStream( true );
+            getLog().debug( "Starting JMH: " + command );
+            final Process process = builder.start();
+            final BufferedReader reader = new BufferedReader( new InputStreamReader( process.getInputStream() ) );
+            final PrintWriter writer = new PrintWriter( new FileWriter( new File( directory, "jmh.log" ) ) );
+            try
+            {
+                String line;
+                while ( ( line = reader.readLine() ) != null )
+                {
+                    getLog().debug( "[" + name + "] " + line );
+                    writer.println( line );
+                }
+            }
+            finally
+            {
+                writer.close();
+                reader.close();
+            }
+            if ( process.waitFor() != 0 || !results.isFile() )
+            {
+                getLog().warn( "Benchmarks failed for " + name + ", see " + new File( directory, "jmh.log" ) );
+                return new LinkedHashMap<String, JmhResults.Score>();
+            }
+            return JmhResults.read( results );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed running benchmarks for " + name, e );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException( "Interrupted while running benchmarks for " + name, e );
+        }
+    }
+
+    /**
+     * Write the results and the recommended configuration.
+     *
+     * @param results        the scores of each configuration, the baseline first.
+     * @param configurations the option values of each configuration.
+     * @throws MojoExecutionException if the report could not be written.
+     */
+    private void report( Map<String, Map<String, JmhResults.Score>> results,
+                         Map<String, Map<String, Serializable>> configurations )
+        throws MojoExecutionException
+    {
+        final Map<String, JmhResults.Score> baseline = results.get( BASELINE );
+        String best = null;
+        double bestSpeedup = Double.NaN;
+        final File report = new File( reportsDirectory, REPORT_FILE );
+        report.getParentFile().mkdirs();
+        try
+        {
+            final PrintWriter writer = new PrintWriter( new FileWriter( report ) );
+            try
+            {
+                writer.println(
+                    "configuration\tbenchmark\tmode\tscore\terror\tunit\tallocation-bytes-per-op\tspeedup" );
+                for ( Map.Entry<String, Map<String, JmhResults.Score>> configuration : results.entrySet() )
+                {
+                    for ( Map.Entry<String, JmhResults.Score> entry : configuration.getValue().entrySet() )
+                    {
+                        final JmhResults.Score score = entry.getValue();
+                        final JmhResults.Score reference = baseline.get( entry.getKey() );
+                        writer.println( configuration.getKey() + "\t" + entry.getKey() + "\t" + score.getMode() + "\t"
+                                        + score.getValue() + "\t" + score.getError() + "\t" + score.getUnit() + "\t"
+                                        + score.getAllocation() + "\t"
+                                        + ( reference == null ? Double.NaN : score.getSpeedup( reference ) ) );
+                    }
+
+                    final double speedup = JmhResults.getMeanSpeedup( baseline, configuration.getValue() );
+                    if ( !BASELINE.equals( configuration.getKey() ) )
+                    {
+                        getLog().info( String.format( "%s: %.3fx", configuration.getKey(), speedup ) );
+                        if ( !Double.isNaN( speedup ) && ( best == null || speedup > bestSpeedup ) )
+                        {
+                            best = configuration.getKey();
+                            bestSpeedup = speedup;
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed writing " + report, e );
+        }
+
+        if ( best == null )
+        {
+            getLog().warn( "No configuration could be benchmarked, see " + autotuneDirectory );
+            return;
+        }
+        getLog().info( "Best configuration: " + best + String.format( " (%.3fx the javac output)", bestSpeedup ) );
+        if ( bestSpeedup <= 1 )
+        {
+            getLog().info( "No configuration is faster than the javac output" );
+        }
+        else
+        {
+            getLog().info( "Recommended soot goal configuration:" );
+            for ( Map.Entry<String, Serializable> option : configurations.get( best ).entrySet() )
+            {
+                getLog().info( "  <" + option.getKey() + ">" + option.getValue() + "</" + option.getKey() + ">" );
+            }
+        }
+        getLog().info( "Results written to " + report );
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Compares the metrics of a Soot execution against a baseline.
+ * <p/>
+ * The baseline is a properties file mapping metric names (see {@link RunMetrics}) to reference values. Only the
+ * metrics listed in the baseline are compared. For all of them, lower is better: a metric regresses when its value
+ * exceeds the baseline value by more than its tolerance, expressed in percent, or when it was not recorded.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class BaselineComparison
+{
+
+    /**
+     * The metrics written to a new baseline file.
+     */
+    public static final List<String> DEFAULT_METRICS = Collections.unmodifiableList( Arrays.asList(
+        "time.total.ms", "heap.peak.bytes", "output.bytes", "classes.phantom" ) );
+
+    /**
+     * The result of the comparison of a metric.
+     */
+    public static final class Row
+    {
+
+        private final String metric;
+
+        private final double baseline;
+
+        private final Double current;
+
+        private final double tolerance;
+
+        Row( String metric, double baseline, Double current, double tolerance )
+        {
+            this.metric = metric;
+            this.baseline = baseline;
+            this.current = current;
+            this.tolerance = tolerance;
+        }
+
+        public String getMetric()
+        {
+            return metric;
+        }
+
+        public double getBaseline()
+        {
+            return baseline;
+        }
+
+        /**
+         * @return the current value, or {@code null} if the metric was not recorded.
+         */
+        public Double getCurrent()
+        {
+            return current;
+        }
+
+        public double getTolerance()
+        {
+            return tolerance;
+        }
+
+        /**
+         * @return the relative change from the baseline, in percent, or {@code null} if it cannot be computed.
+         */
+        public Double getDelta()
+        {
+            if ( current == null )
+            {
+                return null;
+            }
+            if ( baseline == 0 )
+            {
+                return current == 0 ? 0d : null;
+            }
+            return ( current - baseline ) * 100 / baseline;
+        }
+
+        /**
+         * @return whether the metric was not recorded.
+         */
+        public boolean isMissing()
+        {
+            return current == null;
+        }
+
+        /**
+         * @return whether the metric exceeds its tolerance or was not recorded.
+         */
+        public boolean isRegression()
+        {
+            return current == null || current > baseline * ( 1 + tolerance / 100 );
+        }
+    }
+
+    /**
+     * The comparison results, sorted by metric name.
+     */
+    private final List<Row> rows = new ArrayList<Row>();
+
+    /**
+     * Compare metrics against a baseline.
+     *
+     * @param baseline         the baseline values.
+     * @param current          the current values.
+     * @param defaultTolerance the tolerance of metrics not in {@code tolerances}, in percent.
+     * @param tolerances       the tolerances per metric name, in percent, may be {@code null}.
+     * @throws IllegalArgumentException if a baseline value or tolerance is not a number.
+     */
+    public BaselineComparison( Properties baseline, Map<String, Number> current, double defaultTolerance,
+                               Map<String, String> tolerances )
+    {
+        for ( String metric : new TreeSet<String>( baseline.stringPropertyNames() ) )
+        {
+            final Number value = current.get( metric );
+            final String tolerance = tolerances == null ? null : tolerances.get( metric );
+            rows.add( new Row( metric, parse( "value", metric, baseline.getProperty( metric ) ),
+                               value == null ? null : value.doubleValue(),
+                               tolerance == null ? defaultTolerance : parse( "tolerance", metric, tolerance ) ) );
+        }
+    }
+
+    /**
+     * Parse a number.
+     *
+     * @param kind   what the number is, for the error message.
+     * @param metric the metric the number applies to, for the error message.
+     * @param value  the text to parse.
+     * @return the number.
+     * @throws IllegalArgumentException if the text is not a number.
+     */
+    private static double parse( String kind, String metric, String value )
+    {
+        try
+        {
+            return Double.parseDouble( value.trim() );
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new IllegalArgumentException( "Invalid " + kind + " '" + value + "' for metric " + metric, e );
+        }
+    }
+
+    public List<Row> getRows()
+    {
+        return Collections.unmodifiableList( rows );
+    }
+
+    /**
+     * @return whether any metric regressed.
+     */
+    public boolean hasRegressions()
+    {
+        for ( Row row : rows )
+        {
+            if ( row.isRegression() )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Format the comparison as a text table.
+     *
+     * @return the table lines.
+     */
+    public List<String> format()
+    {
+        final String format = "%-40s %15s %15s %9s %9s  %s";
+        final List<String> lines = new ArrayList<String>();
+        lines.add( String.format( format, "Metric", "Baseline", "Current", "Delta", "Tolerance", "Status" ) );
+        for ( Row row : rows )
+        {
+            final Double delta = row.getDelta();
+            final String status = row.isMissing() ? "MISSING" : row.isRegression() ? "REGRESSION" : "OK";
+            lines.add( String.format( format, row.getMetric(), formatNumber( row.getBaseline() ),
+                                      row.getCurrent() == null ? "-" : formatNumber( row.getCurrent() ),
+                                      delta == null ? "-" : String.format( "%+.1f%%", delta ),
+                                      String.format( "%.1f%%", row.getTolerance() ),
+                                      status ) );
+        }
+        return lines;
+    }
+
+    /**
+     * Load a baseline file.
+     *
+     * @param file the file.
+     * @return the baseline values.
+     * @throws IOException if the file could not be read.
+     */
+    public static Properties load( File file )
+        throws IOException
+    {
+        final Properties baseline = new Properties();
+        final InputStream in = new FileInputStream( file );
+        try
+        {
+            baseline.load( in );
+        }
+        finally
+        {
+            in.close();
+        }
+        return baseline;
+    }
+
+    /**
+     * Write a baseline file from the current metrics.
+     * <p/>
+     * If the file already exists, only the metrics it lists are updated, otherwise {@link #DEFAULT_METRICS} are
+     * written.
+     *
+     * @param file    the file.
+     * @param current the current values.
+     * @throws IOException if the file could not be read or written.
+     */
+    public static void update( File file, Map<String, Number> current )
+        throws IOException
+    {
+        final Properties baseline = file.isFile() ? load( file ) : new Properties();
+        final Iterable<String> metrics = file.isFile() ? baseline.stringPropertyNames() : DEFAULT_METRICS;
+        for ( String metric : metrics )
+        {
+            final Number value = current.get( metric );
+            if ( value != null )
+            {
+                baseline.setProperty( metric, String.valueOf( value ) );
+            }
+        }
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        final OutputStream out = new FileOutputStream( file );
+        try
+        {
+            baseline.store( out, "Soot execution baseline, see soot-maven-plugin checkBaseline option" );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Format a metric value, without decimals for whole numbers.
+     *
+     * @param value the value.
+     * @return the formatted value.
+     */
+    private static String formatNumber( double value )
+    {
+        return value == Math.rint( value ) ? String.valueOf( (long) value ) : String.format( "%.2f", value );
+    }
+}
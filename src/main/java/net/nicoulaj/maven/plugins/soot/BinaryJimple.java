@@ -0,0 +1,1667 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.codehaus.plexus.util.IOUtil;
+import soot.ArrayType;
+import soot.Body;
+import soot.BodyTransformer;
+import soot.BooleanType;
+import soot.ByteType;
+import soot.CharType;
+import soot.ClassProvider;
+import soot.ClassSource;
+import soot.CoffiClassProvider;
+import soot.Dependencies;
+import soot.DoubleType;
+import soot.FloatType;
+import soot.IntType;
+import soot.JimpleClassProvider;
+import soot.Local;
+import soot.LongType;
+import soot.MethodSource;
+import soot.NullType;
+import soot.PackManager;
+import soot.RefType;
+import soot.Scene;
+import soot.ShortType;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootFieldRef;
+import soot.SootMethod;
+import soot.SootMethodRef;
+import soot.SootResolver;
+import soot.SourceLocator;
+import soot.Transform;
+import soot.Trap;
+import soot.Type;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.VoidType;
+import soot.jimple.AddExpr;
+import soot.jimple.AndExpr;
+import soot.jimple.ArrayRef;
+import soot.jimple.AssignStmt;
+import soot.jimple.BinopExpr;
+import soot.jimple.BreakpointStmt;
+import soot.jimple.CastExpr;
+import soot.jimple.CaughtExceptionRef;
+import soot.jimple.ClassConstant;
+import soot.jimple.CmpExpr;
+import soot.jimple.CmpgExpr;
+import soot.jimple.CmplExpr;
+import soot.jimple.DivExpr;
+import soot.jimple.DoubleConstant;
+import soot.jimple.EnterMonitorStmt;
+import soot.jimple.EqExpr;
+import soot.jimple.ExitMonitorStmt;
+import soot.jimple.FieldRef;
+import soot.jimple.FloatConstant;
+import soot.jimple.GeExpr;
+import soot.jimple.GotoStmt;
+import soot.jimple.GtExpr;
+import soot.jimple.IdentityStmt;
+import soot.jimple.IfStmt;
+import soot.jimple.InstanceFieldRef;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InstanceOfExpr;
+import soot.jimple.IntConstant;
+import soot.jimple.InterfaceInvokeExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.InvokeStmt;
+import soot.jimple.Jimple;
+import soot.jimple.JimpleBody;
+import soot.jimple.LeExpr;
+import soot.jimple.LengthExpr;
+import soot.jimple.LongConstant;
+import soot.jimple.LookupSwitchStmt;
+import soot.jimple.LtExpr;
+import soot.jimple.MulExpr;
+import soot.jimple.NeExpr;
+import soot.jimple.NegExpr;
+import soot.jimple.NewArrayExpr;
+import soot.jimple.NewExpr;
+import soot.jimple.NewMultiArrayExpr;
+import soot.jimple.NopStmt;
+import soot.jimple.NullConstant;
+import soot.jimple.OrExpr;
+import soot.jimple.ParameterRef;
+import soot.jimple.RemExpr;
+import soot.jimple.RetStmt;
+import soot.jimple.ReturnStmt;
+import soot.jimple.ReturnVoidStmt;
+import soot.jimple.ShlExpr;
+import soot.jimple.ShrExpr;
+import soot.jimple.SpecialInvokeExpr;
+import soot.jimple.StaticFieldRef;
+import soot.jimple.StaticInvokeExpr;
+import soot.jimple.StringConstant;
+import soot.jimple.SubExpr;
+import soot.jimple.TableSwitchStmt;
+import soot.jimple.ThisRef;
+import soot.jimple.ThrowStmt;
+import soot.jimple.UshrExpr;
+import soot.jimple.VirtualInvokeExpr;
+import soot.jimple.XorExpr;
+import soot.tagkit.LineNumberTag;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Integration of the binary Jimple format (see {@link BinaryJimpleCodec}) with Soot, as an output format and as a
+ * source format.
+ * <p/>
+ * Binary Jimple files are named like Soot names Jimple files, with the <tt>.bjimple</tt> extension instead of
+ * <tt>.jimple</tt>.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class BinaryJimple
+{
+
+    /**
+     * Name of the phase writing binary Jimple files.
+     */
+    public static final String WRITER_PHASE = "jap.bjimple";
+
+    /**
+     * Type tags, after the tags of the primitive types (see {@link #getPrimitiveTypes()}).
+     */
+    private static final int TYPE_REF = 10, TYPE_ARRAY = 11;
+
+    /**
+     * Unit opcodes.
+     */
+    private static final int UNIT_ASSIGN = 0, UNIT_IDENTITY = 1, UNIT_INVOKE = 2, UNIT_IF = 3, UNIT_GOTO = 4,
+        UNIT_RETURN = 5, UNIT_RETURN_VOID = 6, UNIT_THROW = 7, UNIT_TABLE_SWITCH = 8, UNIT_LOOKUP_SWITCH = 9,
+        UNIT_ENTER_MONITOR = 10, UNIT_EXIT_MONITOR = 11, UNIT_NOP = 12, UNIT_BREAKPOINT = 13, UNIT_RET = 14;
+
+    /**
+     * Value tags. Binary operations are tagged from {@link #VALUE_BINOP} on, in the order of {@link #BINOPS}.
+     */
+    private static final int VALUE_LOCAL = 0, VALUE_INT = 1, VALUE_LONG = 2, VALUE_FLOAT = 3, VALUE_DOUBLE = 4,
+        VALUE_STRING = 5, VALUE_NULL = 6, VALUE_CLASS = 7, VALUE_NEG = 8, VALUE_LENGTH = 9, VALUE_CAST = 10,
+        VALUE_INSTANCE_OF = 11, VALUE_NEW = 12, VALUE_NEW_ARRAY = 13, VALUE_NEW_MULTI_ARRAY = 14,
+        VALUE_STATIC_INVOKE = 15, VALUE_VIRTUAL_INVOKE = 16, VALUE_SPECIAL_INVOKE = 17, VALUE_INTERFACE_INVOKE = 18,
+        VALUE_ARRAY_REF = 19, VALUE_INSTANCE_FIELD = 20, VALUE_STATIC_FIELD = 21, VALUE_PARAMETER = 22,
+        VALUE_THIS = 23, VALUE_CAUGHT_EXCEPTION = 24, VALUE_BINOP = 32;
+
+    /**
+     * The binary operations, in the order of their tags.
+     */
+    private static final Class[] BINOPS = {
+        AddExpr.class, AndExpr.class, CmpExpr.class, CmpgExpr.class, CmplExpr.class, DivExpr.class, EqExpr.class,
+        GeExpr.class, GtExpr.class, LeExpr.class, LtExpr.class, MulExpr.class, NeExpr.class, OrExpr.class,
+        RemExpr.class, ShlExpr.class, ShrExpr.class, SubExpr.class, UshrExpr.class, XorExpr.class };
+
+    /**
+     * The number of binary operations.
+     */
+    private static final int BINOP_COUNT = BINOPS.length;
+
+    /**
+     * Utility class, not instantiable.
+     */
+    private BinaryJimple()
+    {
+    }
+
+    /**
+     * Make Soot write binary Jimple files to its output directory.
+     * <p/>
+     * A class is written as soon as the body packs have been applied to all its concrete methods. Classes without
+     * concrete methods are written by {@link #writeClassesWithoutBodies()}, which must be called once Soot completed.
+     * Soot must be configured with no output format.
+     */
+    public static void installWriter()
+    {
+        PackManager.v().getPack( "jap" ).add( new Transform( WRITER_PHASE, new Writer() ) );
+    }
+
+    /**
+     * Write the application classes without concrete methods, which are not seen by the body packs.
+     *
+     * @throws IOException if a file could not be written.
+     */
+    public static void writeClassesWithoutBodies()
+        throws IOException
+    {
+        for ( Iterator it = Scene.v().getApplicationClasses().iterator(); it.hasNext(); )
+        {
+            final SootClass sootClass = (SootClass) it.next();
+            if ( !sootClass.isPhantom() && getConcreteMethodCount( sootClass ) == 0 )
+            {
+                write( sootClass );
+            }
+        }
+    }
+
+    /**
+     * Make Soot look for classes in binary Jimple files first, then in class files, then in Jimple files.
+     * <p/>
+     * Resolving a class from a binary Jimple file only decodes its declarations. Each method body is decoded alone,
+     * when Soot first needs it, directly into Jimple statements, so bodies Soot never needs are never decoded.
+     */
+    public static void installLoader()
+    {
+        final List<ClassProvider> providers = new LinkedList<ClassProvider>();
+        providers.add( new Loader() );
+        providers.add( new CoffiClassProvider() );
+        providers.add( new JimpleClassProvider() );
+        SourceLocator.v().setClassProviders( providers );
+    }
+
+    /**
+     * Get the names of the classes defined by the binary Jimple files in a directory.
+     *
+     * @param directory the directory.
+     * @return the fully qualified class names.
+     */
+    public static List<String> getClassesUnder( File directory )
+    {
+        final List<String> classes = new ArrayList<String>();
+        final File[] files = directory.listFiles();
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                final String name = file.getName();
+                if ( file.isFile() && name.endsWith( BinaryJimpleCodec.EXTENSION ) )
+                {
+                    classes.add( name.substring( 0, name.length() - BinaryJimpleCodec.EXTENSION.length() ) );
+                }
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Write a class to a binary Jimple file in the Soot output directory.
+     *
+     * @param sootClass the class, with active bodies for all its concrete methods.
+     * @throws IOException if the file could not be written.
+     */
+    private static void write( SootClass sootClass )
+        throws IOException
+    {
+        final String fileName = sootClass.getName() + BinaryJimpleCodec.EXTENSION;
+        final File file = new File( SourceLocator.v().getOutputDir(), fileName );
+        file.getParentFile().mkdirs();
+        final OutputStream out = new FileOutputStream( file );
+        try
+        {
+            out.write( encode( sootClass ) );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Encode a class.
+     * <p/>
+     * The header section holds the names of the classes the class depends on, then its declarations. Each method body
+     * is encoded in its own body section: locals, then units with their line numbers, branch targets being unit
+     * indexes, then traps.
+     *
+     * @param sootClass the class, with active bodies for all its concrete methods.
+     * @return the binary encoding.
+     */
+    static byte[] encode( SootClass sootClass )
+    {
+        final StructureEncoder encoder = new StructureEncoder();
+        final BinaryJimpleCodec.Encoder out = encoder.out;
+
+        final Set<String> dependencies = getDependencies( sootClass );
+        out.writeVarint( dependencies.size() );
+        for ( String name : dependencies )
+        {
+            out.writeString( name );
+        }
+
+        out.writeVarint( sootClass.getModifiers() );
+        out.writeVarint( sootClass.hasSuperclass() ? 1 : 0 );
+        if ( sootClass.hasSuperclass() )
+        {
+            out.writeString( sootClass.getSuperclass().getName() );
+        }
+        out.writeVarint( sootClass.getInterfaceCount() );
+        for ( Iterator it = sootClass.getInterfaces().iterator(); it.hasNext(); )
+        {
+            out.writeString( ( (SootClass) it.next() ).getName() );
+        }
+
+        out.writeVarint( sootClass.getFieldCount() );
+        for ( Iterator it = sootClass.getFields().iterator(); it.hasNext(); )
+        {
+            final SootField field = (SootField) it.next();
+            out.writeVarint( field.getModifiers() );
+            out.writeString( field.getName() );
+            encoder.writeType( field.getType() );
+        }
+
+        out.writeVarint( sootClass.getMethodCount() );
+        for ( Iterator it = sootClass.methodIterator(); it.hasNext(); )
+        {
+            final SootMethod method = (SootMethod) it.next();
+            out.writeVarint( method.getModifiers() );
+            out.writeString( method.getName() );
+            encoder.writeTypes( method.getParameterTypes() );
+            encoder.writeType( method.getReturnType() );
+            out.writeVarint( method.getExceptions().size() );
+            for ( Iterator exceptions = method.getExceptions().iterator(); exceptions.hasNext(); )
+            {
+                out.writeString( ( (SootClass) exceptions.next() ).getName() );
+            }
+            if ( method.isConcrete() )
+            {
+                out.writeVarint( encoder.writeBody( method.retrieveActiveBody() ) + 1 );
+            }
+            else
+            {
+                out.writeVarint( 0 );
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Resolve a class from its binary encoding.
+     * <p/>
+     * Only the declarations are decoded, the methods with a body get a {@link MethodSource} decoding it when Soot
+     * first needs it.
+     *
+     * @param bytes     the binary encoding.
+     * @param sootClass the class to resolve.
+     * @return the dependencies of the class.
+     * @throws IOException if the encoding is invalid.
+     */
+    static Dependencies decode( byte[] bytes, SootClass sootClass )
+        throws IOException
+    {
+        final BinaryJimpleCodec.Decoder decoder = new BinaryJimpleCodec.Decoder( bytes );
+        final StructureDecoder structure = new StructureDecoder( decoder.readHeader() );
+        final BinaryJimpleCodec.Reader in = structure.in;
+        final Dependencies dependencies = new Dependencies();
+
+        final Set<String> names = new HashSet<String>();
+        for ( int i = in.readCount(); i > 0; i-- )
+        {
+            names.add( in.readString() );
+        }
+
+        sootClass.setModifiers( in.readVarint() );
+        if ( in.readVarint() != 0 )
+        {
+            final String name = in.readString();
+            sootClass.setSuperclass( SootResolver.v().makeClassRef( name ) );
+            dependencies.typesToHierarchy.add( RefType.v( name ) );
+        }
+        for ( int i = in.readCount(); i > 0; i-- )
+        {
+            final String name = in.readString();
+            sootClass.addInterface( SootResolver.v().makeClassRef( name ) );
+            dependencies.typesToHierarchy.add( RefType.v( name ) );
+        }
+
+        for ( int i = in.readCount(); i > 0; i-- )
+        {
+            final int modifiers = in.readVarint();
+            final String name = in.readString();
+            sootClass.addField( new SootField( name, structure.readType(), modifiers ) );
+        }
+
+        for ( int i = in.readCount(); i > 0; i-- )
+        {
+            final int modifiers = in.readVarint();
+            final String name = in.readString();
+            final List parameterTypes = structure.readTypes();
+            final Type returnType = structure.readType();
+            final List<SootClass> exceptions = new ArrayList<SootClass>();
+            for ( int j = in.readCount(); j > 0; j-- )
+            {
+                exceptions.add( SootResolver.v().makeClassRef( in.readString() ) );
+            }
+            final SootMethod method = new SootMethod( name, parameterTypes, returnType, modifiers, exceptions );
+            sootClass.addMethod( method );
+            final int body = in.readCount();
+            if ( body > 0 )
+            {
+                if ( body > decoder.getBodyCount() )
+                {
+                    throw new IOException( "Invalid body index " + ( body - 1 ) );
+                }
+                method.setSource( new BodySource( decoder, body - 1 ) );
+            }
+        }
+
+        for ( String name : names )
+        {
+            dependencies.typesToSignature.add( RefType.v( name ) );
+        }
+        return dependencies;
+    }
+
+    /**
+     * Get the names of the classes a class refers to, in its declarations and its method bodies.
+     *
+     * @param sootClass the class, with active bodies for all its concrete methods.
+     * @return the class names.
+     */
+    private static Set<String> getDependencies( SootClass sootClass )
+    {
+        final Set<String> names = new TreeSet<String>();
+        if ( sootClass.hasSuperclass() )
+        {
+            names.add( sootClass.getSuperclass().getName() );
+        }
+        for ( Iterator it = sootClass.getInterfaces().iterator(); it.hasNext(); )
+        {
+            names.add( ( (SootClass) it.next() ).getName() );
+        }
+        for ( Iterator it = sootClass.getFields().iterator(); it.hasNext(); )
+        {
+            addDependency( names, ( (SootField) it.next() ).getType() );
+        }
+        for ( Iterator it = sootClass.methodIterator(); it.hasNext(); )
+        {
+            final SootMethod method = (SootMethod) it.next();
+            addDependency( names, method.getReturnType() );
+            for ( Iterator types = method.getParameterTypes().iterator(); types.hasNext(); )
+            {
+                addDependency( names, (Type) types.next() );
+            }
+            for ( Iterator exceptions = method.getExceptions().iterator(); exceptions.hasNext(); )
+            {
+                names.add( ( (SootClass) exceptions.next() ).getName() );
+            }
+            if ( method.hasActiveBody() )
+            {
+                addDependencies( names, method.getActiveBody() );
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Add the names of the classes a method body refers to.
+     *
+     * @param names the class names to add to.
+     * @param body  the method body.
+     */
+    private static void addDependencies( Set<String> names, Body body )
+    {
+        for ( Iterator it = body.getLocals().iterator(); it.hasNext(); )
+        {
+            addDependency( names, ( (Local) it.next() ).getType() );
+        }
+        for ( Iterator it = body.getTraps().iterator(); it.hasNext(); )
+        {
+            names.add( ( (Trap) it.next() ).getException().getName() );
+        }
+        for ( Iterator it = body.getUseAndDefBoxes().iterator(); it.hasNext(); )
+        {
+            final Value value = ( (ValueBox) it.next() ).getValue();
+            addDependency( names, value.getType() );
+            if ( value instanceof InvokeExpr )
+            {
+                final SootMethodRef method = ( (InvokeExpr) value ).getMethodRef();
+                names.add( method.declaringClass().getName() );
+                addDependency( names, method.returnType() );
+                for ( Iterator types = method.parameterTypes().iterator(); types.hasNext(); )
+                {
+                    addDependency( names, (Type) types.next() );
+                }
+            }
+            else if ( value instanceof FieldRef )
+            {
+                final SootFieldRef field = ( (FieldRef) value ).getFieldRef();
+                names.add( field.declaringClass().getName() );
+                addDependency( names, field.type() );
+            }
+            else if ( value instanceof CastExpr )
+            {
+                addDependency( names, ( (CastExpr) value ).getCastType() );
+            }
+            else if ( value instanceof InstanceOfExpr )
+            {
+                addDependency( names, ( (InstanceOfExpr) value ).getCheckType() );
+            }
+            else if ( value instanceof ClassConstant )
+            {
+                final String name = ( (ClassConstant) value ).getValue();
+                if ( !name.startsWith( "[" ) )
+                {
+                    names.add( name.replace( '/', '.' ) );
+                }
+                else if ( name.endsWith( ";" ) )
+                {
+                    names.add( name.substring( name.indexOf( 'L' ) + 1, name.length() - 1 ).replace( '/', '.' ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the name of the class of a type, if it is a reference type or an array of reference types.
+     *
+     * @param names the class names to add to.
+     * @param type  the type.
+     */
+    private static void addDependency( Set<String> names, Type type )
+    {
+        final Type baseType = type instanceof ArrayType ? ( (ArrayType) type ).baseType : type;
+        if ( baseType instanceof RefType )
+        {
+            names.add( ( (RefType) baseType ).getClassName() );
+        }
+    }
+
+    /**
+     * Count the concrete methods of a class.
+     *
+     * @param sootClass the class.
+     * @return the number of concrete methods.
+     */
+    private static int getConcreteMethodCount( SootClass sootClass )
+    {
+        int count = 0;
+        for ( Iterator it = sootClass.methodIterator(); it.hasNext(); )
+        {
+            if ( ( (SootMethod) it.next() ).isConcrete() )
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the primitive types, indexed by their tag.
+     *
+     * @return the types.
+     */
+    private static Type[] getPrimitiveTypes()
+    {
+        return new Type[]{ VoidType.v(), BooleanType.v(), ByteType.v(), CharType.v(), ShortType.v(), IntType.v(),
+            LongType.v(), FloatType.v(), DoubleType.v(), NullType.v() };
+    }
+
+    /**
+     * Get the index of a binary operation in {@link #BINOPS}.
+     *
+     * @param expr the binary operation.
+     * @return the index.
+     */
+    private static int getBinopIndex( BinopExpr expr )
+    {
+        for ( int i = 0; i < BINOPS.length; i++ )
+        {
+            if ( BINOPS[i].isInstance( expr ) )
+            {
+                return i;
+            }
+        }
+        throw new IllegalStateException( "Cannot encode value " + expr + " (" + expr.getClass() + ")" );
+    }
+
+    /**
+     * Create a binary operation.
+     *
+     * @param index the index of the operation in {@link #BINOPS}.
+     * @param op1   the first operand.
+     * @param op2   the second operand.
+     * @return the binary operation.
+     */
+    private static Value newBinop( int index, Value op1, Value op2 )
+    {
+        final Jimple jimple = Jimple.v();
+        switch ( index )
+        {
+            case 0:
+                return jimple.newAddExpr( op1, op2 );
+            case 1:
+                return jimple.newAndExpr( op1, op2 );
+            case 2:
+                return jimple.newCmpExpr( op1, op2 );
+            case 3:
+                return jimple.newCmpgExpr( op1, op2 );
+            case 4:
+                return jimple.newCmplExpr( op1, op2 );
+            case 5:
+                return jimple.newDivExpr( op1, op2 );
+            case 6:
+                return jimple.newEqExpr( op1, op2 );
+            case 7:
+                return jimple.newGeExpr( op1, op2 );
+            case 8:
+                return jimple.newGtExpr( op1, op2 );
+            case 9:
+                return jimple.newLeExpr( op1, op2 );
+            case 10:
+                return jimple.newLtExpr( op1, op2 );
+            case 11:
+                return jimple.newMulExpr( op1, op2 );
+            case 12:
+                return jimple.newNeExpr( op1, op2 );
+            case 13:
+                return jimple.newOrExpr( op1, op2 );
+            case 14:
+                return jimple.newRemExpr( op1, op2 );
+            case 15:
+                return jimple.newShlExpr( op1, op2 );
+            case 16:
+                return jimple.newShrExpr( op1, op2 );
+            case 17:
+                return jimple.newSubExpr( op1, op2 );
+            case 18:
+                return jimple.newUshrExpr( op1, op2 );
+            case 19:
+                return jimple.newXorExpr( op1, op2 );
+            default:
+                throw new IllegalArgumentException( "Invalid binary operation " + index );
+        }
+    }
+
+    /**
+     * Body transformer writing each class once all its bodies have been transformed.
+     */
+    private static final class Writer
+        extends BodyTransformer
+    {
+
+        /**
+         * The number of bodies not transformed yet, for the classes having at least one transformed body.
+         */
+        private final Map<SootClass, Integer> remaining = new HashMap<SootClass, Integer>();
+
+        @Override
+        protected void internalTransform( Body body, String phaseName, Map options )
+        {
+            final SootClass sootClass = body.getMethod().getDeclaringClass();
+            Integer count = remaining.get( sootClass );
+            if ( count == null )
+            {
+                count = getConcreteMethodCount( sootClass );
+            }
+            if ( --count > 0 )
+            {
+                remaining.put( sootClass, count );
+                return;
+            }
+            remaining.remove( sootClass );
+            try
+            {
+                write( sootClass );
+            }
+            catch ( IOException e )
+            {
+                throw new IllegalStateException( "Cannot write binary Jimple for " + sootClass.getName(), e );
+            }
+        }
+    }
+
+    /**
+     * Class provider reading binary Jimple files from the Soot classpath.
+     */
+    private static final class Loader
+        implements ClassProvider
+    {
+
+        public ClassSource find( String className )
+        {
+            final SourceLocator.FoundFile file =
+                SourceLocator.v().lookupInClassPath( className + BinaryJimpleCodec.EXTENSION );
+            if ( file == null )
+            {
+                return null;
+            }
+            final InputStream in = file.inputStream();
+            try
+            {
+                return new Source( className, IOUtil.toByteArray( in ) );
+            }
+            catch ( IOException e )
+            {
+                throw new IllegalStateException( "Cannot read binary Jimple for " + className, e );
+            }
+            finally
+            {
+                IOUtil.close( in );
+            }
+        }
+    }
+
+    /**
+     * Class source resolving a class from the declarations of a binary Jimple file, leaving the method bodies to
+     * {@link BodySource}.
+     */
+    private static final class Source
+        extends ClassSource
+    {
+
+        /**
+         * The binary encoding.
+         */
+        private final byte[] bytes;
+
+        private Source( String className, byte[] bytes )
+        {
+            super( className );
+            this.bytes = bytes;
+        }
+
+        @Override
+        public Dependencies resolve( SootClass sootClass )
+        {
+            try
+            {
+                return decode( bytes, sootClass );
+            }
+            catch ( IOException e )
+            {
+                throw new IllegalStateException( "Cannot read binary Jimple for " + className, e );
+            }
+        }
+    }
+
+    /**
+     * Method source decoding a single method body of a binary Jimple file.
+     * <p/>
+     * Bodies were written after the <tt>jb</tt> pack ran on them, so they are not run through it again.
+     */
+    private static final class BodySource
+        implements MethodSource
+    {
+
+        /**
+         * The decoder of the file.
+         */
+        private final BinaryJimpleCodec.Decoder decoder;
+
+        /**
+         * The index of the body section in the file.
+         */
+        private final int index;
+
+        private BodySource( BinaryJimpleCodec.Decoder decoder, int index )
+        {
+            this.decoder = decoder;
+            this.index = index;
+        }
+
+        public Body getBody( SootMethod method, String phaseName )
+        {
+            try
+            {
+                return new StructureDecoder( decoder.readBody( index ) ).readBody( method );
+            }
+            catch ( IOException e )
+            {
+                throw new IllegalStateException( "Cannot read binary Jimple for " + method.getSignature(), e );
+            }
+        }
+    }
+
+    /**
+     * Encoder of declarations and bodies to a binary Jimple file.
+     */
+    private static final class StructureEncoder
+    {
+
+        /**
+         * The encoder of the file.
+         */
+        private final BinaryJimpleCodec.Encoder out = new BinaryJimpleCodec.Encoder();
+
+        /**
+         * The primitive types, indexed by their tag.
+         */
+        private final Type[] primitiveTypes = getPrimitiveTypes();
+
+        /**
+         * The index of each local of the body being encoded.
+         */
+        private final Map<Local, Integer> locals = new IdentityHashMap<Local, Integer>();
+
+        /**
+         * The index of each unit of the body being encoded.
+         */
+        private final Map<Unit, Integer> units = new IdentityHashMap<Unit, Integer>();
+
+        /**
+         * Encode a body in a new body section.
+         *
+         * @param body the body.
+         * @return the index of the body section.
+         */
+        private int writeBody( Body body )
+        {
+            final int index = out.startBody();
+            locals.clear();
+            units.clear();
+
+            out.writeVarint( body.getLocalCount() );
+            for ( Iterator it = body.getLocals().iterator(); it.hasNext(); )
+            {
+                final Local local = (Local) it.next();
+                locals.put( local, locals.size() );
+                out.writeString( local.getName() );
+                writeType( local.getType() );
+            }
+
+            for ( Iterator it = body.getUnits().iterator(); it.hasNext(); )
+            {
+                units.put( (Unit) it.next(), units.size() );
+            }
+            out.writeVarint( units.size() );
+            for ( Iterator it = body.getUnits().iterator(); it.hasNext(); )
+            {
+                final Unit unit = (Unit) it.next();
+                writeUnit( unit );
+                final LineNumberTag line = (LineNumberTag) unit.getTag( "LineNumberTag" );
+                out.writeVarint( line == null ? 0 : line.getLineNumber() );
+            }
+
+            out.writeVarint( body.getTraps().size() );
+            for ( Iterator it = body.getTraps().iterator(); it.hasNext(); )
+            {
+                final Trap trap = (Trap) it.next();
+                out.writeString( trap.getException().getName() );
+                writeTarget( trap.getBeginUnit() );
+                writeTarget( trap.getEndUnit() );
+                writeTarget( trap.getHandlerUnit() );
+            }
+
+            out.endBody();
+            return index;
+        }
+
+        /**
+         * Encode a unit, as its opcode followed by its operands.
+         *
+         * @param unit the unit.
+         */
+        private void writeUnit( Unit unit )
+        {
+            if ( unit instanceof AssignStmt )
+            {
+                out.writeVarint( UNIT_ASSIGN );
+                writeValue( ( (AssignStmt) unit ).getLeftOp() );
+                writeValue( ( (AssignStmt) unit ).getRightOp() );
+            }
+            else if ( unit instanceof IdentityStmt )
+            {
+                out.writeVarint( UNIT_IDENTITY );
+                writeValue( ( (IdentityStmt) unit ).getLeftOp() );
+                writeValue( ( (IdentityStmt) unit ).getRightOp() );
+            }
+            else if ( unit instanceof InvokeStmt )
+            {
+                out.writeVarint( UNIT_INVOKE );
+                writeValue( ( (InvokeStmt) unit ).getInvokeExpr() );
+            }
+            else if ( unit instanceof IfStmt )
+            {
+                out.writeVarint( UNIT_IF );
+                writeValue( ( (IfStmt) unit ).getCondition() );
+                writeTarget( ( (IfStmt) unit ).getTarget() );
+            }
+            else if ( unit instanceof GotoStmt )
+            {
+                out.writeVarint( UNIT_GOTO );
+                writeTarget( ( (GotoStmt) unit ).getTarget() );
+            }
+            else if ( unit instanceof ReturnStmt )
+            {
+                out.writeVarint( UNIT_RETURN );
+                writeValue( ( (ReturnStmt) unit ).getOp() );
+            }
+            else if ( unit instanceof ReturnVoidStmt )
+            {
+                out.writeVarint( UNIT_RETURN_VOID );
+            }
+            else if ( unit instanceof ThrowStmt )
+            {
+                out.writeVarint( UNIT_THROW );
+                writeValue( ( (ThrowStmt) unit ).getOp() );
+            }
+            else if ( unit instanceof TableSwitchStmt )
+            {
+                final TableSwitchStmt stmt = (TableSwitchStmt) unit;
+                out.writeVarint( UNIT_TABLE_SWITCH );
+                writeValue( stmt.getKey() );
+                out.writeSignedVarint( stmt.getLowIndex() );
+                out.writeSignedVarint( stmt.getHighIndex() );
+                out.writeVarint( stmt.getTargets().size() );
+                for ( Iterator it = stmt.getTargets().iterator(); it.hasNext(); )
+                {
+                    writeTarget( (Unit) it.next() );
+                }
+                writeTarget( stmt.getDefaultTarget() );
+            }
+            else if ( unit instanceof LookupSwitchStmt )
+            {
+                final LookupSwitchStmt stmt = (LookupSwitchStmt) unit;
+                out.writeVarint( UNIT_LOOKUP_SWITCH );
+                writeValue( stmt.getKey() );
+                out.writeVarint( stmt.getTargetCount() );
+                for ( int i = 0; i < stmt.getTargetCount(); i++ )
+                {
+                    out.writeSignedVarint( stmt.getLookupValue( i ) );
+                    writeTarget( stmt.getTarget( i ) );
+                }
+                writeTarget( stmt.getDefaultTarget() );
+            }
+            else if ( unit instanceof EnterMonitorStmt )
+            {
+                out.writeVarint( UNIT_ENTER_MONITOR );
+                writeValue( ( (EnterMonitorStmt) unit ).getOp() );
+            }
+            else if ( unit instanceof ExitMonitorStmt )
+            {
+                out.writeVarint( UNIT_EXIT_MONITOR );
+                writeValue( ( (ExitMonitorStmt) unit ).getOp() );
+            }
+            else if ( unit instanceof NopStmt )
+            {
+                out.writeVarint( UNIT_NOP );
+            }
+            else if ( unit instanceof BreakpointStmt )
+            {
+                out.writeVarint( UNIT_BREAKPOINT );
+            }
+            else if ( unit instanceof RetStmt )
+            {
+                out.writeVarint( UNIT_RET );
+                writeValue( ( (RetStmt) unit ).getStmtAddress() );
+            }
+            else
+            {
+                throw new IllegalStateException( "Cannot encode unit " + unit + " (" + unit.getClass() + ")" );
+            }
+        }
+
+        /**
+         * Encode a branch target, as the index of the unit.
+         *
+         * @param unit the unit.
+         */
+        private void writeTarget( Unit unit )
+        {
+            final Integer index = units.get( unit );
+            if ( index == null )
+            {
+                throw new IllegalStateException( "Branch target " + unit + " is not in the body" );
+            }
+            out.writeVarint( index );
+        }
+
+        /**
+         * Encode a value, as its tag followed by its operands.
+         *
+         * @param value the value.
+         */
+        private void writeValue( Value value )
+        {
+            if ( value instanceof Local )
+            {
+                out.writeVarint( VALUE_LOCAL );
+                final Integer index = locals.get( value );
+                if ( index == null )
+                {
+                    throw new IllegalStateException( "Local " + value + " is not declared in the body" );
+                }
+                out.writeVarint( index );
+            }
+            else if ( value instanceof IntConstant )
+            {
+                out.writeVarint( VALUE_INT );
+                out.writeSignedVarint( ( (IntConstant) value ).value );
+            }
+            else if ( value instanceof LongConstant )
+            {
+                out.writeVarint( VALUE_LONG );
+                out.writeSignedLong( ( (LongConstant) value ).value );
+            }
+            else if ( value instanceof FloatConstant )
+            {
+                out.writeVarint( VALUE_FLOAT );
+                out.writeSignedVarint( Float.floatToRawIntBits( ( (FloatConstant) value ).value ) );
+            }
+            else if ( value instanceof DoubleConstant )
+            {
+                out.writeVarint( VALUE_DOUBLE );
+                out.writeSignedLong( Double.doubleToRawLongBits( ( (DoubleConstant) value ).value ) );
+            }
+            else if ( value instanceof StringConstant )
+            {
+                out.writeVarint( VALUE_STRING );
+                out.writeString( ( (StringConstant) value ).value );
+            }
+            else if ( value instanceof NullConstant )
+            {
+                out.writeVarint( VALUE_NULL );
+            }
+            else if ( value instanceof ClassConstant )
+            {
+                out.writeVarint( VALUE_CLASS );
+                out.writeString( ( (ClassConstant) value ).getValue() );
+            }
+            else if ( value instanceof BinopExpr )
+            {
+                out.writeVarint( VALUE_BINOP + getBinopIndex( (BinopExpr) value ) );
+                writeValue( ( (BinopExpr) value ).getOp1() );
+                writeValue( ( (BinopExpr) value ).getOp2() );
+            }
+            else if ( value instanceof NegExpr )
+            {
+                out.writeVarint( VALUE_NEG );
+                writeValue( ( (NegExpr) value ).getOp() );
+            }
+            else if ( value instanceof LengthExpr )
+            {
+                out.writeVarint( VALUE_LENGTH );
+                writeValue( ( (LengthExpr) value ).getOp() );
+            }
+            else if ( value instanceof CastExpr )
+            {
+                out.writeVarint( VALUE_CAST );
+                writeType( ( (CastExpr) value ).getCastType() );
+                writeValue( ( (CastExpr) value ).getOp() );
+            }
+            else if ( value instanceof InstanceOfExpr )
+            {
+                out.writeVarint( VALUE_INSTANCE_OF );
+                writeType( ( (InstanceOfExpr) value ).getCheckType() );
+                writeValue( ( (InstanceOfExpr) value ).getOp() );
+            }
+            else if ( value instanceof NewExpr )
+            {
+                out.writeVarint( VALUE_NEW );
+                out.writeString( ( (NewExpr) value ).getBaseType().getClassName() );
+            }
+            else if ( value instanceof NewArrayExpr )
+            {
+                out.writeVarint( VALUE_NEW_ARRAY );
+                writeType( ( (NewArrayExpr) value ).getBaseType() );
+                writeValue( ( (NewArrayExpr) value ).getSize() );
+            }
+            else if ( value instanceof NewMultiArrayExpr )
+            {
+                out.writeVarint( VALUE_NEW_MULTI_ARRAY );
+                writeType( ( (NewMultiArrayExpr) value ).getBaseType() );
+                writeValues( ( (NewMultiArrayExpr) value ).getSizes() );
+            }
+            else if ( value instanceof InvokeExpr )
+            {
+                final InvokeExpr expr = (InvokeExpr) value;
+                if ( expr instanceof StaticInvokeExpr )
+                {
+                    out.writeVarint( VALUE_STATIC_INVOKE );
+                }
+                else if ( expr instanceof VirtualInvokeExpr )
+                {
+                    out.writeVarint( VALUE_VIRTUAL_INVOKE );
+                }
+                else if ( expr instanceof SpecialInvokeExpr )
+                {
+                    out.writeVarint( VALUE_SPECIAL_INVOKE );
+                }
+                else if ( expr instanceof InterfaceInvokeExpr )
+                {
+                    out.writeVarint( VALUE_INTERFACE_INVOKE );
+                }
+                else
+                {
+                    throw new IllegalStateException( "Cannot encode value " + value + " (" + value.getClass() + ")" );
+                }
+                final SootMethodRef method = expr.getMethodRef();
+                out.writeString( method.declaringClass().getName() );
+                out.writeString( method.name() );
+                writeTypes( method.parameterTypes() );
+                writeType( method.returnType() );
+                if ( expr instanceof InstanceInvokeExpr )
+                {
+                    writeValue( ( (InstanceInvokeExpr) expr ).getBase() );
+                }
+                writeValues( expr.getArgs() );
+            }
+            else if ( value instanceof ArrayRef )
+            {
+                out.writeVarint( VALUE_ARRAY_REF );
+                writeValue( ( (ArrayRef) value ).getBase() );
+                writeValue( ( (ArrayRef) value ).getIndex() );
+            }
+            else if ( value instanceof InstanceFieldRef )
+            {
+                out.writeVarint( VALUE_INSTANCE_FIELD );
+                writeField( ( (InstanceFieldRef) value ).getFieldRef() );
+                writeValue( ( (InstanceFieldRef) value ).getBase() );
+            }
+            else if ( value instanceof StaticFieldRef )
+            {
+                out.writeVarint( VALUE_STATIC_FIELD );
+                writeField( ( (StaticFieldRef) value ).getFieldRef() );
+            }
+            else if ( value instanceof ParameterRef )
+            {
+                out.writeVarint( VALUE_PARAMETER );
+                writeType( value.getType() );
+                out.writeVarint( ( (ParameterRef) value ).getIndex() );
+            }
+            else if ( value instanceof ThisRef )
+            {
+                out.writeVarint( VALUE_THIS );
+                out.writeString( ( (RefType) value.getType() ).getClassName() );
+            }
+            else if ( value instanceof CaughtExceptionRef )
+            {
+                out.writeVarint( VALUE_CAUGHT_EXCEPTION );
+            }
+            else
+            {
+                throw new IllegalStateException( "Cannot encode value " + value + " (" + value.getClass() + ")" );
+            }
+        }
+
+        /**
+         * Encode a list of values, as its size followed by the values.
+         *
+         * @param values the values.
+         */
+        private void writeValues( List values )
+        {
+            out.writeVarint( values.size() );
+            for ( Iterator it = values.iterator(); it.hasNext(); )
+            {
+                writeValue( (Value) it.next() );
+            }
+        }
+
+        /**
+         * Encode a field reference, as its declaring class, name and type.
+         *
+         * @param field the field reference.
+         */
+        private void writeField( SootFieldRef field )
+        {
+            out.writeString( field.declaringClass().getName() );
+            out.writeString( field.name() );
+            writeType( field.type() );
+        }
+
+        /**
+         * Encode a list of types, as its size followed by the types.
+         *
+         * @param types the types.
+         */
+        private void writeTypes( List types )
+        {
+            out.writeVarint( types.size() );
+            for ( Iterator it = types.iterator(); it.hasNext(); )
+            {
+                writeType( (Type) it.next() );
+            }
+        }
+
+        /**
+         * Encode a type, as its tag followed by the class name for reference types, or by the number of dimensions
+         * and the base type for array types.
+         *
+         * @param type the type.
+         */
+        private void writeType( Type type )
+        {
+            if ( type instanceof ArrayType )
+            {
+                out.writeVarint( TYPE_ARRAY );
+                out.writeVarint( ( (ArrayType) type ).numDimensions );
+                writeType( ( (ArrayType) type ).baseType );
+                return;
+            }
+            if ( type instanceof RefType )
+            {
+                out.writeVarint( TYPE_REF );
+                out.writeString( ( (RefType) type ).getClassName() );
+                return;
+            }
+            for ( int i = 0; i < primitiveTypes.length; i++ )
+            {
+                if ( primitiveTypes[i] == type )
+                {
+                    out.writeVarint( i );
+                    return;
+                }
+            }
+            throw new IllegalStateException( "Cannot encode type " + type );
+        }
+    }
+
+    /**
+     * Decoder of declarations and bodies from a section of a binary Jimple file.
+     */
+    private static final class StructureDecoder
+    {
+
+        /**
+         * The reader of the section.
+         */
+        private final BinaryJimpleCodec.Reader in;
+
+        /**
+         * The primitive types, indexed by their tag.
+         */
+        private final Type[] primitiveTypes = getPrimitiveTypes();
+
+        /**
+         * The locals of the body being decoded.
+         */
+        private Local[] locals;
+
+        /**
+         * The units of the body being decoded, in order, as far as they are decoded.
+         */
+        private Unit[] units;
+
+        /**
+         * The number of units decoded.
+         */
+        private int unitCount;
+
+        /**
+         * Placeholders standing for the branch targets not decoded yet, by unit index.
+         */
+        private Unit[] placeholders;
+
+        private StructureDecoder( BinaryJimpleCodec.Reader in )
+        {
+            this.in = in;
+        }
+
+        /**
+         * Decode a body.
+         *
+         * @param method the method of the body.
+         * @return the body.
+         * @throws IOException if the encoding is invalid.
+         */
+        private Body readBody( SootMethod method )
+            throws IOException
+        {
+            final JimpleBody body = Jimple.v().newBody( method );
+
+            locals = new Local[in.readCount()];
+            for ( int i = 0; i < locals.length; i++ )
+            {
+                final String name = in.readString();
+                locals[i] = Jimple.v().newLocal( name, readType() );
+                body.getLocals().add( locals[i] );
+            }
+
+            units = new Unit[in.readCount()];
+            placeholders = new Unit[units.length];
+            for ( unitCount = 0; unitCount < units.length; unitCount++ )
+            {
+                final Unit unit = readUnit();
+                final int line = in.readCount();
+                if ( line > 0 )
+                {
+                    unit.addTag( new LineNumberTag( line ) );
+                }
+                units[unitCount] = unit;
+                body.getUnits().add( unit );
+            }
+            for ( int i = 0; i < placeholders.length; i++ )
+            {
+                if ( placeholders[i] != null )
+                {
+                    placeholders[i].redirectJumpsToThisTo( units[i] );
+                }
+            }
+
+            for ( int i = in.readCount(); i > 0; i-- )
+            {
+                final SootClass exception = SootResolver.v().makeClassRef( in.readString() );
+                final Unit begin = units[readUnitIndex()];
+                final Unit end = units[readUnitIndex()];
+                final Unit handler = units[readUnitIndex()];
+                body.getTraps().add( Jimple.v().newTrap( exception, begin, end, handler ) );
+            }
+            return body;
+        }
+
+        /**
+         * Decode a unit.
+         *
+         * @return the unit.
+         * @throws IOException if the encoding is invalid.
+         */
+        private Unit readUnit()
+            throws IOException
+        {
+            final Jimple jimple = Jimple.v();
+            final int opcode = in.readVarint();
+            switch ( opcode )
+            {
+                case UNIT_ASSIGN:
+                {
+                    final Value left = readValue();
+                    return jimple.newAssignStmt( left, readValue() );
+                }
+                case UNIT_IDENTITY:
+                {
+                    final Value left = readValue();
+                    return jimple.newIdentityStmt( left, readValue() );
+                }
+                case UNIT_INVOKE:
+                    return jimple.newInvokeStmt( readValue() );
+                case UNIT_IF:
+                {
+                    final Value condition = readValue();
+                    return jimple.newIfStmt( condition, readTarget() );
+                }
+                case UNIT_GOTO:
+                    return jimple.newGotoStmt( readTarget() );
+                case UNIT_RETURN:
+                    return jimple.newReturnStmt( readValue() );
+                case UNIT_RETURN_VOID:
+                    return jimple.newReturnVoidStmt();
+                case UNIT_THROW:
+                    return jimple.newThrowStmt( readValue() );
+                case UNIT_TABLE_SWITCH:
+                {
+                    final Value key = readValue();
+                    final int lowIndex = in.readSignedVarint();
+                    final int highIndex = in.readSignedVarint();
+                    final List<Unit> targets = new ArrayList<Unit>();
+                    for ( int i = in.readCount(); i > 0; i-- )
+                    {
+                        targets.add( readTarget() );
+                    }
+                    return jimple.newTableSwitchStmt( key, lowIndex, highIndex, targets, readTarget() );
+                }
+                case UNIT_LOOKUP_SWITCH:
+                {
+                    final Value key = readValue();
+                    final List<IntConstant> lookupValues = new ArrayList<IntConstant>();
+                    final List<Unit> targets = new ArrayList<Unit>();
+                    for ( int i = in.readCount(); i > 0; i-- )
+                    {
+                        lookupValues.add( IntConstant.v( in.readSignedVarint() ) );
+                        targets.add( readTarget() );
+                    }
+                    return jimple.newLookupSwitchStmt( key, lookupValues, targets, readTarget() );
+                }
+                case UNIT_ENTER_MONITOR:
+                    return jimple.newEnterMonitorStmt( readValue() );
+                case UNIT_EXIT_MONITOR:
+                    return jimple.newExitMonitorStmt( readValue() );
+                case UNIT_NOP:
+                    return jimple.newNopStmt();
+                case UNIT_BREAKPOINT:
+                    return jimple.newBreakpointStmt();
+                case UNIT_RET:
+                    return jimple.newRetStmt( readValue() );
+                default:
+                    throw new IOException( "Invalid unit opcode " + opcode );
+            }
+        }
+
+        /**
+         * Decode a unit index.
+         *
+         * @return the index.
+         * @throws IOException if the encoding is invalid.
+         */
+        private int readUnitIndex()
+            throws IOException
+        {
+            final int index = in.readCount();
+            if ( index >= units.length )
+            {
+                throw new IOException( "Invalid unit index " + index );
+            }
+            return index;
+        }
+
+        /**
+         * Decode a branch target: the unit if it is already decoded, a placeholder redirected to it once decoded
+         * otherwise.
+         *
+         * @return the unit.
+         * @throws IOException if the encoding is invalid.
+         */
+        private Unit readTarget()
+            throws IOException
+        {
+            final int index = readUnitIndex();
+            if ( index < unitCount )
+            {
+                return units[index];
+            }
+            if ( placeholders[index] == null )
+            {
+                placeholders[index] = Jimple.v().newNopStmt();
+            }
+            return placeholders[index];
+        }
+
+        /**
+         * Decode a value.
+         *
+         * @return the value.
+         * @throws IOException if the encoding is invalid.
+         */
+        private Value readValue()
+            throws IOException
+        {
+            final Jimple jimple = Jimple.v();
+            final int tag = in.readVarint();
+            if ( tag >= VALUE_BINOP && tag < VALUE_BINOP + BINOP_COUNT )
+            {
+                final Value op1 = readValue();
+                return newBinop( tag - VALUE_BINOP, op1, readValue() );
+            }
+            switch ( tag )
+            {
+                case VALUE_LOCAL:
+                {
+                    final int index = in.readCount();
+                    if ( index >= locals.length )
+                    {
+                        throw new IOException( "Invalid local index " + index );
+                    }
+                    return locals[index];
+                }
+                case VALUE_INT:
+                    return IntConstant.v( in.readSignedVarint() );
+                case VALUE_LONG:
+                    return LongConstant.v( in.readSignedLong() );
+                case VALUE_FLOAT:
+                    return FloatConstant.v( Float.intBitsToFloat( in.readSignedVarint() ) );
+                case VALUE_DOUBLE:
+                    return DoubleConstant.v( Double.longBitsToDouble( in.readSignedLong() ) );
+                case VALUE_STRING:
+                    return StringConstant.v( in.readString() );
+                case VALUE_NULL:
+                    return NullConstant.v();
+                case VALUE_CLASS:
+                    return ClassConstant.v( in.readString() );
+                case VALUE_NEG:
+                    return jimple.newNegExpr( readValue() );
+                case VALUE_LENGTH:
+                    return jimple.newLengthExpr( readValue() );
+                case VALUE_CAST:
+                {
+                    final Type type = readType();
+                    return jimple.newCastExpr( readValue(), type );
+                }
+                case VALUE_INSTANCE_OF:
+                {
+                    final Type type = readType();
+                    return jimple.newInstanceOfExpr( readValue(), type );
+                }
+                case VALUE_NEW:
+                    return jimple.newNewExpr( RefType.v( in.readString() ) );
+                case VALUE_NEW_ARRAY:
+                {
+                    final Type type = readType();
+                    return jimple.newNewArrayExpr( type, readValue() );
+                }
+                case VALUE_NEW_MULTI_ARRAY:
+                {
+                    final Type type = readType();
+                    if ( !( type instanceof ArrayType ) )
+                    {
+                        throw new IOException( "Invalid multi array type " + type );
+                    }
+                    return jimple.newNewMultiArrayExpr( (ArrayType) type, readValues() );
+                }
+                case VALUE_STATIC_INVOKE:
+                    return jimple.newStaticInvokeExpr( readMethod( true ), readValues() );
+                case VALUE_VIRTUAL_INVOKE:
+                {
+                    final SootMethodRef method = readMethod( false );
+                    return jimple.newVirtualInvokeExpr( readLocal(), method, readValues() );
+                }
+                case VALUE_SPECIAL_INVOKE:
+                {
+                    final SootMethodRef method = readMethod( false );
+                    return jimple.newSpecialInvokeExpr( readLocal(), method, readValues() );
+                }
+                case VALUE_INTERFACE_INVOKE:
+                {
+                    final SootMethodRef method = readMethod( false );
+                    return jimple.newInterfaceInvokeExpr( readLocal(), method, readValues() );
+                }
+                case VALUE_ARRAY_REF:
+                {
+                    final Value base = readValue();
+                    return jimple.newArrayRef( base, readValue() );
+                }
+                case VALUE_INSTANCE_FIELD:
+                {
+                    final SootFieldRef field = readField( false );
+                    return jimple.newInstanceFieldRef( readValue(), field );
+                }
+                case VALUE_STATIC_FIELD:
+                    return jimple.newStaticFieldRef( readField( true ) );
+                case VALUE_PARAMETER:
+                {
+                    final Type type = readType();
+                    return jimple.newParameterRef( type, in.readCount() );
+                }
+                case VALUE_THIS:
+                    return jimple.newThisRef( RefType.v( in.readString() ) );
+                case VALUE_CAUGHT_EXCEPTION:
+                    return jimple.newCaughtExceptionRef();
+                default:
+                    throw new IOException( "Invalid value tag " + tag );
+            }
+        }
+
+        /**
+         * Decode a value that must be a local.
+         *
+         * @return the local.
+         * @throws IOException if the encoding is invalid.
+         */
+        private Local readLocal()
+            throws IOException
+        {
+            final Value value = readValue();
+            if ( !( value instanceof Local ) )
+            {
+                throw new IOException( "Invalid invoke base " + value );
+            }
+            return (Local) value;
+        }
+
+        /**
+         * Decode a list of values.
+         *
+         * @return the values.
+         * @throws IOException if the encoding is invalid.
+         */
+        private List<Value> readValues()
+            throws IOException
+        {
+            final List<Value> values = new ArrayList<Value>();
+            for ( int i = in.readCount(); i > 0; i-- )
+            {
+                values.add( readValue() );
+            }
+            return values;
+        }
+
+        /**
+         * Decode a method reference.
+         *
+         * @param isStatic whether the method is static.
+         * @return the method reference.
+         * @throws IOException if the encoding is invalid.
+         */
+        private SootMethodRef readMethod( boolean isStatic )
+            throws IOException
+        {
+            final SootClass declaringClass = SootResolver.v().makeClassRef( in.readString() );
+            final String name = in.readString();
+            final List parameterTypes = readTypes();
+            return Scene.v().makeMethodRef( declaringClass, name, parameterTypes, readType(), isStatic );
+        }
+
+        /**
+         * Decode a field reference.
+         *
+         * @param isStatic whether the field is static.
+         * @return the field reference.
+         * @throws IOException if the encoding is invalid.
+         */
+        private SootFieldRef readField( boolean isStatic )
+            throws IOException
+        {
+            final SootClass declaringClass = SootResolver.v().makeClassRef( in.readString() );
+            final String name = in.readString();
+            return Scene.v().makeFieldRef( declaringClass, name, readType(), isStatic );
+        }
+
+        /**
+         * Decode a list of types.
+         *
+         * @return the types.
+         * @throws IOException if the encoding is invalid.
+         */
+        private List<Type> readTypes()
+            throws IOException
+        {
+            final List<Type> types = new ArrayList<Type>();
+            for ( int i = in.readCount(); i > 0; i-- )
+            {
+                types.add( readType() );
+            }
+            return types;
+        }
+
+        /**
+         * Decode a type.
+         *
+         * @return the type.
+         * @throws IOException if the encoding is invalid.
+         */
+        private Type readType()
+            throws IOException
+        {
+            final int tag = in.readVarint();
+            if ( tag == TYPE_REF )
+            {
+                return RefType.v( in.readString() );
+            }
+            if ( tag == TYPE_ARRAY )
+            {
+                final int dimensions = in.readCount();
+                final Type baseType = readType();
+                if ( dimensions == 0 || baseType instanceof ArrayType )
+                {
+                    throw new IOException( "Invalid array type" );
+                }
+                return ArrayType.v( baseType, dimensions );
+            }
+            if ( tag < 0 || tag >= primitiveTypes.length )
+            {
+                throw new IOException( "Invalid type tag " + tag );
+            }
+            return primitiveTypes[tag];
+        }
+    }
+}
@@ -0,0 +1,517 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codec for the container of the binary Jimple format: a string table, a header section and independently decodable
+ * body sections, made of unsigned and signed variable length integers (LEB128, signed values being zigzag encoded) and
+ * string table indexes. The layout of a file is:
+ * <pre>
+ * magic version
+ * string-count (length utf8-bytes)*
+ * header-length header-bytes
+ * body-count body-length* body-bytes*
+ * </pre>
+ * The body lengths locate each body section, so that a single one can be decoded without decoding the others. What
+ * the sections hold is up to {@link BinaryJimple}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class BinaryJimpleCodec
+{
+
+    /**
+     * File extension of binary Jimple files.
+     */
+    public static final String EXTENSION = ".bjimple";
+
+    /**
+     * Magic number at the start of binary Jimple files.
+     */
+    private static final int MAGIC = 0x424A494D;
+
+    /**
+     * Version of the format.
+     */
+    private static final int VERSION = 3;
+
+    /**
+     * Utility class, not instantiable.
+     */
+    private BinaryJimpleCodec()
+    {
+    }
+
+    /**
+     * Write an unsigned variable length integer.
+     *
+     * @param out   the stream.
+     * @param value the value.
+     */
+    private static void writeVarint( ByteArrayOutputStream out, long value )
+    {
+        while ( ( value & ~0x7FL ) != 0 )
+        {
+            out.write( (int) ( value & 0x7F ) | 0x80 );
+            value >>>= 7;
+        }
+        out.write( (int) value );
+    }
+
+    /**
+     * Encode a string to UTF-8.
+     *
+     * @param string the string.
+     * @return the bytes.
+     */
+    private static byte[] toUtf8( String string )
+    {
+        try
+        {
+            return string.getBytes( "UTF-8" );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( "UTF-8 is not supported", e );
+        }
+    }
+
+    /**
+     * Encoder of a binary Jimple file. Values are written to the header section, or to the body section started last
+     * until it is ended. Instances are not thread safe.
+     */
+    public static final class Encoder
+    {
+
+        /**
+         * The string table, mapping strings to their index.
+         */
+        private final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+
+        /**
+         * The header section.
+         */
+        private final ByteArrayOutputStream header = new ByteArrayOutputStream();
+
+        /**
+         * The body sections.
+         */
+        private final List<ByteArrayOutputStream> bodies = new ArrayList<ByteArrayOutputStream>();
+
+        /**
+         * The section values are written to.
+         */
+        private ByteArrayOutputStream out = header;
+
+        /**
+         * Start a body section.
+         *
+         * @return the index of the body section.
+         */
+        public int startBody()
+        {
+            out = new ByteArrayOutputStream();
+            bodies.add( out );
+            return bodies.size() - 1;
+        }
+
+        /**
+         * End the current body section, writing to the header section again.
+         */
+        public void endBody()
+        {
+            out = header;
+        }
+
+        /**
+         * Write an unsigned variable length integer.
+         *
+         * @param value the value, non negative.
+         */
+        public void writeVarint( int value )
+        {
+            BinaryJimpleCodec.writeVarint( out, value & 0xFFFFFFFFL );
+        }
+
+        /**
+         * Write a signed variable length integer.
+         *
+         * @param value the value.
+         */
+        public void writeSignedVarint( int value )
+        {
+            writeSignedLong( value );
+        }
+
+        /**
+         * Write a signed variable length long integer.
+         *
+         * @param value the value.
+         */
+        public void writeSignedLong( long value )
+        {
+            BinaryJimpleCodec.writeVarint( out, ( value << 1 ) ^ ( value >> 63 ) );
+        }
+
+        /**
+         * Write a string, as its index in the string table.
+         *
+         * @param string the string.
+         */
+        public void writeString( String string )
+        {
+            Integer index = strings.get( string );
+            if ( index == null )
+            {
+                index = strings.size();
+                strings.put( string, index );
+            }
+            writeVarint( index );
+        }
+
+        /**
+         * Get the encoded file.
+         *
+         * @return the binary encoding.
+         */
+        public byte[] toByteArray()
+        {
+            int size = header.size() + 64;
+            for ( ByteArrayOutputStream body : bodies )
+            {
+                size += body.size() + 5;
+            }
+            final ByteArrayOutputStream file = new ByteArrayOutputStream( size + strings.size() * 16 );
+            file.write( MAGIC >>> 24 );
+            file.write( MAGIC >>> 16 );
+            file.write( MAGIC >>> 8 );
+            file.write( MAGIC );
+            BinaryJimpleCodec.writeVarint( file, VERSION );
+            BinaryJimpleCodec.writeVarint( file, strings.size() );
+            for ( String string : strings.keySet() )
+            {
+                final byte[] bytes = toUtf8( string );
+                BinaryJimpleCodec.writeVarint( file, bytes.length );
+                file.write( bytes, 0, bytes.length );
+            }
+            try
+            {
+                BinaryJimpleCodec.writeVarint( file, header.size() );
+                header.writeTo( file );
+                BinaryJimpleCodec.writeVarint( file, bodies.size() );
+                for ( ByteArrayOutputStream body : bodies )
+                {
+                    BinaryJimpleCodec.writeVarint( file, body.size() );
+                }
+                for ( ByteArrayOutputStream body : bodies )
+                {
+                    body.writeTo( file );
+                }
+            }
+            catch ( IOException e )
+            {
+                throw new IllegalStateException( "Cannot write to memory", e );
+            }
+            return file.toByteArray();
+        }
+    }
+
+    /**
+     * Decoder of a binary Jimple file, decoding the header and body sections on demand.
+     * <p/>
+     * Only the string table and the section offsets are read on creation.
+     */
+    public static final class Decoder
+    {
+
+        /**
+         * The binary encoding.
+         */
+        private final byte[] bytes;
+
+        /**
+         * The string table.
+         */
+        private final String[] strings;
+
+        /**
+         * The offset of the header section.
+         */
+        private final int headerStart;
+
+        /**
+         * The end offset of the header section.
+         */
+        private final int headerEnd;
+
+        /**
+         * The offset of each body section, followed by the end offset of the last one.
+         */
+        private final int[] bodyOffsets;
+
+        /**
+         * Decode the string table and the section offsets.
+         *
+         * @param bytes the binary encoding.
+         * @throws IOException if the encoding is invalid.
+         */
+        public Decoder( byte[] bytes )
+            throws IOException
+        {
+            this.bytes = bytes;
+            final Reader reader = new Reader( bytes, new String[0], 0, bytes.length );
+            if ( bytes.length < 4 || ( ( bytes[0] & 0xFF ) << 24 | ( bytes[1] & 0xFF ) << 16
+                                       | ( bytes[2] & 0xFF ) << 8 | bytes[3] & 0xFF ) != MAGIC )
+            {
+                throw new IOException( "Not a binary Jimple file" );
+            }
+            reader.position = 4;
+            final int version = reader.readVarint();
+            if ( version != VERSION )
+            {
+                throw new IOException( "Unsupported binary Jimple version " + version );
+            }
+
+            strings = new String[reader.readCount()];
+            for ( int i = 0; i < strings.length; i++ )
+            {
+                final int length = reader.readCount();
+                reader.check( length );
+                strings[i] = new String( bytes, reader.position, length, "UTF-8" );
+                reader.position += length;
+            }
+
+            final int headerLength = reader.readCount();
+            reader.check( headerLength );
+            headerStart = reader.position;
+            headerEnd = headerStart + headerLength;
+            reader.position = headerEnd;
+
+            bodyOffsets = new int[reader.readCount() + 1];
+            final int[] lengths = new int[bodyOffsets.length - 1];
+            for ( int i = 0; i < lengths.length; i++ )
+            {
+                lengths[i] = reader.readCount();
+            }
+            bodyOffsets[0] = reader.position;
+            for ( int i = 0; i < lengths.length; i++ )
+            {
+                reader.check( bodyOffsets[i] + lengths[i] - reader.position );
+                bodyOffsets[i + 1] = bodyOffsets[i] + lengths[i];
+            }
+        }
+
+        /**
+         * Get a reader of the header section.
+         *
+         * @return the reader.
+         */
+        public Reader readHeader()
+        {
+            return new Reader( bytes, strings, headerStart, headerEnd );
+        }
+
+        /**
+         * Get the number of body sections.
+         *
+         * @return the number of body sections.
+         */
+        public int getBodyCount()
+        {
+            return bodyOffsets.length - 1;
+        }
+
+        /**
+         * Get a reader of a body section.
+         *
+         * @param index the index of the body section.
+         * @return the reader.
+         * @throws IOException if there is no such body section.
+         */
+        public Reader readBody( int index )
+            throws IOException
+        {
+            if ( index < 0 || index >= getBodyCount() )
+            {
+                throw new IOException( "Invalid body index " + index );
+            }
+            return new Reader( bytes, strings, bodyOffsets[index], bodyOffsets[index + 1] );
+        }
+    }
+
+    /**
+     * Reader of a section of a binary Jimple file. Instances are not thread safe.
+     */
+    public static final class Reader
+    {
+
+        /**
+         * The binary encoding.
+         */
+        private final byte[] bytes;
+
+        /**
+         * The string table.
+         */
+        private final String[] strings;
+
+        /**
+         * The end offset of the section.
+         */
+        private final int end;
+
+        /**
+         * The offset of the next value.
+         */
+        private int position;
+
+        private Reader( byte[] bytes, String[] strings, int start, int end )
+        {
+            this.bytes = bytes;
+            this.strings = strings;
+            this.position = start;
+            this.end = end;
+        }
+
+        /**
+         * Read an unsigned variable length integer.
+         *
+         * @return the value.
+         * @throws IOException if the encoding is truncated.
+         */
+        public int readVarint()
+            throws IOException
+        {
+            final long value = readVarlong();
+            if ( value > 0xFFFFFFFFL )
+            {
+                throw new IOException( "Invalid variable length integer at offset " + position );
+            }
+            return (int) value;
+        }
+
+        /**
+         * Read a signed variable length integer.
+         *
+         * @return the value.
+         * @throws IOException if the encoding is truncated.
+         */
+        public int readSignedVarint()
+            throws IOException
+        {
+            final long value = readSignedLong();
+            if ( value != (int) value )
+            {
+                throw new IOException( "Invalid variable length integer at offset " + position );
+            }
+            return (int) value;
+        }
+
+        /**
+         * Read a signed variable length long integer.
+         *
+         * @return the value.
+         * @throws IOException if the encoding is truncated.
+         */
+        public long readSignedLong()
+            throws IOException
+        {
+            final long value = readVarlong();
+            return ( value >>> 1 ) ^ -( value & 1 );
+        }
+
+        /**
+         * Read a count, a non negative variable length integer.
+         *
+         * @return the value.
+         * @throws IOException if the encoding is truncated or the value negative.
+         */
+        public int readCount()
+            throws IOException
+        {
+            final int value = readVarint();
+            if ( value < 0 )
+            {
+                throw new IOException( "Invalid count at offset " + position );
+            }
+            return value;
+        }
+
+        /**
+         * Read a string, from its index in the string table.
+         *
+         * @return the string.
+         * @throws IOException if the encoding is truncated or the index invalid.
+         */
+        public String readString()
+            throws IOException
+        {
+            final int index = readVarint();
+            if ( index < 0 || index >= strings.length )
+            {
+                throw new IOException( "Invalid string index " + index );
+            }
+            return strings[index];
+        }
+
+        /**
+         * Read an unsigned variable length long integer.
+         *
+         * @return the value.
+         * @throws IOException if the encoding is truncated.
+         */
+        private long readVarlong()
+            throws IOException
+        {
+            long value = 0;
+            for ( int shift = 0; shift < 70; shift += 7 )
+            {
+                check( 1 );
+                final int b = bytes[position++];
+                value |= (long) ( b & 0x7F ) << shift;
+                if ( ( b & 0x80 ) == 0 )
+                {
+                    return value;
+                }
+            }
+            throw new IOException( "Invalid variable length integer at offset " + position );
+        }
+
+        /**
+         * Check that bytes remain to be read in the section.
+         *
+         * @param length the number of bytes.
+         * @throws IOException if the encoding is truncated.
+         */
+        private void check( int length )
+            throws IOException
+        {
+            if ( length < 0 || position + length > end )
+            {
+                throw new IOException( "Truncated binary Jimple file" );
+            }
+        }
+    }
+}
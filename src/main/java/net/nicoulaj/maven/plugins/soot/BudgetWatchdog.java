@@ -0,0 +1,436 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Watches the Soot phases for methods and phases exceeding their time budget.
+ * <p/>
+ * Phases are reported by a {@link PhaseTimer} as they start and end, and checked by a daemon thread. Phases may run
+ * nested, for instance <tt>jb</tt> builds bodies on demand while <tt>cg</tt> runs, so each running phase is checked
+ * against its own budget. Soot cannot be interrupted safely, so the watchdog does not stop it: it reports each phase
+ * exceeding its budget to a {@link Handler}, once. The handler is expected to record the phase and terminate the JVM
+ * running Soot.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @see ShardWorker
+ * @since 0.2
+ */
+public final class BudgetWatchdog
+{
+
+    /**
+     * The maximum time a body phase may spend on a method, in milliseconds, or 0.
+     */
+    private final long maxMethodTime;
+
+    /**
+     * The maximum time a scene phase may take, in milliseconds, or 0.
+     */
+    private final long maxPhaseTime;
+
+    /**
+     * The handler notified when a budget is exceeded.
+     */
+    private final Handler handler;
+
+    /**
+     * The phases running, innermost last.
+     */
+    private final LinkedList<Running> running = new LinkedList<Running>();
+
+    /**
+     * The checking thread, if started.
+     */
+    private Thread thread;
+
+    /**
+     * Constructor.
+     *
+     * @param maxMethodTime the maximum time a body phase may spend on a method, in milliseconds, or 0.
+     * @param maxPhaseTime  the maximum time a scene phase may take, in milliseconds, or 0.
+     * @param handler       the handler notified when a budget is exceeded.
+     */
+    public BudgetWatchdog( long maxMethodTime, long maxPhaseTime, Handler handler )
+    {
+        this.maxMethodTime = maxMethodTime;
+        this.maxPhaseTime = maxPhaseTime;
+        this.handler = handler;
+    }
+
+    /**
+     * Called when a phase starts.
+     *
+     * @param phase     the phase name.
+     * @param className the name of the class declaring the method the phase is applied to, or {@code null} for scene
+     *                  phases.
+     * @param method    the signature of the method the phase is applied to, or {@code null} for scene phases.
+     */
+    public synchronized void enter( String phase, String className, String method )
+    {
+        running.add( new Running( phase, className, method, System.currentTimeMillis() ) );
+    }
+
+    /**
+     * Called when a phase ends.
+     *
+     * @param phase the phase name.
+     */
+    public synchronized void exit( String phase )
+    {
+        for ( Iterator<Running> it = running.descendingIterator(); it.hasNext(); )
+        {
+            if ( it.next().phase.equals( phase ) )
+            {
+                it.remove();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Start checking budgets in a daemon thread.
+     */
+    public synchronized void start()
+    {
+        if ( thread != null )
+        {
+            return;
+        }
+        final long budget = Math.min( maxMethodTime > 0 ? maxMethodTime : Long.MAX_VALUE,
+                                      maxPhaseTime > 0 ? maxPhaseTime : Long.MAX_VALUE );
+        final long interval = Math.max( 10, Math.min( 1000, budget / 10 ) );
+        thread = new Thread( "soot-budget-watchdog" )
+        {
+            @Override
+            public void run()
+            {
+                while ( !isInterrupted() )
+                {
+                    check( System.currentTimeMillis() );
+                    try
+                    {
+                        Thread.sleep( interval );
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        break;
+                    }
+                }
+            }
+        };
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    /**
+     * Stop checking budgets.
+     */
+    public synchronized void stop()
+    {
+        if ( thread != null )
+        {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * Check the running phases against their budget, notifying the handler of those exceeding it.
+     *
+     * @param now the current time, in milliseconds.
+     * @return true if a running phase exceeded its budget.
+     */
+    boolean check( long now )
+    {
+        final List<Exceeded> exceeded = new ArrayList<Exceeded>();
+        boolean fired = false;
+        synchronized ( this )
+        {
+            for ( Running phase : running )
+            {
+                final long budget = phase.className != null ? maxMethodTime : maxPhaseTime;
+                if ( !phase.fired && budget > 0 && now - phase.start > budget )
+                {
+                    phase.fired = true;
+                    exceeded.add( new Exceeded( phase.className, phase.method, phase.phase, now - phase.start ) );
+                }
+                fired |= phase.fired;
+            }
+        }
+        for ( Exceeded e : exceeded )
+        {
+            handler.exceeded( e );
+        }
+        return fired;
+    }
+
+    /**
+     * Write the report of the classes passed through untransformed.
+     *
+     * @param file    the file to write.
+     * @param classes the reasons classes were passed through, indexed by class name.
+     * @throws IOException if the file could not be written.
+     */
+    public static void writeReport( File file, Map<String, String> classes )
+        throws IOException
+    {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        final PrintWriter writer = new PrintWriter( new FileWriter( file ) );
+        try
+        {
+            writer.println( "class\treason" );
+            for ( Map.Entry<String, String> entry : classes.entrySet() )
+            {
+                writer.println( entry.getKey() + "\t" + entry.getValue() );
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * Notified when a budget is exceeded.
+     */
+    public interface Handler
+    {
+
+        /**
+         * Called from the watchdog thread when a budget is exceeded.
+         *
+         * @param exceeded the phase that exceeded its budget.
+         */
+        void exceeded( Exceeded exceeded );
+    }
+
+    /**
+     * A running phase.
+     */
+    private static final class Running
+    {
+
+        /**
+         * The phase name.
+         */
+        private final String phase;
+
+        /**
+         * The name of the class declaring the method the phase is applied to, or {@code null} for scene phases.
+         */
+        private final String className;
+
+        /**
+         * The signature of the method the phase is applied to, or {@code null} for scene phases.
+         */
+        private final String method;
+
+        /**
+         * The time the phase started, in milliseconds.
+         */
+        private final long start;
+
+        /**
+         * Whether the handler was already notified for the phase.
+         */
+        private boolean fired;
+
+        /**
+         * Constructor.
+         *
+         * @param phase     the phase name.
+         * @param className the name of the class declaring the method, or {@code null}.
+         * @param method    the signature of the method, or {@code null}.
+         * @param start     the time the phase started, in milliseconds.
+         */
+        private Running( String phase, String className, String method, long start )
+        {
+            this.phase = phase;
+            this.className = className;
+            this.method = method;
+            this.start = start;
+        }
+    }
+
+    /**
+     * A phase that exceeded its budget.
+     */
+    public static final class Exceeded
+    {
+
+        /**
+         * The name of the class declaring the method the phase was applied to, or {@code null} for scene phases.
+         */
+        private final String className;
+
+        /**
+         * The signature of the method the phase was applied to, or {@code null} for scene phases.
+         */
+        private final String method;
+
+        /**
+         * The phase name.
+         */
+        private final String phase;
+
+        /**
+         * The time the phase had been running, in milliseconds.
+         */
+        private final long elapsed;
+
+        /**
+         * Constructor.
+         *
+         * @param className the name of the class declaring the method, or {@code null}.
+         * @param method    the signature of the method, or {@code null}.
+         * @param phase     the phase name.
+         * @param elapsed   the time the phase had been running, in milliseconds.
+         */
+        public Exceeded( String className, String method, String phase, long elapsed )
+        {
+            this.className = className;
+            this.method = method;
+            this.phase = phase;
+            this.elapsed = elapsed;
+        }
+
+        /**
+         * Read a budget exceeded file.
+         *
+         * @param file the file written by {@link #write(File)}.
+         * @return the phases that exceeded their budget, in the order they were written.
+         * @throws IOException if the file could not be read or is malformed.
+         */
+        public static List<Exceeded> read( File file )
+            throws IOException
+        {
+            final List<Exceeded> exceeded = new ArrayList<Exceeded>();
+            final BufferedReader reader = new BufferedReader( new FileReader( file ) );
+            try
+            {
+                String line;
+                while ( ( line = reader.readLine() ) != null )
+                {
+                    final String[] fields = line.split( "\t" );
+                    if ( fields.length != 4 )
+                    {
+                        throw new IOException( "Malformed budget exceeded file " + file );
+                    }
+                    try
+                    {
+                        exceeded.add( new Exceeded( "-".equals( fields[0] ) ? null : fields[0],
+                                                    "-".equals( fields[1] ) ? null : fields[1], fields[2],
+                                                    Long.parseLong( fields[3] ) ) );
+                    }
+                    catch ( NumberFormatException e )
+                    {
+                        throw new IOException( "Malformed budget exceeded file " + file );
+                    }
+                }
+                return exceeded;
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+
+        /**
+         * Append to a file.
+         *
+         * @param file the file to append to, created if it does not exist.
+         * @throws IOException if the file could not be written.
+         */
+        public void write( File file )
+            throws IOException
+        {
+            final PrintWriter writer = new PrintWriter( new FileWriter( file, true ) );
+            try
+            {
+                writer.println( ( className == null ? "-" : className ) + "\t" + ( method == null ? "-" : method )
+                                + "\t" + phase + "\t" + elapsed );
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+
+        /**
+         * Get the name of the class declaring the method the phase was applied to.
+         *
+         * @return the class name, or {@code null} for scene phases.
+         */
+        public String getClassName()
+        {
+            return className;
+        }
+
+        /**
+         * Get the signature of the method the phase was applied to.
+         *
+         * @return the method signature, or {@code null} for scene phases.
+         */
+        public String getMethod()
+        {
+            return method;
+        }
+
+        /**
+         * Get the phase name.
+         *
+         * @return the phase name.
+         */
+        public String getPhase()
+        {
+            return phase;
+        }
+
+        /**
+         * Get the time the phase had been running.
+         *
+         * @return the time in milliseconds.
+         */
+        public long getElapsed()
+        {
+            return elapsed;
+        }
+
+        /**
+         * Get a description of the exceeded budget.
+         *
+         * @return the description.
+         */
+        public String getReason()
+        {
+            return className == null
+                   ? "phase " + phase + " exceeded maxPhaseTime (" + elapsed + " ms)"
+                   : "phase " + phase + " exceeded maxMethodTime on " + method + " (" + elapsed + " ms)";
+        }
+    }
+}
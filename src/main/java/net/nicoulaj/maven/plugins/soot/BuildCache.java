@@ -0,0 +1,440 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache of complete Soot outputs, stored in a local or shared directory.
+ * <p/>
+ * Each entry is a directory named after the key of the execution, holding the Soot output (<tt>output.zip</tt> for an
+ * output directory, <tt>output.jar</tt> for an output JAR) and the reports (<tt>reports.zip</tt>). Entries are
+ * published atomically by renaming a fully written temporary directory, so concurrent builds never see a partial
+ * entry. Entries are evicted by age and by count, the least recently used first.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class BuildCache
+{
+
+    /**
+     * Name of the archive holding an output directory in a cache entry.
+     */
+    private static final String OUTPUT_ZIP = "output.zip";
+
+    /**
+     * Name of the copy of an output JAR in a cache entry.
+     */
+    private static final String OUTPUT_JAR = "output.jar";
+
+    /**
+     * Name of the archive holding the reports in a cache entry.
+     */
+    private static final String REPORTS_ZIP = "reports.zip";
+
+    /**
+     * Prefix of the temporary directories entries are written to before being published.
+     */
+    private static final String TEMPORARY_PREFIX = ".tmp-";
+
+    /**
+     * Milliseconds in a day.
+     */
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * The cache directory.
+     */
+    private final File directory;
+
+    /**
+     * The maximum number of entries kept.
+     */
+    private final int maxEntries;
+
+    /**
+     * The maximum age of entries kept, in days.
+     */
+    private final int maxAge;
+
+    /**
+     * Build a new {@link BuildCache}.
+     *
+     * @param directory  the cache directory.
+     * @param maxEntries the maximum number of entries kept, 0 for no limit.
+     * @param maxAge     the maximum age of the entries kept since they were last used, in days, 0 for no limit.
+     */
+    public BuildCache( File directory, int maxEntries, int maxAge )
+    {
+        this.directory = directory;
+        this.maxEntries = maxEntries;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Compute the key of an execution.
+     * <p/>
+     * Input files and directories are hashed by content rather than by path, so that builds in different workspaces
+     * share entries.
+     *
+     * @param options  the option values, without the ones holding input or output paths.
+     * @param inputs   the input files and directories: process directory entries and classpath entries.
+     * @param versions the versions of the tools involved, for instance the plugin artifact ids.
+     * @return the key, as an hexadecimal string.
+     * @throws IOException if an input could not be read.
+     */
+    public static String computeKey( Map<String, Serializable> options, List<File> inputs, List<String> versions )
+        throws IOException
+    {
+        final MessageDigest digest = newDigest();
+        update( digest, "options" );
+        for ( Map.Entry<String, Serializable> option : options.entrySet() )
+        {
+            update( digest, option.getKey() + "=" + option.getValue() );
+        }
+        update( digest, "versions" );
+        for ( String version : versions )
+        {
+            update( digest, version );
+        }
+        update( digest, "inputs" );
+        for ( File input : inputs )
+        {
+            if ( input.isDirectory() )
+            {
+                update( digest, "directory" );
+                for ( String path : OutputUtils.listFiles( input ) )
+                {
+                    update( digest, path );
+                    update( digest, new File( input, path ) );
+                }
+            }
+            else if ( input.isFile() )
+            {
+                update( digest, "file" );
+                update( digest, input );
+            }
+            else
+            {
+                update( digest, "missing" );
+            }
+        }
+        return toHex( digest.digest() );
+    }
+
+    /**
+     * Restore a cache entry.
+     *
+     * @param key     the key of the execution.
+     * @param output  the Soot output directory or JAR file to restore.
+     * @param reports the reports directory to restore.
+     * @return whether the entry existed and was restored.
+     * @throws IOException if the entry could not be restored.
+     */
+    public boolean restore( String key, File output, File reports )
+        throws IOException
+    {
+        final File entry = new File( directory, key );
+        if ( !entry.isDirectory() )
+        {
+            return false;
+        }
+
+        final File jar = new File( entry, OUTPUT_JAR );
+        if ( jar.isFile() )
+        {
+            FileUtils.copyFile( jar, output );
+        }
+        else
+        {
+            unzip( new File( entry, OUTPUT_ZIP ), output );
+        }
+        unzip( new File( entry, REPORTS_ZIP ), reports );
+
+        // Mark the entry as recently used for eviction.
+        entry.setLastModified( System.currentTimeMillis() );
+        return true;
+    }
+
+    /**
+     * Take a snapshot of the files under a directory, to find out which ones an execution writes.
+     * <p/>
+     * Files are identified by their modification time and content digest: modification times alone miss the files
+     * rewritten within the timestamp resolution of the filesystem, which may be as coarse as two seconds.
+     *
+     * @param directory the directory.
+     * @return the state of each file, indexed by path relative to the directory, empty if it is not a directory.
+     * @throws IOException if a file could not be read.
+     */
+    public static Map<String, String> snapshot( File directory )
+        throws IOException
+    {
+        final Map<String, String> snapshot = new HashMap<String, String>();
+        if ( directory.isDirectory() )
+        {
+            for ( String path : OutputUtils.listFiles( directory ) )
+            {
+                final File file = new File( directory, path );
+                final MessageDigest digest = newDigest();
+                update( digest, file );
+                snapshot.put( path, file.lastModified() + ":" + toHex( digest.digest() ) );
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Store the result of an execution, then evict outdated entries.
+     * <p/>
+     * Only the files written by the execution are stored, that is the files created or changed since the snapshots
+     * taken before it started. Nothing is done if an entry already exists for the key.
+     *
+     * @param key             the key of the execution.
+     * @param outputSnapshot  the {@link #snapshot(File)} of the output directory taken before the execution.
+     * @param reportsSnapshot the {@link #snapshot(File)} of the reports directory taken before the execution.
+     * @param output          the Soot output directory or JAR file.
+     * @param reports         the reports directory.
+     * @throws IOException if the entry could not be written.
+     */
+    public void store( String key, Map<String, String> outputSnapshot, Map<String, String> reportsSnapshot,
+                       File output, File reports )
+        throws IOException
+    {
+        final File entry = new File( directory, key );
+        if ( entry.isDirectory() )
+        {
+            return;
+        }
+
+        final File temporary = new File( directory, TEMPORARY_PREFIX + key + "-" + System.nanoTime() );
+        try
+        {
+            temporary.mkdirs();
+            if ( output.isFile() )
+            {
+                FileUtils.copyFile( output, new File( temporary, OUTPUT_JAR ) );
+            }
+            else
+            {
+                zip( output, outputSnapshot, new File( temporary, OUTPUT_ZIP ) );
+            }
+            zip( reports, reportsSnapshot, new File( temporary, REPORTS_ZIP ) );
+
+            // Another build may have published the same entry meanwhile, in which case the rename fails.
+            temporary.renameTo( entry );
+        }
+        finally
+        {
+            if ( temporary.exists() )
+            {
+                FileUtils.deleteDirectory( temporary );
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Delete the entries unused for more than the maximum age, then the least recently used entries above the
+     * maximum count. Temporary directories left over by interrupted builds are deleted after a day.
+     *
+     * @throws IOException if an entry could not be deleted.
+     */
+    public void evict()
+        throws IOException
+    {
+        final File[] files = directory.listFiles();
+        if ( files == null )
+        {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final List<File> entries = new ArrayList<File>();
+        for ( File file : files )
+        {
+            if ( file.getName().startsWith( TEMPORARY_PREFIX ) )
+            {
+                if ( now - file.lastModified() > DAY )
+                {
+                    FileUtils.deleteDirectory( file );
+                }
+            }
+            else if ( file.isDirectory() )
+            {
+                if ( maxAge > 0 && now - file.lastModified() > maxAge * DAY )
+                {
+                    FileUtils.deleteDirectory( file );
+                }
+                else
+                {
+                    entries.add( file );
+                }
+            }
+        }
+
+        if ( maxEntries > 0 && entries.size() > maxEntries )
+        {
+            final File[] sorted = entries.toArray( new File[entries.size()] );
+            Arrays.sort( sorted, new Comparator<File>()
+            {
+                public int compare( File a, File b )
+                {
+                    return a.lastModified() < b.lastModified() ? -1 : a.lastModified() > b.lastModified() ? 1 : 0;
+                }
+            } );
+            for ( int i = 0; i < sorted.length - maxEntries; i++ )
+            {
+                FileUtils.deleteDirectory( sorted[i] );
+            }
+        }
+    }
+
+    /**
+     * Archive the files under a directory created or changed since a snapshot, if any.
+     *
+     * @param directory the directory.
+     * @param before    the {@link #snapshot(File)} of the directory.
+     * @param zipFile   the ZIP file to write.
+     * @throws IOException if the ZIP file could not be written.
+     */
+    private static void zip( File directory, Map<String, String> before, File zipFile )
+        throws IOException
+    {
+        final List<String> paths = new ArrayList<String>();
+        for ( Map.Entry<String, String> file : snapshot( directory ).entrySet() )
+        {
+            if ( !file.getValue().equals( before.get( file.getKey() ) ) )
+            {
+                paths.add( file.getKey() );
+            }
+        }
+        if ( !paths.isEmpty() )
+        {
+            OutputUtils.zip( directory, paths, zipFile );
+        }
+    }
+
+    /**
+     * Extract a ZIP file to a directory, if it exists.
+     *
+     * @param zipFile   the ZIP file.
+     * @param directory the directory.
+     * @throws IOException if the ZIP file could not be extracted.
+     */
+    private static void unzip( File zipFile, File directory )
+        throws IOException
+    {
+        if ( zipFile.isFile() )
+        {
+            OutputUtils.unzip( zipFile, directory );
+        }
+    }
+
+    /**
+     * Get a new SHA-256 digest.
+     *
+     * @return the digest.
+     */
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance( "SHA-256" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( "SHA-256 is not supported", e );
+        }
+    }
+
+    /**
+     * Update a digest with a string, followed by a separator.
+     *
+     * @param digest the digest.
+     * @param value  the string.
+     */
+    private static void update( MessageDigest digest, String value )
+    {
+        try
+        {
+            digest.update( value.getBytes( "UTF-8" ) );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( "UTF-8 is not supported", e );
+        }
+        digest.update( (byte) 0 );
+    }
+
+    /**
+     * Update a digest with the content of a file, followed by a separator.
+     *
+     * @param digest the digest.
+     * @param file   the file.
+     * @throws IOException if the file could not be read.
+     */
+    private static void update( MessageDigest digest, File file )
+        throws IOException
+    {
+        final InputStream in = new FileInputStream( file );
+        try
+        {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ( ( read = in.read( buffer ) ) != -1 )
+            {
+                digest.update( buffer, 0, read );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        digest.update( (byte) 0 );
+    }
+
+    /**
+     * Format bytes as an hexadecimal string.
+     *
+     * @param bytes the bytes.
+     * @return the hexadecimal string.
+     */
+    private static String toHex( byte[] bytes )
+    {
+        final StringBuilder builder = new StringBuilder( bytes.length * 2 );
+        for ( byte b : bytes )
+        {
+            builder.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+        }
+        return builder.toString();
+    }
+}
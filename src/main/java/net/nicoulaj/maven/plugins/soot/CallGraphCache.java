@@ -0,0 +1,359 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import soot.Scene;
+import soot.SootMethod;
+import soot.Unit;
+import soot.jimple.Stmt;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+import soot.jimple.toolkits.callgraph.Kind;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An entry of the call graph cache, holding the call graph Soot built for a given set of classes and options.
+ * <p/>
+ * Soot can only build a call graph from the whole reachable program, so an entry is only reused as a whole, when its
+ * key matches: the key covers the content of all the input classes, and any change leads to a new entry. The edges are
+ * stored in the order Soot added them, with their kind, and call sites as statement indexes in the bodies of their
+ * methods, so that the restored call graph is the one Soot built. Restoring it retrieves the bodies of the calling
+ * methods, but saves resolving the call targets.
+ *
+ * @author <a href="mailto:julien.nicoulaj@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class CallGraphCache
+{
+
+    /**
+     * Extension of the entry files.
+     */
+    private static final String EXTENSION = ".cg";
+
+    /**
+     * Version of the entry file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The maximum number of entries kept, the least recently used ones being deleted first.
+     */
+    private static final int MAX_ENTRIES = 8;
+
+    /**
+     * The edge kinds, indexed by name.
+     */
+    private static final Map<String, Kind> KINDS = new HashMap<String, Kind>();
+
+    static
+    {
+        for ( Field field : Kind.class.getFields() )
+        {
+            if ( field.getType() == Kind.class )
+            {
+                try
+                {
+                    final Kind kind = (Kind) field.get( null );
+                    KINDS.put( kind.toString(), kind );
+                }
+                catch ( IllegalAccessException e )
+                {
+                    throw new IllegalStateException( "Cannot read edge kind " + field.getName(), e );
+                }
+            }
+        }
+    }
+
+    /**
+     * The directory of the entries.
+     */
+    private final File directory;
+
+    /**
+     * The entry file.
+     */
+    private final File file;
+
+    /**
+     * Build a new {@link CallGraphCache}.
+     *
+     * @param directory the directory of the entries.
+     * @param key       the key of the entry.
+     */
+    public CallGraphCache( File directory, String key )
+    {
+        this.directory = directory;
+        this.file = new File( directory, key + EXTENSION );
+    }
+
+    /**
+     * Whether the entry exists.
+     *
+     * @return true if a call graph was stored for the key.
+     */
+    public boolean exists()
+    {
+        return file.isFile();
+    }
+
+    /**
+     * Restore the call graph of the entry in the {@link Scene}.
+     *
+     * @return true if the call graph was restored, false if the entry does not match the classes of the scene.
+     * @throws IOException if the entry could not be read.
+     */
+    public boolean restore()
+        throws IOException
+    {
+        final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        try
+        {
+            if ( in.readInt() != VERSION )
+            {
+                return false;
+            }
+            final Kind[] kinds = new Kind[in.readInt()];
+            for ( int i = 0; i < kinds.length; i++ )
+            {
+                kinds[i] = KINDS.get( in.readUTF() );
+                if ( kinds[i] == null )
+                {
+                    return false;
+                }
+            }
+            final SootMethod[] methods = new SootMethod[in.readInt()];
+            for ( int i = 0; i < methods.length; i++ )
+            {
+                methods[i] = Scene.v().grabMethod( in.readUTF() );
+                if ( methods[i] == null )
+                {
+                    return false;
+                }
+            }
+
+            final CallGraph callGraph = new CallGraph();
+            final Map<SootMethod, Stmt[]> units = new HashMap<SootMethod, Stmt[]>();
+            for ( int count = in.readInt(); count > 0; count-- )
+            {
+                final SootMethod source = methods[in.readInt()];
+                final int unit = in.readInt();
+                final SootMethod target = methods[in.readInt()];
+                final Kind kind = kinds[in.readInt()];
+                Stmt stmt = null;
+                if ( unit >= 0 )
+                {
+                    Stmt[] sourceUnits = units.get( source );
+                    if ( sourceUnits == null )
+                    {
+                        sourceUnits = (Stmt[]) source.retrieveActiveBody().getUnits().toArray( new Stmt[0] );
+                        units.put( source, sourceUnits );
+                    }
+                    if ( unit >= sourceUnits.length )
+                    {
+                        return false;
+                    }
+                    stmt = sourceUnits[unit];
+                }
+                callGraph.addEdge( new Edge( source, stmt, target, kind ) );
+            }
+            Scene.v().setCallGraph( callGraph );
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+        file.setLastModified( System.currentTimeMillis() );
+        return true;
+    }
+
+    /**
+     * Store a call graph in the entry, then delete the least recently used entries.
+     *
+     * @param callGraph the call graph.
+     * @return true if the call graph was stored, false if a call site could not be located in the body of its method.
+     * @throws IOException if the entry could not be written.
+     */
+    public boolean store( CallGraph callGraph )
+        throws IOException
+    {
+        final Set<Edge> remaining = new HashSet<Edge>();
+        for ( Iterator it = callGraph.iterator(); it.hasNext(); )
+        {
+            remaining.add( (Edge) it.next() );
+        }
+        final List<Edge> edges = new ArrayList<Edge>();
+        for ( Iterator it = callGraph.listener(); it.hasNext(); )
+        {
+            // The listener replays all the edges ever added, in order, including removed ones.
+            final Edge edge = (Edge) it.next();
+            if ( remaining.remove( edge ) )
+            {
+                edges.add( edge );
+            }
+        }
+
+        final Map<String, Integer> kinds = new LinkedHashMap<String, Integer>();
+        final Map<SootMethod, Integer> methods = new LinkedHashMap<SootMethod, Integer>();
+        final Map<SootMethod, Map<Unit, Integer>> units = new HashMap<SootMethod, Map<Unit, Integer>>();
+        final int[] encoded = new int[edges.size() * 4];
+        for ( int i = 0; i < edges.size(); i++ )
+        {
+            final Edge edge = edges.get( i );
+            encoded[i * 4] = index( methods, edge.src() );
+            encoded[i * 4 + 1] = -1;
+            if ( edge.srcUnit() != null )
+            {
+                final Integer unit = getUnitIndex( units, edge.src() ).get( edge.srcUnit() );
+                if ( unit == null )
+                {
+                    return false;
+                }
+                encoded[i * 4 + 1] = unit;
+            }
+            encoded[i * 4 + 2] = index( methods, edge.tgt() );
+            encoded[i * 4 + 3] = index( kinds, edge.kind().toString() );
+        }
+
+        directory.mkdirs();
+        final File temporary = new File( directory, file.getName() + ".tmp" );
+        final DataOutputStream out =
+            new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temporary ) ) );
+        try
+        {
+            out.writeInt( VERSION );
+            out.writeInt( kinds.size() );
+            for ( String kind : kinds.keySet() )
+            {
+                out.writeUTF( kind );
+            }
+            out.writeInt( methods.size() );
+            for ( SootMethod method : methods.keySet() )
+            {
+                out.writeUTF( method.getSignature() );
+            }
+            out.writeInt( edges.size() );
+            for ( int value : encoded )
+            {
+                out.writeInt( value );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        FileUtils.rename( temporary, file );
+        evict();
+        return true;
+    }
+
+    /**
+     * Delete the least recently used entries, keeping at most {@link #MAX_ENTRIES}.
+     */
+    private void evict()
+    {
+        final File[] entries = directory.listFiles();
+        if ( entries == null )
+        {
+            return;
+        }
+        Arrays.sort( entries, new Comparator<File>()
+        {
+            public int compare( File a, File b )
+            {
+                return Long.valueOf( b.lastModified() ).compareTo( a.lastModified() );
+            }
+        } );
+        int kept = 0;
+        for ( File entry : entries )
+        {
+            if ( entry.getName().endsWith( EXTENSION ) && ++kept > MAX_ENTRIES )
+            {
+                entry.delete();
+            }
+        }
+    }
+
+    /**
+     * Get the index of a value in a table, adding it if needed.
+     *
+     * @param table the table, mapping values to their index.
+     * @param value the value.
+     * @return the index.
+     */
+    private static <T> int index( Map<T, Integer> table, T value )
+    {
+        Integer index = table.get( value );
+        if ( index == null )
+        {
+            index = table.size();
+            table.put( value, index );
+        }
+        return index;
+    }
+
+    /**
+     * Get the statement indexes of a method, computing them once.
+     *
+     * @param units  the statement indexes of the methods already seen.
+     * @param method the method.
+     * @return the index of each statement in its active body, empty if it has none.
+     */
+    private static Map<Unit, Integer> getUnitIndex( Map<SootMethod, Map<Unit, Integer>> units, SootMethod method )
+    {
+        Map<Unit, Integer> index = units.get( method );
+        if ( index == null )
+        {
+            index = new HashMap<Unit, Integer>();
+            if ( method.hasActiveBody() )
+            {
+                for ( Iterator it = method.getActiveBody().getUnits().iterator(); it.hasNext(); )
+                {
+                    index.put( (Unit) it.next(), index.size() );
+                }
+            }
+            units.put( method, index );
+        }
+        return index;
+    }
+
+    @Override
+    public String toString()
+    {
+        return file.getPath();
+    }
+}
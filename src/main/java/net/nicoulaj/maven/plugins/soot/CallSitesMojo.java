@@ -0,0 +1,273 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import soot.Scene;
+import soot.SootMethod;
+import soot.Unit;
+import soot.jimple.InterfaceInvokeExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.Stmt;
+import soot.jimple.VirtualInvokeExpr;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+import soot.jimple.toolkits.callgraph.Kind;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Mojo that reports the polymorphic virtual and interface call sites of the application, from the whole program call
+ * graph.
+ * <p/>
+ * HotSpot inlines call sites with one or two receiver types (monomorphic and bimorphic sites), megamorphic sites are
+ * dispatched through virtual tables and prevent inlining. Call sites are ranked megamorphic first, then by loop
+ * nesting depth, then by number of possible targets, and written to <tt>call-sites.txt</tt> in
+ * {@link #reportsDirectory}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @see LoopNesting
+ * @since 0.2
+ */
+@Mojo(
+    name = CallSitesMojo.NAME,
+    defaultPhase = LifecyclePhase.PROCESS_CLASSES,
+    threadSafe = false )
+public final class CallSitesMojo
+    extends AbstractAnalysisMojo
+{
+
+    /**
+     * Mojo name.
+     */
+    public static final String NAME = "call-sites";
+
+    /**
+     * The name of the report file.
+     */
+    public static final String REPORT_FILE = "call-sites.txt";
+
+    /**
+     * The minimum number of possible targets of the reported call sites. Use 1 to also report monomorphic sites.
+     */
+    @Parameter( defaultValue = "2" )
+    protected int minTargets;
+
+    /**
+     * The number of worst call sites logged.
+     */
+    @Parameter( defaultValue = "20" )
+    protected int logTopSites;
+
+    /**
+     * The call sites found by the analysis.
+     */
+    private List<CallSite> callSites;
+
+    @Override
+    protected String getPhaseName()
+    {
+        return "callsites";
+    }
+
+    @Override
+    protected void analyze()
+    {
+        final CallGraph callGraph = Scene.v().getCallGraph();
+        callSites = new ArrayList<CallSite>();
+        for ( SootMethod method : getReachableApplicationMethods() )
+        {
+            LoopNesting nesting = null;
+            for ( Iterator it = method.getActiveBody().getUnits().iterator(); it.hasNext(); )
+            {
+                final Stmt stmt = (Stmt) it.next();
+                if ( !stmt.containsInvokeExpr() )
+                {
+                    continue;
+                }
+                final InvokeExpr invoke = stmt.getInvokeExpr();
+                if ( !( invoke instanceof VirtualInvokeExpr ) && !( invoke instanceof InterfaceInvokeExpr ) )
+                {
+                    continue;
+                }
+                final int targets = countTargets( callGraph, stmt );
+                if ( targets < minTargets )
+                {
+                    continue;
+                }
+                if ( nesting == null )
+                {
+                    nesting = new LoopNesting( method.getActiveBody() );
+                }
+                callSites.add( new CallSite( method, stmt, targets, nesting.getDepth( stmt ) ) );
+            }
+        }
+        Collections.sort( callSites, new Comparator<CallSite>()
+        {
+            public int compare( CallSite a, CallSite b )
+            {
+                if ( a.isMegamorphic() != b.isMegamorphic() )
+                {
+                    return a.isMegamorphic() ? -1 : 1;
+                }
+                if ( a.depth != b.depth )
+                {
+                    return b.depth - a.depth;
+                }
+                return b.targets - a.targets;
+            }
+        } );
+    }
+
+    /**
+     * Count the distinct methods a call site may dispatch to.
+     * <p/>
+     * Only virtual and interface dispatch edges are counted: the other edges out of a call site, such as implicit
+     * static initializer calls, do not take part in the dispatch.
+     *
+     * @param callGraph the call graph.
+     * @param unit      the call site.
+     * @return the number of targets.
+     */
+    private static int countTargets( CallGraph callGraph, Unit unit )
+    {
+        final Set<SootMethod> targets = new HashSet<SootMethod>();
+        for ( Iterator<Edge> edges = callGraph.edgesOutOf( unit ); edges.hasNext(); )
+        {
+            final Edge edge = edges.next();
+            if ( edge.kind() == Kind.VIRTUAL || edge.kind() == Kind.INTERFACE )
+            {
+                targets.add( edge.tgt() );
+            }
+        }
+        return targets.size();
+    }
+
+    @Override
+    protected void report()
+        throws MojoExecutionException
+    {
+        if ( callSites == null )
+        {
+            throw new MojoExecutionException( "Soot did not run the call sites analysis" );
+        }
+
+        int megamorphic = 0;
+        int bimorphic = 0;
+        final PrintWriter writer = openReport( REPORT_FILE );
+        try
+        {
+            writer.println( "kind\ttargets\tloop-depth\tmethod\tline\tcall" );
+            for ( CallSite callSite : callSites )
+            {
+                writer.println( callSite );
+                if ( callSite.isMegamorphic() )
+                {
+                    megamorphic++;
+                }
+                else if ( callSite.targets == 2 )
+                {
+                    bimorphic++;
+                }
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        getLog().info( "Found " + megamorphic + " megamorphic and " + bimorphic + " bimorphic call sites, see "
+                       + REPORT_FILE );
+        for ( int i = 0; i < Math.min( logTopSites, callSites.size() ); i++ )
+        {
+            if ( callSites.get( i ).isMegamorphic() )
+            {
+                getLog().warn( callSites.get( i ).toString() );
+            }
+        }
+    }
+
+    /**
+     * A virtual or interface call site.
+     */
+    private static final class CallSite
+    {
+
+        /**
+         * The method holding the call site.
+         */
+        private final SootMethod method;
+
+        /**
+         * The call statement.
+         */
+        private final Stmt stmt;
+
+        /**
+         * The number of possible targets.
+         */
+        private final int targets;
+
+        /**
+         * The loop nesting depth of the call.
+         */
+        private final int depth;
+
+        /**
+         * Build a new {@link CallSite}.
+         *
+         * @param method  the method holding the call site.
+         * @param stmt    the call statement.
+         * @param targets the number of possible targets.
+         * @param depth   the loop nesting depth of the call.
+         */
+        private CallSite( SootMethod method, Stmt stmt, int targets, int depth )
+        {
+            this.method = method;
+            this.stmt = stmt;
+            this.targets = targets;
+            this.depth = depth;
+        }
+
+        /**
+         * Whether the call site has more than two possible targets.
+         *
+         * @return true for a megamorphic call site.
+         */
+        private boolean isMegamorphic()
+        {
+            return targets > 2;
+        }
+
+        @Override
+        public String toString()
+        {
+            final String kind = isMegamorphic() ? "megamorphic" : targets == 2 ? "bimorphic" : "monomorphic";
+            return kind + "\t" + targets + "\t" + depth + "\t" + method.getSignature() + "\t" + getLineNumber( stmt )
+                   + "\t" + stmt.getInvokeExpr().getMethodRef().getSignature();
+        }
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The header of a class file: names of the class, its super class and interfaces, and signatures of its members.
+ * <p/>
+ * Only the constant pool and the member tables are parsed, method bodies are skipped except for their length, so
+ * reading a header is much cheaper than loading the class in Soot.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class ClassHeader
+{
+
+    /**
+     * Magic number of class files.
+     */
+    private static final int MAGIC = 0xCAFEBABE;
+
+    /**
+     * Access flag of interfaces.
+     */
+    private static final int ACC_INTERFACE = 0x0200;
+
+    /**
+     * The class name, with <tt>.</tt> as separator.
+     */
+    private final String name;
+
+    /**
+     * The super class name, or <tt>null</tt> for <tt>java.lang.Object</tt>.
+     */
+    private final String superName;
+
+    /**
+     * The names of the implemented interfaces.
+     */
+    private final List<String> interfaces;
+
+    /**
+     * The fields.
+     */
+    private final List<Member> fields;
+
+    /**
+     * The methods.
+     */
+    private final List<Member> methods;
+
+    /**
+     * The access flags.
+     */
+    private final int access;
+
+    /**
+     * Build a new {@link ClassHeader}.
+     *
+     * @param name       the class name.
+     * @param superName  the super class name.
+     * @param interfaces the names of the implemented interfaces.
+     * @param fields     the fields.
+     * @param methods    the methods.
+     * @param access     the access flags.
+     */
+    private ClassHeader( String name, String superName, List<String> interfaces, List<Member> fields,
+                         List<Member> methods, int access )
+    {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = Collections.unmodifiableList( interfaces );
+        this.fields = Collections.unmodifiableList( fields );
+        this.methods = Collections.unmodifiableList( methods );
+        this.access = access;
+    }
+
+    /**
+     * Read the header of a class file.
+     *
+     * @param bytes the content of the class file.
+     * @return the header.
+     * @throws IOException if the content is not a valid class file.
+     */
+    public static ClassHeader read( byte[] bytes )
+        throws IOException
+    {
+        final DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes ) );
+        if ( in.readInt() != MAGIC )
+        {
+            throw new IOException( "Not a class file" );
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        final int constantCount = in.readUnsignedShort();
+        final String[] utf8 = new String[constantCount];
+        final int[] classNames = new int[constantCount];
+        for ( int i = 1; i < constantCount; i++ )
+        {
+            final int tag = in.readUnsignedByte();
+            switch ( tag )
+            {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                    classNames[i] = in.readUnsignedShort();
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    in.skipBytes( 2 );
+                    break;
+                case 15: // MethodHandle
+                    in.skipBytes( 3 );
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.skipBytes( 4 );
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.skipBytes( 8 );
+                    i++;
+                    break;
+                default:
+                    throw new IOException( "Invalid constant pool tag " + tag );
+            }
+        }
+
+        final int access = in.readUnsignedShort();
+        final String name = getClassName( utf8, classNames, in.readUnsignedShort() );
+        final int superIndex = in.readUnsignedShort();
+        final String superName = superIndex == 0 ? null : getClassName( utf8, classNames, superIndex );
+        final int interfaceCount = in.readUnsignedShort();
+        final List<String> interfaces = new ArrayList<String>( interfaceCount );
+        for ( int i = 0; i < interfaceCount; i++ )
+        {
+            interfaces.add( getClassName( utf8, classNames, in.readUnsignedShort() ) );
+        }
+        final List<Member> fields = readMembers( in, utf8 );
+        final List<Member> methods = readMembers( in, utf8 );
+        return new ClassHeader( name, superName, interfaces, fields, methods, access );
+    }
+
+    /**
+     * Read a field or method table.
+     *
+     * @param in   the class file, positioned at the start of the table.
+     * @param utf8 the UTF-8 constants.
+     * @return the members.
+     * @throws IOException if the table is invalid.
+     */
+    private static List<Member> readMembers( DataInputStream in, String[] utf8 )
+        throws IOException
+    {
+        final int count = in.readUnsignedShort();
+        final List<Member> members = new ArrayList<Member>( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            final int access = in.readUnsignedShort();
+            final String name = utf8[in.readUnsignedShort()];
+            final String descriptor = utf8[in.readUnsignedShort()];
+            int codeLength = -1;
+            final int attributeCount = in.readUnsignedShort();
+            for ( int j = 0; j < attributeCount; j++ )
+            {
+                final String attribute = utf8[in.readUnsignedShort()];
+                final int length = in.readInt();
+                if ( "Code".equals( attribute ) )
+                {
+                    in.skipBytes( 4 ); // max stack and max locals
+                    codeLength = in.readInt();
+                    in.skipBytes( length - 8 );
+                }
+                else
+                {
+                    in.skipBytes( length );
+                }
+            }
+            members.add( new Member( name, descriptor, access, codeLength ) );
+        }
+        return members;
+    }
+
+    /**
+     * Get the name of a class constant.
+     *
+     * @param utf8       the UTF-8 constants.
+     * @param classNames the name indexes of the class constants.
+     * @param index      the index of the class constant.
+     * @return the class name, with <tt>.</tt> as separator.
+     * @throws IOException if the constant is not a class.
+     */
+    private static String getClassName( String[] utf8, int[] classNames, int index )
+        throws IOException
+    {
+        if ( index <= 0 || index >= classNames.length || utf8[classNames[index]] == null )
+        {
+            throw new IOException( "Invalid class constant " + index );
+        }
+        return utf8[classNames[index]].replace( '/', '.' );
+    }
+
+    /**
+     * Get the class name.
+     *
+     * @return the class name, with <tt>.</tt> as separator.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Get the super class name.
+     *
+     * @return the super class name, or <tt>null</tt> for <tt>java.lang.Object</tt>.
+     */
+    public String getSuperName()
+    {
+        return superName;
+    }
+
+    /**
+     * Get the names of the implemented interfaces, or extended interfaces for an interface.
+     *
+     * @return the interface names.
+     */
+    public List<String> getInterfaces()
+    {
+        return interfaces;
+    }
+
+    /**
+     * Get the fields.
+     *
+     * @return the fields.
+     */
+    public List<Member> getFields()
+    {
+        return fields;
+    }
+
+    /**
+     * Get the methods.
+     *
+     * @return the methods.
+     */
+    public List<Member> getMethods()
+    {
+        return methods;
+    }
+
+    /**
+     * Whether the class is an interface.
+     *
+     * @return true for an interface.
+     */
+    public boolean isInterface()
+    {
+        return ( access & ACC_INTERFACE ) != 0;
+    }
+
+    /**
+     * A field or method of a class.
+     */
+    public static final class Member
+    {
+
+        /**
+         * The member name.
+         */
+        private final String name;
+
+        /**
+         * The member descriptor.
+         */
+        private final String descriptor;
+
+        /**
+         * The access flags.
+         */
+        private final int access;
+
+        /**
+         * The bytecode length, or -1 if the member has no code.
+         */
+        private final int codeLength;
+
+        /**
+         * Build a new {@link Member}.
+         *
+         * @param name       the member name.
+         * @param descriptor the member descriptor.
+         * @param access     the access flags.
+         * @param codeLength the bytecode length, or -1 if the member has no code.
+         */
+        private Member( String name, String descriptor, int access, int codeLength )
+        {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.access = access;
+            this.codeLength = codeLength;
+        }
+
+        /**
+         * Get the member name.
+         *
+         * @return the name.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Get the member descriptor, for instance <tt>(I)Ljava/lang/String;</tt>.
+         *
+         * @return the descriptor.
+         */
+        public String getDescriptor()
+        {
+            return descriptor;
+        }
+
+        /**
+         * Get the access flags.
+         *
+         * @return the access flags.
+         */
+        public int getAccess()
+        {
+            return access;
+        }
+
+        /**
+         * Get the bytecode length of a method.
+         *
+         * @return the length in bytes, or -1 for abstract and native methods and for fields.
+         */
+        public int getCodeLength()
+        {
+            return codeLength;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import soot.Scene;
+import soot.SootClass;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Mojo that generates a class list for Application Class Data Sharing from a static analysis of the program startup.
+ * <p/>
+ * The classes loaded at startup are predicted from the call graph, starting from the static initializer and the
+ * <tt>main</tt> method of {@link #mainClass}, and written in the format expected by the
+ * <tt>-XX:SharedClassListFile</tt> JVM option, in predicted load order.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @see StartupClassOrder
+ * @since 0.2
+ */
+@Mojo(
+    name = ClassListMojo.NAME,
+    defaultPhase = LifecyclePhase.PROCESS_CLASSES,
+    threadSafe = false )
+public final class ClassListMojo
+    extends AbstractAnalysisMojo
+{
+
+    /**
+     * Mojo name.
+     */
+    public static final String NAME = "class-list";
+
+    /**
+     * The file to write the class list to.
+     * <p/>
+     * Note the JVM only archives application classes loaded from JAR files, classes loaded from directories are ignored
+     * when dumping the archive.
+     */
+    @Parameter( defaultValue = "${project.build.directory}/classlist" )
+    protected File classListFile;
+
+    /**
+     * Also list library classes (such as the JDK classes) loaded at startup, not only application classes.
+     */
+    @Parameter( defaultValue = "true" )
+    protected boolean includeLibraryClasses;
+
+    /**
+     * The predicted startup classes, in load order.
+     */
+    private List<SootClass> startupClasses;
+
+    @Override
+    protected String getPhaseName()
+    {
+        return "classlist";
+    }
+
+    @Override
+    protected void analyze()
+    {
+        startupClasses = new StartupClassOrder( Scene.v().getCallGraph() ).compute( Scene.v().getMainClass() );
+    }
+
+    @Override
+    protected void report()
+        throws MojoExecutionException
+    {
+        if ( startupClasses == null )
+        {
+            throw new MojoExecutionException( "Soot did not run the startup analysis" );
+        }
+
+        classListFile.getParentFile().mkdirs();
+        PrintWriter writer = null;
+        int count = 0;
+        try
+        {
+            writer = new PrintWriter( new FileWriter( classListFile ) );
+            for ( SootClass sootClass : startupClasses )
+            {
+                if ( includeLibraryClasses || sootClass.isApplicationClass() )
+                {
+                    writer.println( sootClass.getName().replace( '.', '/' ) );
+                    count++;
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed writing class list to " + classListFile, e );
+        }
+        finally
+        {
+            if ( writer != null )
+            {
+                writer.close();
+            }
+        }
+
+        getLog().info( "Wrote " + count + " startup classes to " + classListFile );
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * An index of the classes found in classpath entries, built by reading their headers in parallel.
+ * <p/>
+ * The index maps each class name to its header and its location, so that classes can be located without searching the
+ * classpath entries one by one. When several entries define a class, the first entry wins, as on a classpath.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class ClasspathIndex
+{
+
+    /**
+     * Extension of class files.
+     */
+    private static final String CLASS_EXTENSION = ".class";
+
+    /**
+     * The number of class files read by each task.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * The indexed classpath entries, directories or JAR files.
+     */
+    private final List<File> entries;
+
+    /**
+     * The indexed classes.
+     */
+    private final Map<String, Location> locations = new ConcurrentHashMap<String, Location>();
+
+    /**
+     * The JAR files opened to read classes, indexed by classpath entry index.
+     */
+    private final Map<Integer, ZipFile> jars = new HashMap<Integer, ZipFile>();
+
+    /**
+     * Build a new {@link ClasspathIndex}.
+     *
+     * @param entries the classpath entries, directories or JAR files.
+     */
+    private ClasspathIndex( List<File> entries )
+    {
+        this.entries = entries;
+    }
+
+    /**
+     * Index classpath entries.
+     * <p/>
+     * Class files are listed entry by entry, then their headers are read in batches by a pool of threads. Each JAR
+     * file is opened once, and shared by the tasks reading its batches.
+     *
+     * @param entries the classpath entries, directories or JAR files. Entries that do not exist are ignored.
+     * @param threads the number of threads, 0 for the number of available processors.
+     * @return the index.
+     * @throws IOException if an entry could not be read.
+     */
+    public static ClasspathIndex scan( List<File> entries, int threads )
+        throws IOException
+    {
+        final ClasspathIndex index = new ClasspathIndex( new ArrayList<File>( entries ) );
+        final ExecutorService executor =
+            Executors.newFixedThreadPool( threads > 0 ? threads : Runtime.getRuntime().availableProcessors() );
+        final List<ZipFile> zips = new ArrayList<ZipFile>();
+        try
+        {
+            final List<Future<?>> tasks = new ArrayList<Future<?>>();
+            for ( int i = 0; i < entries.size(); i++ )
+            {
+                final ZipFile zip = entries.get( i ).isFile() ? new ZipFile( entries.get( i ) ) : null;
+                if ( zip != null )
+                {
+                    zips.add( zip );
+                }
+                final List<String> paths = listClassFiles( entries.get( i ), zip );
+                for ( int from = 0; from < paths.size(); from += BATCH_SIZE )
+                {
+                    tasks.add( executor.submit( index.new ScanTask( i, zip, paths.subList( from, Math.min(
+                        paths.size(), from + BATCH_SIZE ) ) ) ) );
+                }
+            }
+            for ( Future<?> task : tasks )
+            {
+                task.get();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while indexing classpath" );
+        }
+        catch ( ExecutionException e )
+        {
+            final IOException exception = new IOException( "Failed indexing classpath: " + e.getCause().getMessage() );
+            exception.initCause( e.getCause() );
+            throw exception;
+        }
+        finally
+        {
+            executor.shutdownNow();
+            for ( ZipFile zip : zips )
+            {
+                try
+                {
+                    zip.close();
+                }
+                catch ( IOException e )
+                {
+                    // Ignored, the file was only read.
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * List the class files of a classpath entry.
+     *
+     * @param entry the classpath entry, a directory or a JAR file.
+     * @param zip   the opened JAR file, <tt>null</tt> if the entry is not a JAR file.
+     * @return the paths of the class files in the entry, with <tt>/</tt> as separator.
+     * @throws IOException if the entry could not be listed.
+     */
+    private static List<String> listClassFiles( File entry, ZipFile zip )
+        throws IOException
+    {
+        final List<String> paths = new ArrayList<String>();
+        if ( entry.isDirectory() )
+        {
+            for ( String path : OutputUtils.listFiles( entry ) )
+            {
+                if ( path.endsWith( CLASS_EXTENSION ) )
+                {
+                    paths.add( path );
+                }
+            }
+        }
+        else if ( zip != null )
+        {
+            for ( Enumeration<? extends ZipEntry> it = zip.entries(); it.hasMoreElements(); )
+            {
+                final String path = it.nextElement().getName();
+                if ( path.endsWith( CLASS_EXTENSION ) )
+                {
+                    paths.add( path );
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Get the names of the indexed classes.
+     *
+     * @return the class names.
+     */
+    public Set<String> getClassNames()
+    {
+        return Collections.unmodifiableSet( locations.keySet() );
+    }
+
+    /**
+     * Get the names of the classes defined in a classpath entry.
+     *
+     * @param entry the classpath entry, as given to {@link #scan(List, int)}.
+     * @return the class names.
+     */
+    public List<String> getClassNames( File entry )
+    {
+        final int index = entries.indexOf( entry );
+        final List<String> names = new ArrayList<String>();
+        for ( Map.Entry<String, Location> location : locations.entrySet() )
+        {
+            if ( location.getValue().entry == index )
+            {
+                names.add( location.getKey() );
+            }
+        }
+        Collections.sort( names );
+        return names;
+    }
+
+    /**
+     * Get the header of a class.
+     *
+     * @param className the class name.
+     * @return the header, or <tt>null</tt> if the class is not indexed.
+     */
+    public ClassHeader getHeader( String className )
+    {
+        final Location location = locations.get( className );
+        return location == null ? null : location.header;
+    }
+
+    /**
+     * Get the classpath entry defining a class.
+     *
+     * @param className the class name.
+     * @return the classpath entry, or <tt>null</tt> if the class is not indexed.
+     */
+    public File getEntry( String className )
+    {
+        final Location location = locations.get( className );
+        return location == null ? null : entries.get( location.entry );
+    }
+
+    /**
+     * Open the class file of an indexed class.
+     *
+     * @param className the class name.
+     * @return the class file stream, or <tt>null</tt> if the class is not indexed.
+     * @throws IOException if the class file could not be opened.
+     */
+    public InputStream open( String className )
+        throws IOException
+    {
+        final Location location = locations.get( className );
+        if ( location == null )
+        {
+            return null;
+        }
+        final File entry = entries.get( location.entry );
+        if ( entry.isDirectory() )
+        {
+            return new FileInputStream( new File( entry, location.path ) );
+        }
+        ZipFile jar;
+        synchronized ( jars )
+        {
+            jar = jars.get( location.entry );
+            if ( jar == null )
+            {
+                jar = new ZipFile( entry );
+                jars.put( location.entry, jar );
+            }
+        }
+        return jar.getInputStream( jar.getEntry( location.path ) );
+    }
+
+    /**
+     * Close the JAR files opened by {@link #open(String)}.
+     */
+    public void close()
+    {
+        synchronized ( jars )
+        {
+            for ( ZipFile jar : jars.values() )
+            {
+                try
+                {
+                    jar.close();
+                }
+                catch ( IOException e )
+                {
+                    // Ignored, the file was only read.
+                }
+            }
+            jars.clear();
+        }
+    }
+
+    /**
+     * Record a class, unless an earlier classpath entry already defines it.
+     *
+     * @param location the class location.
+     */
+    private void add( Location location )
+    {
+        final String name = location.header.getName();
+        synchronized ( locations )
+        {
+            final Location existing = locations.get( name );
+            if ( existing == null || existing.entry > location.entry )
+            {
+                locations.put( name, location );
+            }
+        }
+    }
+
+    /**
+     * The location of an indexed class.
+     */
+    private static final class Location
+    {
+
+        /**
+         * The index of the classpath entry.
+         */
+        private final int entry;
+
+        /**
+         * The path of the class file in the entry.
+         */
+        private final String path;
+
+        /**
+         * The class header.
+         */
+        private final ClassHeader header;
+
+        /**
+         * Build a new {@link Location}.
+         *
+         * @param entry  the index of the classpath entry.
+         * @param path   the path of the class file in the entry.
+         * @param header the class header.
+         */
+        private Location( int entry, String path, ClassHeader header )
+        {
+            this.entry = entry;
+            this.path = path;
+            this.header = header;
+        }
+    }
+
+    /**
+     * Task reading the headers of a batch of class files of a classpath entry.
+     */
+    private final class ScanTask
+        implements Callable<Void>
+    {
+
+        /**
+         * The index of the classpath entry.
+         */
+        private final int entry;
+
+        /**
+         * The opened JAR file of the classpath entry, <tt>null</tt> for a directory.
+         */
+        private final ZipFile zip;
+
+        /**
+         * The paths of the class files.
+         */
+        private final List<String> paths;
+
+        /**
+         * Build a new {@link ScanTask}.
+         *
+         * @param entry the index of the classpath entry.
+         * @param zip   the opened JAR file of the classpath entry, <tt>null</tt> for a directory.
+         * @param paths the paths of the class files.
+         */
+        private ScanTask( int entry, ZipFile zip, List<String> paths )
+        {
+            this.entry = entry;
+            this.zip = zip;
+            this.paths = paths;
+        }
+
+        public Void call()
+            throws IOException
+        {
+            final File file = entries.get( entry );
+            for ( String path : paths )
+            {
+                final InputStream in = zip != null
+                    ? zip.getInputStream( zip.getEntry( path ) )
+                    : new FileInputStream( new File( file, path ) );
+                final byte[] bytes;
+                try
+                {
+                    bytes = IOUtil.toByteArray( in );
+                }
+                finally
+                {
+                    IOUtil.close( in );
+                }
+                try
+                {
+                    add( new Location( entry, path, ClassHeader.read( bytes ) ) );
+                }
+                catch ( IOException e )
+                {
+                    throw new IOException( "Invalid class file " + path + " in " + file + ": " + e.getMessage() );
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import soot.SootClass;
+import soot.SootMethod;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estimates the cost of the static initializers of classes and the class initializations they trigger.
+ * <p/>
+ * The code run by a static initializer is the set of application methods reachable from it in the call graph, not
+ * entering the static initializers of other classes: those are the initializations it triggers, found through the
+ * call graph <tt>CLINIT</tt> edges. The own cost of an initializer is estimated from its bytecode size, whether it
+ * has loops, and the number of I/O and reflection calls in the code it runs. Its transitive cost adds the own costs of
+ * all the initializers it triggers, directly or not.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class ClinitAnalysis
+{
+
+    /**
+     * Cost added for an initializer with loops, in bytecode bytes.
+     */
+    public static final int LOOP_COST = 1000;
+
+    /**
+     * Cost added for each I/O or reflection call, in bytecode bytes.
+     */
+    public static final int SENSITIVE_CALL_COST = 500;
+
+    /**
+     * Prefixes of the packages whose methods do I/O or reflection.
+     */
+    private static final String[] SENSITIVE_PREFIXES = {
+        "java.io.", "java.nio.", "java.net.", "java.lang.reflect.", "java.sql." };
+
+    /**
+     * Names of the classes whose methods do I/O or reflection, outside of {@link #SENSITIVE_PREFIXES}.
+     */
+    private static final Set<String> SENSITIVE_CLASSES = new HashSet<String>( Arrays.asList(
+        "java.lang.Class", "java.lang.ClassLoader", "java.util.ServiceLoader", "java.util.Properties",
+        "java.util.ResourceBundle" ) );
+
+    /**
+     * The call graph.
+     */
+    private final CallGraph callGraph;
+
+    /**
+     * Build a new {@link ClinitAnalysis}.
+     *
+     * @param callGraph the call graph, with active bodies for the application methods.
+     */
+    public ClinitAnalysis( CallGraph callGraph )
+    {
+        this.callGraph = callGraph;
+    }
+
+    /**
+     * Analyze the static initializers of classes.
+     *
+     * @param classes       the classes; those without static initializer are ignored.
+     * @param bytecodeSizes the bytecode size of the static initializer of each class, indexed by class name.
+     * @return the initializers, sorted by decreasing transitive cost.
+     */
+    public List<Initializer> analyze( Collection<SootClass> classes, Map<String, Integer> bytecodeSizes )
+    {
+        final Map<SootClass, Initializer> initializers = new HashMap<SootClass, Initializer>();
+        for ( SootClass sootClass : classes )
+        {
+            if ( sootClass.declaresMethod( StartupClassOrder.CLINIT_SUBSIGNATURE ) )
+            {
+                final Integer size = bytecodeSizes.get( sootClass.getName() );
+                initializers.put( sootClass, analyze( sootClass.getMethod( StartupClassOrder.CLINIT_SUBSIGNATURE ),
+                                                      size == null ? 0 : size ) );
+            }
+        }
+
+        for ( Initializer initializer : initializers.values() )
+        {
+            final LinkedList<SootClass> queue = new LinkedList<SootClass>( initializer.triggered );
+            while ( !queue.isEmpty() )
+            {
+                final SootClass triggered = queue.removeFirst();
+                if ( triggered == initializer.sootClass || !initializer.transitive.add( triggered ) )
+                {
+                    continue;
+                }
+                final Initializer next = initializers.get( triggered );
+                if ( next != null )
+                {
+                    initializer.transitiveCost += next.getOwnCost();
+                    queue.addAll( next.triggered );
+                }
+            }
+            initializer.transitiveCost += initializer.getOwnCost();
+        }
+
+        final List<Initializer> sorted = new ArrayList<Initializer>( initializers.values() );
+        Collections.sort( sorted, new Comparator<Initializer>()
+        {
+            public int compare( Initializer a, Initializer b )
+            {
+                return a.transitiveCost != b.transitiveCost
+                    ? ( a.transitiveCost > b.transitiveCost ? -1 : 1 )
+                    : a.sootClass.getName().compareTo( b.sootClass.getName() );
+            }
+        } );
+        return sorted;
+    }
+
+    /**
+     * Analyze a static initializer, walking the application methods it runs.
+     *
+     * @param clinit       the static initializer.
+     * @param bytecodeSize its bytecode size.
+     * @return the initializer, without its transitive cost.
+     */
+    private Initializer analyze( SootMethod clinit, int bytecodeSize )
+    {
+        final Initializer initializer = new Initializer( clinit.getDeclaringClass(), bytecodeSize );
+        if ( clinit.hasActiveBody() )
+        {
+            initializer.loops = new LoopNesting( clinit.getActiveBody() ).getLoopCount() > 0;
+        }
+
+        final Set<SootMethod> visited = new HashSet<SootMethod>();
+        final LinkedList<SootMethod> stack = new LinkedList<SootMethod>();
+        stack.add( clinit );
+        visited.add( clinit );
+        while ( !stack.isEmpty() )
+        {
+            final SootMethod method = stack.removeFirst();
+            for ( Iterator<Edge> edges = callGraph.edgesOutOf( method ); edges.hasNext(); )
+            {
+                final Edge edge = edges.next();
+                final SootMethod target = edge.tgt();
+                if ( edge.isClinit() )
+                {
+                    initializer.triggered.add( target.getDeclaringClass() );
+                }
+                else if ( isSensitive( target ) )
+                {
+                    initializer.sensitiveCalls++;
+                }
+                else if ( target.getDeclaringClass().isApplicationClass() && target.hasActiveBody()
+                    && visited.add( target ) )
+                {
+                    stack.addFirst( target );
+                }
+            }
+        }
+        initializer.triggered.remove( initializer.sootClass );
+        return initializer;
+    }
+
+    /**
+     * Whether a method does I/O or reflection.
+     *
+     * @param method the method.
+     * @return true for an I/O or reflection method.
+     */
+    private static boolean isSensitive( SootMethod method )
+    {
+        final String className = method.getDeclaringClass().getName();
+        if ( SENSITIVE_CLASSES.contains( className ) )
+        {
+            return true;
+        }
+        for ( String prefix : SENSITIVE_PREFIXES )
+        {
+            if ( className.startsWith( prefix ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The static initializer of a class.
+     */
+    public static final class Initializer
+    {
+
+        /**
+         * The class.
+         */
+        private final SootClass sootClass;
+
+        /**
+         * The bytecode size of the static initializer.
+         */
+        private final int bytecodeSize;
+
+        /**
+         * Whether the static initializer has loops.
+         */
+        private boolean loops;
+
+        /**
+         * The number of I/O and reflection calls in the code run by the static initializer.
+         */
+        private int sensitiveCalls;
+
+        /**
+         * The classes whose initialization is directly triggered.
+         */
+        private final Set<SootClass> triggered = new LinkedHashSet<SootClass>();
+
+        /**
+         * The classes whose initialization is directly or indirectly triggered.
+         */
+        private final Set<SootClass> transitive = new LinkedHashSet<SootClass>();
+
+        /**
+         * The transitive cost.
+         */
+        private long transitiveCost;
+
+        /**
+         * Build a new {@link Initializer}.
+         *
+         * @param sootClass    the class.
+         * @param bytecodeSize the bytecode size of the static initializer.
+         */
+        private Initializer( SootClass sootClass, int bytecodeSize )
+        {
+            this.sootClass = sootClass;
+            this.bytecodeSize = bytecodeSize;
+        }
+
+        /**
+         * Get the class.
+         *
+         * @return the class.
+         */
+        public SootClass getSootClass()
+        {
+            return sootClass;
+        }
+
+        /**
+         * Get the bytecode size of the static initializer.
+         *
+         * @return the size in bytes, 0 if unknown.
+         */
+        public int getBytecodeSize()
+        {
+            return bytecodeSize;
+        }
+
+        /**
+         * Whether the static initializer has loops.
+         *
+         * @return true if it has loops.
+         */
+        public boolean hasLoops()
+        {
+            return loops;
+        }
+
+        /**
+         * Get the number of I/O and reflection calls in the code run by the static initializer.
+         *
+         * @return the number of calls.
+         */
+        public int getSensitiveCalls()
+        {
+            return sensitiveCalls;
+        }
+
+        /**
+         * Get the classes whose initialization is directly triggered.
+         *
+         * @return the classes.
+         */
+        public Set<SootClass> getTriggered()
+        {
+            return Collections.unmodifiableSet( triggered );
+        }
+
+        /**
+         * Get the classes whose initialization is directly or indirectly triggered.
+         *
+         * @return the classes, in discovery order.
+         */
+        public Set<SootClass> getTransitive()
+        {
+            return Collections.unmodifiableSet( transitive );
+        }
+
+        /**
+         * Get the estimated cost of the static initializer alone.
+         *
+         * @return the cost, in bytecode bytes equivalent.
+         */
+        public long getOwnCost()
+        {
+            return bytecodeSize + ( loops ? LOOP_COST : 0 ) + (long) sensitiveCalls * SENSITIVE_CALL_COST;
+        }
+
+        /**
+         * Get the estimated cost of the static initializer and all the initializations it triggers.
+         *
+         * @return the cost, in bytecode bytes equivalent.
+         */
+        public long getTransitiveCost()
+        {
+            return transitiveCost;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import soot.Scene;
+import soot.SootClass;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Mojo that estimates the cost of the static initializers of the application classes and ranks the class
+ * initialization chains run at startup.
+ * <p/>
+ * The classes initialized at startup are predicted from the call graph, starting from {@link #mainClass}. Static
+ * initializers are written to <tt>clinit-analysis.txt</tt> in {@link #reportsDirectory}, the ones on the startup
+ * path first, by decreasing transitive cost, along with the initializations they trigger.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @see ClinitAnalysis
+ * @see StartupClassOrder
+ * @since 0.2
+ */
+@Mojo(
+    name = ClinitAnalysisMojo.NAME,
+    defaultPhase = LifecyclePhase.PROCESS_CLASSES,
+    threadSafe = false )
+public final class ClinitAnalysisMojo
+    extends AbstractAnalysisMojo
+{
+
+    /**
+     * Mojo name.
+     */
+    public static final String NAME = "clinit-analysis";
+
+    /**
+     * The name of the report file.
+     */
+    public static final String REPORT_FILE = "clinit-analysis.txt";
+
+    /**
+     * The number of most expensive startup initialization chains logged.
+     */
+    @Parameter( defaultValue = "10" )
+    protected int logTopChains;
+
+    /**
+     * The static initializers found by the analysis, by decreasing transitive cost.
+     */
+    private List<ClinitAnalysis.Initializer> initializers;
+
+    /**
+     * The classes loaded at startup.
+     */
+    private final Set<SootClass> startupClasses = new HashSet<SootClass>();
+
+    @Override
+    protected String getPhaseName()
+    {
+        return "clinit";
+    }
+
+    @Override
+    protected void analyze()
+    {
+        final List<SootClass> classes = new ArrayList<SootClass>();
+        for ( Iterator it = Scene.v().getApplicationClasses().iterator(); it.hasNext(); )
+        {
+            classes.add( (SootClass) it.next() );
+        }
+        initializers = new ClinitAnalysis( Scene.v().getCallGraph() ).analyze( classes, getClinitSizes() );
+        if ( Scene.v().hasMainClass() )
+        {
+            startupClasses.addAll( new StartupClassOrder( Scene.v().getCallGraph() ).compute(
+                Scene.v().getMainClass() ) );
+        }
+    }
+
+    /**
+     * Read the bytecode size of the static initializers of the classes of the {@link #processDirectory} entries.
+     *
+     * @return the sizes, indexed by class name.
+     */
+    private Map<String, Integer> getClinitSizes()
+    {
+        if ( classpathIndex != null )
+        {
+            return getClinitSizes( classpathIndex );
+        }
+
+        final List<File> directories = new ArrayList<File>();
+        if ( processDirectory != null )
+        {
+            for ( Object directory : processDirectory )
+            {
+                directories.add( new File( directory.toString() ) );
+            }
+        }
+        final ClasspathIndex index;
+        try
+        {
+            index = ClasspathIndex.scan( directories, 0 );
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( "Failed reading class files", e );
+        }
+        try
+        {
+            return getClinitSizes( index );
+        }
+        finally
+        {
+            index.close();
+        }
+    }
+
+    /**
+     * Read the bytecode size of the static initializers of the classes of an index.
+     *
+     * @param index the index.
+     * @return the sizes, indexed by class name.
+     */
+    private static Map<String, Integer> getClinitSizes( ClasspathIndex index )
+    {
+        final Map<String, Integer> sizes = new HashMap<String, Integer>();
+        for ( String className : index.getClassNames() )
+        {
+            for ( ClassHeader.Member method : index.getHeader( className ).getMethods() )
+            {
+                if ( "<clinit>".equals( method.getName() ) )
+                {
+                    sizes.put( className, method.getCodeLength() );
+                }
+            }
+        }
+        return sizes;
+    }
+
+    @Override
+    protected void report()
+        throws MojoExecutionException
+    {
+        if ( initializers == null )
+        {
+            throw new MojoExecutionException( "Soot did not run the static initializers analysis" );
+        }
+
+        final List<ClinitAnalysis.Initializer> sorted = new ArrayList<ClinitAnalysis.Initializer>();
+        for ( ClinitAnalysis.Initializer initializer : initializers )
+        {
+            if ( startupClasses.contains( initializer.getSootClass() ) )
+            {
+                sorted.add( initializer );
+            }
+        }
+        final int startupCount = sorted.size();
+        for ( ClinitAnalysis.Initializer initializer : initializers )
+        {
+            if ( !startupClasses.contains( initializer.getSootClass() ) )
+            {
+                sorted.add( initializer );
+            }
+        }
+
+        final PrintWriter writer = openReport( REPORT_FILE );
+        try
+        {
+            writer.println( "startup\ttransitive-cost\town-cost\tbytecode\tloops\tio-reflection-calls\ttriggered\tclass"
+                            + "\tchain" );
+            for ( int i = 0; i < sorted.size(); i++ )
+            {
+                writer.println( ( i < startupCount ) + "\t" + format( sorted.get( i ) ) );
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        getLog().info( "Analyzed " + initializers.size() + " static initializers, " + startupCount
+                       + " run at startup, see " + REPORT_FILE );
+        for ( int i = 0; i < Math.min( logTopChains, startupCount ); i++ )
+        {
+            getLog().info( "  " + sorted.get( i ).getSootClass().getName() + ": cost "
+                           + sorted.get( i ).getTransitiveCost() + ", triggers "
+                           + sorted.get( i ).getTransitive().size() + " class initializations" );
+        }
+    }
+
+    /**
+     * Format a static initializer as a report line, without the startup column.
+     *
+     * @param initializer the static initializer.
+     * @return the line.
+     */
+    private static String format( ClinitAnalysis.Initializer initializer )
+    {
+        final StringBuilder chain = new StringBuilder();
+        for ( SootClass triggered : initializer.getTransitive() )
+        {
+            chain.append( chain.length() > 0 ? " " : "" ).append( triggered.getName() );
+        }
+        return initializer.getTransitiveCost() + "\t" + initializer.getOwnCost() + "\t" + initializer.getBytecodeSize()
+               + "\t" + initializer.hasLoops() + "\t" + initializer.getSensitiveCalls() + "\t"
+               + initializer.getTriggered().size() + "\t" + initializer.getSootClass().getName() + "\t" + chain;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Detects the class files added, modified and removed in directories between polls.
+ * <p/>
+ * Files are compared by modification time and size. Jimple and binary Jimple files, which are named after their
+ * class, are watched as well.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class DirectoryWatcher
+{
+
+    /**
+     * The watched directories.
+     */
+    private final List<File> directories;
+
+    /**
+     * The modification time and size of the watched files, indexed by file.
+     */
+    private Map<File, long[]> files = new HashMap<File, long[]>();
+
+    /**
+     * The name of the class each watched file holds.
+     */
+    private final Map<File, String> classNames = new HashMap<File, String>();
+
+    /**
+     * Build a new {@link DirectoryWatcher}, taking a first snapshot of the directories.
+     *
+     * @param directories the directories to watch. Directories that do not exist are ignored until they do.
+     * @throws IOException if a directory could not be listed.
+     */
+    public DirectoryWatcher( List<File> directories )
+        throws IOException
+    {
+        this.directories = directories;
+        poll();
+    }
+
+    /**
+     * Compare the directories with the last snapshot, and take a new one.
+     *
+     * @return the changes since the last snapshot.
+     * @throws IOException if a directory could not be listed.
+     */
+    public Changes poll()
+        throws IOException
+    {
+        final Changes changes = new Changes();
+        final Map<File, long[]> current = new HashMap<File, long[]>();
+        for ( File directory : directories )
+        {
+            if ( !directory.isDirectory() )
+            {
+                continue;
+            }
+            for ( String path : OutputUtils.listFiles( directory ) )
+            {
+                final String className = getClassName( path );
+                if ( className == null )
+                {
+                    continue;
+                }
+                final File file = new File( directory, path );
+                final long[] state = new long[]{ file.lastModified(), file.length() };
+                current.put( file, state );
+                classNames.put( file, className );
+                final long[] previous = files.get( file );
+                if ( previous == null || previous[0] != state[0] || previous[1] != state[1] )
+                {
+                    changes.modified.add( className );
+                }
+            }
+        }
+        for ( File file : files.keySet() )
+        {
+            if ( !current.containsKey( file ) )
+            {
+                changes.removed.add( classNames.remove( file ) );
+            }
+        }
+        changes.removed.removeAll( changes.modified );
+        files = current;
+        return changes;
+    }
+
+    /**
+     * Take a new snapshot of the files of some classes only, so that the next poll does not report their changes but
+     * still reports the changes of the other classes.
+     *
+     * @param acknowledged the names of the classes whose changes are not to be reported, for instance because they
+     *                     were written by the caller itself.
+     * @throws IOException if a directory could not be listed.
+     */
+    public void acknowledge( Collection<String> acknowledged )
+        throws IOException
+    {
+        final Set<String> names = new HashSet<String>( acknowledged );
+        final Map<File, long[]> current = new HashMap<File, long[]>( files );
+        for ( File directory : directories )
+        {
+            if ( !directory.isDirectory() )
+            {
+                continue;
+            }
+            for ( String path : OutputUtils.listFiles( directory ) )
+            {
+                final String className = getClassName( path );
+                if ( className != null && names.contains( className ) )
+                {
+                    final File file = new File( directory, path );
+                    current.put( file, new long[]{ file.lastModified(), file.length() } );
+                    classNames.put( file, className );
+                }
+            }
+        }
+        for ( File file : files.keySet() )
+        {
+            if ( names.contains( classNames.get( file ) ) && !file.isFile() )
+            {
+                current.remove( file );
+                classNames.remove( file );
+            }
+        }
+        files = current;
+    }
+
+    /**
+     * Get the name of the class a file holds.
+     *
+     * @param path the file path relative to its directory, with <tt>/</tt> as separator.
+     * @return the class name, or <tt>null</tt> if the file does not hold a class.
+     */
+    static String getClassName( String path )
+    {
+        if ( path.endsWith( ".class" ) )
+        {
+            return path.substring( 0, path.length() - ".class".length() ).replace( '/', '.' );
+        }
+        if ( path.indexOf( '/' ) < 0 && path.endsWith( ".jimple" ) )
+        {
+            return path.substring( 0, path.length() - ".jimple".length() );
+        }
+        if ( path.indexOf( '/' ) < 0 && path.endsWith( BinaryJimpleCodec.EXTENSION ) )
+        {
+            return path.substring( 0, path.length() - BinaryJimpleCodec.EXTENSION.length() );
+        }
+        return null;
+    }
+
+    /**
+     * The classes changed between two polls.
+     */
+    public static final class Changes
+    {
+
+        /**
+         * The names of the classes added or modified.
+         */
+        private final Set<String> modified = new TreeSet<String>();
+
+        /**
+         * The names of the classes removed.
+         */
+        private final Set<String> removed = new TreeSet<String>();
+
+        /**
+         * Get the names of the classes added or modified.
+         *
+         * @return the class names, sorted.
+         */
+        public Set<String> getModified()
+        {
+            return modified;
+        }
+
+        /**
+         * Get the names of the classes removed.
+         *
+         * @return the class names, sorted.
+         */
+        public Set<String> getRemoved()
+        {
+            return removed;
+        }
+
+        /**
+         * Add the changes of a later poll.
+         *
+         * @param later the later changes.
+         */
+        public void addAll( Changes later )
+        {
+            modified.removeAll( later.removed );
+            removed.removeAll( later.modified );
+            modified.addAll( later.modified );
+            removed.addAll( later.removed );
+        }
+
+        /**
+         * Whether no class changed.
+         *
+         * @return true if no class was added, modified or removed.
+         */
+        public boolean isEmpty()
+        {
+            return modified.isEmpty() && removed.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import soot.Body;
+import soot.Local;
+import soot.SootMethod;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.AnyNewExpr;
+import soot.jimple.ArrayRef;
+import soot.jimple.AssignStmt;
+import soot.jimple.CastExpr;
+import soot.jimple.FieldRef;
+import soot.jimple.IdentityStmt;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.ParameterRef;
+import soot.jimple.ReturnStmt;
+import soot.jimple.SpecialInvokeExpr;
+import soot.jimple.Stmt;
+import soot.jimple.ThisRef;
+import soot.jimple.ThrowStmt;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inter-procedural escape analysis of the allocation sites of Jimple bodies.
+ * <p/>
+ * Each allocation site is classified as in the HotSpot server compiler:
+ * <ul>
+ * <li>{@link State#NO_ESCAPE}: the object does not leave the method, it can be scalar replaced;</li>
+ * <li>{@link State#ARG_ESCAPE}: the object is passed to a call it does not escape from, it can only be scalar
+ * replaced if the call is inlined;</li>
+ * <li>{@link State#GLOBAL_ESCAPE}: the object is stored into a field or an array, returned, thrown, or passed to a
+ * call it escapes from.</li>
+ * </ul>
+ * The analysis is flow-insensitive: the locals an object may flow to are the allocation target and its copies and
+ * casts. Calls are resolved through the call graph, and callees are summarized by whether each of their parameters
+ * escapes, computed to a fixed point over the analyzed methods. Parameters of methods that are not analyzed are
+ * assumed to escape, except for <tt>java.lang.Object.&lt;init&gt;</tt>. An object passed as the receiver of its
+ * own constructor does not escape if the constructor does not leak it, as constructors are usually inlined.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class EscapeAnalysis
+{
+
+    /**
+     * Escape states, from the most to the least optimizable.
+     */
+    public enum State
+    {
+
+        /**
+         * The object does not escape the method.
+         */
+        NO_ESCAPE,
+
+        /**
+         * The object is passed to a call it does not escape from.
+         */
+        ARG_ESCAPE,
+
+        /**
+         * The object escapes the method.
+         */
+        GLOBAL_ESCAPE
+    }
+
+    /**
+     * Signature of the root constructor, which does not leak its receiver.
+     */
+    private static final String OBJECT_INIT = "<java.lang.Object: void <init>()>";
+
+    /**
+     * The call graph used to resolve calls.
+     */
+    private final CallGraph callGraph;
+
+    /**
+     * Whether each parameter of the analyzed methods escapes, the receiver being at index 0.
+     */
+    private final Map<SootMethod, boolean[]> summaries = new HashMap<SootMethod, boolean[]>();
+
+    /**
+     * Build a new {@link EscapeAnalysis}.
+     *
+     * @param callGraph the call graph used to resolve calls.
+     */
+    public EscapeAnalysis( CallGraph callGraph )
+    {
+        this.callGraph = callGraph;
+    }
+
+    /**
+     * Analyze the allocation sites of methods.
+     *
+     * @param methods the methods, with active bodies.
+     * @return the allocation sites, in method and statement order.
+     */
+    public List<Allocation> analyze( Collection<SootMethod> methods )
+    {
+        for ( SootMethod method : methods )
+        {
+            summaries.put( method, new boolean[method.getParameterCount() + 1] );
+        }
+        boolean changed = true;
+        while ( changed )
+        {
+            changed = false;
+            for ( SootMethod method : methods )
+            {
+                final boolean[] summary = summarize( method );
+                if ( !Arrays.equals( summary, summaries.get( method ) ) )
+                {
+                    summaries.put( method, summary );
+                    changed = true;
+                }
+            }
+        }
+
+        final List<Allocation> allocations = new ArrayList<Allocation>();
+        for ( SootMethod method : methods )
+        {
+            final Body body = method.getActiveBody();
+            for ( Iterator it = body.getUnits().iterator(); it.hasNext(); )
+            {
+                final Unit unit = (Unit) it.next();
+                if ( unit instanceof AssignStmt && ( (AssignStmt) unit ).getRightOp() instanceof AnyNewExpr
+                    && ( (AssignStmt) unit ).getLeftOp() instanceof Local )
+                {
+                    final AssignStmt stmt = (AssignStmt) unit;
+                    final Allocation allocation = new Allocation( method, stmt );
+                    escape( body, getAliases( body, (Local) stmt.getLeftOp() ), allocation );
+                    allocations.add( allocation );
+                }
+            }
+        }
+        return allocations;
+    }
+
+    /**
+     * Compute whether each parameter of a method escapes, using the current summaries of its callees.
+     *
+     * @param method the method.
+     * @return the summary, the receiver being at index 0.
+     */
+    private boolean[] summarize( SootMethod method )
+    {
+        final boolean[] summary = new boolean[method.getParameterCount() + 1];
+        final Body body = method.getActiveBody();
+        for ( Iterator it = body.getUnits().iterator(); it.hasNext(); )
+        {
+            final Unit unit = (Unit) it.next();
+            if ( !( unit instanceof IdentityStmt ) || !( ( (IdentityStmt) unit ).getLeftOp() instanceof Local ) )
+            {
+                continue;
+            }
+            final Value source = ( (IdentityStmt) unit ).getRightOp();
+            final int index = source instanceof ThisRef
+                ? 0
+                : source instanceof ParameterRef ? ( (ParameterRef) source ).getIndex() + 1 : -1;
+            if ( index >= 0 )
+            {
+                final Allocation parameter = new Allocation( method, null );
+                escape( body, getAliases( body, (Local) ( (IdentityStmt) unit ).getLeftOp() ), parameter );
+                summary[index] = parameter.state == State.GLOBAL_ESCAPE;
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Get the locals an object held by a local may flow to: the local, its copies and its casts.
+     *
+     * @param body  the body.
+     * @param local the local.
+     * @return the locals.
+     */
+    private static Set<Local> getAliases( Body body, Local local )
+    {
+        final Set<Local> aliases = new HashSet<Local>();
+        aliases.add( local );
+        boolean changed = true;
+        while ( changed )
+        {
+            changed = false;
+            for ( Iterator it = body.getUnits().iterator(); it.hasNext(); )
+            {
+                final Unit unit = (Unit) it.next();
+                if ( unit instanceof AssignStmt && ( (AssignStmt) unit ).getLeftOp() instanceof Local
+                    && aliases.contains( strip( ( (AssignStmt) unit ).getRightOp() ) ) )
+                {
+                    changed |= aliases.add( (Local) ( (AssignStmt) unit ).getLeftOp() );
+                }
+            }
+        }
+        return aliases;
+    }
+
+    /**
+     * Find how an object escapes a body.
+     *
+     * @param body    the body.
+     * @param aliases the locals the object may flow to.
+     * @param result  the allocation to record the escape state and cause into.
+     */
+    private void escape( Body body, Set<Local> aliases, Allocation result )
+    {
+        for ( Iterator it = body.getUnits().iterator(); it.hasNext(); )
+        {
+            final Stmt stmt = (Stmt) it.next();
+            if ( stmt instanceof AssignStmt && aliases.contains( strip( ( (AssignStmt) stmt ).getRightOp() ) ) )
+            {
+                final Value target = ( (AssignStmt) stmt ).getLeftOp();
+                if ( target instanceof FieldRef )
+                {
+                    result.escape( State.GLOBAL_ESCAPE, stmt, "stored into field" );
+                }
+                else if ( target instanceof ArrayRef )
+                {
+                    result.escape( State.GLOBAL_ESCAPE, stmt, "stored into array" );
+                }
+            }
+            else if ( stmt instanceof ReturnStmt && aliases.contains( ( (ReturnStmt) stmt ).getOp() ) )
+            {
+                result.escape( State.GLOBAL_ESCAPE, stmt, "returned" );
+            }
+            else if ( stmt instanceof ThrowStmt && aliases.contains( ( (ThrowStmt) stmt ).getOp() ) )
+            {
+                result.escape( State.GLOBAL_ESCAPE, stmt, "thrown" );
+            }
+
+            if ( stmt.containsInvokeExpr() )
+            {
+                final InvokeExpr invoke = stmt.getInvokeExpr();
+                for ( int i = 0; i <= invoke.getArgCount(); i++ )
+                {
+                    final Value argument = i == 0
+                        ? invoke instanceof InstanceInvokeExpr ? ( (InstanceInvokeExpr) invoke ).getBase() : null
+                        : invoke.getArg( i - 1 );
+                    if ( argument == null || !aliases.contains( argument ) )
+                    {
+                        continue;
+                    }
+                    final boolean escapes = escapesCallee( stmt, invoke, i );
+                    if ( escapes )
+                    {
+                        result.escape( State.GLOBAL_ESCAPE, stmt, "passed to escaping call" );
+                    }
+                    else if ( i > 0 || !isConstructorCall( invoke ) )
+                    {
+                        result.escape( State.ARG_ESCAPE, stmt, "passed to call, needs inlining" );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether an argument escapes one of the possible targets of a call.
+     *
+     * @param stmt   the call statement.
+     * @param invoke the call.
+     * @param index  the argument index, the receiver being at index 0.
+     * @return true if the argument may escape.
+     */
+    private boolean escapesCallee( Stmt stmt, InvokeExpr invoke, int index )
+    {
+        final List<SootMethod> targets = new ArrayList<SootMethod>();
+        for ( Iterator<Edge> edges = callGraph.edgesOutOf( stmt ); edges.hasNext(); )
+        {
+            targets.add( edges.next().tgt() );
+        }
+        if ( targets.isEmpty() )
+        {
+            targets.add( invoke.getMethod() );
+        }
+        for ( SootMethod target : targets )
+        {
+            if ( OBJECT_INIT.equals( target.getSignature() ) )
+            {
+                continue;
+            }
+            final boolean[] summary = summaries.get( target );
+            if ( summary == null || index >= summary.length || summary[index] )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a call is a constructor call.
+     *
+     * @param invoke the call.
+     * @return true for a constructor call.
+     */
+    private static boolean isConstructorCall( InvokeExpr invoke )
+    {
+        return invoke instanceof SpecialInvokeExpr && "<init>".equals( invoke.getMethodRef().name() );
+    }
+
+    /**
+     * Strip the casts of a value.
+     *
+     * @param value the value.
+     * @return the value without casts.
+     */
+    private static Value strip( Value value )
+    {
+        return value instanceof CastExpr ? strip( ( (CastExpr) value ).getOp() ) : value;
+    }
+
+    /**
+     * An allocation site and its escape state.
+     */
+    public static final class Allocation
+    {
+
+        /**
+         * The method holding the allocation.
+         */
+        private final SootMethod method;
+
+        /**
+         * The allocation statement.
+         */
+        private final AssignStmt stmt;
+
+        /**
+         * The escape state.
+         */
+        private State state = State.NO_ESCAPE;
+
+        /**
+         * The statement causing the escape.
+         */
+        private Stmt cause;
+
+        /**
+         * Why the object escapes.
+         */
+        private String reason;
+
+        /**
+         * Build a new {@link Allocation}.
+         *
+         * @param method the method holding the allocation.
+         * @param stmt   the allocation statement.
+         */
+        private Allocation( SootMethod method, AssignStmt stmt )
+        {
+            this.method = method;
+            this.stmt = stmt;
+        }
+
+        /**
+         * Record an escape, if it is worse than the ones already recorded.
+         *
+         * @param escape     the escape state.
+         * @param escapeStmt the statement causing the escape.
+         * @param why        why the object escapes.
+         */
+        private void escape( State escape, Stmt escapeStmt, String why )
+        {
+            if ( escape.compareTo( state ) > 0 )
+            {
+                state = escape;
+                cause = escapeStmt;
+                reason = why;
+            }
+        }
+
+        /**
+         * Get the method holding the allocation.
+         *
+         * @return the method.
+         */
+        public SootMethod getMethod()
+        {
+            return method;
+        }
+
+        /**
+         * Get the allocation statement.
+         *
+         * @return the statement.
+         */
+        public AssignStmt getStmt()
+        {
+            return stmt;
+        }
+
+        /**
+         * Get the escape state.
+         *
+         * @return the state.
+         */
+        public State getState()
+        {
+            return state;
+        }
+
+        /**
+         * Get the statement causing the escape.
+         *
+         * @return the statement, or <tt>null</tt> if the object does not escape.
+         */
+        public Stmt getCause()
+        {
+            return cause;
+        }
+
+        /**
+         * Get why the object escapes.
+         *
+         * @return the reason, or <tt>null</tt> if the object does not escape.
+         */
+        public String getReason()
+        {
+            return reason;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import soot.Scene;
+import soot.SootMethod;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mojo that reports which allocation sites of the application escape, and why.
+ * <p/>
+ * Only objects that do not escape can be scalar replaced by the JIT compiler. Each allocation site of the reachable
+ * application methods is classified as non-escaping, arg-escaping or globally escaping, along with the statement
+ * causing the escape, and written to <tt>escape-analysis.txt</tt> in {@link #reportsDirectory}. Allocations are ranked
+ * by escape state, then by loop nesting depth, as allocations in loops are the ones worth optimizing.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @see EscapeAnalysis
+ * @since 0.2
+ */
+@Mojo(
+    name = EscapeAnalysisMojo.NAME,
+    defaultPhase = LifecyclePhase.PROCESS_CLASSES,
+    threadSafe = false )
+public final class EscapeAnalysisMojo
+    extends AbstractAnalysisMojo
+{
+
+    /**
+     * Mojo name.
+     */
+    public static final String NAME = "escape-analysis";
+
+    /**
+     * The name of the report file.
+     */
+    public static final String REPORT_FILE = "escape-analysis.txt";
+
+    /**
+     * Also report the allocation sites that do not escape.
+     */
+    @Parameter( defaultValue = "false" )
+    protected boolean reportNonEscaping;
+
+    /**
+     * The allocation sites found by the analysis.
+     */
+    private List<EscapeAnalysis.Allocation> allocations;
+
+    /**
+     * The loop nesting depth of each allocation site.
+     */
+    private final Map<EscapeAnalysis.Allocation, Integer> depths = new HashMap<EscapeAnalysis.Allocation, Integer>();
+
+    @Override
+    protected String getPhaseName()
+    {
+        return "escape";
+    }
+
+    @Override
+    protected void analyze()
+    {
+        allocations = new EscapeAnalysis( Scene.v().getCallGraph() ).analyze( getReachableApplicationMethods() );
+
+        final Map<SootMethod, LoopNesting> nestings = new HashMap<SootMethod, LoopNesting>();
+        for ( EscapeAnalysis.Allocation allocation : allocations )
+        {
+            LoopNesting nesting = nestings.get( allocation.getMethod() );
+            if ( nesting == null )
+            {
+                nesting = new LoopNesting( allocation.getMethod().getActiveBody() );
+                nestings.put( allocation.getMethod(), nesting );
+            }
+            depths.put( allocation, nesting.getDepth( allocation.getStmt() ) );
+        }
+
+        Collections.sort( allocations, new Comparator<EscapeAnalysis.Allocation>()
+        {
+            public int compare( EscapeAnalysis.Allocation a, EscapeAnalysis.Allocation b )
+            {
+                if ( a.getState() != b.getState() )
+                {
+                    return b.getState().compareTo( a.getState() );
+                }
+                return depths.get( b ) - depths.get( a );
+            }
+        } );
+    }
+
+    @Override
+    protected void report()
+        throws MojoExecutionException
+    {
+        if ( allocations == null )
+        {
+            throw new MojoExecutionException( "Soot did not run the escape analysis" );
+        }
+
+        final Map<EscapeAnalysis.State, Integer> counts = new HashMap<EscapeAnalysis.State, Integer>();
+        for ( EscapeAnalysis.State state : EscapeAnalysis.State.values() )
+        {
+            counts.put( state, 0 );
+        }
+        final PrintWriter writer = openReport( REPORT_FILE );
+        try
+        {
+            writer.println( "state\tloop-depth\tmethod\tline\tallocation\treason\tcause" );
+            for ( EscapeAnalysis.Allocation allocation : allocations )
+            {
+                counts.put( allocation.getState(), counts.get( allocation.getState() ) + 1 );
+                if ( allocation.getState() == EscapeAnalysis.State.NO_ESCAPE && !reportNonEscaping )
+                {
+                    continue;
+                }
+                writer.println( allocation.getState() + "\t" + depths.get( allocation ) + "\t"
+                                + allocation.getMethod().getSignature() + "\t" + getLineNumber( allocation.getStmt() )
+                                + "\t" + allocation.getStmt().getRightOp().getType() + "\t"
+                                + ( allocation.getReason() == null ? "" : allocation.getReason() ) + "\t"
+                                + ( allocation.getCause() == null ? "" : allocation.getCause() ) );
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        getLog().info( "Analyzed " + allocations.size() + " allocation sites: "
+                       + counts.get( EscapeAnalysis.State.NO_ESCAPE ) + " non-escaping, "
+                       + counts.get( EscapeAnalysis.State.ARG_ESCAPE ) + " arg-escaping, "
+                       + counts.get( EscapeAnalysis.State.GLOBAL_ESCAPE ) + " globally escaping, see " + REPORT_FILE );
+    }
+}
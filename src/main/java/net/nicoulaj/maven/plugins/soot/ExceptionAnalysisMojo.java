@@ -0,0 +1,193 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import soot.Scene;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Mojo that reports the throw sites of the application used for control flow on hot paths.
+ * <p/>
+ * Each <tt>throw</tt> statement of the reachable application methods is written to <tt>exception-analysis.txt</tt> in
+ * {@link #reportsDirectory}, with where the thrown value comes from (a new throwable, a preallocated one or a rethrown
+ * one), whether creating it fills in a stack trace, and the handlers catching it. Hot throw sites, inside loops or
+ * unwinding to call sites inside loops, are ranked first, new throwables filling in their stack trace before the
+ * others.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @see ExceptionFlow
+ * @since 0.2
+ */
+@Mojo(
+    name = ExceptionAnalysisMojo.NAME,
+    defaultPhase = LifecyclePhase.PROCESS_CLASSES,
+    threadSafe = false )
+public final class ExceptionAnalysisMojo
+    extends AbstractAnalysisMojo
+{
+
+    /**
+     * Mojo name.
+     */
+    public static final String NAME = "exception-analysis";
+
+    /**
+     * The name of the report file.
+     */
+    public static final String REPORT_FILE = "exception-analysis.txt";
+
+    /**
+     * The maximum number of frames a thrown exception is followed through the call graph to find its handlers.
+     */
+    @Parameter( defaultValue = "5" )
+    protected int maxCatchFrames;
+
+    /**
+     * Also report the throw sites that are not hot.
+     */
+    @Parameter( defaultValue = "false" )
+    protected boolean reportColdThrows;
+
+    /**
+     * The number of hot throw sites logged.
+     */
+    @Parameter( defaultValue = "20" )
+    protected int logTopThrows;
+
+    /**
+     * The throw sites found by the analysis.
+     */
+    private List<ExceptionFlow.ThrowSite> sites;
+
+    @Override
+    protected String getPhaseName()
+    {
+        return "exceptions";
+    }
+
+    @Override
+    protected void analyze()
+    {
+        sites = new ExceptionFlow( Scene.v().getCallGraph(), maxCatchFrames ).analyze(
+            getReachableApplicationMethods() );
+        Collections.sort( sites, new Comparator<ExceptionFlow.ThrowSite>()
+        {
+            public int compare( ExceptionFlow.ThrowSite a, ExceptionFlow.ThrowSite b )
+            {
+                if ( a.isHot() != b.isHot() )
+                {
+                    return a.isHot() ? -1 : 1;
+                }
+                if ( isCostly( a ) != isCostly( b ) )
+                {
+                    return isCostly( a ) ? -1 : 1;
+                }
+                return b.getLoopDepth() - a.getLoopDepth();
+            }
+        } );
+    }
+
+    /**
+     * Whether a throw site allocates a new throwable filling in its stack trace.
+     *
+     * @param site the throw site.
+     * @return true if each throw pays for a stack trace.
+     */
+    private static boolean isCostly( ExceptionFlow.ThrowSite site )
+    {
+        return site.getOrigin() == ExceptionFlow.Origin.NEW && site.isStackTrace();
+    }
+
+    @Override
+    protected void report()
+        throws MojoExecutionException
+    {
+        if ( sites == null )
+        {
+            throw new MojoExecutionException( "Soot did not run the exception analysis" );
+        }
+
+        int hot = 0;
+        int costly = 0;
+        final PrintWriter writer = openReport( REPORT_FILE );
+        try
+        {
+            writer.println( "hot\torigin\tstack-trace\tloop-depth\tmethod\tline\ttype\tcaught-by" );
+            for ( ExceptionFlow.ThrowSite site : sites )
+            {
+                if ( site.isHot() )
+                {
+                    hot++;
+                    costly += isCostly( site ) ? 1 : 0;
+                }
+                else if ( !reportColdThrows )
+                {
+                    continue;
+                }
+                writer.println( site.isHot() + "\t" + site.getOrigin() + "\t" + site.isStackTrace() + "\t"
+                                + site.getLoopDepth() + "\t" + site.getMethod().getSignature() + "\t"
+                                + getLineNumber( site.getStmt() ) + "\t" + site.getType() + "\t"
+                                + formatCatches( site ) );
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        getLog().info( "Analyzed " + sites.size() + " throw sites, " + hot + " hot, " + costly
+                       + " of which allocate a new throwable with a stack trace, see " + REPORT_FILE );
+        for ( int i = 0; i < Math.min( logTopThrows, hot ); i++ )
+        {
+            getLog().info( "  " + sites.get( i ).getType() + " thrown in " + sites.get( i ).getMethod().getSignature()
+                           + ( isCostly( sites.get( i ) ) ? " (new, with stack trace)" : "" ) );
+        }
+    }
+
+    /**
+     * Format the handlers of a throw site as a report column.
+     *
+     * @param site the throw site.
+     * @return the handlers, as method, line and number of frames unwound.
+     */
+    private static String formatCatches( ExceptionFlow.ThrowSite site )
+    {
+        final StringBuilder builder = new StringBuilder();
+        for ( ExceptionFlow.Catch handler : site.getCatches() )
+        {
+            builder.append( builder.length() > 0 ? ", " : "" ).append( handler.getMethod().getSignature() ).append(
+                ':' ).append( getLineNumber( handler.getHandler() ) ).append( " (" ).append(
+                handler.getFrames() ).append( " frames" ).append( handler.getLoopDepth() > 0 ? ", in loop)" : ")" );
+        }
+        if ( site.isUncaught() )
+        {
+            builder.append( builder.length() > 0 ? ", " : "" ).append( "uncaught" );
+        }
+        if ( site.isTruncated() )
+        {
+            builder.append( builder.length() > 0 ? ", " : "" ).append( "..." );
+        }
+        return builder.toString();
+    }
+}
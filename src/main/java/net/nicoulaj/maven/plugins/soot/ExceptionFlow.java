@@ -0,0 +1,659 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import soot.Body;
+import soot.FastHierarchy;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Trap;
+import soot.Type;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.AnyNewExpr;
+import soot.jimple.AssignStmt;
+import soot.jimple.CaughtExceptionRef;
+import soot.jimple.FieldRef;
+import soot.jimple.IdentityStmt;
+import soot.jimple.Stmt;
+import soot.jimple.ThrowStmt;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inter-procedural analysis of the throw sites of Jimple bodies, finding where the thrown exceptions are caught.
+ * <p/>
+ * For each <tt>throw</tt> statement, the thrown value is traced to its definitions in the method, to tell new
+ * throwables, which fill in their stack trace unless their class overrides <tt>fillInStackTrace()</tt>, from
+ * preallocated ones read from fields. The traps of the method covering the throw statement are then searched for a
+ * handler of the thrown type, and if none matches, the traps covering the call sites of the method, following the call
+ * graph edges into it, up to a maximum number of frames. A throw site is hot if it is inside a loop, if its method is
+ * called from inside a loop, or if one of the call sites the exception unwinds to before being caught is inside a
+ * loop.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class ExceptionFlow
+{
+
+    /**
+     * Where a thrown value comes from.
+     */
+    public enum Origin
+    {
+
+        /**
+         * A throwable allocated in the method.
+         */
+        NEW,
+
+        /**
+         * A throwable read from a field.
+         */
+        PREALLOCATED,
+
+        /**
+         * A caught exception thrown again.
+         */
+        RETHROWN,
+
+        /**
+         * A parameter, the result of a call, or several of the above.
+         */
+        UNKNOWN
+    }
+
+    /**
+     * Sub-signature of the method filling in the stack trace of throwables.
+     */
+    private static final String FILL_IN_STACK_TRACE = "java.lang.Throwable fillInStackTrace()";
+
+    /**
+     * The call graph used to find the call sites of methods.
+     */
+    private final CallGraph callGraph;
+
+    /**
+     * The maximum number of frames an exception is followed through.
+     */
+    private final int maxFrames;
+
+    /**
+     * The class hierarchy used to match thrown types with handlers.
+     */
+    private final FastHierarchy hierarchy = Scene.v().getOrMakeFastHierarchy();
+
+    /**
+     * The loop nesting of the visited methods.
+     */
+    private final Map<SootMethod, LoopNesting> nestings = new HashMap<SootMethod, LoopNesting>();
+
+    /**
+     * The statement indexes of the visited methods.
+     */
+    private final Map<SootMethod, Map<Unit, Integer>> indexes = new HashMap<SootMethod, Map<Unit, Integer>>();
+
+    /**
+     * Build a new {@link ExceptionFlow}.
+     *
+     * @param callGraph the call graph used to find the call sites of methods.
+     * @param maxFrames the maximum number of frames an exception is followed through.
+     */
+    public ExceptionFlow( CallGraph callGraph, int maxFrames )
+    {
+        this.callGraph = callGraph;
+        this.maxFrames = maxFrames;
+    }
+
+    /**
+     * Analyze the throw sites of methods.
+     *
+     * @param methods the methods, with active bodies.
+     * @return the throw sites, in method and statement order.
+     */
+    public List<ThrowSite> analyze( Collection<SootMethod> methods )
+    {
+        final List<ThrowSite> sites = new ArrayList<ThrowSite>();
+        for ( SootMethod method : methods )
+        {
+            for ( Iterator it = method.getActiveBody().getUnits().iterator(); it.hasNext(); )
+            {
+                final Unit unit = (Unit) it.next();
+                if ( unit instanceof ThrowStmt )
+                {
+                    sites.add( analyze( method, (ThrowStmt) unit ) );
+                }
+            }
+        }
+        return sites;
+    }
+
+    /**
+     * Analyze a throw site.
+     *
+     * @param method the method holding the throw statement.
+     * @param stmt   the throw statement.
+     * @return the throw site.
+     */
+    private ThrowSite analyze( SootMethod method, ThrowStmt stmt )
+    {
+        final Type type = stmt.getOp().getType() instanceof RefType
+                          ? stmt.getOp().getType()
+                          : RefType.v( "java.lang.Throwable" );
+        final ThrowSite site = new ThrowSite( method, stmt, type, getOrigin( method.getActiveBody(), stmt.getOp() ),
+                                              fillsInStackTrace( type ), getNesting( method ).getDepth( stmt ) );
+
+        final Set<Edge> visited = new HashSet<Edge>();
+        final LinkedList<Frame> queue = new LinkedList<Frame>();
+        queue.add( new Frame( method, stmt, 0 ) );
+        while ( !queue.isEmpty() )
+        {
+            final Frame frame = queue.removeFirst();
+            final int depth = getNesting( frame.method ).getDepth( frame.unit );
+            final Unit handler = findHandler( frame.method, frame.unit, type );
+            if ( handler != null )
+            {
+                site.catches.add( new Catch( frame.method, handler, frame.frames, depth ) );
+                site.hot |= depth > 0;
+                continue;
+            }
+            if ( frame.frames > 0 )
+            {
+                site.hot |= depth > 0;
+            }
+
+            boolean called = false;
+            for ( Iterator it = callGraph.edgesInto( frame.method ); it.hasNext(); )
+            {
+                final Edge edge = (Edge) it.next();
+                final SootMethod caller = edge.src();
+                if ( edge.srcStmt() == null || !caller.isConcrete() || !caller.getDeclaringClass().isApplicationClass()
+                    || !visited.add( edge ) )
+                {
+                    continue;
+                }
+                called = true;
+                if ( frame.frames < maxFrames )
+                {
+                    caller.retrieveActiveBody();
+                    queue.add( new Frame( caller, edge.srcStmt(), frame.frames + 1 ) );
+                }
+                else
+                {
+                    site.truncated = true;
+                }
+            }
+            site.uncaught |= !called;
+        }
+        site.hot |= site.loopDepth > 0 || isCalledInLoop( method );
+        return site;
+    }
+
+    /**
+     * Whether a method is called from inside a loop of an application method.
+     *
+     * @param method the method.
+     * @return true if one of its call sites is inside a loop.
+     */
+    private boolean isCalledInLoop( SootMethod method )
+    {
+        for ( Iterator it = callGraph.edgesInto( method ); it.hasNext(); )
+        {
+            final Edge edge = (Edge) it.next();
+            final SootMethod caller = edge.src();
+            if ( edge.srcStmt() != null && caller.isConcrete() && caller.getDeclaringClass().isApplicationClass() )
+            {
+                caller.retrieveActiveBody();
+                if ( getNesting( caller ).getDepth( edge.srcStmt() ) > 0 )
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the handler of the first trap of a method covering a statement and catching a type.
+     *
+     * @param method the method.
+     * @param unit   the statement.
+     * @param type   the thrown type.
+     * @return the handler statement, or <tt>null</tt> if the type is not caught.
+     */
+    private Unit findHandler( SootMethod method, Unit unit, Type type )
+    {
+        final Map<Unit, Integer> index = getIndex( method );
+        final int position = index.get( unit );
+        for ( Iterator it = method.getActiveBody().getTraps().iterator(); it.hasNext(); )
+        {
+            final Trap trap = (Trap) it.next();
+            if ( index.get( trap.getBeginUnit() ) <= position && position < index.get( trap.getEndUnit() )
+                && hierarchy.canStoreType( type, trap.getException().getType() ) )
+            {
+                return trap.getHandlerUnit();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find where a thrown value comes from.
+     *
+     * @param body  the body holding the throw statement.
+     * @param value the thrown value.
+     * @return the origin.
+     */
+    private static Origin getOrigin( Body body, Value value )
+    {
+        Origin origin = null;
+        for ( Iterator it = body.getUnits().iterator(); it.hasNext(); )
+        {
+            final Stmt stmt = (Stmt) it.next();
+            final Origin definition;
+            if ( stmt instanceof AssignStmt && ( (AssignStmt) stmt ).getLeftOp() == value )
+            {
+                final Value right = ( (AssignStmt) stmt ).getRightOp();
+                definition = right instanceof AnyNewExpr
+                             ? Origin.NEW
+                             : right instanceof FieldRef ? Origin.PREALLOCATED : Origin.UNKNOWN;
+            }
+            else if ( stmt instanceof IdentityStmt && ( (IdentityStmt) stmt ).getLeftOp() == value )
+            {
+                definition = ( (IdentityStmt) stmt ).getRightOp() instanceof CaughtExceptionRef
+                             ? Origin.RETHROWN
+                             : Origin.UNKNOWN;
+            }
+            else
+            {
+                continue;
+            }
+            origin = origin == null || origin == definition ? definition : Origin.UNKNOWN;
+        }
+        return origin == null ? Origin.UNKNOWN : origin;
+    }
+
+    /**
+     * Whether the throwables of a type fill in their stack trace when created, that is whether no subclass of
+     * <tt>java.lang.Throwable</tt> in its hierarchy overrides <tt>fillInStackTrace()</tt>.
+     *
+     * @param type the throwable type.
+     * @return true if the stack trace is filled in.
+     */
+    private static boolean fillsInStackTrace( Type type )
+    {
+        SootClass sootClass = ( (RefType) type ).getSootClass();
+        while ( sootClass != null && !"java.lang.Throwable".equals( sootClass.getName() ) )
+        {
+            if ( sootClass.declaresMethod( FILL_IN_STACK_TRACE ) )
+            {
+                return false;
+            }
+            sootClass = sootClass.hasSuperclass() ? sootClass.getSuperclass() : null;
+        }
+        return true;
+    }
+
+    /**
+     * Get the loop nesting of a method, computing it once.
+     *
+     * @param method the method.
+     * @return the loop nesting.
+     */
+    private LoopNesting getNesting( SootMethod method )
+    {
+        LoopNesting nesting = nestings.get( method );
+        if ( nesting == null )
+        {
+            nesting = new LoopNesting( method.getActiveBody() );
+            nestings.put( method, nesting );
+        }
+        return nesting;
+    }
+
+    /**
+     * Get the statement indexes of a method, computing them once.
+     *
+     * @param method the method.
+     * @return the index of each statement in the body.
+     */
+    private Map<Unit, Integer> getIndex( SootMethod method )
+    {
+        Map<Unit, Integer> index = indexes.get( method );
+        if ( index == null )
+        {
+            index = new HashMap<Unit, Integer>();
+            for ( Iterator it = method.getActiveBody().getUnits().iterator(); it.hasNext(); )
+            {
+                index.put( (Unit) it.next(), index.size() );
+            }
+            indexes.put( method, index );
+        }
+        return index;
+    }
+
+    /**
+     * A statement an exception unwinds through.
+     */
+    private static final class Frame
+    {
+
+        /**
+         * The method.
+         */
+        private final SootMethod method;
+
+        /**
+         * The throw statement or the call site.
+         */
+        private final Unit unit;
+
+        /**
+         * The number of frames unwound from the throw site.
+         */
+        private final int frames;
+
+        /**
+         * Build a new {@link Frame}.
+         *
+         * @param method the method.
+         * @param unit   the throw statement or the call site.
+         * @param frames the number of frames unwound from the throw site.
+         */
+        private Frame( SootMethod method, Unit unit, int frames )
+        {
+            this.method = method;
+            this.unit = unit;
+            this.frames = frames;
+        }
+    }
+
+    /**
+     * A handler catching the exception of a throw site.
+     */
+    public static final class Catch
+    {
+
+        /**
+         * The method holding the handler.
+         */
+        private final SootMethod method;
+
+        /**
+         * The handler statement.
+         */
+        private final Unit handler;
+
+        /**
+         * The number of frames unwound from the throw site.
+         */
+        private final int frames;
+
+        /**
+         * The loop nesting depth of the statement the exception is caught at.
+         */
+        private final int loopDepth;
+
+        /**
+         * Build a new {@link Catch}.
+         *
+         * @param method    the method holding the handler.
+         * @param handler   the handler statement.
+         * @param frames    the number of frames unwound from the throw site.
+         * @param loopDepth the loop nesting depth of the statement the exception is caught at.
+         */
+        private Catch( SootMethod method, Unit handler, int frames, int loopDepth )
+        {
+            this.method = method;
+            this.handler = handler;
+            this.frames = frames;
+            this.loopDepth = loopDepth;
+        }
+
+        /**
+         * Get the method holding the handler.
+         *
+         * @return the method.
+         */
+        public SootMethod getMethod()
+        {
+            return method;
+        }
+
+        /**
+         * Get the handler statement.
+         *
+         * @return the statement.
+         */
+        public Unit getHandler()
+        {
+            return handler;
+        }
+
+        /**
+         * Get the number of frames unwound from the throw site.
+         *
+         * @return the number of frames, 0 if the exception is caught in the throwing method.
+         */
+        public int getFrames()
+        {
+            return frames;
+        }
+
+        /**
+         * Get the loop nesting depth of the throw statement or call site the exception is caught at.
+         *
+         * @return the loop depth.
+         */
+        public int getLoopDepth()
+        {
+            return loopDepth;
+        }
+    }
+
+    /**
+     * A throw site and where its exception is caught.
+     */
+    public static final class ThrowSite
+    {
+
+        /**
+         * The method holding the throw statement.
+         */
+        private final SootMethod method;
+
+        /**
+         * The throw statement.
+         */
+        private final ThrowStmt stmt;
+
+        /**
+         * The thrown type.
+         */
+        private final Type type;
+
+        /**
+         * Where the thrown value comes from.
+         */
+        private final Origin origin;
+
+        /**
+         * Whether the thrown type fills in its stack trace.
+         */
+        private final boolean stackTrace;
+
+        /**
+         * The loop nesting depth of the throw statement.
+         */
+        private final int loopDepth;
+
+        /**
+         * The handlers catching the exception.
+         */
+        private final List<Catch> catches = new ArrayList<Catch>();
+
+        /**
+         * Whether the exception may propagate out of an entry point.
+         */
+        private boolean uncaught;
+
+        /**
+         * Whether the exception was not followed through all the frames it unwinds.
+         */
+        private boolean truncated;
+
+        /**
+         * Whether the throw statement, a call site of its method or a call site the exception unwinds to is inside a
+         * loop.
+         */
+        private boolean hot;
+
+        /**
+         * Build a new {@link ThrowSite}.
+         *
+         * @param method     the method holding the throw statement.
+         * @param stmt       the throw statement.
+         * @param type       the thrown type.
+         * @param origin     where the thrown value comes from.
+         * @param stackTrace whether the thrown type fills in its stack trace.
+         * @param loopDepth  the loop nesting depth of the throw statement.
+         */
+        private ThrowSite( SootMethod method, ThrowStmt stmt, Type type, Origin origin, boolean stackTrace,
+                           int loopDepth )
+        {
+            this.method = method;
+            this.stmt = stmt;
+            this.type = type;
+            this.origin = origin;
+            this.stackTrace = stackTrace;
+            this.loopDepth = loopDepth;
+        }
+
+        /**
+         * Get the method holding the throw statement.
+         *
+         * @return the method.
+         */
+        public SootMethod getMethod()
+        {
+            return method;
+        }
+
+        /**
+         * Get the throw statement.
+         *
+         * @return the statement.
+         */
+        public ThrowStmt getStmt()
+        {
+            return stmt;
+        }
+
+        /**
+         * Get the thrown type.
+         *
+         * @return the type.
+         */
+        public Type getType()
+        {
+            return type;
+        }
+
+        /**
+         * Get where the thrown value comes from.
+         *
+         * @return the origin.
+         */
+        public Origin getOrigin()
+        {
+            return origin;
+        }
+
+        /**
+         * Whether the thrown type fills in its stack trace when created.
+         *
+         * @return true if the stack trace is filled in.
+         */
+        public boolean isStackTrace()
+        {
+            return stackTrace;
+        }
+
+        /**
+         * Get the loop nesting depth of the throw statement.
+         *
+         * @return the loop depth.
+         */
+        public int getLoopDepth()
+        {
+            return loopDepth;
+        }
+
+        /**
+         * Get the handlers catching the exception.
+         *
+         * @return the handlers, in breadth first order of the frames unwound.
+         */
+        public List<Catch> getCatches()
+        {
+            return catches;
+        }
+
+        /**
+         * Whether the exception may propagate out of an entry point.
+         *
+         * @return true if some path leaves the exception uncaught.
+         */
+        public boolean isUncaught()
+        {
+            return uncaught;
+        }
+
+        /**
+         * Whether the exception was not followed through all the frames it unwinds.
+         *
+         * @return true if the maximum number of frames was reached.
+         */
+        public boolean isTruncated()
+        {
+            return truncated;
+        }
+
+        /**
+         * Whether the throw statement, a call site of its method or a call site the exception unwinds to is inside a
+         * loop.
+         *
+         * @return true if the throw site is hot.
+         */
+        public boolean isHot()
+        {
+            return hot;
+        }
+    }
+}
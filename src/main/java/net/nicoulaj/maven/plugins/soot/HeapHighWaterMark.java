@@ -0,0 +1,132 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.apache.maven.plugin.logging.Log;
+import soot.Body;
+import soot.BodyTransformer;
+import soot.PackManager;
+import soot.Scene;
+import soot.Transform;
+
+import java.util.Map;
+
+/**
+ * Releases the results of the whole program analyses when the heap usage exceeds a high-water mark once Soot has
+ * moved on to the body packs.
+ * <p/>
+ * In whole program mode, Soot keeps the points-to analysis, usually the largest structure of the run, until it exits,
+ * while the body packs and the output writing still allocate for every class. The method bodies cannot be released
+ * instead: Soot does not build a body again once released, and the body packs still have to transform them. Once the
+ * points-to and side effect analyses are released, body transformations querying them get the conservative answers
+ * Soot gives when there is none. The call graph is kept, as body transformations and the startup class order use it.
+ *
+ * @author <a href="mailto:julien.nicoulaj@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class HeapHighWaterMark
+{
+
+    /**
+     * The body packs the check is added to: Soot applies <tt>stp</tt> instead of <tt>jtp</tt> to Shimple bodies.
+     */
+    private static final String[] BODY_PACKS = { "jtp", "stp" };
+
+    /**
+     * The heap usage above which the analyses are released, in percent of the maximum heap size.
+     */
+    private final int percent;
+
+    /**
+     * The log the release is reported to.
+     */
+    private final Log log;
+
+    /**
+     * Whether the analyses were released.
+     */
+    private boolean released;
+
+    /**
+     * Build a new {@link HeapHighWaterMark}.
+     *
+     * @param percent the heap usage above which the analyses are released, in percent of the maximum heap size, 0 to
+     *                always release them.
+     * @param log     the log the release is reported to.
+     */
+    public HeapHighWaterMark( int percent, Log log )
+    {
+        this.percent = percent;
+        this.log = log;
+    }
+
+    /**
+     * Add the check to the body packs, so that it runs on each body until the analyses are released.
+     */
+    public void install()
+    {
+        final BodyTransformer transformer = new BodyTransformer()
+        {
+            @Override
+            protected void internalTransform( Body b, String phaseName, Map options )
+            {
+                check();
+            }
+        };
+        for ( String packName : BODY_PACKS )
+        {
+            if ( PackManager.v().hasPack( packName ) )
+            {
+                PackManager.v().getPack( packName ).add( new Transform( packName + ".highwatermark", transformer ) );
+            }
+        }
+    }
+
+    /**
+     * Release the analyses if the heap usage exceeds the high-water mark and they were not released yet.
+     *
+     * @return true if the analyses were released by this call.
+     */
+    boolean check()
+    {
+        if ( released )
+        {
+            return false;
+        }
+        final Runtime runtime = Runtime.getRuntime();
+        if ( !exceeds( runtime.totalMemory() - runtime.freeMemory(), runtime.maxMemory() ) )
+        {
+            return false;
+        }
+        Scene.v().releasePointsToAnalysis();
+        Scene.v().releaseSideEffectAnalysis();
+        released = true;
+        log.info( "Heap usage exceeds " + percent + "% of the maximum heap size, released the points-to analysis" );
+        return true;
+    }
+
+    /**
+     * Whether a heap usage exceeds the high-water mark.
+     *
+     * @param used the used heap size, in bytes.
+     * @param max  the maximum heap size, in bytes.
+     * @return true if the used heap size exceeds the high-water mark.
+     */
+    boolean exceeds( long used, long max )
+    {
+        return used * 100 >= max * percent;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import soot.ClassProvider;
+import soot.ClassSource;
+import soot.CoffiClassSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Soot class provider locating class files through a {@link ClasspathIndex}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class IndexedClassProvider
+    implements ClassProvider
+{
+
+    /**
+     * The classpath index.
+     */
+    private final ClasspathIndex index;
+
+    /**
+     * Build a new {@link IndexedClassProvider}.
+     *
+     * @param index the classpath index.
+     */
+    public IndexedClassProvider( ClasspathIndex index )
+    {
+        this.index = index;
+    }
+
+    public ClassSource find( String className )
+    {
+        final InputStream in;
+        try
+        {
+            in = index.open( className );
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( "Cannot open class file of " + className, e );
+        }
+        return in == null ? null : new CoffiClassSource( className, in );
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Rewrites JAR files so that the classes loaded at startup come first, in load order.
+ * <p/>
+ * Class loading at startup then reads the archive sequentially instead of seeking across it. The startup classes can
+ * also be stored uncompressed, so that they need no inflation.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class JarLayout
+{
+
+    /**
+     * Class loading lines of <tt>-verbose:class</tt> logs: <tt>[Loaded a.B from ...]</tt> up to Java 8,
+     * <tt>[...][class,load] a.B source: ...</tt> from Java 9.
+     */
+    private static final Pattern LOG_LINE = Pattern.compile( "\\[(?:Loaded |.*\\[class,load\\] ?)([^\\s\\]]+).*" );
+
+    /**
+     * Lines of class lists, such as the ones written by <tt>-XX:DumpLoadedClassList</tt>.
+     */
+    private static final Pattern LIST_LINE = Pattern.compile( "[\\w$/.]+" );
+
+    /**
+     * Utility class, not instantiable.
+     */
+    private JarLayout()
+    {
+    }
+
+    /**
+     * Read the classes loaded by a program from a <tt>-verbose:class</tt> log or a class list.
+     *
+     * @param file the log file.
+     * @return the class names, in load order.
+     * @throws IOException if the file could not be read.
+     */
+    public static List<String> readClassLoadLog( File file )
+        throws IOException
+    {
+        final Set<String> classes = new LinkedHashSet<String>();
+        final BufferedReader reader = new BufferedReader( new FileReader( file ) );
+        try
+        {
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                final String className = parseClassLoadLine( line.trim() );
+                if ( className != null )
+                {
+                    classes.add( className );
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return new ArrayList<String>( classes );
+    }
+
+    /**
+     * Parse the loaded class name of a class loading log line.
+     *
+     * @param line the line.
+     * @return the class name, or <tt>null</tt> if the line does not log a class loading.
+     */
+    static String parseClassLoadLine( String line )
+    {
+        final Matcher log = LOG_LINE.matcher( line );
+        if ( log.matches() )
+        {
+            return log.group( 1 );
+        }
+        if ( LIST_LINE.matcher( line ).matches() )
+        {
+            return line.replace( '/', '.' );
+        }
+        return null;
+    }
+
+    /**
+     * Rewrite a JAR file with the manifest first, then the given classes in order, then the other entries in their
+     * original order.
+     *
+     * @param jar         the JAR file, replaced.
+     * @param classNames  the classes to write first, in order. Classes missing from the JAR are ignored.
+     * @param storeFirsts whether to store the given classes uncompressed.
+     * @return the number of classes moved first.
+     * @throws IOException if the JAR could not be rewritten.
+     */
+    public static int rewrite( File jar, List<String> classNames, boolean storeFirsts )
+        throws IOException
+    {
+        final File temporary = new File( jar.getAbsoluteFile().getParentFile(), jar.getName() + ".tmp" );
+        final ZipFile in = new ZipFile( jar );
+        int moved = 0;
+        try
+        {
+            final Map<String, ZipEntry> entries = new LinkedHashMap<String, ZipEntry>();
+            for ( Enumeration<? extends ZipEntry> it = in.entries(); it.hasMoreElements(); )
+            {
+                final ZipEntry entry = it.nextElement();
+                entries.put( entry.getName(), entry );
+            }
+
+            final ZipOutputStream out = new ZipOutputStream( new FileOutputStream( temporary ) );
+            try
+            {
+                for ( String name : new String[]{ "META-INF/", OutputUtils.MANIFEST_PATH } )
+                {
+                    if ( entries.containsKey( name ) )
+                    {
+                        copy( in, entries.remove( name ), out, false );
+                    }
+                }
+                for ( String className : classNames )
+                {
+                    final ZipEntry entry = entries.remove( className.replace( '.', '/' ) + ".class" );
+                    if ( entry != null )
+                    {
+                        copy( in, entry, out, storeFirsts );
+                        moved++;
+                    }
+                }
+                for ( ZipEntry entry : entries.values() )
+                {
+                    copy( in, entry, out, false );
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        if ( !jar.delete() || !temporary.renameTo( jar ) )
+        {
+            throw new IOException( "Failed replacing " + jar + " with " + temporary );
+        }
+        return moved;
+    }
+
+    /**
+     * Copy an entry of a ZIP file to another.
+     *
+     * @param in     the source ZIP file.
+     * @param entry  the entry.
+     * @param out    the destination ZIP stream.
+     * @param stored whether to store the entry uncompressed.
+     * @throws IOException if the entry could not be copied.
+     */
+    private static void copy( ZipFile in, ZipEntry entry, ZipOutputStream out, boolean stored )
+        throws IOException
+    {
+        final InputStream input = in.getInputStream( entry );
+        final byte[] data;
+        try
+        {
+            data = IOUtil.toByteArray( input );
+        }
+        finally
+        {
+            IOUtil.close( input );
+        }
+
+        final ZipEntry copy = new ZipEntry( entry.getName() );
+        copy.setTime( entry.getTime() );
+        if ( stored )
+        {
+            final CRC32 crc = new CRC32();
+            crc.update( data );
+            copy.setMethod( ZipEntry.STORED );
+            copy.setSize( data.length );
+            copy.setCompressedSize( data.length );
+            copy.setCrc( crc.getValue() );
+        }
+        out.putNextEntry( copy );
+        out.write( data );
+        out.closeEntry();
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks the bytecode size of methods against the HotSpot JIT compilation and inlining limits.
+ * <p/>
+ * Methods larger than <tt>-XX:HugeMethodLimit</tt> are never compiled, methods larger than
+ * <tt>-XX:FreqInlineSize</tt> are never inlined, and methods larger than <tt>-XX:MaxInlineSize</tt> are only inlined
+ * when hot.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class JitLimits
+{
+
+    /**
+     * The JIT limits, by increasing severity.
+     */
+    public enum Limit
+    {
+        /**
+         * <tt>-XX:MaxInlineSize</tt>: the method is only inlined when hot.
+         */
+        MAX_INLINE_SIZE,
+
+        /**
+         * <tt>-XX:FreqInlineSize</tt>: the method is never inlined.
+         */
+        FREQ_INLINE_SIZE,
+
+        /**
+         * <tt>-XX:HugeMethodLimit</tt>: the method is never compiled.
+         */
+        HUGE_METHOD_LIMIT
+    }
+
+    /**
+     * The HotSpot default of <tt>-XX:HugeMethodLimit</tt>.
+     */
+    public static final int DEFAULT_HUGE_METHOD_LIMIT = 8000;
+
+    /**
+     * The HotSpot default of <tt>-XX:FreqInlineSize</tt> on x86_64.
+     */
+    public static final int DEFAULT_FREQ_INLINE_SIZE = 325;
+
+    /**
+     * The HotSpot default of <tt>-XX:MaxInlineSize</tt>.
+     */
+    public static final int DEFAULT_MAX_INLINE_SIZE = 35;
+
+    /**
+     * The size limits, indexed by {@link Limit} ordinal.
+     */
+    private final int[] limits;
+
+    /**
+     * Build a new {@link JitLimits}.
+     *
+     * @param hugeMethodLimit the size above which methods are never compiled.
+     * @param freqInlineSize  the size above which methods are never inlined.
+     * @param maxInlineSize   the size above which methods are only inlined when hot.
+     */
+    public JitLimits( int hugeMethodLimit, int freqInlineSize, int maxInlineSize )
+    {
+        this.limits = new int[]{ maxInlineSize, freqInlineSize, hugeMethodLimit };
+    }
+
+    /**
+     * Get the most severe limit a method size exceeds.
+     *
+     * @param size the bytecode size.
+     * @return the limit, or <tt>null</tt> if the size is within all limits.
+     */
+    public Limit getExceededLimit( int size )
+    {
+        for ( int i = limits.length - 1; i >= 0; i-- )
+        {
+            if ( size > limits[i] )
+            {
+                return Limit.values()[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check the methods of a class.
+     *
+     * @param output the header of the class as written by Soot.
+     * @param input  the header of the class as read by Soot, or <tt>null</tt> if the class was generated.
+     * @return the methods exceeding a limit.
+     */
+    public List<Violation> check( ClassHeader output, ClassHeader input )
+    {
+        final Map<String, Integer> inputSizes = new HashMap<String, Integer>();
+        if ( input != null )
+        {
+            for ( ClassHeader.Member method : input.getMethods() )
+            {
+                inputSizes.put( method.getName() + method.getDescriptor(), method.getCodeLength() );
+            }
+        }
+
+        final List<Violation> violations = new ArrayList<Violation>();
+        for ( ClassHeader.Member method : output.getMethods() )
+        {
+            final Limit limit = getExceededLimit( method.getCodeLength() );
+            if ( limit != null )
+            {
+                final Integer inputSize = inputSizes.get( method.getName() + method.getDescriptor() );
+                violations.add( new Violation( output.getName(), method.getName() + method.getDescriptor(), limit,
+                                               method.getCodeLength(), inputSize == null ? -1 : inputSize ) );
+            }
+        }
+        return violations;
+    }
+
+    /**
+     * Write violations to a tab separated report file.
+     *
+     * @param file       the report file.
+     * @param violations the violations.
+     * @throws IOException if the report could not be written.
+     */
+    public static void writeReport( File file, List<Violation> violations )
+        throws IOException
+    {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        final PrintWriter writer = new PrintWriter( new FileWriter( file ) );
+        try
+        {
+            writer.println( "limit\tsize\tinput-size\tdelta\tclass\tmethod" );
+            for ( Violation violation : violations )
+            {
+                final String input = violation.getInputSize() < 0
+                                     ? "-\t-"
+                                     : violation.getInputSize() + "\t" + violation.getDelta();
+                writer.println( violation.getLimit() + "\t" + violation.getSize() + "\t" + input + "\t"
+                                + violation.getClassName() + "\t" + violation.getMethod() );
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * A method exceeding a JIT limit.
+     */
+    public static final class Violation
+    {
+
+        /**
+         * The name of the class declaring the method.
+         */
+        private final String className;
+
+        /**
+         * The method name and descriptor.
+         */
+        private final String method;
+
+        /**
+         * The most severe limit exceeded.
+         */
+        private final Limit limit;
+
+        /**
+         * The bytecode size written by Soot.
+         */
+        private final int size;
+
+        /**
+         * The bytecode size read by Soot, -1 if the method was generated.
+         */
+        private final int inputSize;
+
+        /**
+         * Build a new {@link Violation}.
+         *
+         * @param className the name of the class declaring the method.
+         * @param method    the method name and descriptor.
+         * @param limit     the most severe limit exceeded.
+         * @param size      the bytecode size written by Soot.
+         * @param inputSize the bytecode size read by Soot, -1 if the method was generated.
+         */
+        private Violation( String className, String method, Limit limit, int size, int inputSize )
+        {
+            this.className = className;
+            this.method = method;
+            this.limit = limit;
+            this.size = size;
+            this.inputSize = inputSize;
+        }
+
+        /**
+         * Get the name of the class declaring the method.
+         *
+         * @return the class name.
+         */
+        public String getClassName()
+        {
+            return className;
+        }
+
+        /**
+         * Get the method name and descriptor.
+         *
+         * @return the method.
+         */
+        public String getMethod()
+        {
+            return method;
+        }
+
+        /**
+         * Get the most severe limit exceeded.
+         *
+         * @return the limit.
+         */
+        public Limit getLimit()
+        {
+            return limit;
+        }
+
+        /**
+         * Get the bytecode size written by Soot.
+         *
+         * @return the size.
+         */
+        public int getSize()
+        {
+            return size;
+        }
+
+        /**
+         * Get the bytecode size read by Soot.
+         *
+         * @return the size, -1 if the method was generated.
+         */
+        public int getInputSize()
+        {
+            return inputSize;
+        }
+
+        /**
+         * Get the size change of the method.
+         *
+         * @return the size written by Soot minus the size read, 0 if the method was generated.
+         */
+        public int getDelta()
+        {
+            return inputSize < 0 ? 0 : size - inputSize;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the CSV results files written by <a href="http://openjdk.java.net/projects/code-tools/jmh/">JMH</a> with
+ * <tt>-rf csv</tt>, along with the allocation rates measured by the <tt>gc</tt> profiler.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class JmhResults
+{
+
+    /**
+     * Name of the secondary metric of the <tt>gc</tt> profiler holding the bytes allocated per operation.
+     */
+    public static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+    /**
+     * Utility class, not instantiable.
+     */
+    private JmhResults()
+    {
+    }
+
+    /**
+     * Read a JMH CSV results file.
+     *
+     * @param file the results file.
+     * @return the scores indexed by benchmark name, followed by its parameter values if any, in file order.
+     * @throws IOException if the file could not be read or is not a JMH CSV results file.
+     */
+    public static Map<String, Score> read( File file )
+        throws IOException
+    {
+        final Map<String, Score> scores = new LinkedHashMap<String, Score>();
+        final BufferedReader reader =
+            new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+        try
+        {
+            final String header = reader.readLine();
+            if ( header == null || !header.startsWith( "\"Benchmark\"" ) )
+            {
+                throw new IOException( file + " is not a JMH CSV results file" );
+            }
+            final int columns = parseLine( header ).size();
+
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                final List<String> fields = parseLine( line );
+                if ( fields.size() < 7 )
+                {
+                    continue;
+                }
+                String benchmark = fields.get( 0 );
+                String metric = null;
+                final int separator = benchmark.indexOf( ':' );
+                if ( separator >= 0 )
+                {
+                    metric = benchmark.substring( separator + 1 ).replaceFirst( "^[^A-Za-z]+", "" );
+                    benchmark = benchmark.substring( 0, separator );
+                }
+                for ( int i = 7; i < Math.min( columns, fields.size() ); i++ )
+                {
+                    benchmark += " " + fields.get( i );
+                }
+
+                final double value = parseNumber( fields.get( 4 ) );
+                if ( metric == null )
+                {
+                    scores.put( benchmark, new Score( fields.get( 1 ), value, parseNumber( fields.get( 5 ) ),
+                                                      fields.get( 6 ) ) );
+                }
+                else if ( ALLOCATION_METRIC.equals( metric ) && scores.containsKey( benchmark ) )
+                {
+                    scores.get( benchmark ).allocation = value;
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return scores;
+    }
+
+    /**
+     * Split a CSV line into fields, unquoting them.
+     *
+     * @param line the line.
+     * @return the fields.
+     */
+    static List<String> parseLine( String line )
+    {
+        final List<String> fields = new ArrayList<String>();
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for ( int i = 0; i < line.length(); i++ )
+        {
+            final char c = line.charAt( i );
+            if ( c == '"' )
+            {
+                if ( quoted && i + 1 < line.length() && line.charAt( i + 1 ) == '"' )
+                {
+                    field.append( c );
+                    i++;
+                }
+                else
+                {
+                    quoted = !quoted;
+                }
+            }
+            else if ( c == ',' && !quoted )
+            {
+                fields.add( field.toString() );
+                field.setLength( 0 );
+            }
+            else
+            {
+                field.append( c );
+            }
+        }
+        fields.add( field.toString() );
+        return fields;
+    }
+
+    /**
+     * Parse a number of a results file.
+     *
+     * @param value the value.
+     * @return the number, <tt>NaN</tt> if the value is empty or not a number.
+     */
+    private static double parseNumber( String value )
+    {
+        try
+        {
+            return Double.parseDouble( value.trim() );
+        }
+        catch ( NumberFormatException e )
+        {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Compute the geometric mean of the speedups of the benchmarks of a configuration compared to a baseline.
+     *
+     * @param baseline the baseline scores.
+     * @param scores   the scores of the configuration.
+     * @return the geometric mean speedup, over the benchmarks present in both, <tt>NaN</tt> if there are none.
+     */
+    public static double getMeanSpeedup( Map<String, Score> baseline, Map<String, Score> scores )
+    {
+        double logSum = 0;
+        int count = 0;
+        for ( Map.Entry<String, Score> entry : scores.entrySet() )
+        {
+            final Score reference = baseline.get( entry.getKey() );
+            if ( reference != null )
+            {
+                final double speedup = entry.getValue().getSpeedup( reference );
+                if ( speedup > 0 && !Double.isInfinite( speedup ) )
+                {
+                    logSum += Math.log( speedup );
+                    count++;
+                }
+            }
+        }
+        return count == 0 ? Double.NaN : Math.exp( logSum / count );
+    }
+
+    /**
+     * The score of a benchmark.
+     */
+    public static final class Score
+    {
+
+        /**
+         * The benchmark mode: <tt>thrpt</tt>, <tt>avgt</tt>, <tt>sample</tt> or <tt>ss</tt>.
+         */
+        private final String mode;
+
+        /**
+         * The score.
+         */
+        private final double value;
+
+        /**
+         * The score error.
+         */
+        private final double error;
+
+        /**
+         * The score unit.
+         */
+        private final String unit;
+
+        /**
+         * The bytes allocated per operation, <tt>NaN</tt> if not measured.
+         */
+        private double allocation = Double.NaN;
+
+        /**
+         * Build a new {@link Score}.
+         *
+         * @param mode  the benchmark mode.
+         * @param value the score.
+         * @param error the score error.
+         * @param unit  the score unit.
+         */
+        Score( String mode, double value, double error, String unit )
+        {
+            this.mode = mode;
+            this.value = value;
+            this.error = error;
+            this.unit = unit;
+        }
+
+        /**
+         * Get the benchmark mode.
+         *
+         * @return the mode.
+         */
+        public String getMode()
+        {
+            return mode;
+        }
+
+        /**
+         * Get the score.
+         *
+         * @return the score.
+         */
+        public double getValue()
+        {
+            return value;
+        }
+
+        /**
+         * Get the score error.
+         *
+         * @return the error, <tt>NaN</tt> if not measured.
+         */
+        public double getError()
+        {
+            return error;
+        }
+
+        /**
+         * Get the score unit.
+         *
+         * @return the unit.
+         */
+        public String getUnit()
+        {
+            return unit;
+        }
+
+        /**
+         * Get the bytes allocated per operation.
+         *
+         * @return the allocation, <tt>NaN</tt> if not measured.
+         */
+        public double getAllocation()
+        {
+            return allocation;
+        }
+
+        /**
+         * Compute the speedup of this score compared to a reference score, taking into account whether higher scores
+         * are better (throughput) or worse (time).
+         *
+         * @param reference the reference score.
+         * @return the speedup, greater than 1 if this score is better.
+         */
+        public double getSpeedup( Score reference )
+        {
+            return "thrpt".equals( mode ) ? value / reference.value : reference.value / value;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedList;
+
+/**
+ * Minimal streaming JSON writer, producing compact JSON.
+ * <p/>
+ * Commas between members and elements are handled by the writer, callers only open and close structures and write
+ * names and values.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class JsonWriter
+{
+
+    /**
+     * The underlying writer.
+     */
+    private final Writer out;
+
+    /**
+     * For each open structure, whether it already holds a member or element.
+     */
+    private final LinkedList<Boolean> nonEmpty = new LinkedList<Boolean>();
+
+    /**
+     * Whether a member name was just written, so that the next value must not be preceded by a comma.
+     */
+    private boolean afterName;
+
+    /**
+     * Constructor.
+     *
+     * @param out the writer to write JSON to.
+     */
+    public JsonWriter( Writer out )
+    {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject()
+        throws IOException
+    {
+        beforeValue();
+        out.write( '{' );
+        nonEmpty.addFirst( false );
+        return this;
+    }
+
+    public JsonWriter endObject()
+        throws IOException
+    {
+        nonEmpty.removeFirst();
+        out.write( '}' );
+        return this;
+    }
+
+    public JsonWriter beginArray()
+        throws IOException
+    {
+        beforeValue();
+        out.write( '[' );
+        nonEmpty.addFirst( false );
+        return this;
+    }
+
+    public JsonWriter endArray()
+        throws IOException
+    {
+        nonEmpty.removeFirst();
+        out.write( ']' );
+        return this;
+    }
+
+    public JsonWriter name( String name )
+        throws IOException
+    {
+        beforeValue();
+        string( name );
+        out.write( ':' );
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value( String value )
+        throws IOException
+    {
+        beforeValue();
+        if ( value == null )
+        {
+            out.write( "null" );
+        }
+        else
+        {
+            string( value );
+        }
+        return this;
+    }
+
+    public JsonWriter value( Number value )
+        throws IOException
+    {
+        beforeValue();
+        out.write( value == null ? "null" : value.toString() );
+        return this;
+    }
+
+    public JsonWriter value( boolean value )
+        throws IOException
+    {
+        beforeValue();
+        out.write( value ? "true" : "false" );
+        return this;
+    }
+
+    /**
+     * Write a comma if the current structure already holds a member or element.
+     *
+     * @throws IOException if writing failed.
+     */
+    private void beforeValue()
+        throws IOException
+    {
+        if ( afterName )
+        {
+            afterName = false;
+            return;
+        }
+        if ( !nonEmpty.isEmpty() )
+        {
+            if ( nonEmpty.getFirst() )
+            {
+                out.write( ',' );
+            }
+            else
+            {
+                nonEmpty.set( 0, true );
+            }
+        }
+    }
+
+    /**
+     * Write a quoted and escaped string.
+     *
+     * @param value the string.
+     * @throws IOException if writing failed.
+     */
+    private void string( String value )
+        throws IOException
+    {
+        out.write( '"' );
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            final char c = value.charAt( i );
+            switch ( c )
+            {
+                case '"':
+                    out.write( "\\\"" );
+                    break;
+                case '\\':
+                    out.write( "\\\\" );
+                    break;
+                case '\n':
+                    out.write( "\\n" );
+                    break;
+                case '\r':
+                    out.write( "\\r" );
+                    break;
+                case '\t':
+                    out.write( "\\t" );
+                    break;
+                default:
+                    if ( c < 0x20 )
+                    {
+                        out.write( String.format( "\\u%04x", (int) c ) );
+                    }
+                    else
+                    {
+                        out.write( c );
+                    }
+            }
+        }
+        out.write( '"' );
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import soot.Body;
+import soot.Unit;
+import soot.toolkits.graph.BriefUnitGraph;
+import soot.toolkits.graph.MHGDominatorsFinder;
+import soot.toolkits.graph.UnitGraph;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes the loop nesting depth of the statements of a method body.
+ * <p/>
+ * Loops are the natural loops of the control flow graph: a back edge goes from a statement to a statement dominating
+ * it, the loop header, and the loop body is made of the statements that reach the back edge source without going
+ * through the header. Back edges sharing a header form a single loop.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class LoopNesting
+{
+
+    /**
+     * The loop depth of each statement inside a loop.
+     */
+    private final Map<Unit, Integer> depths = new HashMap<Unit, Integer>();
+
+    /**
+     * The number of loops.
+     */
+    private final int loopCount;
+
+    /**
+     * Compute the loop nesting of a body.
+     *
+     * @param body the body.
+     */
+    public LoopNesting( Body body )
+    {
+        final UnitGraph graph = new BriefUnitGraph( body );
+        final MHGDominatorsFinder dominators = new MHGDominatorsFinder( graph );
+
+        final Map<Unit, Set<Unit>> loops = new HashMap<Unit, Set<Unit>>();
+        for ( Iterator units = body.getUnits().iterator(); units.hasNext(); )
+        {
+            final Unit unit = (Unit) units.next();
+            for ( Iterator successors = graph.getSuccsOf( unit ).iterator(); successors.hasNext(); )
+            {
+                final Unit header = (Unit) successors.next();
+                if ( dominators.isDominatedBy( unit, header ) )
+                {
+                    Set<Unit> loop = loops.get( header );
+                    if ( loop == null )
+                    {
+                        loop = new HashSet<Unit>();
+                        loop.add( header );
+                        loops.put( header, loop );
+                    }
+                    addLoopBody( graph, loop, unit );
+                }
+            }
+        }
+
+        for ( Set<Unit> loop : loops.values() )
+        {
+            for ( Unit unit : loop )
+            {
+                final Integer depth = depths.get( unit );
+                depths.put( unit, depth == null ? 1 : depth + 1 );
+            }
+        }
+        loopCount = loops.size();
+    }
+
+    /**
+     * Add to a loop the statements reaching a back edge source without going through the loop header.
+     *
+     * @param graph  the control flow graph.
+     * @param loop   the loop statements, already holding the header.
+     * @param source the back edge source.
+     */
+    private static void addLoopBody( UnitGraph graph, Set<Unit> loop, Unit source )
+    {
+        final LinkedList<Unit> queue = new LinkedList<Unit>();
+        if ( loop.add( source ) )
+        {
+            queue.add( source );
+        }
+        while ( !queue.isEmpty() )
+        {
+            for ( Iterator predecessors = graph.getPredsOf( queue.removeFirst() ).iterator(); predecessors.hasNext(); )
+            {
+                final Unit predecessor = (Unit) predecessors.next();
+                if ( loop.add( predecessor ) )
+                {
+                    queue.add( predecessor );
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the loop nesting depth of a statement.
+     *
+     * @param unit the statement.
+     * @return the number of loops containing the statement, 0 outside loops.
+     */
+    public int getDepth( Unit unit )
+    {
+        final Integer depth = depths.get( unit );
+        return depth == null ? 0 : depth;
+    }
+
+    /**
+     * Get the number of loops of the body.
+     *
+     * @return the number of loops.
+     */
+    public int getLoopCount()
+    {
+        return loopCount;
+    }
+}
@@ -0,0 +1,584 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.codehaus.plexus.util.FileUtils;
+import soot.Body;
+import soot.Local;
+import soot.SootMethod;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.ArrayRef;
+import soot.jimple.AssignStmt;
+import soot.jimple.ClassConstant;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.IntConstant;
+import soot.jimple.InvokeExpr;
+import soot.jimple.Stmt;
+import soot.jimple.StringConstant;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Collects the reflection, resource and dynamic proxy uses of a program, for the configuration of ahead-of-time
+ * native image compilation.
+ * <p/>
+ * Calls to the reflection, resource and proxy APIs are resolved when their class, member name and resource name
+ * arguments are constants, either directly or through a local assigned once from a constant in the same method.
+ * Calls listing the members of a class, such as <tt>getDeclaredMethods()</tt>, register all the members of that kind.
+ * Other calls are recorded as unresolved.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class NativeImageConfig
+{
+
+    /**
+     * Prefix of the service provider configuration files.
+     */
+    public static final String SERVICES_PREFIX = "META-INF/services/";
+
+    /**
+     * The reflection configuration flags registering all the members returned by the <tt>java.lang.Class</tt> methods
+     * listing members, indexed by method name.
+     */
+    private static final Map<String, String> ALL_MEMBERS_FLAGS = new HashMap<String, String>();
+
+    static
+    {
+        ALL_MEMBERS_FLAGS.put( "getDeclaredMethods", "allDeclaredMethods" );
+        ALL_MEMBERS_FLAGS.put( "getMethods", "allPublicMethods" );
+        ALL_MEMBERS_FLAGS.put( "getDeclaredFields", "allDeclaredFields" );
+        ALL_MEMBERS_FLAGS.put( "getFields", "allPublicFields" );
+        ALL_MEMBERS_FLAGS.put( "getDeclaredConstructors", "allDeclaredConstructors" );
+        ALL_MEMBERS_FLAGS.put( "getConstructors", "allPublicConstructors" );
+    }
+
+    /**
+     * The reflectively accessed classes, indexed by name.
+     */
+    private final Map<String, ReflectedClass> classes = new TreeMap<String, ReflectedClass>();
+
+    /**
+     * The patterns of the accessed resources.
+     */
+    private final Set<String> resources = new TreeSet<String>();
+
+    /**
+     * The interface lists of the dynamic proxies, indexed by their string form.
+     */
+    private final Map<String, List<String>> proxies = new TreeMap<String, List<String>>();
+
+    /**
+     * The unresolved dynamic sites.
+     */
+    private final List<String> unresolved = new ArrayList<String>();
+
+    /**
+     * The directories searched for service provider configuration files.
+     */
+    private final List<File> serviceDirectories;
+
+    /**
+     * Build a new {@link NativeImageConfig}.
+     *
+     * @param serviceDirectories the directories searched for service provider configuration files.
+     */
+    public NativeImageConfig( List<File> serviceDirectories )
+    {
+        this.serviceDirectories = serviceDirectories;
+    }
+
+    /**
+     * Register a class for reflective instantiation.
+     *
+     * @param className the class name.
+     */
+    public void addClass( String className )
+    {
+        getReflectedClass( className ).flags.add( "allDeclaredConstructors" );
+    }
+
+    /**
+     * Collect the dynamic sites of a method.
+     *
+     * @param method the method, with an active body.
+     */
+    public void analyze( SootMethod method )
+    {
+        final Body body = method.getActiveBody();
+        for ( Iterator it = body.getUnits().iterator(); it.hasNext(); )
+        {
+            final Stmt stmt = (Stmt) it.next();
+            if ( stmt.containsInvokeExpr() && !analyze( body, stmt, stmt.getInvokeExpr() ) )
+            {
+                unresolved.add( method.getSignature() + "\t" + AbstractAnalysisMojo.getLineNumber( stmt ) + "\t"
+                                + stmt.getInvokeExpr().getMethodRef().getSignature() );
+            }
+        }
+    }
+
+    /**
+     * Collect a call, if it is a dynamic site.
+     *
+     * @param body   the body holding the call.
+     * @param stmt   the call statement.
+     * @param invoke the call.
+     * @return false if the call is a dynamic site that could not be resolved.
+     */
+    private boolean analyze( Body body, Stmt stmt, InvokeExpr invoke )
+    {
+        final String declaringClass = invoke.getMethodRef().declaringClass().getName();
+        final String name = invoke.getMethodRef().name();
+        final Value base = invoke instanceof InstanceInvokeExpr ? ( (InstanceInvokeExpr) invoke ).getBase() : null;
+
+        if ( "java.lang.Class".equals( declaringClass ) )
+        {
+            if ( "forName".equals( name ) )
+            {
+                final String className = getConstantString( body, invoke.getArg( 0 ) );
+                if ( className != null )
+                {
+                    addClass( className );
+                }
+                return className != null;
+            }
+            if ( "getResource".equals( name ) || "getResourceAsStream".equals( name ) )
+            {
+                final String resource = getConstantString( body, invoke.getArg( 0 ) );
+                final String className = getConstantClass( body, base );
+                if ( resource == null || ( className == null && !resource.startsWith( "/" ) ) )
+                {
+                    return false;
+                }
+                addResource( resource.startsWith( "/" )
+                                 ? resource.substring( 1 )
+                                 : getPackagePath( className ) + resource );
+                return true;
+            }
+            if ( ALL_MEMBERS_FLAGS.containsKey( name ) && invoke.getArgCount() == 0 )
+            {
+                final String className = getConstantClass( body, base );
+                if ( className != null )
+                {
+                    getReflectedClass( className ).flags.add( ALL_MEMBERS_FLAGS.get( name ) );
+                }
+                return className != null;
+            }
+            final boolean method = name.equals( "getMethod" ) || name.equals( "getDeclaredMethod" );
+            final boolean field = name.equals( "getField" ) || name.equals( "getDeclaredField" );
+            final boolean constructor = name.equals( "getConstructor" ) || name.equals( "getDeclaredConstructor" )
+                                        || name.equals( "newInstance" );
+            if ( method || field || constructor )
+            {
+                final String className = getConstantClass( body, base );
+                final String member = constructor ? "" : getConstantString( body, invoke.getArg( 0 ) );
+                if ( className == null || member == null )
+                {
+                    return false;
+                }
+                final ReflectedClass reflected = getReflectedClass( className );
+                if ( method )
+                {
+                    reflected.methods.add( member );
+                }
+                else if ( field )
+                {
+                    reflected.fields.add( member );
+                }
+                else
+                {
+                    reflected.flags.add( "allDeclaredConstructors" );
+                }
+                return true;
+            }
+        }
+        else if ( "java.lang.ClassLoader".equals( declaringClass ) && name.startsWith( "getResource" ) )
+        {
+            final String resource = getConstantString( body, invoke.getArg( 0 ) );
+            if ( resource != null )
+            {
+                addResource( resource );
+            }
+            return resource != null;
+        }
+        else if ( "java.util.ServiceLoader".equals( declaringClass ) && name.equals( "load" ) )
+        {
+            final String service = getConstantClass( body, invoke.getArg( 0 ) );
+            if ( service != null )
+            {
+                addService( service );
+            }
+            return service != null;
+        }
+        else if ( "java.lang.reflect.Proxy".equals( declaringClass ) && name.equals( "newProxyInstance" ) )
+        {
+            final List<String> interfaces = getConstantClasses( body, stmt, invoke.getArg( 1 ) );
+            if ( interfaces != null )
+            {
+                proxies.put( interfaces.toString(), interfaces );
+            }
+            return interfaces != null;
+        }
+        return true;
+    }
+
+    /**
+     * Register a service, its provider configuration file and its providers.
+     *
+     * @param service the service interface name.
+     */
+    private void addService( String service )
+    {
+        addResource( SERVICES_PREFIX + service );
+        for ( File directory : serviceDirectories )
+        {
+            final File file = new File( directory, SERVICES_PREFIX + service );
+            if ( !file.isFile() )
+            {
+                continue;
+            }
+            try
+            {
+                for ( String line : FileUtils.fileRead( file, "UTF-8" ).split( "\n" ) )
+                {
+                    final String provider = line.replaceAll( "#.*", "" ).trim();
+                    if ( provider.length() > 0 )
+                    {
+                        addClass( provider );
+                    }
+                }
+            }
+            catch ( IOException e )
+            {
+                throw new IllegalStateException( "Cannot read " + file, e );
+            }
+        }
+    }
+
+    /**
+     * Register a resource.
+     *
+     * @param resource the resource path.
+     */
+    private void addResource( String resource )
+    {
+        resources.add( "\\Q" + resource + "\\E" );
+    }
+
+    /**
+     * Get or create the reflection entry of a class.
+     *
+     * @param className the class name.
+     * @return the entry.
+     */
+    private ReflectedClass getReflectedClass( String className )
+    {
+        ReflectedClass reflected = classes.get( className );
+        if ( reflected == null )
+        {
+            reflected = new ReflectedClass();
+            classes.put( className, reflected );
+        }
+        return reflected;
+    }
+
+    /**
+     * Get the package of a class as a resource path prefix.
+     *
+     * @param className the class name.
+     * @return the package path, ending with <tt>/</tt>, or an empty string for the default package.
+     */
+    private static String getPackagePath( String className )
+    {
+        final int index = className.lastIndexOf( '.' );
+        return index < 0 ? "" : className.substring( 0, index + 1 ).replace( '.', '/' );
+    }
+
+    /**
+     * Get the constant a value holds: the value itself or the constant a local is assigned once.
+     *
+     * @param body  the body.
+     * @param value the value.
+     * @return the constant, or <tt>null</tt>.
+     */
+    private static Value getConstant( Body body, Value value )
+    {
+        if ( !( value instanceof Local ) )
+        {
+            return value;
+        }
+        Value constant = null;
+        for ( Iterator it = body.getUnits().iterator(); it.hasNext(); )
+        {
+            final Unit unit = (Unit) it.next();
+            if ( unit instanceof AssignStmt && ( (AssignStmt) unit ).getLeftOp() == value )
+            {
+                if ( constant != null )
+                {
+                    return null;
+                }
+                constant = ( (AssignStmt) unit ).getRightOp();
+            }
+        }
+        return constant;
+    }
+
+    /**
+     * Get the string constant a value holds.
+     *
+     * @param body  the body.
+     * @param value the value.
+     * @return the string, or <tt>null</tt>.
+     */
+    private static String getConstantString( Body body, Value value )
+    {
+        final Value constant = getConstant( body, value );
+        return constant instanceof StringConstant ? ( (StringConstant) constant ).value : null;
+    }
+
+    /**
+     * Get the class constant a value holds: a class literal or a <tt>Class.forName</tt> call with a constant name.
+     *
+     * @param body  the body.
+     * @param value the value.
+     * @return the class name, or <tt>null</tt>.
+     */
+    private static String getConstantClass( Body body, Value value )
+    {
+        if ( value == null )
+        {
+            return null;
+        }
+        final Value constant = getConstant( body, value );
+        if ( constant instanceof ClassConstant )
+        {
+            final String name = ( (ClassConstant) constant ).getValue();
+            return name.startsWith( "[" ) ? null : name.replace( '/', '.' );
+        }
+        if ( constant instanceof InvokeExpr && "forName".equals( ( (InvokeExpr) constant ).getMethodRef().name() )
+            && "java.lang.Class".equals( ( (InvokeExpr) constant ).getMethodRef().declaringClass().getName() ) )
+        {
+            return getConstantString( body, ( (InvokeExpr) constant ).getArg( 0 ) );
+        }
+        return null;
+    }
+
+    /**
+     * Get the class constants stored into an array local.
+     *
+     * @param body  the body.
+     * @param stmt  the statement using the array.
+     * @param value the array value.
+     * @return the class names, or <tt>null</tt> if an element is not a class constant.
+     */
+    private static List<String> getConstantClasses( Body body, Stmt stmt, Value value )
+    {
+        if ( !( value instanceof Local ) )
+        {
+            return null;
+        }
+        final Map<Integer, String> elements = new TreeMap<Integer, String>();
+        for ( Iterator it = body.getUnits().iterator(); it.hasNext(); )
+        {
+            final Unit unit = (Unit) it.next();
+            if ( unit == stmt )
+            {
+                break;
+            }
+            if ( unit instanceof AssignStmt && ( (AssignStmt) unit ).getLeftOp() instanceof ArrayRef
+                && ( (ArrayRef) ( (AssignStmt) unit ).getLeftOp() ).getBase() == value )
+            {
+                final Value index = getConstant( body, ( (ArrayRef) ( (AssignStmt) unit ).getLeftOp() ).getIndex() );
+                final String className = getConstantClass( body, ( (AssignStmt) unit ).getRightOp() );
+                if ( !( index instanceof IntConstant ) || className == null )
+                {
+                    return null;
+                }
+                elements.put( ( (IntConstant) index ).value, className );
+            }
+        }
+        return elements.isEmpty() ? null : new ArrayList<String>( elements.values() );
+    }
+
+    /**
+     * Get the unresolved dynamic sites.
+     *
+     * @return the sites, as tab separated method, line and called method.
+     */
+    public List<String> getUnresolved()
+    {
+        return unresolved;
+    }
+
+    /**
+     * Write the reflection configuration file.
+     *
+     * @param file the file.
+     * @return the number of classes written.
+     * @throws IOException if the file could not be written.
+     */
+    public int writeReflectConfig( File file )
+        throws IOException
+    {
+        final Writer writer = open( file );
+        try
+        {
+            final JsonWriter json = new JsonWriter( writer ).beginArray();
+            for ( Map.Entry<String, ReflectedClass> entry : classes.entrySet() )
+            {
+                json.beginObject().name( "name" ).value( entry.getKey() );
+                for ( String flag : entry.getValue().flags )
+                {
+                    json.name( flag ).value( true );
+                }
+                if ( !entry.getValue().methods.isEmpty() )
+                {
+                    json.name( "methods" ).beginArray();
+                    for ( String method : entry.getValue().methods )
+                    {
+                        json.beginObject().name( "name" ).value( method ).endObject();
+                    }
+                    json.endArray();
+                }
+                if ( !entry.getValue().fields.isEmpty() )
+                {
+                    json.name( "fields" ).beginArray();
+                    for ( String field : entry.getValue().fields )
+                    {
+                        json.beginObject().name( "name" ).value( field ).endObject();
+                    }
+                    json.endArray();
+                }
+                json.endObject();
+            }
+            json.endArray();
+        }
+        finally
+        {
+            writer.close();
+        }
+        return classes.size();
+    }
+
+    /**
+     * Write the resource configuration file.
+     *
+     * @param file the file.
+     * @return the number of resources written.
+     * @throws IOException if the file could not be written.
+     */
+    public int writeResourceConfig( File file )
+        throws IOException
+    {
+        final Writer writer = open( file );
+        try
+        {
+            final JsonWriter json = new JsonWriter( writer ).beginObject();
+            json.name( "resources" ).beginObject().name( "includes" ).beginArray();
+            for ( String resource : resources )
+            {
+                json.beginObject().name( "pattern" ).value( resource ).endObject();
+            }
+            json.endArray().endObject().endObject();
+        }
+        finally
+        {
+            writer.close();
+        }
+        return resources.size();
+    }
+
+    /**
+     * Write the dynamic proxy configuration file.
+     *
+     * @param file the file.
+     * @return the number of proxies written.
+     * @throws IOException if the file could not be written.
+     */
+    public int writeProxyConfig( File file )
+        throws IOException
+    {
+        final Writer writer = open( file );
+        try
+        {
+            final JsonWriter json = new JsonWriter( writer ).beginArray();
+            for ( List<String> interfaces : proxies.values() )
+            {
+                json.beginObject().name( "interfaces" ).beginArray();
+                for ( String name : interfaces )
+                {
+                    json.value( name );
+                }
+                json.endArray().endObject();
+            }
+            json.endArray();
+        }
+        finally
+        {
+            writer.close();
+        }
+        return proxies.size();
+    }
+
+    /**
+     * Open a configuration file for writing, creating its directory.
+     *
+     * @param file the file.
+     * @return the writer.
+     * @throws IOException if the file could not be opened.
+     */
+    private static Writer open( File file )
+        throws IOException
+    {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        return new FileWriter( file );
+    }
+
+    /**
+     * The reflection configuration of a class.
+     */
+    private static final class ReflectedClass
+    {
+
+        /**
+         * The flags registering all members of a kind, such as <tt>allDeclaredConstructors</tt>.
+         */
+        private final Set<String> flags = new TreeSet<String>();
+
+        /**
+         * The names of the accessed methods.
+         */
+        private final Set<String> methods = new TreeSet<String>();
+
+        /**
+         * The names of the accessed fields.
+         */
+        private final Set<String> fields = new TreeSet<String>();
+    }
+}
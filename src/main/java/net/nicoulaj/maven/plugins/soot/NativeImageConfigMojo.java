@@ -0,0 +1,161 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mojo that generates the reflection, resource and dynamic proxy configuration files of ahead-of-time native image
+ * compilation.
+ * <p/>
+ * The reflection, resource, service loader and proxy calls of the reachable application methods are resolved when
+ * their arguments are constants. The classes configured with {@link #dynamicClasses}, {@link #dynamicPackages} and
+ * {@link #dynamicDirectories} are registered for reflection as well. The configuration files are written to
+ * {@link #nativeImageConfigDirectory}, and the calls that could not be resolved to <tt>native-image-unresolved.txt</tt>
+ * in {@link #reportsDirectory}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @see NativeImageConfig
+ * @since 0.2
+ */
+@Mojo(
+    name = NativeImageConfigMojo.NAME,
+    defaultPhase = LifecyclePhase.PROCESS_CLASSES,
+    threadSafe = false )
+public final class NativeImageConfigMojo
+    extends AbstractAnalysisMojo
+{
+
+    /**
+     * Mojo name.
+     */
+    public static final String NAME = "native-image-config";
+
+    /**
+     * The name of the unresolved sites report file.
+     */
+    public static final String REPORT_FILE = "native-image-unresolved.txt";
+
+    /**
+     * The directory the native image configuration files are written to.
+     */
+    @Parameter( defaultValue = "${project.build.outputDirectory}/META-INF/native-image/"
+                               + "${project.groupId}/${project.artifactId}" )
+    protected File nativeImageConfigDirectory;
+
+    /**
+     * Whether to fail the build if some dynamic sites could not be resolved.
+     */
+    @Parameter( defaultValue = "false" )
+    protected boolean failOnUnresolved;
+
+    /**
+     * The collected configuration.
+     */
+    private NativeImageConfig config;
+
+    @Override
+    protected String getPhaseName()
+    {
+        return "nativeimage";
+    }
+
+    @Override
+    protected void analyze()
+    {
+        final List<File> directories = new ArrayList<File>();
+        if ( processDirectory != null )
+        {
+            for ( Object directory : processDirectory )
+            {
+                directories.add( new File( directory.toString() ) );
+            }
+        }
+        config = new NativeImageConfig( directories );
+        for ( SootMethod method : getReachableApplicationMethods() )
+        {
+            config.analyze( method );
+        }
+        for ( SootClass sootClass : Scene.v().dynamicClasses() )
+        {
+            config.addClass( sootClass.getName() );
+        }
+    }
+
+    @Override
+    protected void report()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( config == null )
+        {
+            throw new MojoExecutionException( "Soot did not run the native image configuration analysis" );
+        }
+
+        final int classes;
+        final int resources;
+        final int proxies;
+        try
+        {
+            classes = config.writeReflectConfig( new File( nativeImageConfigDirectory, "reflect-config.json" ) );
+            resources = config.writeResourceConfig( new File( nativeImageConfigDirectory, "resource-config.json" ) );
+            proxies = config.writeProxyConfig( new File( nativeImageConfigDirectory, "proxy-config.json" ) );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed writing native image configuration", e );
+        }
+
+        final PrintWriter writer = openReport( REPORT_FILE );
+        try
+        {
+            writer.println( "method\tline\tcall" );
+            for ( String site : config.getUnresolved() )
+            {
+                writer.println( site );
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        getLog().info( "Generated native image configuration for " + classes + " classes, " + resources
+                       + " resources and " + proxies + " proxies in " + nativeImageConfigDirectory );
+        if ( !config.getUnresolved().isEmpty() )
+        {
+            final String message = config.getUnresolved().size() + " dynamic sites could not be resolved, see "
+                                   + REPORT_FILE;
+            if ( failOnUnresolved )
+            {
+                throw new MojoFailureException( message );
+            }
+            getLog().warn( message );
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.apache.maven.project.MavenProject;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Captures and restores the values of the Soot options of an {@link AbstractSootMojo}.
+ * <p/>
+ * The values are read from the fields declared by {@link AbstractSootMojo}, so that they can be passed to another JVM
+ * and applied to a new mojo instance there. All values are {@link Serializable}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class OptionValues
+{
+
+    /**
+     * Utility class, not instantiable.
+     */
+    private OptionValues()
+    {
+    }
+
+    /**
+     * Capture the option values of a mojo.
+     *
+     * @param mojo the mojo.
+     * @return the option values indexed by field name, sorted by name.
+     */
+    public static Map<String, Serializable> capture( AbstractSootMojo mojo )
+    {
+        final Map<String, Serializable> values = new TreeMap<String, Serializable>();
+        for ( Field field : getOptionFields() )
+        {
+            try
+            {
+                final Object value = field.get( mojo );
+                values.put( field.getName(), value instanceof List
+                    ? new ArrayList<Object>( (List) value )
+                    : (Serializable) value );
+            }
+            catch ( IllegalAccessException e )
+            {
+                throw new IllegalStateException( "Cannot read option " + field.getName(), e );
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Apply option values to a mojo.
+     *
+     * @param mojo   the mojo.
+     * @param values the option values indexed by field name, as returned by {@link #capture(AbstractSootMojo)}.
+     */
+    public static void apply( AbstractSootMojo mojo, Map<String, Serializable> values )
+    {
+        for ( Field field : getOptionFields() )
+        {
+            if ( !values.containsKey( field.getName() ) )
+            {
+                continue;
+            }
+            try
+            {
+                field.set( mojo, values.get( field.getName() ) );
+            }
+            catch ( IllegalAccessException e )
+            {
+                throw new IllegalStateException( "Cannot set option " + field.getName(), e );
+            }
+        }
+    }
+
+    /**
+     * Get the fields of {@link AbstractSootMojo} that hold option values.
+     *
+     * @return the fields.
+     */
+    private static List<Field> getOptionFields()
+    {
+        final List<Field> fields = new ArrayList<Field>();
+        for ( Field field : AbstractSootMojo.class.getDeclaredFields() )
+        {
+            final Class<?> type = field.getType();
+            if ( Modifier.isStatic( field.getModifiers() ) || field.isSynthetic()
+                || MavenProject.class.isAssignableFrom( type ) )
+            {
+                continue;
+            }
+            if ( type.isPrimitive() || List.class.isAssignableFrom( type )
+                || Serializable.class.isAssignableFrom( type ) )
+            {
+                field.setAccessible( true );
+                fields.add( field );
+            }
+        }
+        return fields;
+    }
+}
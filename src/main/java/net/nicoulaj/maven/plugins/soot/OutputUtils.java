@@ -0,0 +1,423 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Helpers for handling Soot output files.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class OutputUtils
+{
+
+    /**
+     * The path of the manifest in JAR files.
+     */
+    public static final String MANIFEST_PATH = "META-INF/MANIFEST.MF";
+
+    /**
+     * Utility class, not instantiable.
+     */
+    private OutputUtils()
+    {
+    }
+
+    /**
+     * Get the paths of all files under a directory.
+     *
+     * @param directory the directory.
+     * @return the paths relative to the directory, with <tt>/</tt> as separator.
+     * @throws IOException if the directory could not be listed.
+     */
+    public static List<String> listFiles( File directory )
+        throws IOException
+    {
+        final List<String> paths = FileUtils.getFileNames( directory, "**/*", null, false );
+        for ( int i = 0; i < paths.size(); i++ )
+        {
+            paths.set( i, paths.get( i ).replace( File.separatorChar, '/' ) );
+        }
+        return paths;
+    }
+
+    /**
+     * Get the paths of the files under a directory modified since the given time.
+     * <p/>
+     * As file modification times may only have a one second resolution, files modified during the second before the
+     * given time are included.
+     *
+     * @param directory the directory.
+     * @param since     the time, in milliseconds since the epoch.
+     * @return the paths relative to the directory, with <tt>/</tt> as separator.
+     * @throws IOException if the directory could not be listed.
+     */
+    public static List<String> listFilesModifiedSince( File directory, long since )
+        throws IOException
+    {
+        final List<String> paths = new ArrayList<String>();
+        if ( directory.isDirectory() )
+        {
+            final long threshold = since - since % 1000;
+            for ( String path : listFiles( directory ) )
+            {
+                if ( new File( directory, path ).lastModified() >= threshold )
+                {
+                    paths.add( path );
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Write files under a directory to a ZIP file.
+     *
+     * @param directory the directory.
+     * @param paths     the paths of the files to archive, relative to the directory.
+     * @param zipFile   the ZIP file to write, overwritten if it exists.
+     * @throws IOException if the ZIP file could not be written.
+     */
+    public static void zip( File directory, List<String> paths, File zipFile )
+        throws IOException
+    {
+        zipFile.getAbsoluteFile().getParentFile().mkdirs();
+        final ZipOutputStream out = new ZipOutputStream( new FileOutputStream( zipFile ) );
+        try
+        {
+            for ( String path : paths )
+            {
+                final File file = new File( directory, path );
+                final ZipEntry entry = new ZipEntry( path );
+                entry.setTime( file.lastModified() );
+                out.putNextEntry( entry );
+                final InputStream in = new FileInputStream( file );
+                try
+                {
+                    IOUtil.copy( in, out );
+                }
+                finally
+                {
+                    IOUtil.close( in );
+                }
+                out.closeEntry();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Extract a ZIP file to a directory, overwriting existing files.
+     *
+     * @param zipFile   the ZIP file.
+     * @param directory the directory.
+     * @return the number of files extracted.
+     * @throws IOException if the ZIP file could not be extracted.
+     */
+    public static int unzip( File zipFile, File directory )
+        throws IOException
+    {
+        int count = 0;
+        final ZipInputStream in = new ZipInputStream( new FileInputStream( zipFile ) );
+        try
+        {
+            ZipEntry entry;
+            while ( ( entry = in.getNextEntry() ) != null )
+            {
+                if ( entry.isDirectory() )
+                {
+                    continue;
+                }
+                final File file = new File( directory, entry.getName() );
+                if ( !file.getCanonicalPath().startsWith( directory.getCanonicalPath() + File.separator ) )
+                {
+                    throw new IOException( "Entry " + entry.getName() + " is outside of " + directory );
+                }
+                file.getParentFile().mkdirs();
+                final OutputStream out = new FileOutputStream( file );
+                try
+                {
+                    IOUtil.copy( in, out );
+                }
+                finally
+                {
+                    out.close();
+                }
+                count++;
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return count;
+    }
+
+    /**
+     * Copy all files under a directory to another directory, overwriting existing files.
+     *
+     * @param from the source directory.
+     * @param to   the destination directory.
+     * @return the number of files copied.
+     * @throws IOException if a file could not be copied.
+     */
+    public static int copyTree( File from, File to )
+        throws IOException
+    {
+        if ( !from.isDirectory() )
+        {
+            return 0;
+        }
+        final List<String> paths = listFiles( from );
+        for ( String path : paths )
+        {
+            FileUtils.copyFile( new File( from, path ), new File( to, path ) );
+        }
+        return paths.size();
+    }
+
+    /**
+     * Move the output files of some classes to another directory, overwriting existing files.
+     * <p/>
+     * The class of a file is its path without extension, with <tt>/</tt> as package separator, so that both class
+     * files written in package directories and Jimple files named after the fully qualified class match.
+     *
+     * @param from       the directory to move the files from.
+     * @param classNames the names of the classes to move.
+     * @param to         the directory to move the files to.
+     * @return the number of files moved.
+     * @throws IOException if a file could not be moved.
+     */
+    public static int moveClasses( File from, Set<String> classNames, File to )
+        throws IOException
+    {
+        if ( !from.isDirectory() )
+        {
+            return 0;
+        }
+        int count = 0;
+        for ( String path : listFiles( from ) )
+        {
+            final int extension = path.lastIndexOf( '.' );
+            final String name = extension > path.lastIndexOf( '/' ) ? path.substring( 0, extension ) : path;
+            if ( classNames.contains( name.replace( '/', '.' ) ) )
+            {
+                final File file = new File( to, path );
+                file.getParentFile().mkdirs();
+                FileUtils.rename( new File( from, path ), file );
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write all files under the given directories to a JAR file.
+     * <p/>
+     * When several directories contain the same path, the first one wins. Manifests found in the directories are
+     * ignored, a default one is written.
+     *
+     * @param directories the directories to archive.
+     * @param jarFile     the JAR file to write, overwritten if it exists.
+     * @return the number of entries written, not counting the manifest.
+     * @throws IOException if the JAR file could not be written.
+     */
+    public static int jar( List<File> directories, File jarFile )
+        throws IOException
+    {
+        jarFile.getAbsoluteFile().getParentFile().mkdirs();
+        final Set<String> written = new HashSet<String>();
+        final JarOutputStream out = new JarOutputStream( new FileOutputStream( jarFile ), newManifest() );
+        try
+        {
+            written.add( MANIFEST_PATH );
+            for ( File directory : directories )
+            {
+                if ( !directory.isDirectory() )
+                {
+                    continue;
+                }
+                for ( String path : listFiles( directory ) )
+                {
+                    if ( !written.add( path ) )
+                    {
+                        continue;
+                    }
+                    final File file = new File( directory, path );
+                    final JarEntry entry = new JarEntry( path );
+                    entry.setTime( file.lastModified() );
+                    out.putNextEntry( entry );
+                    final InputStream in = new FileInputStream( file );
+                    try
+                    {
+                        IOUtil.copy( in, out );
+                    }
+                    finally
+                    {
+                        IOUtil.close( in );
+                    }
+                    out.closeEntry();
+                }
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        return written.size() - 1;
+    }
+
+    /**
+     * Merge directories and JAR files into a single JAR file.
+     * <p/>
+     * When several entries contain the same path, the first one wins. Manifests and signature files found in the
+     * entries are ignored, as signatures no longer match merged classes, a default manifest is written.
+     *
+     * @param entries the directories and JAR files to merge. Entries that do not exist are ignored.
+     * @param jarFile the JAR file to write, overwritten if it exists.
+     * @return the number of entries written, not counting the manifest.
+     * @throws IOException if an entry could not be read or the JAR file could not be written.
+     */
+    public static int uberJar( List<File> entries, File jarFile )
+        throws IOException
+    {
+        jarFile.getAbsoluteFile().getParentFile().mkdirs();
+        final Set<String> written = new HashSet<String>();
+        final JarOutputStream out = new JarOutputStream( new FileOutputStream( jarFile ), newManifest() );
+        try
+        {
+            written.add( MANIFEST_PATH );
+            for ( File entry : entries )
+            {
+                if ( entry.isDirectory() )
+                {
+                    for ( String path : listFiles( entry ) )
+                    {
+                        if ( !isSignature( path ) && written.add( path ) )
+                        {
+                            final InputStream in = new FileInputStream( new File( entry, path ) );
+                            putEntry( out, path, new File( entry, path ).lastModified(), in );
+                        }
+                    }
+                }
+                else if ( entry.isFile() )
+                {
+                    final ZipFile zip = new ZipFile( entry );
+                    try
+                    {
+                        for ( Enumeration<? extends ZipEntry> it = zip.entries(); it.hasMoreElements(); )
+                        {
+                            final ZipEntry zipEntry = it.nextElement();
+                            if ( !zipEntry.isDirectory() && !isSignature( zipEntry.getName() )
+                                && written.add( zipEntry.getName() ) )
+                            {
+                                putEntry( out, zipEntry.getName(), zipEntry.getTime(), zip.getInputStream( zipEntry ) );
+                            }
+                        }
+                    }
+                    finally
+                    {
+                        zip.close();
+                    }
+                }
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        return written.size() - 1;
+    }
+
+    /**
+     * Whether a JAR entry is a signature file.
+     *
+     * @param path the entry path.
+     * @return true for <tt>META-INF/*.SF</tt>, <tt>*.DSA</tt>, <tt>*.RSA</tt> and <tt>*.EC</tt> files.
+     */
+    private static boolean isSignature( String path )
+    {
+        final String upper = path.toUpperCase( Locale.ENGLISH );
+        return upper.startsWith( "META-INF/" ) && upper.indexOf( '/', 9 ) < 0
+               && ( upper.endsWith( ".SF" ) || upper.endsWith( ".DSA" ) || upper.endsWith( ".RSA" )
+                    || upper.endsWith( ".EC" ) );
+    }
+
+    /**
+     * Write a JAR entry, closing its input stream.
+     *
+     * @param out  the JAR stream.
+     * @param path the entry path.
+     * @param time the entry modification time.
+     * @param in   the entry content.
+     * @throws IOException if the entry could not be written.
+     */
+    private static void putEntry( JarOutputStream out, String path, long time, InputStream in )
+        throws IOException
+    {
+        try
+        {
+            final JarEntry entry = new JarEntry( path );
+            entry.setTime( time );
+            out.putNextEntry( entry );
+            IOUtil.copy( in, out );
+            out.closeEntry();
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+
+    /**
+     * Build a default JAR manifest.
+     *
+     * @return the manifest.
+     */
+    public static Manifest newManifest()
+    {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put( Attributes.Name.MANIFEST_VERSION, "1.0" );
+        return manifest;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.apache.maven.artifact.Artifact;
+import soot.Scene;
+import soot.SootClass;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Maps the phantom classes of a Soot run to the artifacts providing them.
+ * <p/>
+ * Candidate artifacts are registered first, then {@link #locate(Collection)} tells which artifact provides each
+ * phantom class. The first registered artifact providing a class wins.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class PhantomDiagnosis
+{
+
+    /**
+     * Extension of class files.
+     */
+    private static final String CLASS_EXTENSION = ".class";
+
+    /**
+     * The artifact providing each known class, as an index in {@link #coordinates}.
+     */
+    private final Map<String, Integer> providers = new HashMap<String, Integer>();
+
+    /**
+     * The coordinates of the registered artifacts.
+     */
+    private final List<String> coordinates = new ArrayList<String>();
+
+    /**
+     * The files of the registered artifacts.
+     */
+    private final List<File> files = new ArrayList<File>();
+
+    /**
+     * Get the names of the phantom classes of the current Soot scene.
+     *
+     * @return the class names, sorted.
+     */
+    public static List<String> getPhantomClasses()
+    {
+        final List<String> phantoms = new ArrayList<String>();
+        for ( Iterator it = Scene.v().getClasses().iterator(); it.hasNext(); )
+        {
+            final SootClass sootClass = (SootClass) it.next();
+            if ( sootClass.isPhantom() )
+            {
+                phantoms.add( sootClass.getName() );
+            }
+        }
+        Collections.sort( phantoms );
+        return phantoms;
+    }
+
+    /**
+     * Register the artifacts of a project as candidate providers.
+     *
+     * @param artifacts the {@link Artifact}s.
+     * @throws IOException if an artifact file could not be read.
+     */
+    public void addArtifacts( Collection artifacts )
+        throws IOException
+    {
+        for ( Iterator it = artifacts.iterator(); it.hasNext(); )
+        {
+            final Artifact artifact = (Artifact) it.next();
+            if ( artifact.getFile() != null && artifact.getFile().isFile() )
+            {
+                addArchive( artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getVersion()
+                            + " (" + artifact.getScope() + ")", artifact.getFile() );
+            }
+        }
+    }
+
+    /**
+     * Register the JAR files of a Maven repository as candidate providers. Source and Javadoc JAR files are skipped.
+     * <p/>
+     * The whole repository is listed, which may be slow on large repositories.
+     *
+     * @param repository the repository base directory.
+     * @throws IOException if a file could not be read.
+     */
+    public void addRepository( File repository )
+        throws IOException
+    {
+        for ( String path : OutputUtils.listFiles( repository ) )
+        {
+            if ( !path.endsWith( ".jar" ) || path.endsWith( "-sources.jar" ) || path.endsWith( "-javadoc.jar" ) )
+            {
+                continue;
+            }
+            // groupId/as/path/artifactId/version/artifactId-version.jar
+            final String[] segments = path.split( "/" );
+            if ( segments.length < 4 )
+            {
+                continue;
+            }
+            final StringBuilder groupId = new StringBuilder();
+            for ( int i = 0; i < segments.length - 3; i++ )
+            {
+                groupId.append( i > 0 ? "." : "" ).append( segments[i] );
+            }
+            final String artifactId = segments[segments.length - 3];
+            final String version = segments[segments.length - 2];
+            try
+            {
+                addArchive( groupId + ":" + artifactId + ":" + version + " (local repository)",
+                            new File( repository, path ) );
+            }
+            catch ( IOException e )
+            {
+                // Corrupted downloads are frequent in local repositories, skip them.
+            }
+        }
+    }
+
+    /**
+     * Register a JAR file as a candidate provider.
+     *
+     * @param coordinate the coordinates of the artifact.
+     * @param archive    the JAR file.
+     * @throws IOException if the file could not be read.
+     */
+    private void addArchive( String coordinate, File archive )
+        throws IOException
+    {
+        final int index = coordinates.size();
+        final ZipFile zip = new ZipFile( archive );
+        try
+        {
+            for ( Enumeration<? extends ZipEntry> it = zip.entries(); it.hasMoreElements(); )
+            {
+                final String path = it.nextElement().getName();
+                if ( path.endsWith( CLASS_EXTENSION ) )
+                {
+                    final String className =
+                        path.substring( 0, path.length() - CLASS_EXTENSION.length() ).replace( '/', '.' );
+                    if ( !providers.containsKey( className ) )
+                    {
+                        providers.put( className, index );
+                    }
+                }
+            }
+        }
+        finally
+        {
+            zip.close();
+        }
+        coordinates.add( coordinate );
+        files.add( archive );
+    }
+
+    /**
+     * Locate classes in the registered artifacts.
+     *
+     * @param classes the class names.
+     * @return the coordinates of the artifact providing each class, <tt>null</tt> if no registered artifact provides
+     *         it, indexed by class name.
+     */
+    public Map<String, String> locate( Collection<String> classes )
+    {
+        final Map<String, String> located = new LinkedHashMap<String, String>();
+        for ( String className : classes )
+        {
+            final Integer index = providers.get( className );
+            located.put( className, index == null ? null : coordinates.get( index ) );
+        }
+        return located;
+    }
+
+    /**
+     * Get the files of the artifacts providing classes.
+     *
+     * @param classes the class names.
+     * @return the artifact files, without duplicates.
+     */
+    public List<File> getFiles( Collection<String> classes )
+    {
+        final Set<File> found = new LinkedHashSet<File>();
+        for ( String className : classes )
+        {
+            final Integer index = providers.get( className );
+            if ( index != null )
+            {
+                found.add( files.get( index ) );
+            }
+        }
+        return new ArrayList<File>( found );
+    }
+
+    /**
+     * Write a report listing each phantom class with the artifact providing it, grouped by artifact.
+     *
+     * @param file    the report file.
+     * @param located the phantom classes, as returned by {@link #locate(Collection)}.
+     * @throws IOException if the report could not be written.
+     */
+    public static void writeReport( File file, Map<String, String> located )
+        throws IOException
+    {
+        final Map<String, List<String>> byArtifact = new LinkedHashMap<String, List<String>>();
+        for ( Map.Entry<String, String> entry : located.entrySet() )
+        {
+            final String coordinate = entry.getValue() == null ? "unknown" : entry.getValue();
+            List<String> classes = byArtifact.get( coordinate );
+            if ( classes == null )
+            {
+                classes = new ArrayList<String>();
+                byArtifact.put( coordinate, classes );
+            }
+            classes.add( entry.getKey() );
+        }
+
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        final PrintWriter writer = new PrintWriter( new FileWriter( file ) );
+        try
+        {
+            for ( Map.Entry<String, List<String>> entry : byArtifact.entrySet() )
+            {
+                writer.println( entry.getKey() );
+                for ( String className : entry.getValue() )
+                {
+                    writer.println( "    " + className );
+                }
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+}
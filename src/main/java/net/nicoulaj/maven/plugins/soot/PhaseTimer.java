@@ -0,0 +1,512 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import soot.Body;
+import soot.BodyPack;
+import soot.BodyTransformer;
+import soot.Pack;
+import soot.PackManager;
+import soot.RadioScenePack;
+import soot.ScenePack;
+import soot.SceneTransformer;
+import soot.SootMethod;
+import soot.Transform;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the time spent in each Soot phase.
+ * <p/>
+ * Probe transformations are inserted before the first transformation of each pack, and after each of its
+ * transformations. Each probe ends the phase that precedes it and starts the phase that follows it. Body pack phases
+ * run once per body, their durations are summed.
+ * <p/>
+ * <tt>jb</tt> applies its transformations itself instead of iterating over them, so probes inserted in it would never
+ * run: its transformations are wrapped instead, to count the bodies built and sum the time spent building them. Radio
+ * packs (such as <tt>cg</tt>) require exactly one enabled transformation, so no probe can be inserted in them either:
+ * their transformations are wrapped too, under the same names.
+ * <p/>
+ * When a {@link TraceRecorder} is set, packs and phases are also recorded as spans. Body packs and phases run once per
+ * body, so their spans are only recorded when they last longer than a threshold. Bodies are built on demand, possibly
+ * while another phase runs, for instance <tt>cg</tt>: the <tt>jb</tt> span of a body runs from the start of its first
+ * <tt>jb</tt> transformation to the end of its last one, and is recorded once the next body is built or
+ * {@link #finish()} is called.
+ * <p/>
+ * When a {@link BudgetWatchdog} is set, it is notified of the phases as they start and end.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class PhaseTimer
+{
+
+    /**
+     * The suffix of probe phase names.
+     */
+    private static final String PROBE_PHASE_NAME = "probe";
+
+    /**
+     * The name of the pack building bodies.
+     */
+    private static final String BODY_CONSTRUCTION_PACK_NAME = "jb";
+
+    /**
+     * The total time spent in each phase, in nanoseconds.
+     */
+    private final Map<String, Long> durations = new LinkedHashMap<String, Long>();
+
+    /**
+     * The number of bodies each body pack was applied to.
+     */
+    private final Map<String, Integer> bodies = new LinkedHashMap<String, Integer>();
+
+    /**
+     * The phase currently running, if any.
+     */
+    private String currentPhase;
+
+    /**
+     * The time the current phase started.
+     */
+    private long currentStart;
+
+    /**
+     * The time the first probe ran, or 0.
+     */
+    private long firstProbe;
+
+    /**
+     * The time the last probe ran, or 0.
+     */
+    private long lastProbe;
+
+    /**
+     * The time the current pack started.
+     */
+    private long packStart;
+
+    /**
+     * The body the <tt>jb</tt> transformations were last applied to, if any.
+     */
+    private Body builtBody;
+
+    /**
+     * The time the first <tt>jb</tt> transformation started on {@link #builtBody}.
+     */
+    private long builtBodyStart;
+
+    /**
+     * The time the last <tt>jb</tt> transformation ended on {@link #builtBody}.
+     */
+    private long builtBodyEnd;
+
+    /**
+     * The recorder packs and phases are recorded as spans to, if any.
+     */
+    private TraceRecorder trace;
+
+    /**
+     * The minimum duration of recorded body pack and phase spans, in nanoseconds.
+     */
+    private long traceThreshold;
+
+    /**
+     * The watchdog notified of the phases, if any.
+     */
+    private BudgetWatchdog watchdog;
+
+    /**
+     * Insert the probes in the packs. Soot must have been reset before.
+     */
+    public void install()
+    {
+        for ( Iterator packs = PackManager.v().allPacks().iterator(); packs.hasNext(); )
+        {
+            final Pack pack = (Pack) packs.next();
+            if ( BODY_CONSTRUCTION_PACK_NAME.equals( pack.getPhaseName() ) )
+            {
+                wrapBodyConstruction( pack );
+                continue;
+            }
+            if ( pack instanceof RadioScenePack )
+            {
+                wrapRadioPack( pack );
+                continue;
+            }
+            if ( !( pack instanceof BodyPack || pack instanceof ScenePack ) )
+            {
+                continue;
+            }
+
+            final List<Transform> transforms = new ArrayList<Transform>();
+            for ( Iterator it = pack.iterator(); it.hasNext(); )
+            {
+                transforms.add( (Transform) it.next() );
+            }
+            if ( transforms.isEmpty() )
+            {
+                continue;
+            }
+
+            pack.insertBefore( newProbe( pack, 0, null, transforms.get( 0 ).getPhaseName() ),
+                               transforms.get( 0 ).getPhaseName() );
+            for ( int i = 0; i < transforms.size(); i++ )
+            {
+                final String finished = transforms.get( i ).getPhaseName();
+                final String started = i + 1 < transforms.size() ? transforms.get( i + 1 ).getPhaseName() : null;
+                pack.insertAfter( newProbe( pack, i + 1, finished, started ), finished );
+            }
+        }
+    }
+
+    /**
+     * Record packs and phases as spans.
+     *
+     * @param trace     the recorder to record spans to.
+     * @param threshold the minimum duration of recorded body pack and phase spans, in nanoseconds.
+     */
+    public void setTrace( TraceRecorder trace, long threshold )
+    {
+        this.trace = trace;
+        this.traceThreshold = threshold;
+    }
+
+    /**
+     * Notify a watchdog of the phases as they start and end.
+     *
+     * @param watchdog the watchdog.
+     */
+    public void setWatchdog( BudgetWatchdog watchdog )
+    {
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * Record the span of the last body built, once Soot has finished.
+     */
+    public void finish()
+    {
+        traceBodyConstruction();
+        builtBody = null;
+    }
+
+    /**
+     * Get the total time spent in each phase.
+     *
+     * @return the durations in nanoseconds, indexed by phase name, in the order phases first ran.
+     */
+    public Map<String, Long> getDurations()
+    {
+        return Collections.unmodifiableMap( durations );
+    }
+
+    /**
+     * Get the number of bodies a body pack was applied to.
+     *
+     * @param packName the pack name, for instance <tt>jb</tt> for the bodies built.
+     * @return the number of bodies.
+     */
+    public int getBodyCount( String packName )
+    {
+        final Integer count = bodies.get( packName );
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Get the time the first probe ran, that is when Soot started building bodies or running packs.
+     *
+     * @return the {@link System#nanoTime()} value, or 0 if no probe ran.
+     */
+    public long getFirstProbe()
+    {
+        return firstProbe;
+    }
+
+    /**
+     * Get the time the last probe ran, that is when Soot finished building bodies and running packs.
+     *
+     * @return the {@link System#nanoTime()} value, or 0 if no probe ran.
+     */
+    public long getLastProbe()
+    {
+        return lastProbe;
+    }
+
+    /**
+     * Called by probes.
+     *
+     * @param pack     the name of the pack the probe belongs to.
+     * @param method   the method of the body the pack is applied to, or {@code null} for scene packs.
+     * @param finished the phase that just finished, or {@code null} if the probe is the first of its pack.
+     * @param started  the phase about to start, or {@code null} if the probe is the last of its pack.
+     */
+    private void probe( String pack, SootMethod method, String finished, String started )
+    {
+        final boolean bodyPack = method != null;
+        final long now = System.nanoTime();
+        if ( firstProbe == 0 )
+        {
+            firstProbe = now;
+        }
+
+        if ( finished != null && finished.equals( currentPhase ) )
+        {
+            final Long duration = durations.get( finished );
+            durations.put( finished, ( duration == null ? 0 : duration ) + now - currentStart );
+            trace( finished, "phase", bodyPack, currentStart, now );
+        }
+        if ( finished == null )
+        {
+            final Integer count = bodies.get( pack );
+            bodies.put( pack, ( count == null ? 0 : count ) + 1 );
+            packStart = now;
+        }
+        if ( started == null )
+        {
+            trace( pack, "pack", bodyPack, packStart, now );
+        }
+        lastProbe = now;
+
+        if ( watchdog != null )
+        {
+            if ( finished != null )
+            {
+                watchdog.exit( finished );
+            }
+            if ( started != null )
+            {
+                watchdog.enter( started, bodyPack ? method.getDeclaringClass().getName() : null,
+                                bodyPack ? method.getSignature() : null );
+            }
+        }
+        currentPhase = started;
+        currentStart = now;
+    }
+
+    /**
+     * Called by the wrapped <tt>jb</tt> transformations once they are applied to a body.
+     *
+     * @param body  the body being built.
+     * @param phase the transformation name.
+     * @param start the time the transformation started.
+     * @param end   the time the transformation ended.
+     */
+    private void bodyConstructionPhase( Body body, String phase, long start, long end )
+    {
+        if ( firstProbe == 0 )
+        {
+            firstProbe = start;
+        }
+        if ( body != builtBody )
+        {
+            traceBodyConstruction();
+            builtBody = body;
+            builtBodyStart = start;
+            final Integer count = bodies.get( BODY_CONSTRUCTION_PACK_NAME );
+            bodies.put( BODY_CONSTRUCTION_PACK_NAME, ( count == null ? 0 : count ) + 1 );
+        }
+        builtBodyEnd = end;
+        final Long duration = durations.get( BODY_CONSTRUCTION_PACK_NAME );
+        durations.put( BODY_CONSTRUCTION_PACK_NAME, ( duration == null ? 0 : duration ) + end - start );
+        trace( phase, "phase", true, start, end );
+        lastProbe = Math.max( lastProbe, end );
+    }
+
+    /**
+     * Record the <tt>jb</tt> span of the last body built, if any.
+     */
+    private void traceBodyConstruction()
+    {
+        if ( builtBody != null )
+        {
+            trace( BODY_CONSTRUCTION_PACK_NAME, "pack", true, builtBodyStart, builtBodyEnd );
+        }
+    }
+
+    /**
+     * Called by the wrapped transformations of radio packs once they are applied.
+     *
+     * @param pack  the pack name.
+     * @param phase the transformation name.
+     * @param start the time the transformation started.
+     * @param end   the time the transformation ended.
+     */
+    private void radioPhase( String pack, String phase, long start, long end )
+    {
+        if ( firstProbe == 0 )
+        {
+            firstProbe = start;
+        }
+        final Long duration = durations.get( phase );
+        durations.put( phase, ( duration == null ? 0 : duration ) + end - start );
+        trace( pack, "pack", false, start, end );
+        trace( phase, "phase", false, start, end );
+        lastProbe = Math.max( lastProbe, end );
+    }
+
+    /**
+     * Record a span, if tracing.
+     *
+     * @param name     the span name.
+     * @param category the span category.
+     * @param bodyPack whether the span belongs to a body pack, and is only recorded above the threshold.
+     * @param start    the time the span started.
+     * @param end      the time the span ended.
+     */
+    private void trace( String name, String category, boolean bodyPack, long start, long end )
+    {
+        if ( trace != null && ( !bodyPack || end - start >= traceThreshold ) )
+        {
+            trace.complete( name, category, start, end );
+        }
+    }
+
+    /**
+     * Replace the transformations of <tt>jb</tt> with wrappers of the same name. <tt>jb</tt> looks its transformations
+     * up by name, so their order does not matter.
+     *
+     * @param pack the <tt>jb</tt> pack.
+     */
+    private void wrapBodyConstruction( Pack pack )
+    {
+        final List<Transform> transforms = new ArrayList<Transform>();
+        for ( Iterator it = pack.iterator(); it.hasNext(); )
+        {
+            transforms.add( (Transform) it.next() );
+        }
+        for ( Transform transform : transforms )
+        {
+            pack.remove( transform.getPhaseName() );
+        }
+        for ( Transform transform : transforms )
+        {
+            final BodyTransformer transformer = (BodyTransformer) transform.getTransformer();
+            pack.add( new Transform( transform.getPhaseName(), new BodyTransformer()
+            {
+                @Override
+                protected void internalTransform( Body b, String phaseName, Map options )
+                {
+                    if ( watchdog != null )
+                    {
+                        watchdog.enter( phaseName, b.getMethod().getDeclaringClass().getName(),
+                                        b.getMethod().getSignature() );
+                    }
+                    final long start = System.nanoTime();
+                    try
+                    {
+                        transformer.transform( b, phaseName, options );
+                    }
+                    finally
+                    {
+                        bodyConstructionPhase( b, phaseName, start, System.nanoTime() );
+                        if ( watchdog != null )
+                        {
+                            watchdog.exit( phaseName );
+                        }
+                    }
+                }
+            } ) );
+        }
+    }
+
+    /**
+     * Replace the transformations of a radio pack with wrappers of the same name. The pack applies the one enabled
+     * transformation, looking its options up by name.
+     *
+     * @param pack the radio pack.
+     */
+    private void wrapRadioPack( Pack pack )
+    {
+        final String packName = pack.getPhaseName();
+        final List<Transform> transforms = new ArrayList<Transform>();
+        for ( Iterator it = pack.iterator(); it.hasNext(); )
+        {
+            transforms.add( (Transform) it.next() );
+        }
+        for ( Transform transform : transforms )
+        {
+            pack.remove( transform.getPhaseName() );
+        }
+        for ( Transform transform : transforms )
+        {
+            final SceneTransformer transformer = (SceneTransformer) transform.getTransformer();
+            pack.add( new Transform( transform.getPhaseName(), new SceneTransformer()
+            {
+                @Override
+                protected void internalTransform( String phaseName, Map options )
+                {
+                    if ( watchdog != null )
+                    {
+                        watchdog.enter( phaseName, null, null );
+                    }
+                    final long start = System.nanoTime();
+                    try
+                    {
+                        transformer.transform( phaseName, options );
+                    }
+                    finally
+                    {
+                        radioPhase( packName, phaseName, start, System.nanoTime() );
+                        if ( watchdog != null )
+                        {
+                            watchdog.exit( phaseName );
+                        }
+                    }
+                }
+            } ) );
+        }
+    }
+
+    /**
+     * Create a probe transformation.
+     *
+     * @param pack     the pack the probe is inserted in.
+     * @param index    the index of the probe in the pack.
+     * @param finished the phase the probe ends, if any.
+     * @param started  the phase the probe starts, if any.
+     * @return the probe.
+     */
+    private Transform newProbe( Pack pack, int index, final String finished, final String started )
+    {
+        final String packName = pack.getPhaseName();
+        final String phaseName = packName + "." + PROBE_PHASE_NAME + index;
+        if ( pack instanceof BodyPack )
+        {
+            return new Transform( phaseName, new BodyTransformer()
+            {
+                @Override
+                protected void internalTransform( Body b, String phaseName, Map options )
+                {
+                    probe( packName, b.getMethod(), finished, started );
+                }
+            } );
+        }
+        return new Transform( phaseName, new SceneTransformer()
+        {
+            @Override
+            protected void internalTransform( String phaseName, Map options )
+            {
+                probe( packName, null, finished, started );
+            }
+        } );
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import soot.Scene;
+import soot.SootClass;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics of a Soot execution.
+ * <p/>
+ * Records the number of classes loaded, bodies built, output size, time spent per phase, peak heap usage and garbage
+ * collection activity, and writes them as JSON or in the Prometheus text exposition format.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class RunMetrics
+{
+
+    /**
+     * Prefix of the per-phase time metric names.
+     */
+    public static final String PHASE_TIME_PREFIX = "time.phase.";
+
+    /**
+     * Prefix of the class count metric names.
+     */
+    public static final String CLASSES_PREFIX = "classes.";
+
+    /**
+     * The metric values, indexed by name.
+     */
+    private final Map<String, Number> values = new LinkedHashMap<String, Number>();
+
+    /**
+     * The time the execution started.
+     */
+    private Date startDate;
+
+    /**
+     * The {@link System#nanoTime()} value when the execution started.
+     */
+    private long startTime;
+
+    /**
+     * The garbage collection count when the execution started.
+     */
+    private long startGcCount;
+
+    /**
+     * The garbage collection time when the execution started, in milliseconds.
+     */
+    private long startGcTime;
+
+    /**
+     * Record the start of the execution.
+     */
+    public void start()
+    {
+        for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+        {
+            if ( pool.getType() == MemoryType.HEAP && pool.isValid() )
+            {
+                pool.resetPeakUsage();
+            }
+        }
+        startGcCount = getGcCount();
+        startGcTime = getGcTime();
+        startDate = new Date();
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Record the end of the execution. Must be called before Soot is reset.
+     *
+     * @param timer  the phase timer installed for the execution, or {@code null}.
+     * @param output the Soot output directory or JAR file.
+     */
+    public void stop( PhaseTimer timer, File output )
+    {
+        final long endTime = System.nanoTime();
+
+        int application = 0;
+        int library = 0;
+        int phantom = 0;
+        for ( Iterator it = Scene.v().getClasses().iterator(); it.hasNext(); )
+        {
+            final SootClass sootClass = (SootClass) it.next();
+            if ( sootClass.isPhantom() )
+            {
+                phantom++;
+            }
+            else if ( sootClass.isApplicationClass() )
+            {
+                application++;
+            }
+            else
+            {
+                library++;
+            }
+        }
+        values.put( CLASSES_PREFIX + "application", application );
+        values.put( CLASSES_PREFIX + "library", library );
+        values.put( CLASSES_PREFIX + "phantom", phantom );
+
+        if ( timer != null )
+        {
+            values.put( "bodies", timer.getBodyCount( "jb" ) );
+        }
+        values.put( "output.bytes", getOutputSize( output ) );
+        values.put( "time.total.ms", TimeUnit.NANOSECONDS.toMillis( endTime - startTime ) );
+        if ( timer != null )
+        {
+            if ( timer.getFirstProbe() != 0 )
+            {
+                values.put( PHASE_TIME_PREFIX + "load.ms",
+                            TimeUnit.NANOSECONDS.toMillis( timer.getFirstProbe() - startTime ) );
+                values.put( PHASE_TIME_PREFIX + "output.ms",
+                            TimeUnit.NANOSECONDS.toMillis( endTime - timer.getLastProbe() ) );
+            }
+            for ( Map.Entry<String, Long> phase : timer.getDurations().entrySet() )
+            {
+                values.put( PHASE_TIME_PREFIX + phase.getKey() + ".ms",
+                            TimeUnit.NANOSECONDS.toMillis( phase.getValue() ) );
+            }
+        }
+
+        long peakHeap = 0;
+        for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+        {
+            if ( pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getPeakUsage() != null )
+            {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        values.put( "heap.peak.bytes", peakHeap );
+        values.put( "gc.count", getGcCount() - startGcCount );
+        values.put( "gc.time.ms", getGcTime() - startGcTime );
+    }
+
+    /**
+     * Get the recorded metric values.
+     *
+     * @return the values indexed by metric name.
+     */
+    public Map<String, Number> getValues()
+    {
+        return Collections.unmodifiableMap( values );
+    }
+
+    /**
+     * Write the metrics to a JSON file.
+     *
+     * @param file    the file to write.
+     * @param project the identifier of the project the metrics were recorded for.
+     * @throws IOException if the file could not be written.
+     */
+    public void writeJson( File file, String project )
+        throws IOException
+    {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        final Writer writer = new FileWriter( file );
+        try
+        {
+            writeJson( writer, project );
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * Append the metrics to a history file, as a single line of JSON.
+     *
+     * @param file    the file to append to.
+     * @param project the identifier of the project the metrics were recorded for.
+     * @throws IOException if the file could not be written.
+     */
+    public void appendHistory( File file, String project )
+        throws IOException
+    {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        final Writer writer = new FileWriter( file, true );
+        try
+        {
+            writeJson( writer, project );
+            writer.write( '\n' );
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * Write the metrics in the Prometheus text exposition format.
+     * <p/>
+     * Class counts and phase times are exposed as single metrics with a label.
+     *
+     * @param file the file to write.
+     * @throws IOException if the file could not be written.
+     */
+    public void writePrometheus( File file )
+        throws IOException
+    {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        final PrintWriter writer = new PrintWriter( new FileWriter( file ) );
+        try
+        {
+            writer.println( "# TYPE soot_classes gauge" );
+            writer.println( "# TYPE soot_phase_time_ms gauge" );
+            for ( Map.Entry<String, Number> value : values.entrySet() )
+            {
+                final String name = value.getKey();
+                if ( name.startsWith( CLASSES_PREFIX ) )
+                {
+                    writer.println( "soot_classes{kind=\"" + name.substring( CLASSES_PREFIX.length() ) + "\"} "
+                                    + value.getValue() );
+                }
+                else if ( name.startsWith( PHASE_TIME_PREFIX ) )
+                {
+                    final String phase =
+                        name.substring( PHASE_TIME_PREFIX.length(), name.length() - ".ms".length() );
+                    writer.println( "soot_phase_time_ms{phase=\"" + phase + "\"} " + value.getValue() );
+                }
+                else
+                {
+                    writer.println( "soot_" + name.replace( '.', '_' ) + " " + value.getValue() );
+                }
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * Write the metrics as a JSON object.
+     *
+     * @param writer  the writer.
+     * @param project the identifier of the project the metrics were recorded for.
+     * @throws IOException if writing failed.
+     */
+    private void writeJson( Writer writer, String project )
+        throws IOException
+    {
+        final SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ss'Z'" );
+        format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+        final JsonWriter json = new JsonWriter( writer );
+        json.beginObject();
+        json.name( "project" ).value( project );
+        json.name( "timestamp" ).value( format.format( startDate ) );
+        json.name( "metrics" ).beginObject();
+        for ( Map.Entry<String, Number> value : values.entrySet() )
+        {
+            json.name( value.getKey() ).value( value.getValue() );
+        }
+        json.endObject();
+        json.endObject();
+    }
+
+    /**
+     * Get the size of the Soot output produced since the execution started.
+     *
+     * @param output the Soot output directory or JAR file.
+     * @return the size in bytes.
+     */
+    private long getOutputSize( File output )
+    {
+        if ( output.isFile() )
+        {
+            return output.length();
+        }
+        long size = 0;
+        try
+        {
+            for ( String path : OutputUtils.listFilesModifiedSince( output, startDate.getTime() ) )
+            {
+                size += new File( output, path ).length();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( "Cannot list " + output, e );
+        }
+        return size;
+    }
+
+    /**
+     * Get the total number of garbage collections since the JVM started.
+     *
+     * @return the number of collections.
+     */
+    private static long getGcCount()
+    {
+        long count = 0;
+        for ( GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans() )
+        {
+            count += Math.max( 0, collector.getCollectionCount() );
+        }
+        return count;
+    }
+
+    /**
+     * Get the total time spent in garbage collection since the JVM started.
+     *
+     * @return the time in milliseconds.
+     */
+    private static long getGcTime()
+    {
+        long time = 0;
+        for ( GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans() )
+        {
+            time += Math.max( 0, collector.getCollectionTime() );
+        }
+        return time;
+    }
+}
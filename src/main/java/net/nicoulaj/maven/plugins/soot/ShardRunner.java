@@ -0,0 +1,288 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs {@link ShardWorker}s in forked JVMs, with a bounded number of them running at the same time.
+ * <p/>
+ * The output of each worker is forwarded to the Maven log, prefixed with the shard number, and saved to a
+ * <tt>shard.log</tt> file next to its specification file. Workers still running at the deadline, if any, are
+ * destroyed.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class ShardRunner
+{
+
+    /**
+     * The name of the log file written for each shard.
+     */
+    public static final String LOG_FILE_NAME = "shard.log";
+
+    /**
+     * The exit code reported for workers destroyed at the deadline.
+     */
+    public static final int EXIT_TIMED_OUT = -1;
+
+    /**
+     * The Maven log.
+     */
+    private final Log log;
+
+    /**
+     * The command used to start a worker, without the specification file argument.
+     */
+    private final List<String> command;
+
+    /**
+     * The time workers are destroyed at, in milliseconds since the epoch, or 0.
+     */
+    private long deadline;
+
+    /**
+     * Constructor.
+     *
+     * @param log             the Maven log.
+     * @param jvmArgs         the arguments passed to the forked JVMs, may be {@code null}.
+     * @param pluginArtifacts the artifacts of the plugin, used to build the forked JVMs classpath.
+     */
+    public ShardRunner( Log log, List jvmArgs, List pluginArtifacts )
+    {
+        this.log = log;
+        this.command = new ArrayList<String>();
+        command.add( new File( System.getProperty( "java.home" ), "bin" + File.separator + "java" ).getPath() );
+        if ( jvmArgs != null )
+        {
+            for ( Object jvmArg : jvmArgs )
+            {
+                command.add( String.valueOf( jvmArg ) );
+            }
+        }
+        command.add( "-cp" );
+        command.add( getClasspath( pluginArtifacts ) );
+        command.add( ShardWorker.class.getName() );
+    }
+
+    /**
+     * Set the time workers still running are destroyed at.
+     *
+     * @param deadline the time in milliseconds since the epoch, or 0 for no deadline.
+     */
+    public void setDeadline( long deadline )
+    {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Run the shards.
+     *
+     * @param specifications the specification files of the shards.
+     * @param parallelism    the maximum number of workers running at the same time, or 0 for the number of available
+     *                       processors.
+     * @return the exit codes of the workers, indexed by shard, {@link #EXIT_TIMED_OUT} for workers destroyed at the
+     *         deadline.
+     * @throws InterruptedException if interrupted while waiting for workers.
+     */
+    public List<Integer> run( List<File> specifications, int parallelism )
+        throws InterruptedException
+    {
+        final int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        final ExecutorService executor = Executors.newFixedThreadPool( Math.min( threads, specifications.size() ) );
+        final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        try
+        {
+            for ( int i = 0; i < specifications.size(); i++ )
+            {
+                final int index = i;
+                final File specification = specifications.get( i );
+                results.add( executor.submit( new Callable<Integer>()
+                {
+                    public Integer call()
+                        throws Exception
+                    {
+                        return runShard( index, specification );
+                    }
+                } ) );
+            }
+
+            final List<Integer> exitCodes = new ArrayList<Integer>();
+            for ( int i = 0; i < results.size(); i++ )
+            {
+                try
+                {
+                    exitCodes.add( results.get( i ).get() );
+                }
+                catch ( ExecutionException e )
+                {
+                    log.error( "Failed running shard " + i, e.getCause() );
+                    exitCodes.add( 1 );
+                }
+            }
+            return exitCodes;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Run a shard and wait for it.
+     *
+     * @param index         the shard index.
+     * @param specification the shard specification file.
+     * @return the worker exit code, or {@link #EXIT_TIMED_OUT}.
+     * @throws IOException          if the worker could not be started or its output not be read.
+     * @throws InterruptedException if interrupted while waiting for the worker.
+     */
+    private int runShard( final int index, File specification )
+        throws IOException, InterruptedException
+    {
+        if ( deadline > 0 && System.currentTimeMillis() >= deadline )
+        {
+            log.warn( "Deadline reached, not starting shard " + index );
+            return EXIT_TIMED_OUT;
+        }
+
+        final List<String> arguments = new ArrayList<String>( command );
+        arguments.add( specification.getAbsolutePath() );
+        final ProcessBuilder builder = new ProcessBuilder( arguments );
+        builder.redirectErrorStream( true );
+        log.debug( "Starting shard " + index + ": " + arguments );
+        final Process process = builder.start();
+
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        final Timer timer = new Timer( "shard-" + index + "-deadline", true );
+        if ( deadline > 0 )
+        {
+            timer.schedule( new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    log.warn( "Deadline reached, destroying shard " + index );
+                    timedOut.set( true );
+                    process.destroy();
+                }
+            }, new Date( deadline ) );
+        }
+
+        final String prefix = "[shard " + index + "] ";
+        final BufferedReader reader = new BufferedReader( new InputStreamReader( process.getInputStream() ) );
+        final PrintWriter writer =
+            new PrintWriter( new FileWriter( new File( specification.getParentFile(), LOG_FILE_NAME ) ) );
+        try
+        {
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                log.info( prefix + line );
+                writer.println( line );
+            }
+        }
+        finally
+        {
+            timer.cancel();
+            writer.close();
+            reader.close();
+        }
+        final int exitCode = process.waitFor();
+        return timedOut.get() ? EXIT_TIMED_OUT : exitCode;
+    }
+
+    /**
+     * Build the classpath of the forked JVMs.
+     * <p/>
+     * The plugin artifacts do not include the Maven API the mojos are compiled against, which is added from the
+     * location the classes were loaded from.
+     *
+     * @param pluginArtifacts the artifacts of the plugin.
+     * @return the classpath.
+     */
+    private static String getClasspath( List pluginArtifacts )
+    {
+        final Set<String> elements = new LinkedHashSet<String>();
+        addCodeSource( elements, ShardWorker.class );
+        for ( Iterator it = pluginArtifacts.iterator(); it.hasNext(); )
+        {
+            final File file = ( (Artifact) it.next() ).getFile();
+            if ( file != null )
+            {
+                elements.add( file.getAbsolutePath() );
+            }
+        }
+        addCodeSource( elements, AbstractMojo.class );
+        addCodeSource( elements, Log.class );
+        addCodeSource( elements, MavenProject.class );
+
+        final StringBuilder classpath = new StringBuilder();
+        for ( String element : elements )
+        {
+            if ( classpath.length() > 0 )
+            {
+                classpath.append( File.pathSeparatorChar );
+            }
+            classpath.append( element );
+        }
+        return classpath.toString();
+    }
+
+    /**
+     * Add the location a class was loaded from to a classpath.
+     *
+     * @param elements the classpath elements.
+     * @param type     the class.
+     */
+    private static void addCodeSource( Set<String> elements, Class<?> type )
+    {
+        try
+        {
+            elements.add( new File( type.getProtectionDomain().getCodeSource().getLocation().toURI() ).getPath() );
+        }
+        catch ( URISyntaxException e )
+        {
+            throw new IllegalStateException( "Cannot locate " + type, e );
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import soot.G;
+import soot.options.Options;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entry point of the JVMs forked to process a shard of the application classes.
+ * <p/>
+ * The worker reads a specification file holding the option values of the forking mojo, the names of the classes
+ * to process and the time budgets, and runs Soot on these classes only.
+ * <p/>
+ * When a method or a whole program phase exceeds its time budget, the worker appends it to a
+ * <tt>budget-exceeded.txt</tt> file next to the specification file and exits with {@link #EXIT_BUDGET_EXCEEDED}, so
+ * that the forking mojo passes the class of the method, or all the classes of the shard, through.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @see ShardRunner
+ * @since 0.2
+ */
+public final class ShardWorker
+{
+
+    /**
+     * The exit code of workers that exceeded a time budget.
+     */
+    public static final int EXIT_BUDGET_EXCEEDED = 3;
+
+    /**
+     * The name of the file the methods and phases that exceeded their time budget are appended to.
+     */
+    public static final String BUDGET_EXCEEDED_FILE_NAME = "budget-exceeded.txt";
+
+    /**
+     * Utility class, not instantiable.
+     */
+    private ShardWorker()
+    {
+    }
+
+    /**
+     * Run Soot on a shard.
+     *
+     * @param args the path to the shard specification file.
+     */
+    public static void main( String[] args )
+    {
+        if ( args.length != 1 )
+        {
+            System.err.println( "Usage: " + ShardWorker.class.getName() + " <specification file>" );
+            System.exit( 2 );
+        }
+        try
+        {
+            run( new File( args[0] ) );
+        }
+        catch ( Throwable e )
+        {
+            e.printStackTrace();
+            System.exit( 1 );
+        }
+        System.exit( 0 );
+    }
+
+    /**
+     * Write a shard specification file.
+     *
+     * @param file          the file to write.
+     * @param options       the option values, as returned by {@link OptionValues#capture(AbstractSootMojo)}.
+     * @param classes       the names of the classes to process.
+     * @param maxMethodTime the maximum time a body phase may spend on a method, in milliseconds, or 0.
+     * @param maxPhaseTime  the maximum time a scene phase may take, in milliseconds, or 0.
+     * @throws IOException if the file could not be written.
+     */
+    public static void writeSpecification( File file, Map<String, Serializable> options, List<String> classes,
+                                           long maxMethodTime, long maxPhaseTime )
+        throws IOException
+    {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        final ObjectOutputStream out = new ObjectOutputStream( new FileOutputStream( file ) );
+        try
+        {
+            out.writeObject( options );
+            out.writeObject( new ArrayList<String>( classes ) );
+            out.writeLong( maxMethodTime );
+            out.writeLong( maxPhaseTime );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Run Soot as described by a shard specification file.
+     *
+     * @param file the specification file.
+     * @throws Exception if Soot failed.
+     */
+    @SuppressWarnings( "unchecked" )
+    private static void run( final File file )
+        throws Exception
+    {
+        final Map<String, Serializable> options;
+        final List<String> classes;
+        final long maxMethodTime;
+        final long maxPhaseTime;
+        final ObjectInputStream in = new ObjectInputStream( new FileInputStream( file ) );
+        try
+        {
+            options = (Map<String, Serializable>) in.readObject();
+            classes = (List<String>) in.readObject();
+            maxMethodTime = in.readLong();
+            maxPhaseTime = in.readLong();
+        }
+        finally
+        {
+            in.close();
+        }
+
+        final SootMojo mojo = new SootMojo();
+        OptionValues.apply( mojo, options );
+        G.reset();
+        mojo.configureLogging();
+        mojo.configureOptions();
+        Options.v().classes().addAll( classes );
+
+        BudgetWatchdog watchdog = null;
+        if ( maxMethodTime > 0 || maxPhaseTime > 0 )
+        {
+            watchdog = new BudgetWatchdog( maxMethodTime, maxPhaseTime, new BudgetWatchdog.Handler()
+            {
+                public void exceeded( BudgetWatchdog.Exceeded exceeded )
+                {
+                    System.out.println( "Time budget exceeded: " + exceeded.getReason() );
+                    try
+                    {
+                        exceeded.write( new File( file.getParentFile(), BUDGET_EXCEEDED_FILE_NAME ) );
+                    }
+                    catch ( IOException e )
+                    {
+                        e.printStackTrace();
+                    }
+                    System.out.flush();
+                    Runtime.getRuntime().halt( EXIT_BUDGET_EXCEEDED );
+                }
+            } );
+            final PhaseTimer timer = new PhaseTimer();
+            timer.setWatchdog( watchdog );
+            timer.install();
+            watchdog.start();
+        }
+        try
+        {
+            mojo.run();
+        }
+        finally
+        {
+            if ( watchdog != null )
+            {
+                watchdog.stop();
+            }
+        }
+    }
+}
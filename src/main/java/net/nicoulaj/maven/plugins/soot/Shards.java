@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Partitions application classes into shards that can be processed independently.
+ * <p/>
+ * Classes of the same package always end up in the same shard, as they tend to reference each other. Packages are
+ * assigned from the largest to the smallest, each to the shard holding the fewest classes so far.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class Shards
+{
+
+    /**
+     * Utility class, not instantiable.
+     */
+    private Shards()
+    {
+    }
+
+    /**
+     * Partition classes by package into at most the given number of shards.
+     *
+     * @param classNames the fully qualified names of the classes.
+     * @param count      the maximum number of shards.
+     * @return the non-empty shards, each being a list of class names.
+     */
+    public static List<List<String>> partition( Collection<String> classNames, int count )
+    {
+        final Map<String, List<String>> packages = new TreeMap<String, List<String>>();
+        for ( String className : classNames )
+        {
+            final int index = className.lastIndexOf( '.' );
+            final String packageName = index < 0 ? "" : className.substring( 0, index );
+            List<String> classes = packages.get( packageName );
+            if ( classes == null )
+            {
+                classes = new ArrayList<String>();
+                packages.put( packageName, classes );
+            }
+            classes.add( className );
+        }
+
+        final List<List<String>> groups = new ArrayList<List<String>>( packages.values() );
+        Collections.sort( groups, new Comparator<List<String>>()
+        {
+            public int compare( List<String> o1, List<String> o2 )
+            {
+                return o2.size() - o1.size();
+            }
+        } );
+
+        final List<List<String>> shards = new ArrayList<List<String>>();
+        for ( int i = 0; i < Math.max( 1, count ); i++ )
+        {
+            shards.add( new ArrayList<String>() );
+        }
+        for ( List<String> group : groups )
+        {
+            List<String> smallest = shards.get( 0 );
+            for ( List<String> shard : shards )
+            {
+                if ( shard.size() < smallest.size() )
+                {
+                    smallest = shard;
+                }
+            }
+            smallest.addAll( group );
+        }
+        for ( Iterator<List<String>> it = shards.iterator(); it.hasNext(); )
+        {
+            if ( it.next().isEmpty() )
+            {
+                it.remove();
+            }
+        }
+        return shards;
+    }
+}
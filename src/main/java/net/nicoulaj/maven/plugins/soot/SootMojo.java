@@ -15,17 +15,41 @@
  */
 package net.nicoulaj.maven.plugins.soot;
 
-import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
-import org.apache.maven.project.MavenProject;
-import soot.Main;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.SelectorUtils;
+import soot.G;
+import soot.Scene;
+import soot.SootClass;
 import soot.options.Options;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Mojo that invokes <a href="http://www.sable.mcgill.ca/soot">Soot</a>.
@@ -36,9 +60,10 @@ import java.util.List;
 @Mojo(
     name = SootMojo.NAME,
     defaultPhase = LifecyclePhase.COMPILE,
+    requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME,
     threadSafe = false )
 public final class SootMojo
-    extends AbstractMojo
+    extends AbstractSootMojo
 {
 
     /**
@@ -47,785 +72,1689 @@ public final class SootMojo
     public static final String NAME = "soot";
 
     /**
-     * The Maven project.
-     *
-     * @since 0.1
+     * The options of {@link AbstractSootMojo} that affect the Soot output, hashed into the build cache key.
      */
-    @Parameter( property = "project", required = true, readonly = true )
-    protected MavenProject project;
+    private static final List<String> CACHE_KEY_OPTIONS = Collections.unmodifiableList( Arrays.asList(
+        "applicationMode", "wholeProgram", "wholeShimple", "validate", "prependClasspath", "astMetrics",
+        "sourcePrecedence", "fullResolver", "allowPhantomRefs", "noBodiesForExcluded", "mainClass", "polyglot", "j2me",
+        "outputFormat", "outputJar", "xmlAttributes", "printTags", "noOutputSourceFileAttribute",
+        "noOutputInnerClassesAttribute", "dumpBody", "dumpCfg", "showExceptionDests", "gzip", "optimize", "viaGrimp",
+        "viaShimple", "throwAnalysis", "omitExceptingUnitEdges", "includes", "excludes", "includeAll",
+        "dynamicClasses", "dynamicPackages", "keepLineNumber", "keepBytecodeOffset", "heapHighWaterMark" ) );
 
     /**
-     * Display the textual help message and exit immediately without further processing.
+     * Split the application classes by package into this number of shards, each processed by Soot in its own forked
+     * JVM. Values lower than 2 disable sharding.
+     * <p/>
+     * Shards do not see each other's classes as application classes, so sharding cannot be used in whole program mode.
+     * The output of all shards is merged into {@link #outputDirectory}.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean help;
+    @Parameter( defaultValue = "0" )
+    protected int shards;
 
     /**
-     * Print a list of the available phases and sub-phases, then exit.
+     * The maximum number of shard JVMs running at the same time. Defaults to the number of available processors.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean phaseList;
+    @Parameter( defaultValue = "0" )
+    protected int shardParallelism;
 
     /**
-     * Print a help message about the phase or sub-phase named phase, then exit. To see the help message of more than
-     * one phase, specify multiple phase-help options.
+     * Arguments passed to the shard JVMs, for instance <tt>-Xmx1g</tt>.
      */
     @Parameter
-    protected List phaseHelp;
+    protected List shardJvmArgs;
 
     /**
-     * Display information about the version of Soot being run, then exit without further processing.
+     * The directory holding the specification, output and log of each shard.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean version;
+    @Parameter( defaultValue = "${project.build.directory}/soot-shards" )
+    protected File shardsDirectory;
 
     /**
-     * Provide detailed information about what Soot is doing as it runs.
+     * Process application classes in batches of {@link #streamingBatchSize} classes, each batch in a fresh Soot
+     * instance, so that the bodies of a batch are released before the next one is loaded. Peak memory is then bounded
+     * by the size of a batch instead of the size of the whole module.
+     * <p/>
+     * Each batch only sees its own classes as application classes, so streaming cannot be used in whole program mode.
      */
     @Parameter( defaultValue = "false" )
-    protected boolean verbose;
+    protected boolean streaming;
 
     /**
-     * Runs interactively, with Soot providing detailed information as it iterates through intra-procedural analyses.
+     * The number of classes processed by each Soot instance in {@link #streaming} mode. Use 1 to bound memory by the
+     * largest class, at the cost of resolving library classes again for each class.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean interactiveMode;
+    @Parameter( defaultValue = "100" )
+    protected int streamingBatchSize;
 
     /**
-     * With this option, Soot does not stop even if it received no command-line options. Useful when setting Soot options
-     * programmatically and then calling soot.Main.main() with an empty list.
+     * The directory batch outputs are written to in {@link #streaming} mode, before being archived when
+     * {@link #outputJar} is set.
      */
-    @Parameter( defaultValue = "true" )
-    protected boolean unfriendlyMode;
+    @Parameter( defaultValue = "${project.build.directory}/soot-streaming" )
+    protected File streamingDirectory;
 
     /**
-     * Run in application mode, processing all classes referenced by argument classes.
+     * Record metrics of the Soot execution: classes loaded (application, library and phantom), bodies built, output
+     * size, time spent per phase, peak heap usage and garbage collection activity.
+     * <p/>
+     * Metrics are written to <tt>metrics.json</tt> and <tt>metrics.prom</tt> (Prometheus text exposition format) in
+     * {@link #reportsDirectory}, and appended to {@link #metricsHistoryFile}. They cannot be recorded in
+     * {@link #shards sharded}, {@link #streaming} and time budgeted modes.
      */
     @Parameter( defaultValue = "false" )
-    protected boolean applicationMode;
+    protected boolean metrics;
 
     /**
-     * Run in whole program mode, taking into consideration the whole program when performing analyses and transformations.
-     * Soot uses the Call Graph Constructor to build a call graph for the program, then applies enabled transformations in
-     * the Whole-Jimple Transformation, Whole-Jimple Optimization, and Whole-Jimple Annotation packs before applying
-     * enabled intraprocedural transformations.
-     * Note that the Whole-Jimple Optimization pack is normally disabled (and thus not applied by whole program mode),
-     * unless you also specify the Whole Program Optimize option.
+     * The file metrics of each execution are appended to, one JSON object per line.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean wholeProgram;
+    @Parameter( defaultValue = "${user.home}/.m2/soot-metrics/${project.groupId}/${project.artifactId}.jsonl" )
+    protected File metricsHistoryFile;
 
     /**
-     * Run in whole shimple mode, taking into consideration the whole program when performing Shimple analyses and
-     * transformations. Soot uses the Call Graph Constructor to build a call graph for the program, then applies enabled
-     * transformations in the Whole-Shimple Transformation and Whole-Shimple Optimization before applying enabled
-     * intraprocedural transformations.
-     * Note that the Whole-Shimple Optimization pack is normally disabled (and thus not applied by whole shimple mode),
-     * unless you also specify the Whole Program Optimize option.
+     * Write a timeline of the Soot execution to <tt>trace.json</tt> in {@link #reportsDirectory}, in the trace event
+     * format understood by <tt>chrome://tracing</tt> and Perfetto.
+     * <p/>
+     * The timeline has spans for options configuration, class loading, each pack and phase and output writing, along
+     * with garbage collections, heap usage and live threads. It cannot be recorded in {@link #shards sharded},
+     * {@link #streaming} and time budgeted modes.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean wholeShimple;
+    @Parameter( property = "soot.trace", defaultValue = "false" )
+    protected boolean trace;
 
     /**
-     * Causes internal checks to be done on bodies in the various Soot IRs,to make sure the transformations have not done
-     * something strange. This option may degrade Soot's performance.
+     * The minimum duration of the body pack and phase spans recorded in {@link #trace}, in microseconds. Body packs
+     * run once per method, recording all of them makes the timeline unwieldy.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean validate;
+    @Parameter( defaultValue = "1000" )
+    protected long traceThreshold;
 
     /**
-     * Print various debugging information as Soot runs, particularly from the Baf Body Phase and the Jimple Annotation
-     * Pack Phase.
+     * The interval garbage collections, heap usage and live threads are sampled at in {@link #trace}, in
+     * milliseconds.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean debug;
+    @Parameter( defaultValue = "20" )
+    protected long traceSampleInterval;
 
     /**
-     * Print debugging information about class resolving.
+     * Fail the build when the metrics of the execution regress compared to {@link #baselineFile}. Implies
+     * {@link #metrics}, and cannot be used in {@link #shards sharded}, {@link #streaming} and time budgeted modes.
      */
     @Parameter( defaultValue = "false" )
-    protected boolean debugResolver;
+    protected boolean checkBaseline;
 
     /**
-     * Use path as the list of directories in which Soot should search for classes. path should be a series of directories,
-     * separated by the path separator character for your system.
-     * If no classpath is set on the command line, but the system property <tt>soot.class.path</tt> has been set, Soot
-     * uses its value as the classpath.
-     * If neither the command line nor the system properties specify a Soot classpath, Soot falls back on a default
-     * classpath consisting of the value of the system property <tt>java.class.path</tt> followed by
-     * <var>java.home</var><tt>/lib/rt.jar</tt>, where <var>java.home</var> stands for the contents of the system property
-     * <tt>java.home</tt> and <tt>/</tt> stands for the system file separator.
+     * Write the metrics of the execution to {@link #baselineFile} instead of checking them. Only the metrics already
+     * listed in the file are updated. Implies {@link #metrics}, and cannot be used in {@link #shards sharded},
+     * {@link #streaming} and time budgeted modes.
      */
-    @Parameter( property = "project.build.outputDirectory" )
-    protected String sootClasspath;
+    @Parameter( property = "soot.updateBaseline", defaultValue = "false" )
+    protected boolean updateBaseline;
 
     /**
-     * Instead of replacing the default soot classpath with the classpath given on the command line, prepent it with that
-     * classpath. The default classpath holds whatever is set in the CLASSPATH environment variable, followed by rt.jar
-     * (resolved through the JAVA-UNDERSCORE-HOME environment variable). If whole-program mode is enabled, jce.jar is
-     * also appended in the end.
+     * The baseline metrics file, a properties file mapping metric names to reference values. Only the metrics it lists
+     * are checked. It is meant to be committed along with the project sources.
      */
-    @Parameter( defaultValue = "true" )
-    protected boolean prependClasspath;
+    @Parameter( defaultValue = "${project.basedir}/soot-baseline.properties" )
+    protected File baselineFile;
 
     /**
-     * Add all classes found in directory to the set of argument classes which is analyzed and transformed by Soot. You
-     * can specify the option more than once, to add argument classes from multiple directories. You can also state JAR
-     * files.
-     * If subdirectories of directory contain <tt>.class</tt> or <tt>.jimple</tt> files, Soot assumes that the subdirectory
-     * names correspond to components of the classes' package names. If directory contains<tt>subA/subB/MyClass.class</tt>,
-     * for instance, then Soot assumes <tt>MyClass</tt> is in package <tt>subA.subB</tt>.
+     * How much a metric may exceed its baseline value before the build fails, in percent.
      */
-    @Parameter( property = "project.build.outputDirectory" )
-    protected List processDirectory;
+    @Parameter( defaultValue = "20" )
+    protected double baselineTolerance;
 
     /**
-     * If this flag is set and soot converts java to jimple then AST metrics will be computed.
+     * Tolerances for specific metrics, in percent, overriding {@link #baselineTolerance}. For instance:
+     * <pre>
+     * &lt;baselineTolerances&gt;
+     *   &lt;classes.phantom&gt;0&lt;/classes.phantom&gt;
+     * &lt;/baselineTolerances&gt;
+     * </pre>
      */
-    @Parameter( defaultValue = "TODO" )
-    protected boolean astMetrics;
+    @Parameter
+    protected Map<String, String> baselineTolerances;
 
     /**
-     * Values for {@link #sourcePrecedence} option.
+     * Cache complete Soot outputs in {@link #buildCacheDirectory}, keyed by a hash of the {@link #processDirectory}
+     * contents, the {@link #sootClasspath} contents, the option values and the plugin and Soot versions. When an entry
+     * exists for the current inputs, the output and reports are restored from it instead of running Soot.
+     * <p/>
+     * Note that when {@link #outputDirectory} is the same as the {@link #processDirectory}, Soot overwrites its own
+     * inputs, so the next build only hits the cache if the classes are compiled again first. The cache is not used in
+     * {@link #diagnosePhantoms} and {@link #updateBaseline} modes, which need a Soot run.
      */
-    @SuppressWarnings( "unused" )
-    public enum SourcePrecedence
-    {
-
-        /**
-         * Favour class files as Soot source.
-         * <p/>
-         * Try to resolve classes first from <tt>.class</tt> files found in the Soot classpath. Fall back to
-         * <tt>.jimple</tt> files only when unable to find a <tt>.class</tt> file.
-         */
-        CLASS( Options.src_prec_class ),
-
-        /**
-         * Use only class files as Soot source.
-         * <p/>
-         * Try to resolve classes first from <tt>.class</tt> files found in the Soot classpath. Do not try any other
-         * types of files even when unable to find a <tt>.class</tt> file.
-         */
-        ONLY_CLASS( Options.src_prec_only_class ),
-
-        /**
-         * Favour Jimple files as Soot source.
-         * <p/>
-         * Try to resolve classes first from <tt>.jimple</tt> files found in the Soot classpath. Fall back to
-         * <tt>.class</tt> files only when unable to find a <tt>.jimple</tt> file.
-         */
-        JIMPLE( Options.src_prec_jimple ),
+    @Parameter( property = "soot.buildCache", defaultValue = "false" )
+    protected boolean buildCache;
 
-        /**
-         * Favour Java files as Soot source.
-         * <p/>
-         * Try to resolve classes first from <tt>.java</tt> files found in the Soot classpath. Fall back to
-         * <tt>.class</tt> files only when unable to find a <tt>.java</tt> file.
-         */
-        JAVA( Options.src_prec_java );
-
-        protected int value;
+    /**
+     * The build cache directory. It may be on a shared filesystem so that several machines share entries.
+     */
+    @Parameter( property = "soot.buildCacheDirectory", defaultValue = "${user.home}/.m2/soot-cache" )
+    protected File buildCacheDirectory;
 
-        private SourcePrecedence( int value )
-        {
-            this.value = value;
-        }
+    /**
+     * The maximum number of entries kept in the build cache, the least recently used being evicted first. Use 0 for no
+     * limit.
+     */
+    @Parameter( defaultValue = "100" )
+    protected int buildCacheMaxEntries;
 
-        public int getValue()
-        {
-            return value;
-        }
-    }
+    /**
+     * The number of days build cache entries are kept since they were last used. Use 0 for no limit.
+     */
+    @Parameter( defaultValue = "30" )
+    protected int buildCacheMaxAge;
 
     /**
-     * Sets format as Soot's preference for the type of source files to read when it looks for a class.
+     * Collect the phantom classes of the execution, that is the referenced classes missing from the
+     * {@link #sootClasspath}, and map them to the project dependencies providing them. They are listed in
+     * <tt>phantoms.txt</tt> in {@link #reportsDirectory}.
+     * <p/>
+     * A first Soot pass with {@link #allowPhantomRefs} enabled and no output collects all phantom classes. If phantom
+     * references are not allowed and some were found, the build fails after the report is written, before any output
+     * is written, unless {@link #repairPhantoms} fixes them. Soot then runs once to write the output.
      */
-    @Parameter( defaultValue = "CLASS" )
-    protected SourcePrecedence sourcePrecedence;
+    @Parameter( property = "soot.diagnosePhantoms", defaultValue = "false" )
+    protected boolean diagnosePhantoms;
 
     /**
-     * Normally, Soot resolves only that application classes and any classes that they refer to, along with any classes
-     * it needs for the Jimple typing, but it does not transitively resolve references in these additional classes that
-     * were resolved only because they were referenced. This switch forces full transitive resolution of all references
-     * found in all classes that are resolved, regardless of why they were resolved.
-     * In whole-program mode, class resolution is always fully transitive. Therefore, in whole-program mode, this switch
-     * has no effect, and class resolution is always performed as if it were turned on.
+     * Search the local repository for the phantom classes not provided by the project dependencies in
+     * {@link #diagnosePhantoms} mode. Listing the local repository may take a while.
      */
     @Parameter( defaultValue = "false" )
-    protected boolean fullResolver;
+    protected boolean searchLocalRepository;
 
     /**
-     * Allow Soot to process a class even if it cannot find all classes referenced by that class. This may cause Soot to
-     * produce incorrect results.
+     * Run Soot with the artifacts providing the phantom classes added to the {@link #sootClasspath} in
+     * {@link #diagnosePhantoms} mode.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean allowPhantomRefs;
+    @Parameter( property = "soot.repairPhantoms", defaultValue = "false" )
+    protected boolean repairPhantoms;
 
     /**
-     * Prevents Soot from loading method bodies for all excluded classes (see exclude option), even when running in
-     * whole-program mode. This is useful for computing a shallow points-to analysis that does not, for instance, take
-     * into account the JDK. Of course, such analyses may be unsound. You get what you are asking for.
+     * The local repository, searched for phantom classes.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean noBodiesForExcluded;
+    @Parameter( defaultValue = "${localRepository}", required = true, readonly = true )
+    protected ArtifactRepository localRepository;
 
     /**
-     * Use J2ME mode. J2ME does not have class Cloneable nor Serializable, so we have to change type assignment to not
-     * refer to those classes.
+     * Check the bytecode size of the methods written by Soot against the HotSpot JIT compilation and inlining limits.
+     * The methods exceeding {@link #maxInlineSize} are listed in <tt>jit-limits.txt</tt> in {@link #reportsDirectory},
+     * with the most severe limit they exceed and their size change compared to the classes read by Soot.
+     * <p/>
+     * Only classes written to {@link #outputDirectory} in {@link OutputFormat#CLASS} format are checked, not with
+     * {@link #outputJar}.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean j2me;
+    @Parameter( property = "soot.jitLimits", defaultValue = "false" )
+    protected boolean jitLimits;
 
     /**
-     * By default, the first class encountered with a main method is treated as the main class (entry point) in whole-
-     * program analysis. This option overrides this default.
+     * The size above which methods are never compiled, <tt>-XX:HugeMethodLimit</tt>.
      */
-    @Parameter
-    protected String mainClass;
+    @Parameter( defaultValue = "8000" )
+    protected int hugeMethodLimit;
 
     /**
-     * Use Java 1.4 Polyglot frontend instead of JastAdd, which supports Java 5 syntax.
+     * The size above which methods are never inlined, <tt>-XX:FreqInlineSize</tt>.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean polyglot;
+    @Parameter( defaultValue = "325" )
+    protected int freqInlineSize;
 
     /**
-     * Store output files in directory. directory may be relative to the working directory.
+     * The size above which methods are only inlined when hot, <tt>-XX:MaxInlineSize</tt>.
      */
-    @Parameter( property = "project.build.outputDirectory" )
-    protected String outputDirectory;
+    @Parameter( defaultValue = "35" )
+    protected int maxInlineSize;
 
     /**
-     * Values for {@link #outputFormat} option.
+     * Fail the build when methods of these packages, and their subpackages, exceed {@link #jitLimitsFailLevel} in
+     * {@link #jitLimits} mode.
      */
-    @SuppressWarnings( "unused" )
-    public enum OutputFormat
-    {
+    @Parameter
+    protected List jitLimitsFailPackages;
 
-        /**
-         * Produce <tt>.jimple</tt> files.
-         * <p/>
-         * Produce <tt>.jimple</tt> files, which contain a textual form of Soot's Jimple internal representation.
-         */
-        JIMPLE( Options.output_format_jimple ),
-
-        /**
-         * Produce <tt>.jimp</tt> (abbreviated Jimple) files.
-         * <p/>
-         * Produce <tt>.jimp</tt> files, which contain an abbreviated form of Jimple.
-         */
-        JIMP( Options.output_format_jimp ),
-
-        /**
-         * Produce <tt>.shimple</tt> files.
-         * <p/>
-         * Produce<tt>.shimple files</tt>, containing a textual form of Soot's SSA Shimple internal representation.
-         * Shimple adds Phi nodes to Jimple.
-         */
-        SHIMPLE( Options.output_format_shimple ),
-
-        /**
-         * Produce <tt>.shimp</tt> (abbreviated Shimple) files.
-         * <p/>
-         * Produce .shimp files, which contain an abbreviated form of Shimple.
-         */
-        SHIMP( Options.output_format_shimp ),
-
-        /**
-         * Produce <tt>.baf</tt> files.
-         * <p/>
-         * Produce <tt>.baf</tt> files, which contain a textual form of Soot's Baf internal representation.
-         */
-        BAF( Options.output_format_baf ),
-
-        /**
-         * Produce <tt>.b</tt> (abbreviated Baf) files.
-         * <p/>
-         * Produce <tt>.b</tt> files, which contain an abbreviated form of Baf.
-         */
-        B( Options.output_format_b ),
-
-        /**
-         * Produce <tt>.grimple</tt> files.
-         * <p/>
-         * Produce <tt>.grimple</tt> files, which contain a textual form of Soot's Grimp internal representation.
-         */
-        GRIMPLE( Options.output_format_grimple ),
-
-        /**
-         * Produce <tt>.grimp</tt> (abbreviated Grimp) files.
-         * <p/>
-         * Produce <tt>.grimp</tt> files, which contain an abbreviated form of Grimp.
-         */
-        GRIMP( Options.output_format_grimp ),
-
-        /**
-         * Produce <tt>.xml</tt> files.
-         * <p/>
-         * Produce <tt>.xml</tt> files containing an annotated version of the Soot's Jimple internal representation.
-         */
-        XML( Options.output_format_xml ),
-
-        /**
-         * Produce no output.
-         * <p/>
-         * Produce no output files.
-         */
-        NONE( Options.output_format_none ),
-
-        /**
-         * Produce <tt>.jasmin</tt> files.
-         * <p/>
-         * Produce <tt>.jasmin</tt> files, suitable as input to the jasmin bytecode assembler.
-         */
-        JASMIN( Options.output_format_jasmin ),
-
-        /**
-         * Produce <tt>.class</tt> files.
-         * <p/>
-         * Produce Java <tt>.class</tt> files, executable by any Java Virtual Machine.
-         */
-        CLASS( Options.output_format_class ),
-
-        /**
-         * Produce dava-decompiled <tt>.java</tt> files.
-         * <p/>
-         * Produce <tt>.java</tt> files generated by the Dava decompiler.
-         */
-        DAVA( Options.output_format_dava ),
-
-        /**
-         * Produce <tt>.java</tt> files with Jimple templates.
-         * <p/>
-         * Produce <tt>.java</tt> files with Jimple templates.
-         */
-        TEMPLATE( Options.output_format_template );
-
-        protected int value;
-
-        private OutputFormat( int value )
-        {
-            this.value = value;
-        }
-
-        public int getValue()
-        {
-            return value;
-        }
-    }
+    /**
+     * The JIT limit the methods of {@link #jitLimitsFailPackages} must not exceed.
+     */
+    @Parameter( defaultValue = "HUGE_METHOD_LIMIT" )
+    protected JitLimits.Limit jitLimitsFailLevel;
 
     /**
-     * Specify the format of output files Soot should produce, if any.
-     * Note that while the abbreviated formats (<tt>jimp</tt>, <tt>shimp</tt>,<tt>b</tt>, and<tt>grimp</tt>) are easier
-     * to read than their unabbreviated counterparts (<tt>jimple</tt>, <tt>shimple</tt>,<tt>baf</tt>, and
-     * <tt>grimple</tt>), they may contain ambiguities. Method signatures in the abbreviated formats, for instance, are
-     * not uniquely determined.
+     * The maximum bytecode size of the methods Soot transforms, in bytes, or 0 for no limit. Classes declaring a
+     * larger method are left out of the Soot run, and passed through untransformed.
+     * <p/>
+     * Classes passed through untransformed are listed with the budget they exceeded in <tt>budgets.txt</tt> in
+     * {@link #reportsDirectory}. They are copied from the input to the output in {@link OutputFormat#CLASS class}
+     * format only.
      */
-    @Parameter( defaultValue = "CLASS" )
-    protected OutputFormat outputFormat;
+    @Parameter( property = "soot.maxMethodSize", defaultValue = "0" )
+    protected int maxMethodSize;
 
     /**
-     * Make output dir a Jar file instead of dir.
+     * The maximum time a body phase may spend on a single method, <tt>jb</tt> included, in milliseconds, or 0 for no
+     * limit. The class declaring a method exceeding this budget is passed through untransformed, and the other classes
+     * of its JVM are processed again without it.
      * <p/>
-     * The output Jar file name should be specified using the {@link #outputDirectory} option. Note that if the output
-     * Jar file exists before Soot runs, any files inside it will first be removed.
+     * Soot cannot be interrupted safely, so time budgets are enforced by running Soot in forked JVMs, as in
+     * {@link #shards sharded} mode, that are terminated when a method or a phase exceeds its budget. Metrics and
+     * traces cannot be recorded then.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean outputJar;
+    @Parameter( property = "soot.maxMethodTime", defaultValue = "0" )
+    protected long maxMethodTime;
 
     /**
-     * Save in XML format a variety of tags which Soot has attached to its internal representations of the application
-     * classes. The XML file can then be read by the Soot plug-in for the Eclipse IDE, which can display the annotations
-     * together with the program source, to aid program understanding.
+     * The maximum time a whole program phase may take, <tt>cg</tt> included, in milliseconds, or 0 for no limit. All
+     * the classes processed by a JVM exceeding this budget are passed through untransformed. See
+     * {@link #maxMethodTime}.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean xmlAttributes;
+    @Parameter( property = "soot.maxPhaseTime", defaultValue = "0" )
+    protected long maxPhaseTime;
 
     /**
-     * Print in output files (either in Jimple or Dave) a variety of tags which Soot has attached to its internal
-     * representations of the application classes. The tags will be printed on the line succeeding the stmt that they
-     * are attached to.
+     * The maximum time Soot may run, in seconds, or 0 for no limit. All the classes processed by a JVM still running
+     * at the deadline are passed through untransformed. See {@link #maxMethodTime}.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean printTags;
+    @Parameter( property = "soot.deadline", defaultValue = "0" )
+    protected long deadline;
 
     /**
-     * Don't output Source File Attribute when producing class files.
+     * The directory classes passed through untransformed are staged in before being added to the {@link #outputJar}.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean noOutputSourceFileAttribute;
+    @Parameter( defaultValue = "${project.build.directory}/soot-passthrough" )
+    protected File passThroughDirectory;
 
     /**
-     * Don't output inner classes attribute in class files.
-     * <p/>
-     * Don't output inner classes attribute in class files.
+     * Order the entries of the output JAR by predicted class load order in {@link #outputJar} mode, so that class
+     * loading at startup reads the archive sequentially. The load order is read from {@link #classLoadLog} if set,
+     * otherwise it is predicted from the call graph in {@link #wholeProgram} mode, starting from {@link #mainClass},
+     * static initializers included.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean noOutputInnerClassesAttribute;
+    @Parameter( property = "soot.startupOrderedJar", defaultValue = "false" )
+    protected boolean startupOrderedJar;
 
     /**
-     * Dump the internal representation of each method before and after given phase.
+     * A log of the classes loaded by the application at startup, used in {@link #startupOrderedJar} mode: the output
+     * of <tt>-verbose:class</tt>, <tt>-Xlog:class+load</tt> or <tt>-XX:DumpLoadedClassList</tt>.
      */
     @Parameter
-    protected List dumpBody;
+    protected File classLoadLog;
 
     /**
-     * Dump the internal representation of each CFG constructed during given phase.
+     * Store the classes loaded at startup uncompressed in {@link #startupOrderedJar} mode, so that they need no
+     * inflation.
+     */
+    @Parameter( defaultValue = "false" )
+    protected boolean storeStartupClasses;
+
+    /**
+     * Add the resolved compile and runtime dependencies matching these patterns to the application classes, so that
+     * they are optimized along with the project classes. Patterns are matched against <tt>groupId:artifactId</tt> and
+     * may use <tt>*</tt> and <tt>?</tt> wildcards, for instance:
+     * <pre>
+     * &lt;includeDependencies&gt;
+     *   &lt;includeDependency&gt;com.google.guava:*&lt;/includeDependency&gt;
+     * &lt;/includeDependencies&gt;
+     * </pre>
+     * The dependency JARs are added to {@link #processDirectory}, Soot reads their classes without extracting them.
+     * The optimized dependency classes are then moved from {@link #outputDirectory} to
+     * {@link #dependenciesOutputDirectory}, so that they do not end up in the project classes, and are only merged
+     * into the {@link #uberJar}. In {@link #outputJar} mode, they are left in the output JAR.
      */
     @Parameter
-    protected List dumpCfg;
+    protected List includeDependencies;
 
     /**
-     * Include exception destination edges as well as CFG edges in dumped CFGs.
-     * <p/>
-     * Indicate whether to show exception destination edges as well as control flow edges in dumps of exceptional control
-     * flow graphs.
+     * The directory the optimized classes of the {@link #includeDependencies} are moved to, cleared before each run.
      */
-    @Parameter( defaultValue = "true" )
-    protected boolean showExceptionDests;
+    @Parameter( defaultValue = "${project.build.directory}/soot-dependencies" )
+    protected File dependenciesOutputDirectory;
 
     /**
-     * GZip IR output files.
-     * <p/>
-     * This option causes Soot to compress output files of intermediate representations with GZip. It does not apply to
-     * class files output by Soot.
+     * Merge the Soot output with the resources of the {@link #processDirectory} entries, including the
+     * {@link #includeDependencies} JARs, into {@link #uberJarFile}.
      */
     @Parameter( defaultValue = "false" )
-    protected boolean gzip;
-
-//    /**
-//     * Perform intraprocedural optimizations on the application classes.
-//     */
-//    @Parameter(defaultValue = "true")
-//    protected boolean optimize;
-//
-//    /**
-//     * Perform whole program optimizations.
-//     * <p/>
-//     * Perform whole program optimizations on the application classes. This enables the Whole-Jimple Optimization pack as
-//     * well as whole program mode and intraprocedural optimizations.
-//     */
-//    @Parameter(defaultValue = "false")
-//    protected boolean wholeOptimize;
-
-    /**
-     * Convert Jimple to bytecode via the Grimp intermediate representation instead of via the Baf intermediate
-     * representation.
+    protected boolean uberJar;
+
+    /**
+     * The file the {@link #uberJar} is written to.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean viaGrimp;
+    @Parameter( defaultValue = "${project.build.directory}/${project.build.finalName}-optimized.jar" )
+    protected File uberJarFile;
 
     /**
-     * Enable Shimple, Soot's SSA representation. This generates Shimple bodies for the application classes, optionally
-     * transforms them with analyses that run on SSA form, then turns them back into Jimple for processing by the rest of
-     * Soot. For more information, see the documentation for the<tt>shimp</tt>,<tt>stp</tt>, and <tt>sop</tt> phases.
+     * The artifacts of the plugin, used to build the classpath of forked JVMs.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean viaShimple;
+    @Parameter( defaultValue = "${plugin.artifacts}", required = true, readonly = true )
+    protected List pluginArtifacts;
 
     /**
-     * Values for {@link #throwAnalysis} option.
+     * The JARs of the {@link #includeDependencies} added to {@link #processDirectory}.
      */
-    @SuppressWarnings( "unused" )
-    public enum ThrowAnalysis
+    private final List<File> dependencyJars = new ArrayList<File>();
+
+    /**
+     * The application classes left out of the Soot run, as they are passed through untransformed.
+     */
+    private final Set<String> skippedClasses = new HashSet<String>();
+
+    /**
+     * @throws MojoExecutionException
+     * @throws MojoFailureException
+     */
+    @Override
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
     {
+        final boolean timeBudgets = maxMethodTime > 0 || maxPhaseTime > 0 || deadline > 0;
+        final boolean singleRun = shards <= 1 && !streaming && !timeBudgets;
+        if ( ( diagnosePhantoms || startupOrderedJar || metrics || trace ) && !singleRun )
+        {
+            throw new MojoExecutionException( "Phantom diagnosis, startup ordered JARs, metrics and traces cannot be "
+                                              + "used in sharded, streaming or time budgeted mode" );
+        }
+        if ( ( checkBaseline || updateBaseline ) && !singleRun )
+        {
+            throw new MojoExecutionException( "Metrics are not recorded in sharded, streaming or time budgeted mode, "
+                                              + "they cannot be checked against or written to " + baselineFile );
+        }
 
-        /**
-         * Pedantically conservative throw analysis.
-         * <p/>
-         * Says that any instruction may throw any <code>Throwable</code> whatsoever. Strictly speaking this is correct,
-         * since the Java libraries include the <code>Thread.stop(Throwable)</code> method, which allows other threads
-         * to cause arbitrary exceptions to occur at arbitrary points in the execution of a victim thread.
-         */
-        PEDANTIC( Options.throw_analysis_pedantic ),
+        if ( includeDependencies != null && !includeDependencies.isEmpty() )
+        {
+            addDependenciesToProcessDirectory();
+        }
 
-        /**
-         * Unit Throw Analysis.
-         * <p/>
-         * Says that each statement in the intermediate representation may throw those exception types associated with
-         * the corresponding Java bytecode instructions in the JVM Specification. The analysis deals with each statement
-         * in isolation, without regard to the surrounding program.
-         */
-        UNIT( Options.throw_analysis_unit );
+        if ( buildCache && ( diagnosePhantoms || updateBaseline ) )
+        {
+            getLog().info( "Phantom diagnosis and baseline updates need a Soot run, not using the build cache" );
+        }
+        // Read first: the output directory is the process directory by default, and restoring a cache entry overwrites
+        // the classes just as Soot does.
+        ClasspathIndex input = jitLimits ? scanProcessDirectory() : null;
+        if ( !outputJar )
+        {
+            markInPlaceOutput();
+        }
 
-        protected int value;
+        final BuildCache cache = buildCache && !diagnosePhantoms && !updateBaseline
+                                 ? new BuildCache( buildCacheDirectory, buildCacheMaxEntries, buildCacheMaxAge )
+                                 : null;
+        String cacheKey = null;
+        if ( cache != null )
+        {
+            cacheKey = computeCacheKey();
+            try
+            {
+                if ( cache.restore( cacheKey, new File( outputDirectory ), reportsDirectory ) )
+                {
+                    getLog().info( "Restored Soot output from build cache entry " + cacheKey );
+                    if ( jitLimits )
+                    {
+                        checkJitLimits( input );
+                    }
+                    moveDependencyClasses();
+                    if ( uberJar )
+                    {
+                        writeUberJar();
+                    }
+                    return;
+                }
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Failed restoring build cache entry " + cacheKey, e );
+            }
+            getLog().info( "No build cache entry " + cacheKey + ", running Soot" );
+        }
 
-        private ThrowAnalysis( int value )
+        if ( input == null && ( maxMethodSize > 0 || timeBudgets ) )
         {
-            this.value = value;
+            input = scanProcessDirectory();
         }
+        final Map<String, String> passedThrough = new TreeMap<String, String>();
+        if ( maxMethodSize > 0 )
+        {
+            passedThrough.putAll( findOversizedClasses( input ) );
+            skippedClasses.addAll( passedThrough.keySet() );
+        }
+        final int oversized = passedThrough.size();
 
-        public int getValue()
+        Map<String, String> outputSnapshot = null;
+        Map<String, String> reportsSnapshot = null;
+        if ( cache != null )
         {
-            return value;
+            try
+            {
+                outputSnapshot = BuildCache.snapshot( new File( outputDirectory ) );
+                reportsSnapshot = BuildCache.snapshot( reportsDirectory );
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Failed reading " + outputDirectory + " and " + reportsDirectory, e );
+            }
+        }
+
+        if ( shards > 1 )
+        {
+            executeSharded( passedThrough );
+        }
+        else if ( streaming )
+        {
+            if ( timeBudgets )
+            {
+                throw new MojoExecutionException( "Time budgets cannot be used in streaming mode" );
+            }
+            executeStreaming( passedThrough.keySet() );
+        }
+        else if ( timeBudgets )
+        {
+            executeBudgeted( passedThrough );
+        }
+        else
+        {
+            executeSingle();
+        }
+
+        if ( maxMethodSize > 0 || timeBudgets )
+        {
+            passThrough( input, passedThrough );
+        }
+        if ( jitLimits )
+        {
+            checkJitLimits( input );
+        }
+
+        if ( cache != null && passedThrough.size() > oversized )
+        {
+            getLog().info( "Classes exceeded time budgets, not populating build cache entry " + cacheKey );
+        }
+        else if ( cache != null )
+        {
+            try
+            {
+                cache.store( cacheKey, outputSnapshot, reportsSnapshot, new File( outputDirectory ), reportsDirectory );
+            }
+            catch ( IOException e )
+            {
+                // The cache is an optimization, failing to populate it must not fail the build.
+                getLog().warn( "Failed storing build cache entry " + cacheKey, e );
+            }
+        }
+
+        // Moved after populating the cache, so that its entries hold the dependency classes, moved again on restore.
+        moveDependencyClasses();
+        if ( uberJar )
+        {
+            writeUberJar();
         }
     }
 
     /**
-     * This option specifies how to estimate the exceptions which each statement may throw when constructing
-     * exceptional CFGs.
+     * Add the JARs of the dependencies matching {@link #includeDependencies} to {@link #processDirectory}.
      */
-    @Parameter( defaultValue = "UNIT" )
-    protected ThrowAnalysis throwAnalysis;
+    protected void addDependenciesToProcessDirectory()
+    {
+        final List<String> entries = new ArrayList<String>();
+        if ( processDirectory != null )
+        {
+            for ( Object directory : processDirectory )
+            {
+                entries.add( directory.toString() );
+            }
+        }
+        for ( Iterator it = project.getArtifacts().iterator(); it.hasNext(); )
+        {
+            final Artifact artifact = (Artifact) it.next();
+            if ( artifact.getFile() == null || !artifact.getFile().isFile()
+                || !( Artifact.SCOPE_COMPILE.equals( artifact.getScope() )
+                      || Artifact.SCOPE_RUNTIME.equals( artifact.getScope() ) ) )
+            {
+                continue;
+            }
+            for ( Object pattern : includeDependencies )
+            {
+                if ( SelectorUtils.match( pattern.toString(), artifact.getGroupId() + ":" + artifact.getArtifactId() ) )
+                {
+                    getLog().info( "Including dependency " + artifact.getId() + " in the application classes" );
+                    entries.add( artifact.getFile().getPath() );
+                    dependencyJars.add( artifact.getFile() );
+                    break;
+                }
+            }
+        }
+        processDirectory = entries;
+    }
 
     /**
-     * Omit CFG edges to handlers from excepting units which lack side effects.
-     * <p/>
-     * When constructing an <code>ExceptionalUnitGraph</code> or <code>ExceptionalBlockGraph</code>, include edges to an
-     * exception handler only from the predecessors of an instruction which may throw an exception to the handler, and
-     * not from the excepting instruction itself, unless the excepting instruction has potential side effects.
-     * Omitting edges from excepting units allows more accurate flow analyses (since if an instruction without side
-     * effects throws an exception, it has not changed the state of the computation). This accuracy, though, could lead
-     * optimizations to generate unverifiable code, since the dataflow analyses performed by bytecode verifiers might
-     * include paths to exception handlers from all protected instructions, regardless of whether the instructions have
-     * side effects. (In practice, the pedantic throw analysis suffices to pass verification in all VMs tested with Soot
-     * to date, but the JVM specification does allow for less discriminating verifiers which would reject some code that
-     * might be generated using the pedantic throw analysis without also adding edges from all excepting units.)
+     * Move the optimized classes of the {@link #includeDependencies} from {@link #outputDirectory} to
+     * {@link #dependenciesOutputDirectory}.
+     *
+     * @throws MojoExecutionException if the dependency JARs could not be read or the classes could not be moved.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean omitExceptingUnitEdges;
-
-//    /**
-//     * Trim unrealizable exceptional edges from CFGs.
-//     * <p/>
-//     * When constructing CFGs which include exceptional edges, minimize the number of edges leading to exception handlers
-//     * by analyzing which instructions might actually be executed before an exception is thrown, instead of assuming that
-//     * every instruction protected by a handler has the potential to throw an exception the handler catches.
-//     */
-//    @Parameter(defaultValue = "false")
-//    protected boolean trimCfgs;
-
-//    /**
-//     * Does not throw an exception when a program references an undeclared field or method..
-//     * <p/>
-//     * Some programs may contain dead code that references fields or methods that do not exist. By default, Soot exists
-//     * with an exception when this happens. If this option is enabled, Soot only prints a warning but does not exit.
-//     */
-//    @Parameter(defaultValue = "false")
-//    protected boolean ignoreResolutionErrors;
-
-    /**
-     * Include classes in pkg as application classes.
-     * <p/>
-     * Designate classes in packages whose names begin with pkg (e.g.<tt>java.util.</tt>) as application classes which
-     * should be analyzed and output. This option allows you to selectively analyze classes in some packages that Soot
-     * normally treats as library classes.
-     * You can use the include option multiple times, to designate the classes of multiple packages as application classes.
-     * If you specify both include and exclude options, first the classes from all excluded packages are marked as library
-     * classes, then the classes from all included packages are marked as application classes.
+    protected void moveDependencyClasses()
+        throws MojoExecutionException
+    {
+        if ( dependencyJars.isEmpty() || outputJar )
+        {
+            return;
+        }
+        try
+        {
+            FileUtils.deleteDirectory( dependenciesOutputDirectory );
+            final Set<String> classNames =
+                new HashSet<String>( ClasspathIndex.scan( dependencyJars, prescanThreads ).getClassNames() );
+            final int moved = OutputUtils.moveClasses( new File( outputDirectory ), classNames,
+                                                       dependenciesOutputDirectory );
+            getLog().info( "Moved " + moved + " dependency classes to " + dependenciesOutputDirectory );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed moving dependency classes to " + dependenciesOutputDirectory, e );
+        }
+    }
+
+    /**
+     * Merge the Soot output, the optimized dependency classes and the {@link #processDirectory} entries into
+     * {@link #uberJarFile}.
+     *
+     * @throws MojoExecutionException if the JAR could not be written.
      */
-    @Parameter
-    protected List includes;
+    protected void writeUberJar()
+        throws MojoExecutionException
+    {
+        final List<File> entries = new ArrayList<File>();
+        entries.add( new File( outputDirectory ) );
+        entries.add( dependenciesOutputDirectory );
+        if ( processDirectory != null )
+        {
+            for ( Object directory : processDirectory )
+            {
+                entries.add( new File( directory.toString() ) );
+            }
+        }
+        try
+        {
+            final int count = OutputUtils.uberJar( entries, uberJarFile );
+            getLog().info( "Wrote " + count + " entries to " + uberJarFile );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed writing " + uberJarFile, e );
+        }
+    }
 
     /**
-     * Exclude classes in pkg from application classes.
-     * <p/>
-     * Excludes any classes in packages whose names begin with pkg from the set of application classes which are analyzed
-     * and output, treating them as library classes instead.
-     * This option allows you to selectively exclude classes which would normally be treated as application classes.
-     * You can use the exclude option multiple times, to designate the classes of multiple packages as library classes.
-     * If you specify both include and exclude options, first the classes from all excluded packages are marked as library
-     * classes, then the classes from all included packages are marked as application classes.
+     * Index the classes of the {@link #processDirectory} entries, before Soot or the build cache overwrite them.
+     *
+     * @return the index.
+     * @throws MojoExecutionException if a class could not be read.
      */
-    @Parameter
-    protected List excludes;
+    protected ClasspathIndex scanProcessDirectory()
+        throws MojoExecutionException
+    {
+        final List<File> entries = new ArrayList<File>();
+        if ( processDirectory != null )
+        {
+            for ( Object directory : processDirectory )
+            {
+                entries.add( new File( directory.toString() ) );
+            }
+        }
+        try
+        {
+            return ClasspathIndex.scan( entries, prescanThreads );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed reading class files", e );
+        }
+    }
 
     /**
-     * Set default excluded packages to empty list.
-     * <p/>
-     * Soot uses a default list of packages (such as java.) which are deemed to contain library classes. This switch
-     * removes the default packages from the list of packages containing library classes.
-     * Individual packages can then be added using the exclude option.
+     * Check the classes written by Soot against the JIT limits.
+     *
+     * @param input the classes read by Soot.
+     * @throws MojoExecutionException if the classes could not be read or the report could not be written.
+     * @throws MojoFailureException   if methods of {@link #jitLimitsFailPackages} exceed {@link #jitLimitsFailLevel}.
      */
-    @Parameter( defaultValue = "TODO" )
-    protected boolean includeAll;
+    protected void checkJitLimits( ClasspathIndex input )
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( outputFormat != OutputFormat.CLASS || outputJar )
+        {
+            getLog().warn( "JIT limits are only checked for class files written to the output directory" );
+            return;
+        }
+
+        final JitLimits limits = new JitLimits( hugeMethodLimit, freqInlineSize, maxInlineSize );
+        final List<JitLimits.Violation> violations = new ArrayList<JitLimits.Violation>();
+        final File report = new File( reportsDirectory, "jit-limits.txt" );
+        try
+        {
+            final ClasspathIndex output = ClasspathIndex.scan( Collections.singletonList( new File( outputDirectory ) ),
+                                                               prescanThreads );
+            for ( String className : new TreeSet<String>( output.getClassNames() ) )
+            {
+                violations.addAll( limits.check( output.getHeader( className ), input.getHeader( className ) ) );
+            }
+            JitLimits.writeReport( report, violations );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed checking JIT limits", e );
+        }
+
+        final List<JitLimits.Violation> failures = new ArrayList<JitLimits.Violation>();
+        for ( JitLimits.Violation violation : violations )
+        {
+            if ( violation.getLimit().compareTo( jitLimitsFailLevel ) >= 0
+                && isInPackages( violation.getClassName(), jitLimitsFailPackages ) )
+            {
+                failures.add( violation );
+            }
+            if ( violation.getLimit() == JitLimits.Limit.HUGE_METHOD_LIMIT )
+            {
+                getLog().warn( "Method is never JIT compiled: " + violation.getClassName() + "."
+                               + violation.getMethod() + " (" + violation.getSize() + " bytes)" );
+            }
+        }
+        getLog().info( violations.size() + " methods exceed JIT limits, see " + report );
+
+        if ( !failures.isEmpty() )
+        {
+            for ( JitLimits.Violation failure : failures )
+            {
+                getLog().error( failure.getLimit() + ": " + failure.getClassName() + "." + failure.getMethod() + " ("
+                                + failure.getSize() + " bytes)" );
+            }
+            throw new MojoFailureException( failures.size() + " methods exceed " + jitLimitsFailLevel + ", see "
+                                            + report );
+        }
+    }
 
     /**
-     * Note that class may be loaded dynamically.
-     * <p/>
-     * Mark class as a class which the application may load dynamically. Soot will read it as a library class even if it
-     * is not referenced from the argument classes. This permits whole program optimizations on programs which load
-     * classes dynamically if the set of classes that can be loaded is known at compile time.
+     * Whether a class belongs to some packages or their subpackages.
+     *
+     * @param className the class name.
+     * @param packages  the package names, may be <tt>null</tt>.
+     * @return true if the class belongs to one of the packages.
      */
-    @Parameter
-    protected List dynamicClasses;
+    private static boolean isInPackages( String className, List packages )
+    {
+        if ( packages != null )
+        {
+            for ( Object pkg : packages )
+            {
+                if ( className.startsWith( pkg.toString() + "." ) )
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 
     /**
-     * Mark all class files in directory  as classes that may be loaded dynamically. Soot will read them as library
-     * classes even if they are not referenced from the argument classes.
-     * You can specify more than one directory of potentially dynamic classes by specifying multiple dynamic directory
-     * options.
+     * Run Soot once on all the application classes, diagnosing and repairing phantom classes if enabled.
+     *
+     * @throws MojoExecutionException if the metrics or the phantoms report could not be written.
+     * @throws MojoFailureException   if Soot failed, the metrics regressed or phantom classes were found while not
+     *                                allowed.
      */
-    @Parameter
-    protected List dynamicDirectories;
+    protected void executeSingle()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( !diagnosePhantoms )
+        {
+            runSingle();
+            return;
+        }
+
+        final List<String> phantoms = findPhantomClasses();
+        if ( phantoms.isEmpty() )
+        {
+            getLog().info( "No phantom classes found" );
+            runSingle();
+            return;
+        }
+
+        final PhantomDiagnosis diagnosis = new PhantomDiagnosis();
+        final File report = new File( reportsDirectory, "phantoms.txt" );
+        final Map<String, String> located;
+        try
+        {
+            diagnosis.addArtifacts( project.getArtifacts() );
+            if ( searchLocalRepository && diagnosis.locate( phantoms ).containsValue( null ) )
+            {
+                diagnosis.addRepository( new File( localRepository.getBasedir() ) );
+            }
+            located = diagnosis.locate( phantoms );
+            PhantomDiagnosis.writeReport( report, located );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed diagnosing phantom classes", e );
+        }
+
+        final Set<String> artifacts = new TreeSet<String>();
+        int unknown = 0;
+        for ( String coordinate : located.values() )
+        {
+            if ( coordinate == null )
+            {
+                unknown++;
+            }
+            else
+            {
+                artifacts.add( coordinate );
+            }
+        }
+        getLog().warn( phantoms.size() + " phantom classes found, see " + report );
+        for ( String artifact : artifacts )
+        {
+            getLog().warn( "Missing from soot classpath: " + artifact );
+        }
+        if ( unknown > 0 )
+        {
+            getLog().warn( unknown + " phantom classes are not provided by any known artifact" );
+        }
+
+        final List<File> files = diagnosis.getFiles( phantoms );
+        if ( repairPhantoms && !files.isEmpty() )
+        {
+            final StringBuilder classpath = new StringBuilder( sootClasspath == null ? "" : sootClasspath );
+            for ( File file : files )
+            {
+                classpath.append( classpath.length() > 0 ? File.pathSeparator : "" ).append( file.getPath() );
+            }
+            sootClasspath = classpath.toString();
+            getLog().info( "Running Soot with " + files.size() + " artifacts added to the soot classpath" );
+        }
+        else if ( !allowPhantomRefs )
+        {
+            throw new MojoFailureException( phantoms.size() + " classes are missing from the soot classpath, see "
+                                            + report );
+        }
+        runSingle();
+    }
 
     /**
-     * Marks all class files belonging to the package package or any of its subpackages as classes which the application
-     * may load dynamically.
-     * Soot will read all classes in package as library classes, even if they are not referenced by any of the argument
+     * Run Soot on all the application classes with phantom references allowed and no output, to collect the phantom
      * classes.
+     *
+     * @return the names of the phantom classes, sorted.
+     * @throws MojoExecutionException if Soot could not be configured.
+     * @throws MojoFailureException   if Soot failed.
      */
-    @Parameter
-    protected List dynamicPackages;
+    protected List<String> findPhantomClasses()
+        throws MojoExecutionException, MojoFailureException
+    {
+        final boolean allowPhantoms = allowPhantomRefs;
+        final OutputFormat format = outputFormat;
+        final boolean jar = outputJar;
+        allowPhantomRefs = true;
+        outputFormat = OutputFormat.NONE;
+        outputJar = false;
+        try
+        {
+            G.reset();
+            configureLogging();
+            configureOptions();
+            skipClasses( skippedClasses );
+            run();
+            return PhantomDiagnosis.getPhantomClasses();
+        }
+        finally
+        {
+            allowPhantomRefs = allowPhantoms;
+            outputFormat = format;
+            outputJar = jar;
+        }
+    }
 
     /**
-     * Keep line number tables.
+     * Run Soot once on all the application classes.
+     *
+     * @throws MojoExecutionException if the metrics could not be written.
+     * @throws MojoFailureException   if Soot failed or the metrics regressed.
+     */
+    protected void runSingle()
+        throws MojoExecutionException, MojoFailureException
+    {
+        final TraceRecorder traceRecorder = trace ? new TraceRecorder() : null;
+        if ( trace )
+        {
+            traceRecorder.begin( "configureOptions", "plugin" );
+        }
+        G.reset();
+        configureLogging();
+        configureOptions();
+        skipClasses( skippedClasses );
+        if ( trace )
+        {
+            traceRecorder.end();
+        }
+        final boolean recordMetrics = metrics || checkBaseline || updateBaseline;
+        final PhaseTimer timer = recordMetrics || trace ? new PhaseTimer() : null;
+        final RunMetrics runMetrics = recordMetrics ? new RunMetrics() : null;
+        if ( timer != null )
+        {
+            timer.install();
+        }
+        if ( recordMetrics )
+        {
+            runMetrics.start();
+        }
+        if ( trace )
+        {
+            timer.setTrace( traceRecorder, TimeUnit.MICROSECONDS.toNanos( traceThreshold ) );
+            traceRecorder.startSampling( traceSampleInterval );
+        }
+        final long start = System.nanoTime();
+        boolean completed = false;
+        try
+        {
+            try
+            {
+                run();
+            }
+            finally
+            {
+                if ( trace )
+                {
+                    timer.finish();
+                    traceSootRun( traceRecorder, timer, start, System.nanoTime() );
+                    traceRecorder.stopSampling();
+                }
+            }
+            if ( startupOrderedJar )
+            {
+                if ( trace )
+                {
+                    traceRecorder.begin( "orderOutputJar", "plugin" );
+                }
+                orderOutputJar();
+                if ( trace )
+                {
+                    traceRecorder.end();
+                }
+            }
+            completed = true;
+        }
+        finally
+        {
+            if ( trace )
+            {
+                if ( completed )
+                {
+                    writeTrace( traceRecorder );
+                }
+                else
+                {
+                    // Written anyway to show where Soot failed, without hiding its failure.
+                    try
+                    {
+                        writeTrace( traceRecorder );
+                    }
+                    catch ( MojoExecutionException e )
+                    {
+                        getLog().warn( e.getMessage() );
+                    }
+                }
+            }
+        }
+        if ( recordMetrics )
+        {
+            runMetrics.stop( timer, new File( outputDirectory ) );
+            writeMetrics( runMetrics );
+            checkBaseline( runMetrics );
+        }
+    }
+
+    /**
+     * Record the spans of a Soot run that are not recorded by the phase timer.
      * <p/>
-     * Preserve line number tables for class files throughout the
-     * //            transformations.
+     * Soot resolves the classpath, loads classes and writes the output in a single call, outside of any pack: loading
+     * is the time before the first pack starts, and output writing the time after the last pack ends.
+     *
+     * @param traceRecorder the recorder of the timeline.
+     * @param timer         the phase timer installed for the run.
+     * @param start         the time the run started.
+     * @param end           the time the run ended.
      */
-    @Parameter( defaultValue = "true" )
-    protected boolean keepLineNumber;
+    protected void traceSootRun( TraceRecorder traceRecorder, PhaseTimer timer, long start, long end )
+    {
+        traceRecorder.complete( "soot", "plugin", start, end );
+        if ( timer.getFirstProbe() != 0 )
+        {
+            traceRecorder.complete( "load", "plugin", start, timer.getFirstProbe() );
+            traceRecorder.complete( "output", "plugin", timer.getLastProbe(), end );
+        }
+    }
 
     /**
-     * Maintain bytecode offset tables for class files throughout the transformations.
+     * Write the timeline of the execution to the reports directory.
+     *
+     * @param traceRecorder the recorder of the timeline.
+     * @throws MojoExecutionException if the timeline could not be written.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean keepBytecodeOffset;
-
-//    /**
-//     * Emit purity attributes.
-//     * <p/>
-//     * Purity anaysis implemented by Antoine Mine and based on the paper A Combined Pointer and Purity Analysis Java
-//     * Programs by Alexandru Salcianu and Martin Rinard.
-//     */
-//    @Parameter(defaultValue = "false")
-//    protected boolean annotPurity;
-
-//    /**
-//     * Emit null pointer attributes.
-//     * <p/>
-//     * Perform a static analysis of which dereferenced pointers may have null values, and annotate class files with
-//     * attributes encoding the results of the analysis. For details, see the documentation for Null Pointer Annotation
-//     * and for the Array Bounds and Null Pointer Check Tag Aggregator.
-//     */
-//    @Parameter(defaultValue = "false")
-//    protected boolean annotNullPointer;
-
-//    /**
-//     * Emit array bounds check attributes.
-//     * <p/>
-//     * Perform a static analysis of which array bounds checks may safely be eliminated and annotate output class files
-//     * with attributes encoding the results of the analysis. For details, see the documentation for Array Bounds
-//     * Annotation and for the Array Bounds and Null Pointer Check Tag Aggregator.
-//     */
-//    @Parameter(defaultValue = "false")
-//    protected boolean annotArrayBounds;
-
-//    /**
-//     * Enable the generation of side-effect attributes.
-//     */
-//    @Parameter(defaultValue = "false")
-//    protected boolean annotSideEffect;
-
-//    /**
-//     * Enable the generation of field read/write attributes.
-//     */
-//    @Parameter(defaultValue = "false")
-//    protected boolean annotFieldReadWrite;
-
-    /**
-     * Report the time required to perform some of Soot's transformations.
+    protected void writeTrace( TraceRecorder traceRecorder )
+        throws MojoExecutionException
+    {
+        final File file = new File( reportsDirectory, "trace.json" );
+        try
+        {
+            traceRecorder.write( file );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed writing Soot execution trace", e );
+        }
+        getLog().info( "Wrote Soot execution trace to " + file );
+    }
+
+    /**
+     * Rewrite the output JAR with the classes loaded at startup first.
+     *
+     * @throws MojoExecutionException if the class load log or the output JAR could not be read.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean time;
+    protected void orderOutputJar()
+        throws MojoExecutionException
+    {
+        if ( !outputJar )
+        {
+            getLog().warn( "Startup ordered JAR layout requires outputJar, skipping" );
+            return;
+        }
+
+        final List<String> classNames = new ArrayList<String>();
+        try
+        {
+            if ( classLoadLog != null )
+            {
+                classNames.addAll( JarLayout.readClassLoadLog( classLoadLog ) );
+            }
+            else if ( Scene.v().hasCallGraph() && Scene.v().hasMainClass() )
+            {
+                for ( SootClass sootClass : new StartupClassOrder( Scene.v().getCallGraph() ).compute(
+                    Scene.v().getMainClass() ) )
+                {
+                    classNames.add( sootClass.getName() );
+                }
+            }
+            else
+            {
+                getLog().warn( "Startup ordered JAR layout requires a classLoadLog, or wholeProgram and mainClass, "
+                               + "skipping" );
+                return;
+            }
+
+            final int moved = JarLayout.rewrite( new File( outputDirectory ), classNames, storeStartupClasses );
+            getLog().info( "Moved " + moved + " startup classes first in " + outputDirectory
+                           + ( storeStartupClasses ? ", stored uncompressed" : "" ) );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed ordering " + outputDirectory, e );
+        }
+    }
 
     /**
-     * Attempt to subtract time spent in garbage collection from the reports of times required for transformations.
+     * Compute the build cache key of the execution.
+     * <p/>
+     * Only the options affecting the output are part of the key, and the options of the checks run after Soot, so that
+     * a cache hit stands for a run that passed the same checks. The options holding paths are left out of the key,
+     * the content of the inputs they point to is hashed instead.
+     *
+     * @return the key.
+     * @throws MojoExecutionException if an input could not be read.
      */
-    @Parameter( defaultValue = "false" )
-    protected boolean subtractGC;
+    protected String computeCacheKey()
+        throws MojoExecutionException
+    {
+        final Map<String, Serializable> captured = OptionValues.capture( this );
+        final Map<String, Serializable> options = new TreeMap<String, Serializable>();
+        for ( String option : CACHE_KEY_OPTIONS )
+        {
+            options.put( option, captured.get( option ) );
+        }
+        options.put( "startupOrderedJar", startupOrderedJar );
+        options.put( "storeStartupClasses", storeStartupClasses );
+        options.put( "maxMethodSize", maxMethodSize );
+        options.put( "jitLimits", jitLimits );
+        if ( jitLimits )
+        {
+            options.put( "hugeMethodLimit", hugeMethodLimit );
+            options.put( "freqInlineSize", freqInlineSize );
+            options.put( "maxInlineSize", maxInlineSize );
+            options.put( "jitLimitsFailPackages",
+                         jitLimitsFailPackages == null ? null : new ArrayList<Object>( jitLimitsFailPackages ) );
+            options.put( "jitLimitsFailLevel", jitLimitsFailLevel );
+        }
+        options.put( "checkBaseline", checkBaseline );
+        if ( checkBaseline )
+        {
+            options.put( "baselineTolerance", baselineTolerance );
+            options.put( "baselineTolerances",
+                         baselineTolerances == null ? null : new TreeMap<String, String>( baselineTolerances ) );
+        }
+
+        final Set<File> inputs = new LinkedHashSet<File>();
+        if ( processDirectory != null )
+        {
+            for ( Object directory : processDirectory )
+            {
+                inputs.add( new File( directory.toString() ) );
+            }
+        }
+        if ( sootClasspath != null )
+        {
+            for ( String entry : sootClasspath.split( File.pathSeparator ) )
+            {
+                if ( entry.length() > 0 )
+                {
+                    inputs.add( new File( entry ) );
+                }
+            }
+        }
+        if ( dynamicDirectories != null )
+        {
+            for ( Object directory : dynamicDirectories )
+            {
+                inputs.add( new File( directory.toString() ) );
+            }
+        }
+        if ( startupOrderedJar && classLoadLog != null )
+        {
+            inputs.add( classLoadLog );
+        }
+        if ( checkBaseline )
+        {
+            inputs.add( baselineFile );
+        }
+
+        final List<String> versions = new ArrayList<String>();
+        for ( Iterator it = pluginArtifacts.iterator(); it.hasNext(); )
+        {
+            versions.add( ( (Artifact) it.next() ).getId() );
+        }
+        if ( prependClasspath )
+        {
+            versions.add( "java " + System.getProperty( "java.version" ) );
+        }
+
+        final long start = System.currentTimeMillis();
+        try
+        {
+            final String key = BuildCache.computeKey( options, new ArrayList<File>( inputs ), versions );
+            getLog().debug( "Computed build cache key in " + ( System.currentTimeMillis() - start ) + "ms" );
+            return key;
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed computing build cache key", e );
+        }
+    }
 
     /**
-     * @throws MojoExecutionException
-     * @throws MojoFailureException
+     * Check the metrics of the execution against the baseline, or update the baseline.
+     *
+     * @param runMetrics the metrics.
+     * @throws MojoExecutionException if the baseline could not be read or written.
+     * @throws MojoFailureException   if a metric regressed.
      */
-    public void execute()
+    protected void checkBaseline( RunMetrics runMetrics )
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( updateBaseline )
+        {
+            try
+            {
+                BaselineComparison.update( baselineFile, runMetrics.getValues() );
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Failed updating baseline " + baselineFile, e );
+            }
+            getLog().info( "Updated baseline " + baselineFile );
+            return;
+        }
+        if ( !checkBaseline )
+        {
+            return;
+        }
+        if ( !baselineFile.isFile() )
+        {
+            throw new MojoExecutionException( "Baseline " + baselineFile + " does not exist, create it with "
+                                              + "-Dsoot.updateBaseline" );
+        }
+
+        final BaselineComparison comparison;
+        try
+        {
+            comparison = new BaselineComparison( BaselineComparison.load( baselineFile ), runMetrics.getValues(),
+                                                 baselineTolerance, baselineTolerances );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed reading baseline " + baselineFile, e );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw new MojoExecutionException( "Invalid baseline " + baselineFile + ": " + e.getMessage(), e );
+        }
+
+        for ( String line : comparison.format() )
+        {
+            if ( comparison.hasRegressions() )
+            {
+                getLog().error( line );
+            }
+            else
+            {
+                getLog().info( line );
+            }
+        }
+        if ( comparison.hasRegressions() )
+        {
+            throw new MojoFailureException( "Soot execution metrics regressed or were not recorded compared to "
+                                            + "baseline " + baselineFile + ", refresh it with -Dsoot.updateBaseline "
+                                            + "if this is expected" );
+        }
+    }
+
+    /**
+     * Write the metrics of the execution to the reports directory and the history file.
+     *
+     * @param runMetrics the metrics.
+     * @throws MojoExecutionException if the metrics could not be written.
+     */
+    protected void writeMetrics( RunMetrics runMetrics )
+        throws MojoExecutionException
+    {
+        try
+        {
+            runMetrics.writeJson( new File( reportsDirectory, "metrics.json" ), project.getId() );
+            runMetrics.writePrometheus( new File( reportsDirectory, "metrics.prom" ) );
+            runMetrics.appendHistory( metricsHistoryFile, project.getId() );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed writing metrics", e );
+        }
+        getLog().info( "Wrote Soot execution metrics to " + reportsDirectory );
+        getLog().debug( "Soot execution metrics: " + runMetrics.getValues() );
+    }
+
+    /**
+     * Run Soot on shards of the application classes in forked JVMs, then merge their output.
+     *
+     * @param passedThrough the classes passed through untransformed, with the reason why, updated with the classes
+     *                      that exceed the time budgets.
+     * @throws MojoExecutionException if the shards could not be prepared or their output not be merged.
+     * @throws MojoFailureException   if Soot failed on a shard.
+     */
+    protected void executeSharded( Map<String, String> passedThrough )
         throws MojoExecutionException, MojoFailureException
     {
+        if ( wholeProgram || wholeShimple )
+        {
+            throw new MojoExecutionException( "Sharding cannot be used in whole program mode" );
+        }
+        executeForked( passedThrough, shards );
+    }
+
+    /**
+     * Run Soot on all the application classes in a forked JVM, so that it can be terminated when it exceeds the time
+     * budgets.
+     *
+     * @param passedThrough the classes passed through untransformed, with the reason why, updated with the classes
+     *                      that exceed the time budgets.
+     * @throws MojoExecutionException if the JVM could not be prepared or its output not be copied.
+     * @throws MojoFailureException   if Soot failed.
+     */
+    protected void executeBudgeted( Map<String, String> passedThrough )
+        throws MojoExecutionException, MojoFailureException
+    {
+        executeForked( passedThrough, 1 );
+    }
+
+    /**
+     * Run Soot on partitions of the application classes in forked JVMs, each writing to its own output directory, then
+     * merge their output, leaving out the classes passed through.
+     *
+     * @param passedThrough the classes passed through untransformed, with the reason why, updated with the classes
+     *                      that exceed the time budgets.
+     * @param count         the number of partitions.
+     * @throws MojoExecutionException if the JVMs could not be prepared or their output not be merged.
+     * @throws MojoFailureException   if Soot failed in a JVM.
+     */
+    private void executeForked( Map<String, String> passedThrough, int count )
+        throws MojoExecutionException, MojoFailureException
+    {
+        G.reset();
         configureLogging();
-        configureOptions();
-        run();
+        final List<String> classes = getProcessDirectoryClasses();
+        classes.removeAll( passedThrough.keySet() );
+        final List<List<String>> partition = Shards.partition( classes, count );
+        if ( count > 1 )
+        {
+            getLog().info( "Processing application classes in " + partition.size() + " shards" );
+        }
+
+        final Map<String, Serializable> options = OptionValues.capture( this );
+        options.put( "processDirectory", new ArrayList<String>() );
+        options.put( "sootClasspath", getProcessDirectoryClasspath() );
+        options.put( "outputJar", false );
+
+        final List<File> specifications = new ArrayList<File>();
+        final List<File> outputs = new ArrayList<File>();
+        try
+        {
+            FileUtils.deleteDirectory( shardsDirectory );
+            for ( int i = 0; i < partition.size(); i++ )
+            {
+                final File directory = new File( shardsDirectory, "shard-" + i );
+                final File output = new File( directory, "output" );
+                options.put( "outputDirectory", output.getPath() );
+                final File specification = new File( directory, "shard.ser" );
+                ShardWorker.writeSpecification( specification, options, partition.get( i ), maxMethodTime,
+                                                maxPhaseTime );
+                specifications.add( specification );
+                outputs.add( output );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed preparing shards in " + shardsDirectory, e );
+        }
+
+        final List<Integer> failures = runShards( options, specifications, partition, outputs, passedThrough );
+        if ( !failures.isEmpty() )
+        {
+            throw new MojoFailureException( "Soot execution failed for shards " + failures + ", see the logs in "
+                                            + shardsDirectory );
+        }
+
+        try
+        {
+            if ( outputJar )
+            {
+                OutputUtils.jar( outputs, new File( outputDirectory ) );
+            }
+            else
+            {
+                for ( File output : outputs )
+                {
+                    OutputUtils.copyTree( output, new File( outputDirectory ) );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed merging shards output to " + outputDirectory, e );
+        }
     }
 
-    protected void configureLogging()
+    /**
+     * Run shard workers until they all complete, passing through the classes that exceed the time budgets.
+     * <p/>
+     * When a method exceeds {@link #maxMethodTime}, its class is passed through and the other classes of the shard are
+     * processed again in a new worker. When a phase exceeds {@link #maxPhaseTime} or the {@link #deadline} is reached,
+     * all the classes of the shard are passed through and its output is discarded.
+     *
+     * @param options        the option values of the shards, as written to their specification files.
+     * @param specifications the specification files of the shards.
+     * @param classes        the classes of each shard, updated with the classes processed again.
+     * @param outputs        the output directory of each shard.
+     * @param passedThrough  the classes passed through untransformed, with the reason why, updated with the classes
+     *                       that exceed the time budgets.
+     * @return the indexes of the shards that failed.
+     * @throws MojoExecutionException if interrupted, or if the time budgets exceeded by a shard could not be read.
+     */
+    protected List<Integer> runShards( Map<String, Serializable> options, List<File> specifications,
+                                       List<List<String>> classes, List<File> outputs,
+                                       Map<String, String> passedThrough )
+        throws MojoExecutionException
     {
-        soot.G.v().out = new MavenLogPrintStream( getLog() );
+        final ShardRunner runner = new ShardRunner( getLog(), shardJvmArgs, pluginArtifacts );
+        if ( deadline > 0 )
+        {
+            runner.setDeadline( System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( deadline ) );
+        }
+
+        final List<Integer> failures = new ArrayList<Integer>();
+        List<Integer> pending = new ArrayList<Integer>();
+        for ( int i = 0; i < specifications.size(); i++ )
+        {
+            pending.add( i );
+        }
+        while ( !pending.isEmpty() )
+        {
+            final List<File> running = new ArrayList<File>();
+            for ( int i : pending )
+            {
+                running.add( specifications.get( i ) );
+            }
+            final List<Integer> exitCodes;
+            try
+            {
+                exitCodes = runner.run( running, shardParallelism );
+            }
+            catch ( InterruptedException e )
+            {
+                throw new MojoExecutionException( "Interrupted while waiting for shards", e );
+            }
+
+            final List<Integer> rerun = new ArrayList<Integer>();
+            for ( int j = 0; j < pending.size(); j++ )
+            {
+                final int i = pending.get( j );
+                final int exitCode = exitCodes.get( j );
+                final File file = new File( specifications.get( i ).getParentFile(),
+                                            ShardWorker.BUDGET_EXCEEDED_FILE_NAME );
+                try
+                {
+                    final List<BudgetWatchdog.Exceeded> exceeded = file.isFile()
+                                                                   ? BudgetWatchdog.Exceeded.read( file )
+                                                                   : Collections.<BudgetWatchdog.Exceeded>emptyList();
+                    if ( exitCode == ShardRunner.EXIT_TIMED_OUT )
+                    {
+                        passThroughShard( classes.get( i ), outputs.get( i ), "deadline of " + deadline + " s reached",
+                                          passedThrough );
+                    }
+                    else if ( exitCode == ShardWorker.EXIT_BUDGET_EXCEEDED && !exceeded.isEmpty() )
+                    {
+                        final BudgetWatchdog.Exceeded last = exceeded.get( exceeded.size() - 1 );
+                        if ( last.getClassName() == null )
+                        {
+                            passThroughShard( classes.get( i ), outputs.get( i ), last.getReason(), passedThrough );
+                        }
+                        else if ( rerunShard( options, specifications.get( i ), classes, i, outputs.get( i ), last,
+                                              passedThrough ) )
+                        {
+                            rerun.add( i );
+                        }
+                    }
+                    else if ( exitCode != 0 )
+                    {
+                        failures.add( i );
+                    }
+                }
+                catch ( IOException e )
+                {
+                    throw new MojoExecutionException( "Failed reading the time budgets exceeded by " + file, e );
+                }
+            }
+            pending = rerun;
+        }
+        return failures;
     }
 
-    protected void configureOptions()
+    /**
+     * Pass the class of a method exceeding {@link #maxMethodTime} through, and prepare its shard to be processed again
+     * without it.
+     *
+     * @param options       the option values of the shards.
+     * @param specification the specification file of the shard, rewritten.
+     * @param classes       the classes of each shard, updated.
+     * @param index         the index of the shard.
+     * @param output        the output directory of the shard, deleted as it may be partially written.
+     * @param exceeded      the method that exceeded its budget.
+     * @param passedThrough the classes passed through untransformed, updated.
+     * @return true if classes remain to be processed in the shard.
+     * @throws IOException if the output directory could not be deleted or the specification not be written.
+     */
+    private boolean rerunShard( Map<String, Serializable> options, File specification, List<List<String>> classes,
+                                int index, File output, BudgetWatchdog.Exceeded exceeded,
+                                Map<String, String> passedThrough )
+        throws IOException
     {
+        getLog().warn( "Passing " + exceeded.getClassName() + " through untransformed: " + exceeded.getReason() );
+        passedThrough.put( exceeded.getClassName(), exceeded.getReason() );
+        final List<String> remaining = new ArrayList<String>( classes.get( index ) );
+        remaining.remove( exceeded.getClassName() );
+        classes.set( index, remaining );
+        FileUtils.deleteDirectory( output );
+        new File( specification.getParentFile(), ShardWorker.BUDGET_EXCEEDED_FILE_NAME ).delete();
+        if ( remaining.isEmpty() )
+        {
+            return false;
+        }
+        getLog().info( "Processing the " + remaining.size() + " other classes again" );
+        options.put( "outputDirectory", output.getPath() );
+        ShardWorker.writeSpecification( specification, options, remaining, maxMethodTime, maxPhaseTime );
+        return true;
+    }
+
+    /**
+     * Pass all the classes of a shard through untransformed.
+     *
+     * @param classes       the classes of the shard.
+     * @param output        the output directory of the shard, deleted as it may be partially written.
+     * @param reason        the reason why.
+     * @param passedThrough the classes passed through untransformed, updated.
+     * @throws IOException if the output directory could not be deleted.
+     */
+    private void passThroughShard( List<String> classes, File output, String reason,
+                                   Map<String, String> passedThrough )
+        throws IOException
+    {
+        getLog().warn( "Passing " + classes.size() + " classes through untransformed: " + reason );
+        for ( String className : classes )
+        {
+            passedThrough.put( className, reason );
+        }
+        FileUtils.deleteDirectory( output );
+    }
+
+    /**
+     * Find the classes declaring methods larger than {@link #maxMethodSize}.
+     *
+     * @param input the index of the application classes.
+     * @return the reasons the classes are passed through, indexed by class name.
+     */
+    protected Map<String, String> findOversizedClasses( ClasspathIndex input )
+    {
+        final Map<String, String> oversized = new TreeMap<String, String>();
+        for ( String className : input.getClassNames() )
+        {
+            for ( ClassHeader.Member method : input.getHeader( className ).getMethods() )
+            {
+                if ( method.getCodeLength() > maxMethodSize )
+                {
+                    getLog().warn( "Passing " + className + " through untransformed: " + method.getName()
+                                   + method.getDescriptor() + " is " + method.getCodeLength() + " bytes long" );
+                    oversized.put( className, "method " + method.getName() + method.getDescriptor() + " exceeds "
+                                              + "maxMethodSize (" + method.getCodeLength() + " bytes)" );
+                    break;
+                }
+            }
+        }
+        return oversized;
+    }
+
+    /**
+     * Leave classes out of the application classes of the Soot run, by giving Soot an explicit list of the other
+     * ones, as in {@link #shards sharded} mode. Excludes cannot do this: Soot matches them as package prefixes, and
+     * does not apply them to the classes listed explicitly in {@link #prescan} mode.
+     * <p/>
+     * Soot must have been configured first. The process directories are put on the Soot classpath, so that the
+     * classes left out are still resolved, as library classes, and are not written.
+     *
+     * @param classNames the names of the classes.
+     */
+    protected void skipClasses( Collection<String> classNames )
+    {
+        if ( classNames.isEmpty() )
+        {
+            return;
+        }
         final Options options = Options.v();
-        options.set_help( help );
-        options.set_phase_list( phaseList );
-        options.set_phase_help( phaseHelp );
-        options.set_version( version );
-        options.set_verbose( verbose );
-        options.set_interactive_mode( interactiveMode );
-        options.set_unfriendly_mode( unfriendlyMode );
-        options.set_app( applicationMode );
-        options.set_whole_program( wholeProgram );
-        options.set_whole_shimple( wholeShimple );
-        options.set_validate( validate );
-        options.set_debug( debug );
-        options.set_debug_resolver( debugResolver );
-        options.set_soot_classpath( sootClasspath );
-        options.set_prepend_classpath( prependClasspath );
-        options.set_process_dir( processDirectory );
-        options.set_ast_metrics( astMetrics );
-        options.set_src_prec( sourcePrecedence.getValue() );
-        options.set_full_resolver( fullResolver );
-        options.set_allow_phantom_refs( allowPhantomRefs );
-        options.set_no_bodies_for_excluded( noBodiesForExcluded );
-        options.set_j2me( j2me );
-        options.set_main_class( mainClass );
-        options.set_polyglot( polyglot );
-        options.set_output_dir( outputDirectory );
-        options.set_output_format( outputFormat.getValue() );
-        options.set_output_jar( outputJar );
-        options.set_xml_attributes( xmlAttributes );
-        options.set_print_tags_in_output( printTags );
-        options.set_no_output_source_file_attribute( noOutputSourceFileAttribute );
-        options.set_no_output_inner_classes_attribute( noOutputInnerClassesAttribute );
-        options.set_dump_body( dumpBody );
-        options.set_dump_cfg( dumpCfg );
-        options.set_show_exception_dests( showExceptionDests );
-        options.set_gzip( gzip );
-//        options.set_XXXXXXX(optimize);
-//        options.set_XXXXXXX(wholeOptimize);
-        options.set_via_grimp( viaGrimp );
-        options.set_via_shimple( viaShimple );
-        options.set_throw_analysis( throwAnalysis.getValue() );
-        options.set_omit_excepting_unit_edges( omitExceptingUnitEdges );
-//        options.set_XXXXXXX(trimCfgs);
-//        options.set_XXXXXXX(ignoreResolutionErrors);
-        options.set_include( includes );
-        options.set_exclude( excludes );
-        options.set_include_all( includeAll );
-        options.set_dynamic_class( dynamicClasses );
-        options.set_dynamic_dir( dynamicDirectories );
-        options.set_dynamic_package( dynamicPackages );
-        options.set_keep_line_number( keepLineNumber );
-        options.set_keep_offset( keepBytecodeOffset );
-//        options.set_XXXXXXX(annotPurity);
-//        options.set_XXXXXXX(annotNullPointer);
-//        options.set_XXXXXXX(annotArrayBounds);
-//        options.set_XXXXXXX(annotSideEffect);
-//        options.set_XXXXXXX(annotFieldReadWrite);
-        options.set_time( time );
-        options.set_subtract_gc( subtractGC );
+        final Set<String> classes = new LinkedHashSet<String>();
+        for ( Object className : options.classes() )
+        {
+            classes.add( (String) className );
+        }
+        if ( !options.process_dir().isEmpty() )
+        {
+            classes.addAll( getProcessDirectoryClasses() );
+        }
+        classes.removeAll( classNames );
+        options.classes().clear();
+        options.classes().addAll( classes );
+        options.set_process_dir( new ArrayList<String>() );
+        options.set_soot_classpath( getProcessDirectoryClasspath() );
+    }
+
+    /**
+     * Copy the classes passed through untransformed from the input to the output, and write the budgets report.
+     *
+     * @param input         the index of the application classes, read before Soot ran.
+     * @param passedThrough the reasons the classes are passed through, indexed by class name.
+     * @throws MojoExecutionException if the classes could not be copied or the report could not be written.
+     */
+    protected void passThrough( ClasspathIndex input, Map<String, String> passedThrough )
+        throws MojoExecutionException
+    {
+        final File report = new File( reportsDirectory, "budgets.txt" );
+        try
+        {
+            BudgetWatchdog.writeReport( report, passedThrough );
+            if ( passedThrough.isEmpty() )
+            {
+                return;
+            }
+            if ( outputFormat != OutputFormat.CLASS )
+            {
+                getLog().warn( passedThrough.size() + " classes exceeded budgets and were not written, see " + report );
+                return;
+            }
+
+            final File directory = outputJar ? passThroughDirectory : new File( outputDirectory );
+            if ( outputJar )
+            {
+                FileUtils.deleteDirectory( passThroughDirectory );
+            }
+            for ( String className : passedThrough.keySet() )
+            {
+                final String path = className.replace( '.', File.separatorChar ) + ".class";
+                final File file = new File( directory, path );
+                final File entry = input.getEntry( className );
+                if ( entry != null && file.getCanonicalFile().equals( new File( entry, path ).getCanonicalFile() ) )
+                {
+                    // Processed in place, Soot left the class out and did not write it.
+                    continue;
+                }
+                file.getParentFile().mkdirs();
+                final InputStream in = input.open( className );
+                if ( in == null )
+                {
+                    throw new IOException( "Class " + className + " not found in " + processDirectory );
+                }
+                try
+                {
+                    final OutputStream out = new FileOutputStream( file );
+                    try
+                    {
+                        IOUtil.copy( in, out );
+                    }
+                    finally
+                    {
+                        out.close();
+                    }
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            if ( outputJar )
+            {
+                final File jar = new File( outputDirectory );
+                final File merged = new File( jar.getPath() + ".tmp" );
+                final List<File> entries = new ArrayList<File>();
+                if ( jar.isFile() )
+                {
+                    entries.add( jar );
+                }
+                entries.add( passThroughDirectory );
+                OutputUtils.uberJar( entries, merged );
+                if ( !jar.delete() && jar.exists() || !merged.renameTo( jar ) )
+                {
+                    throw new IOException( "Failed replacing " + jar );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed passing classes through untransformed", e );
+        }
+        finally
+        {
+            input.close();
+        }
+        getLog().warn( passedThrough.size() + " classes exceeded budgets and were passed through untransformed, see "
+                       + report );
     }
 
-    protected void run()
-        throws MojoFailureException
+    /**
+     * Run Soot on successive batches of the application classes, each in a fresh Soot instance.
+     *
+     * @param skipped the classes not to process.
+     * @throws MojoExecutionException if the output could not be written.
+     * @throws MojoFailureException   if Soot failed on a batch.
+     */
+    protected void executeStreaming( Set<String> skipped )
+        throws MojoExecutionException, MojoFailureException
     {
+        if ( wholeProgram || wholeShimple )
+        {
+            throw new MojoExecutionException( "Streaming cannot be used in whole program mode" );
+        }
+
+        G.reset();
+        configureLogging();
+        final List<String> classes = getProcessDirectoryClasses();
+        classes.removeAll( skipped );
+        final String output = outputJar ? streamingDirectory.getPath() : outputDirectory;
+        try
+        {
+            FileUtils.deleteDirectory( streamingDirectory );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed cleaning " + streamingDirectory, e );
+        }
+
+        final int batchSize = Math.max( 1, streamingBatchSize );
+        reuseClasspathIndex = true;
         try
         {
-            Main.v().run( new String[0] );
+            for ( int from = 0; from < classes.size(); from += batchSize )
+            {
+                final int to = Math.min( classes.size(), from + batchSize );
+                runOnClasses( classes.subList( from, to ), output );
+                getLog().info( "Processed " + to + "/" + classes.size() + " classes" );
+            }
         }
-        catch ( soot.CompilationDeathException e )
+        finally
+        {
+            reuseClasspathIndex = false;
+        }
+        G.reset();
+
+        if ( outputJar )
         {
-            throw new MojoFailureException( "Soot execution failed", e );
+            try
+            {
+                OutputUtils.jar( Collections.singletonList( streamingDirectory ), new File( outputDirectory ) );
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Failed writing " + outputDirectory, e );
+            }
         }
     }
 }
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Unit;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Predicts the order in which classes get loaded when a program starts.
+ * <p/>
+ * The call graph is walked depth-first from the static initializer and the <tt>main</tt> method of the main class,
+ * following call sites in the order they appear in method bodies. A class is considered loaded the first time one of
+ * its methods is reached, after its super classes and super interfaces.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class StartupClassOrder
+{
+
+    /**
+     * Sub-signature of static initializers.
+     */
+    public static final String CLINIT_SUBSIGNATURE = "void <clinit>()";
+
+    /**
+     * Sub-signature of main methods.
+     */
+    public static final String MAIN_SUBSIGNATURE = "void main(java.lang.String[])";
+
+    /**
+     * The call graph to walk.
+     */
+    private final CallGraph callGraph;
+
+    /**
+     * The classes loaded so far, in load order.
+     */
+    private final Set<SootClass> classes = new LinkedHashSet<SootClass>();
+
+    /**
+     * The methods reached so far.
+     */
+    private final Set<SootMethod> methods = new HashSet<SootMethod>();
+
+    /**
+     * Constructor.
+     *
+     * @param callGraph the call graph to walk.
+     */
+    public StartupClassOrder( CallGraph callGraph )
+    {
+        this.callGraph = callGraph;
+    }
+
+    /**
+     * Compute the classes loaded when starting from the given main class.
+     *
+     * @param mainClass the class the program is started with.
+     * @return the classes, in predicted load order.
+     */
+    public List<SootClass> compute( SootClass mainClass )
+    {
+        load( mainClass );
+        if ( mainClass.declaresMethod( CLINIT_SUBSIGNATURE ) )
+        {
+            walk( mainClass.getMethod( CLINIT_SUBSIGNATURE ) );
+        }
+        if ( mainClass.declaresMethod( MAIN_SUBSIGNATURE ) )
+        {
+            walk( mainClass.getMethod( MAIN_SUBSIGNATURE ) );
+        }
+        return new ArrayList<SootClass>( classes );
+    }
+
+    /**
+     * Get the methods reached by the last call to {@link #compute(soot.SootClass)}.
+     *
+     * @return the reached methods.
+     */
+    public Set<SootMethod> getReachedMethods()
+    {
+        return Collections.unmodifiableSet( methods );
+    }
+
+    /**
+     * Walk the call graph depth-first from the given method.
+     * <p/>
+     * An explicit stack is used, as call chains in real programs easily exceed the thread stack size.
+     *
+     * @param root the method to start from.
+     */
+    private void walk( SootMethod root )
+    {
+        if ( !reach( root ) )
+        {
+            return;
+        }
+        final LinkedList<Iterator<Edge>> stack = new LinkedList<Iterator<Edge>>();
+        stack.addFirst( edgesOutOf( root ).iterator() );
+        while ( !stack.isEmpty() )
+        {
+            final Iterator<Edge> edges = stack.getFirst();
+            if ( !edges.hasNext() )
+            {
+                stack.removeFirst();
+                continue;
+            }
+            final SootMethod target = edges.next().tgt();
+            if ( reach( target ) )
+            {
+                stack.addFirst( edgesOutOf( target ).iterator() );
+            }
+        }
+    }
+
+    /**
+     * Mark a method as reached, loading its declaring class.
+     *
+     * @param method the method.
+     * @return {@code true} if the method had not been reached yet.
+     */
+    private boolean reach( SootMethod method )
+    {
+        if ( !methods.add( method ) )
+        {
+            return false;
+        }
+        load( method.getDeclaringClass() );
+        return true;
+    }
+
+    /**
+     * Mark a class as loaded, after its super types.
+     *
+     * @param sootClass the class.
+     */
+    private void load( SootClass sootClass )
+    {
+        if ( sootClass.isPhantom() || classes.contains( sootClass ) )
+        {
+            return;
+        }
+        if ( sootClass.hasSuperclass() )
+        {
+            load( sootClass.getSuperclass() );
+        }
+        for ( Iterator it = sootClass.getInterfaces().iterator(); it.hasNext(); )
+        {
+            load( (SootClass) it.next() );
+        }
+        classes.add( sootClass );
+    }
+
+    /**
+     * Get the edges out of a method, in the order of the call sites in its body.
+     *
+     * @param method the source method.
+     * @return the edges.
+     */
+    private List<Edge> edgesOutOf( SootMethod method )
+    {
+        final Set<Edge> edges = new LinkedHashSet<Edge>();
+        if ( method.hasActiveBody() )
+        {
+            for ( Iterator it = method.getActiveBody().getUnits().iterator(); it.hasNext(); )
+            {
+                for ( Iterator<Edge> unitEdges = callGraph.edgesOutOf( (Unit) it.next() ); unitEdges.hasNext(); )
+                {
+                    edges.add( unitEdges.next() );
+                }
+            }
+        }
+        for ( Iterator<Edge> methodEdges = callGraph.edgesOutOf( method ); methodEdges.hasNext(); )
+        {
+            edges.add( methodEdges.next() );
+        }
+        return new ArrayList<Edge>( edges );
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records a timeline of spans and samples, and writes it in the trace event format understood by
+ * <tt>chrome://tracing</tt>, Perfetto and other trace viewers.
+ * <p/>
+ * Spans are recorded per thread, spans opened while another one is open on the same thread are nested in it. While
+ * sampling, garbage collections are recorded as spans on a dedicated track, and heap usage and live thread counts as
+ * counters. Garbage collections are detected by polling the garbage collector beans, so their spans end at the sample
+ * that observed them and last the collection time reported by the bean.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public final class TraceRecorder
+{
+
+    /**
+     * The identifier of the garbage collection track. Java thread identifiers are positive.
+     */
+    public static final long GC_THREAD_ID = 0;
+
+    /**
+     * The {@link System#nanoTime()} value timestamps are relative to.
+     */
+    private final long origin = System.nanoTime();
+
+    /**
+     * The recorded events, in the order they completed.
+     */
+    private final List<Event> events = Collections.synchronizedList( new ArrayList<Event>() );
+
+    /**
+     * The names of the threads events were recorded on, indexed by identifier.
+     */
+    private final Map<Long, String> threadNames = Collections.synchronizedMap( new LinkedHashMap<Long, String>() );
+
+    /**
+     * The spans open on each thread, innermost last.
+     */
+    private final ThreadLocal<LinkedList<Event>> openSpans = new ThreadLocal<LinkedList<Event>>()
+    {
+        @Override
+        protected LinkedList<Event> initialValue()
+        {
+            return new LinkedList<Event>();
+        }
+    };
+
+    /**
+     * The sampling thread, if sampling.
+     */
+    private Thread sampler;
+
+    /**
+     * Open a span on the current thread.
+     *
+     * @param name     the span name.
+     * @param category the span category.
+     */
+    public void begin( String name, String category )
+    {
+        final Event span = new Event( 'X', name, category, toMicros( System.nanoTime() ), currentThreadId() );
+        openSpans.get().add( span );
+    }
+
+    /**
+     * Close the innermost span open on the current thread.
+     *
+     * @throws IllegalStateException if no span is open on the current thread.
+     */
+    public void end()
+    {
+        final LinkedList<Event> open = openSpans.get();
+        if ( open.isEmpty() )
+        {
+            throw new IllegalStateException( "No span open on thread " + Thread.currentThread().getName() );
+        }
+        final Event span = open.removeLast();
+        span.duration = toMicros( System.nanoTime() ) - span.timestamp;
+        events.add( span );
+    }
+
+    /**
+     * Record a span on the current thread from timestamps measured elsewhere.
+     *
+     * @param name     the span name.
+     * @param category the span category.
+     * @param start    the {@link System#nanoTime()} value when the span started.
+     * @param end      the {@link System#nanoTime()} value when the span ended.
+     */
+    public void complete( String name, String category, long start, long end )
+    {
+        final Event span = new Event( 'X', name, category, toMicros( start ), currentThreadId() );
+        span.duration = toMicros( end ) - span.timestamp;
+        events.add( span );
+    }
+
+    /**
+     * Record a counter sample.
+     *
+     * @param name   the counter name.
+     * @param time   the {@link System#nanoTime()} value of the sample.
+     * @param series the name of the counter series.
+     * @param value  the sampled value.
+     */
+    public void counter( String name, long time, String series, Number value )
+    {
+        final Event sample = new Event( 'C', name, "sample", toMicros( time ), GC_THREAD_ID );
+        sample.args.put( series, value );
+        events.add( sample );
+    }
+
+    /**
+     * Start sampling garbage collections, heap usage and live threads in a daemon thread.
+     *
+     * @param interval the sampling interval in milliseconds.
+     */
+    public synchronized void startSampling( final long interval )
+    {
+        if ( sampler != null )
+        {
+            return;
+        }
+        threadNames.put( GC_THREAD_ID, "GC" );
+        sampler = new Thread( "soot-trace-sampler" )
+        {
+            @Override
+            public void run()
+            {
+                final Map<String, long[]> previous = new LinkedHashMap<String, long[]>();
+                while ( !isInterrupted() )
+                {
+                    sample( previous );
+                    try
+                    {
+                        Thread.sleep( interval );
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        break;
+                    }
+                }
+                sample( previous );
+            }
+        };
+        sampler.setDaemon( true );
+        sampler.start();
+    }
+
+    /**
+     * Stop sampling, after taking a last sample.
+     */
+    public synchronized void stopSampling()
+    {
+        if ( sampler == null )
+        {
+            return;
+        }
+        sampler.interrupt();
+        try
+        {
+            sampler.join();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        sampler = null;
+    }
+
+    /**
+     * Get the recorded events.
+     *
+     * @return the events, in the order they completed.
+     */
+    public List<Event> getEvents()
+    {
+        synchronized ( events )
+        {
+            return new ArrayList<Event>( events );
+        }
+    }
+
+    /**
+     * Write the trace to a file.
+     *
+     * @param file the file to write.
+     * @throws IOException if the file could not be written.
+     */
+    public void write( File file )
+        throws IOException
+    {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        final Writer writer = new FileWriter( file );
+        try
+        {
+            write( writer );
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * Write the trace.
+     *
+     * @param writer the writer to write to.
+     * @throws IOException if the trace could not be written.
+     */
+    public void write( Writer writer )
+        throws IOException
+    {
+        final JsonWriter json = new JsonWriter( writer );
+        json.beginObject().name( "traceEvents" ).beginArray();
+        final Map<Long, String> names;
+        synchronized ( threadNames )
+        {
+            names = new LinkedHashMap<Long, String>( threadNames );
+        }
+        for ( Map.Entry<Long, String> thread : names.entrySet() )
+        {
+            json.beginObject()
+                .name( "ph" ).value( "M" )
+                .name( "name" ).value( "thread_name" )
+                .name( "pid" ).value( 1 )
+                .name( "tid" ).value( thread.getKey() )
+                .name( "args" ).beginObject().name( "name" ).value( thread.getValue() ).endObject()
+                .endObject();
+        }
+        for ( Event event : getEvents() )
+        {
+            json.beginObject()
+                .name( "ph" ).value( String.valueOf( event.phase ) )
+                .name( "name" ).value( event.name )
+                .name( "cat" ).value( event.category )
+                .name( "pid" ).value( 1 )
+                .name( "tid" ).value( event.threadId )
+                .name( "ts" ).value( event.timestamp );
+            if ( event.phase == 'X' )
+            {
+                json.name( "dur" ).value( event.duration );
+            }
+            if ( !event.args.isEmpty() )
+            {
+                json.name( "args" ).beginObject();
+                for ( Map.Entry<String, Number> arg : event.args.entrySet() )
+                {
+                    json.name( arg.getKey() ).value( arg.getValue() );
+                }
+                json.endObject();
+            }
+            json.endObject();
+        }
+        json.endArray().name( "displayTimeUnit" ).value( "ms" ).endObject();
+        writer.flush();
+    }
+
+    /**
+     * Take a sample of garbage collections, heap usage and live threads.
+     *
+     * @param previous the collection count and time of each collector at the previous sample, updated.
+     */
+    private void sample( Map<String, long[]> previous )
+    {
+        final long now = System.nanoTime();
+        for ( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() )
+        {
+            final long count = gc.getCollectionCount();
+            final long time = gc.getCollectionTime();
+            final long[] last = previous.put( gc.getName(), new long[]{ count, time } );
+            if ( last == null || count <= last[0] )
+            {
+                continue;
+            }
+            final long duration = TimeUnit.MILLISECONDS.toMicros( Math.max( 0, time - last[1] ) );
+            final Event span = new Event( 'X', gc.getName(), "gc", toMicros( now ) - duration, GC_THREAD_ID );
+            span.duration = duration;
+            span.args.put( "collections", count - last[0] );
+            events.add( span );
+        }
+
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        counter( "heap", now, "used.bytes", memory.getHeapMemoryUsage().getUsed() );
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        counter( "threads", now, "live", threads.getThreadCount() );
+    }
+
+    /**
+     * Get the identifier of the current thread, and remember its name.
+     *
+     * @return the thread identifier.
+     */
+    private long currentThreadId()
+    {
+        final Thread thread = Thread.currentThread();
+        if ( !threadNames.containsKey( thread.getId() ) )
+        {
+            threadNames.put( thread.getId(), thread.getName() );
+        }
+        return thread.getId();
+    }
+
+    /**
+     * Convert a {@link System#nanoTime()} value to microseconds since the recorder was created.
+     *
+     * @param time the time in nanoseconds.
+     * @return the timestamp in microseconds.
+     */
+    private long toMicros( long time )
+    {
+        return TimeUnit.NANOSECONDS.toMicros( time - origin );
+    }
+
+    /**
+     * A trace event.
+     */
+    public static final class Event
+    {
+
+        /**
+         * The event type: <tt>X</tt> for spans, <tt>C</tt> for counter samples.
+         */
+        private final char phase;
+
+        /**
+         * The event name.
+         */
+        private final String name;
+
+        /**
+         * The event category.
+         */
+        private final String category;
+
+        /**
+         * The event start time, in microseconds since the recorder was created.
+         */
+        private final long timestamp;
+
+        /**
+         * The identifier of the thread the event was recorded on.
+         */
+        private final long threadId;
+
+        /**
+         * The event arguments.
+         */
+        private final Map<String, Number> args = new LinkedHashMap<String, Number>();
+
+        /**
+         * The span duration in microseconds.
+         */
+        private long duration;
+
+        /**
+         * Constructor.
+         *
+         * @param phase     the event type.
+         * @param name      the event name.
+         * @param category  the event category.
+         * @param timestamp the event start time.
+         * @param threadId  the identifier of the thread the event was recorded on.
+         */
+        Event( char phase, String name, String category, long timestamp, long threadId )
+        {
+            this.phase = phase;
+            this.name = name;
+            this.category = category;
+            this.timestamp = timestamp;
+            this.threadId = threadId;
+        }
+
+        /**
+         * Get the event type.
+         *
+         * @return <tt>X</tt> for spans, <tt>C</tt> for counter samples.
+         */
+        public char getPhase()
+        {
+            return phase;
+        }
+
+        /**
+         * Get the event name.
+         *
+         * @return the name.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Get the event category.
+         *
+         * @return the category.
+         */
+        public String getCategory()
+        {
+            return category;
+        }
+
+        /**
+         * Get the event start time.
+         *
+         * @return the time in microseconds since the recorder was created.
+         */
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        /**
+         * Get the span duration.
+         *
+         * @return the duration in microseconds, 0 for counter samples.
+         */
+        public long getDuration()
+        {
+            return duration;
+        }
+
+        /**
+         * Get the identifier of the thread the event was recorded on.
+         *
+         * @return the thread identifier, or {@link TraceRecorder#GC_THREAD_ID}.
+         */
+        public long getThreadId()
+        {
+            return threadId;
+        }
+    }
+}
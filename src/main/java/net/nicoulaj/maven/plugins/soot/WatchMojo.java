@@ -0,0 +1,207 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import soot.Scene;
+import soot.SootClass;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Mojo that watches the {@link #processDirectory} entries and runs Soot again on the classes that change, for instance
+ * when an IDE recompiles them.
+ * <p/>
+ * Soot cannot unload classes from its scene, so no scene is kept between batches: each batch of changes is processed
+ * by a fresh Soot run on the changed classes only, within the same JVM. The other classes are only resolved on demand,
+ * as library classes, which keeps runs short. The outputs of the changed classes are rewritten in
+ * {@link #outputDirectory}, and the outputs of the removed classes are deleted in {@link OutputFormat#CLASS} format.
+ * <p/>
+ * Only the per-method and per-class phases are supported. Whole program phases would only see the changed classes,
+ * so {@link #wholeProgram} and {@link #wholeShimple} are rejected: run the <tt>soot</tt> goal or the analysis goals
+ * for them.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @see DirectoryWatcher
+ * @since 0.2
+ */
+@Mojo(
+    name = WatchMojo.NAME,
+    threadSafe = false )
+public final class WatchMojo
+    extends AbstractSootMojo
+{
+
+    /**
+     * Mojo name.
+     */
+    public static final String NAME = "watch";
+
+    /**
+     * The interval between two polls of the watched directories, in milliseconds. A batch of changes is processed once
+     * a poll finds no new change, so that classes being written by a compiler are not read half way.
+     */
+    @Parameter( property = "soot.watchInterval", defaultValue = "300" )
+    protected long watchInterval;
+
+    /**
+     * Run Soot on all classes before watching for changes.
+     */
+    @Parameter( property = "soot.watchInitialRun", defaultValue = "true" )
+    protected boolean initialRun;
+
+    /**
+     * The number of batches of changes processed before the goal returns, 0 to watch until the build is interrupted.
+     */
+    @Parameter( property = "soot.watchBatches", defaultValue = "0" )
+    protected int watchBatches;
+
+    /**
+     * @throws MojoExecutionException if the watched directories could not be listed, or {@link #outputJar},
+     *                                {@link #wholeProgram} or {@link #wholeShimple} is set.
+     * @throws MojoFailureException   if the initial Soot run failed.
+     */
+    @Override
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( outputJar )
+        {
+            throw new MojoExecutionException( "The " + NAME + " goal does not support outputJar" );
+        }
+        if ( wholeProgram || wholeShimple )
+        {
+            throw new MojoExecutionException( "The " + NAME + " goal only runs Soot on the changed classes, it does "
+                                              + "not support wholeProgram and wholeShimple" );
+        }
+
+        final List<File> directories = new ArrayList<File>();
+        if ( processDirectory != null )
+        {
+            for ( Object directory : processDirectory )
+            {
+                directories.add( new File( directory.toString() ) );
+            }
+        }
+        final boolean inPlace = directories.contains( new File( outputDirectory ) );
+        markInPlaceOutput();
+
+        try
+        {
+            final DirectoryWatcher watcher = new DirectoryWatcher( directories );
+            if ( initialRun )
+            {
+                super.execute();
+                if ( inPlace )
+                {
+                    watcher.acknowledge( getApplicationClassNames() );
+                }
+            }
+
+            getLog().info( "Watching " + directories + " for changes" );
+            for ( int batches = 0; watchBatches <= 0 || batches < watchBatches; )
+            {
+                Thread.sleep( watchInterval );
+                final DirectoryWatcher.Changes changes = watcher.poll();
+                if ( changes.isEmpty() )
+                {
+                    continue;
+                }
+                for ( DirectoryWatcher.Changes more = changes; !more.isEmpty(); )
+                {
+                    Thread.sleep( watchInterval );
+                    more = watcher.poll();
+                    changes.addAll( more );
+                }
+
+                process( changes );
+                if ( inPlace )
+                {
+                    watcher.acknowledge( getApplicationClassNames() );
+                }
+                batches++;
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Failed watching " + directories, e );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            getLog().info( "Stopped watching " + directories );
+        }
+    }
+
+    /**
+     * Get the names of the application classes of the last Soot run, whose output Soot wrote.
+     *
+     * @return the class names.
+     */
+    protected List<String> getApplicationClassNames()
+    {
+        final List<String> classNames = new ArrayList<String>();
+        for ( Iterator it = Scene.v().getApplicationClasses().iterator(); it.hasNext(); )
+        {
+            classNames.add( ( (SootClass) it.next() ).getName() );
+        }
+        return classNames;
+    }
+
+    /**
+     * Process a batch of changes. Soot failures are logged, so that watching goes on once the classes are fixed.
+     *
+     * @param changes the changes.
+     */
+    protected void process( DirectoryWatcher.Changes changes )
+    {
+        final long start = System.currentTimeMillis();
+        for ( String className : changes.getRemoved() )
+        {
+            final File output = new File( outputDirectory, className.replace( '.', '/' ) + ".class" );
+            if ( outputFormat == OutputFormat.CLASS && output.isFile() && output.delete() )
+            {
+                getLog().info( "Deleted " + output );
+            }
+        }
+        if ( changes.getModified().isEmpty() )
+        {
+            return;
+        }
+
+        try
+        {
+            runOnClasses( new ArrayList<String>( changes.getModified() ), outputDirectory );
+            getLog().info( "Processed " + changes.getModified().size() + " changed classes in "
+                           + ( System.currentTimeMillis() - start ) + "ms" );
+        }
+        catch ( MojoExecutionException e )
+        {
+            getLog().error( "Failed processing changed classes " + changes.getModified(), e );
+        }
+        catch ( MojoFailureException e )
+        {
+            getLog().error( "Failed processing changed classes " + changes.getModified(), e );
+        }
+    }
+}
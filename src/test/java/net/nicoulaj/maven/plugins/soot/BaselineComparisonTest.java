@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link net.nicoulaj.maven.plugins.soot.BaselineComparison}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class BaselineComparisonTest
+{
+
+    @Test
+    public void testWithinTolerance()
+    {
+        final BaselineComparison comparison = compare( "time.total.ms", "1000", 1150 );
+        assertFalse( comparison.hasRegressions() );
+        assertEquals( 15d, comparison.getRows().get( 0 ).getDelta(), 0.001 );
+    }
+
+    @Test
+    public void testOverTolerance()
+    {
+        assertTrue( compare( "time.total.ms", "1000", 1250 ).hasRegressions() );
+    }
+
+    @Test
+    public void testZeroBaseline()
+    {
+        assertTrue( compare( "classes.phantom", "0", 1 ).hasRegressions() );
+        assertFalse( compare( "classes.phantom", "0", 0 ).hasRegressions() );
+    }
+
+    @Test
+    public void testSpecificTolerance()
+    {
+        final Properties baseline = new Properties();
+        baseline.setProperty( "output.bytes", "100" );
+        final Map<String, Number> current = new HashMap<String, Number>();
+        current.put( "output.bytes", 101 );
+        final Map<String, String> tolerances = new HashMap<String, String>();
+        tolerances.put( "output.bytes", "0" );
+
+        assertTrue( new BaselineComparison( baseline, current, 20, tolerances ).hasRegressions() );
+    }
+
+    @Test
+    public void testMissingMetric()
+    {
+        final Properties baseline = new Properties();
+        baseline.setProperty( "gc.count", "3" );
+        final BaselineComparison comparison =
+            new BaselineComparison( baseline, new HashMap<String, Number>(), 20, null );
+
+        assertTrue( comparison.hasRegressions() );
+        assertNull( comparison.getRows().get( 0 ).getCurrent() );
+        assertTrue( comparison.format().get( 1 ).endsWith( "MISSING" ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testInvalidValue()
+    {
+        compare( "time.total.ms", "1,000", 1000 );
+    }
+
+    private static BaselineComparison compare( String metric, String baselineValue, long currentValue )
+    {
+        final Properties baseline = new Properties();
+        baseline.setProperty( metric, baselineValue );
+        final Map<String, Number> current = new HashMap<String, Number>();
+        current.put( metric, currentValue );
+        return new BaselineComparison( baseline, current, 20, null );
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link net.nicoulaj.maven.plugins.soot.BinaryJimpleCodec}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class BinaryJimpleCodecTest
+{
+
+    @Test
+    public void testRoundTrip()
+        throws IOException
+    {
+        final BinaryJimpleCodec.Encoder encoder = new BinaryJimpleCodec.Encoder();
+        encoder.writeString( "a.B" );
+        encoder.writeVarint( 0 );
+        encoder.writeVarint( 300 );
+        encoder.writeVarint( Integer.MAX_VALUE );
+        encoder.writeSignedVarint( -1 );
+        encoder.writeSignedVarint( Integer.MIN_VALUE );
+        encoder.writeSignedLong( Long.MIN_VALUE );
+        encoder.writeSignedLong( Long.MAX_VALUE );
+        encoder.writeString( "java.lang.Object" );
+        encoder.writeString( "a.B" );
+
+        final BinaryJimpleCodec.Reader reader = new BinaryJimpleCodec.Decoder( encoder.toByteArray() ).readHeader();
+        assertEquals( "a.B", reader.readString() );
+        assertEquals( 0, reader.readVarint() );
+        assertEquals( 300, reader.readVarint() );
+        assertEquals( Integer.MAX_VALUE, reader.readVarint() );
+        assertEquals( -1, reader.readSignedVarint() );
+        assertEquals( Integer.MIN_VALUE, reader.readSignedVarint() );
+        assertEquals( Long.MIN_VALUE, reader.readSignedLong() );
+        assertEquals( Long.MAX_VALUE, reader.readSignedLong() );
+        assertEquals( "java.lang.Object", reader.readString() );
+        assertEquals( "a.B", reader.readString() );
+    }
+
+    @Test
+    public void testStringsInterned()
+    {
+        final BinaryJimpleCodec.Encoder once = new BinaryJimpleCodec.Encoder();
+        once.writeString( "java.lang.StringBuilder" );
+        final BinaryJimpleCodec.Encoder twice = new BinaryJimpleCodec.Encoder();
+        twice.writeString( "java.lang.StringBuilder" );
+        twice.writeString( "java.lang.StringBuilder" );
+
+        assertEquals( once.toByteArray().length + 1, twice.toByteArray().length );
+    }
+
+    @Test
+    public void testBodies()
+        throws IOException
+    {
+        final BinaryJimpleCodec.Encoder encoder = new BinaryJimpleCodec.Encoder();
+        encoder.writeVarint( 2 );
+        assertEquals( 0, encoder.startBody() );
+        encoder.writeString( "first" );
+        encoder.writeSignedVarint( -42 );
+        encoder.endBody();
+        assertEquals( 1, encoder.startBody() );
+        encoder.writeString( "second" );
+        encoder.endBody();
+        encoder.writeString( "header" );
+
+        final BinaryJimpleCodec.Decoder decoder = new BinaryJimpleCodec.Decoder( encoder.toByteArray() );
+        assertEquals( 2, decoder.getBodyCount() );
+        final BinaryJimpleCodec.Reader header = decoder.readHeader();
+        assertEquals( 2, header.readVarint() );
+        assertEquals( "header", header.readString() );
+        assertEquals( "second", decoder.readBody( 1 ).readString() );
+        final BinaryJimpleCodec.Reader first = decoder.readBody( 0 );
+        assertEquals( "first", first.readString() );
+        assertEquals( -42, first.readSignedVarint() );
+    }
+
+    @Test( expected = IOException.class )
+    public void testReadPastSection()
+        throws IOException
+    {
+        final BinaryJimpleCodec.Encoder encoder = new BinaryJimpleCodec.Encoder();
+        encoder.startBody();
+        encoder.writeVarint( 1 );
+        encoder.endBody();
+        encoder.writeVarint( 1 );
+
+        final BinaryJimpleCodec.Reader reader = new BinaryJimpleCodec.Decoder( encoder.toByteArray() ).readHeader();
+        reader.readVarint();
+        reader.readVarint();
+    }
+
+    @Test( expected = IOException.class )
+    public void testDecodeInvalid()
+        throws IOException
+    {
+        new BinaryJimpleCodec.Decoder( new byte[]{ 1, 2, 3, 4, 5 } );
+    }
+
+    @Test( expected = IOException.class )
+    public void testDecodeTruncated()
+        throws IOException
+    {
+        final BinaryJimpleCodec.Encoder encoder = new BinaryJimpleCodec.Encoder();
+        encoder.startBody();
+        encoder.writeString( "body" );
+        encoder.endBody();
+        final byte[] bytes = encoder.toByteArray();
+        final byte[] truncated = new byte[bytes.length - 1];
+        System.arraycopy( bytes, 0, truncated, 0, truncated.length );
+
+        new BinaryJimpleCodec.Decoder( truncated );
+    }
+
+    @Test
+    public void testEmpty()
+        throws IOException
+    {
+        final byte[] bytes = new BinaryJimpleCodec.Encoder().toByteArray();
+        assertEquals( 0, new BinaryJimpleCodec.Decoder( bytes ).getBodyCount() );
+    }
+}
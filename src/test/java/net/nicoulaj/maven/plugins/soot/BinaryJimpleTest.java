@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.junit.Test;
+import soot.Body;
+import soot.Dependencies;
+import soot.G;
+import soot.IntType;
+import soot.Local;
+import soot.Modifier;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.SootResolver;
+import soot.Trap;
+import soot.Type;
+import soot.Unit;
+import soot.VoidType;
+import soot.jimple.GotoStmt;
+import soot.jimple.IfStmt;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import soot.jimple.JimpleBody;
+import soot.tagkit.LineNumberTag;
+import soot.util.Chain;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link net.nicoulaj.maven.plugins.soot.BinaryJimple}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class BinaryJimpleTest
+{
+
+    @Test
+    public void testRoundTrip()
+        throws IOException
+    {
+        G.reset();
+        final Jimple jimple = Jimple.v();
+        final RefType type = RefType.v( "p.A" );
+        final SootClass exception = SootResolver.v().makeClassRef( "java.lang.Exception" );
+
+        final SootClass sootClass = new SootClass( "p.A", Modifier.PUBLIC );
+        sootClass.setSuperclass( SootResolver.v().makeClassRef( "java.lang.Object" ) );
+        final SootField field = new SootField( "count", IntType.v(), Modifier.STATIC );
+        sootClass.addField( field );
+        sootClass.addMethod( new SootMethod( "load", Collections.<Type>emptyList(), VoidType.v(),
+                                             Modifier.STATIC | Modifier.NATIVE ) );
+        final SootMethod method = new SootMethod( "run", asList( IntType.v() ), IntType.v(), Modifier.PUBLIC );
+        sootClass.addMethod( method );
+
+        final JimpleBody body = jimple.newBody( method );
+        method.setActiveBody( body );
+        final Local self = jimple.newLocal( "r0", type );
+        final Local n = jimple.newLocal( "i0", IntType.v() );
+        final Local caught = jimple.newLocal( "$r1", exception.getType() );
+        body.getLocals().add( self );
+        body.getLocals().add( n );
+        body.getLocals().add( caught );
+        final Chain units = body.getUnits();
+        final Unit ret = jimple.newReturnStmt( n );
+        final Unit begin = jimple.newAssignStmt( n, jimple.newMulExpr( n, IntConstant.v( -2 ) ) );
+        begin.addTag( new LineNumberTag( 12 ) );
+        final Unit handler = jimple.newIdentityStmt( caught, jimple.newCaughtExceptionRef() );
+        units.add( jimple.newIdentityStmt( self, jimple.newThisRef( type ) ) );
+        units.add( jimple.newIdentityStmt( n, jimple.newParameterRef( IntType.v(), 0 ) ) );
+        units.add( begin );
+        units.add( jimple.newIfStmt( jimple.newLeExpr( n, IntConstant.v( 0 ) ), ret ) );
+        units.add( jimple.newAssignStmt( jimple.newStaticFieldRef( field.makeRef() ), n ) );
+        units.add( jimple.newGotoStmt( begin ) );
+        units.add( handler );
+        units.add( jimple.newInvokeStmt( jimple.newVirtualInvokeExpr(
+            caught, Scene.v().makeMethodRef( exception, "printStackTrace", Collections.emptyList(), VoidType.v(),
+                                             false ), Collections.emptyList() ) ) );
+        units.add( ret );
+        body.getTraps().add( jimple.newTrap( exception, begin, handler, handler ) );
+
+        final SootClass decoded = new SootClass( "p.A" );
+        final Dependencies dependencies = BinaryJimple.decode( BinaryJimple.encode( sootClass ), decoded );
+        assertTrue( dependencies.typesToHierarchy.contains( RefType.v( "java.lang.Object" ) ) );
+        assertTrue( dependencies.typesToSignature.contains( exception.getType() ) );
+
+        assertEquals( Modifier.PUBLIC, decoded.getModifiers() );
+        assertEquals( "java.lang.Object", decoded.getSuperclass().getName() );
+        assertEquals( Modifier.STATIC, decoded.getFieldByName( "count" ).getModifiers() );
+        assertFalse( decoded.getMethodByName( "load" ).isConcrete() );
+
+        final Body decodedBody = decoded.getMethodByName( "run" ).retrieveActiveBody();
+        assertEquals( asList( "r0", "i0", "$r1" ), toStrings( decodedBody.getLocals() ) );
+        assertEquals( toStrings( units ), toStrings( decodedBody.getUnits() ) );
+        final List decodedUnits = new ArrayList( decodedBody.getUnits() );
+        final Unit decodedBegin = (Unit) decodedUnits.get( 2 );
+        assertEquals( 12, ( (LineNumberTag) decodedBegin.getTag( "LineNumberTag" ) ).getLineNumber() );
+
+        final Trap trap = (Trap) decodedBody.getTraps().getFirst();
+        assertEquals( "java.lang.Exception", trap.getException().getName() );
+        assertTrue( trap.getBeginUnit() == decodedBegin );
+        assertTrue( trap.getHandlerUnit() == decodedUnits.get( 6 ) );
+        assertTrue( ( (IfStmt) decodedUnits.get( 3 ) ).getTarget() == decodedUnits.get( 8 ) );
+        assertTrue( ( (GotoStmt) decodedUnits.get( 5 ) ).getTarget() == decodedBegin );
+    }
+
+    private static List<String> toStrings( Chain chain )
+    {
+        final List<String> strings = new ArrayList<String>();
+        for ( Iterator it = chain.iterator(); it.hasNext(); )
+        {
+            strings.add( it.next().toString() );
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import soot.G;
+import soot.Local;
+import soot.Modifier;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Type;
+import soot.Unit;
+import soot.VoidType;
+import soot.jimple.Jimple;
+import soot.jimple.JimpleBody;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Utility object used by tests to build small Jimple bodies, without loading classes from a classpath.
+ * <p/>
+ * <p>{@link #reset()} starts with a fresh Soot scene holding only <tt>java.lang.Object</tt>. Other classes, including
+ * the library classes a test needs, are declared with {@link #makeClass(String, SootClass)}.</p>
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class BodyBuilder
+{
+
+    /**
+     * The Jimple factory.
+     */
+    protected final Jimple jimple = Jimple.v();
+
+    /**
+     * The method of the body.
+     */
+    protected final SootMethod method;
+
+    /**
+     * The body being built.
+     */
+    protected final JimpleBody body;
+
+    /**
+     * Build a new {@link BodyBuilder}, declaring a method and giving it an empty active body.
+     *
+     * @param sootClass      the class declaring the method.
+     * @param name           the method name.
+     * @param parameterTypes the method parameter types.
+     * @param returnType     the method return type.
+     * @param modifiers      the method modifiers, see {@link Modifier}.
+     */
+    public BodyBuilder( SootClass sootClass, String name, List<? extends Type> parameterTypes, Type returnType,
+                        int modifiers )
+    {
+        method = new SootMethod( name, parameterTypes, returnType, modifiers );
+        sootClass.addMethod( method );
+        body = jimple.newBody( method );
+        method.setActiveBody( body );
+    }
+
+    /**
+     * Reset Soot and declare <tt>java.lang.Object</tt>, with its constructor.
+     *
+     * @return the <tt>java.lang.Object</tt> class.
+     */
+    public static SootClass reset()
+    {
+        G.reset();
+        final SootClass object = makeClass( "java.lang.Object", null );
+        object.addMethod( new SootMethod( SootMethod.constructorName, Collections.<Type>emptyList(),
+                                          VoidType.v(), Modifier.PUBLIC ) );
+        return object;
+    }
+
+    /**
+     * Declare an application class in the scene.
+     *
+     * @param name       the class name.
+     * @param superclass the super class, <tt>null</tt> for none.
+     * @return the class.
+     */
+    public static SootClass makeClass( String name, SootClass superclass )
+    {
+        final SootClass sootClass = new SootClass( name, Modifier.PUBLIC );
+        if ( superclass != null )
+        {
+            sootClass.setSuperclass( superclass );
+        }
+        Scene.v().addClass( sootClass );
+        sootClass.setApplicationClass();
+        return sootClass;
+    }
+
+    /**
+     * Declare a local.
+     *
+     * @param name the local name.
+     * @param type the local type.
+     * @return the local.
+     */
+    public Local local( String name, Type type )
+    {
+        final Local local = jimple.newLocal( name, type );
+        body.getLocals().add( local );
+        return local;
+    }
+
+    /**
+     * Append a statement to the body.
+     *
+     * @param unit the statement.
+     * @return the statement.
+     */
+    public <T extends Unit> T add( T unit )
+    {
+        body.getUnits().add( unit );
+        return unit;
+    }
+
+    /**
+     * Get the method of the body.
+     *
+     * @return the method.
+     */
+    public SootMethod getMethod()
+    {
+        return method;
+    }
+
+    /**
+     * Get the body.
+     *
+     * @return the body.
+     */
+    public JimpleBody getBody()
+    {
+        return body;
+    }
+}
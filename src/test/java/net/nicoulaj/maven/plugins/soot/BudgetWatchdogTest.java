@@ -0,0 +1,143 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link net.nicoulaj.maven.plugins.soot.BudgetWatchdog}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class BudgetWatchdogTest
+{
+
+    @Test
+    public void testCheck()
+    {
+        final List<BudgetWatchdog.Exceeded> exceeded = new ArrayList<BudgetWatchdog.Exceeded>();
+        final BudgetWatchdog watchdog = new BudgetWatchdog( 100, 0, new BudgetWatchdog.Handler()
+        {
+            public void exceeded( BudgetWatchdog.Exceeded e )
+            {
+                exceeded.add( e );
+            }
+        } );
+        final long now = System.currentTimeMillis();
+
+        assertFalse( watchdog.check( now + 1000 ) );
+
+        watchdog.enter( "wjtp.tn", null, null );
+        assertFalse( watchdog.check( now + 1000 ) );
+
+        watchdog.enter( "jtp.ls", "a.B", "<a.B: void c()>" );
+        assertFalse( watchdog.check( now + 50 ) );
+        assertTrue( watchdog.check( now + 1000 ) );
+        assertTrue( watchdog.check( now + 2000 ) );
+
+        assertEquals( 1, exceeded.size() );
+        assertEquals( "a.B", exceeded.get( 0 ).getClassName() );
+        assertEquals( "<a.B: void c()>", exceeded.get( 0 ).getMethod() );
+        assertEquals( "jtp.ls", exceeded.get( 0 ).getPhase() );
+        assertTrue( exceeded.get( 0 ).getElapsed() >= 900 );
+
+        watchdog.exit( "jtp.ls" );
+        watchdog.enter( "jtp.ls", "a.D", "<a.D: void e()>" );
+        assertTrue( watchdog.check( System.currentTimeMillis() + 1000 ) );
+        assertEquals( 2, exceeded.size() );
+        assertEquals( "a.D", exceeded.get( 1 ).getClassName() );
+    }
+
+    @Test
+    public void testExit()
+    {
+        final BudgetWatchdog watchdog = new BudgetWatchdog( 100, 100, new BudgetWatchdog.Handler()
+        {
+            public void exceeded( BudgetWatchdog.Exceeded e )
+            {
+            }
+        } );
+        watchdog.enter( "jtp.ls", "a.B", "<a.B: void c()>" );
+        watchdog.exit( "jtp.ls" );
+        assertFalse( watchdog.check( System.currentTimeMillis() + 1000 ) );
+    }
+
+    @Test
+    public void testNested()
+    {
+        final List<BudgetWatchdog.Exceeded> exceeded = new ArrayList<BudgetWatchdog.Exceeded>();
+        final BudgetWatchdog watchdog = new BudgetWatchdog( 100, 500, new BudgetWatchdog.Handler()
+        {
+            public void exceeded( BudgetWatchdog.Exceeded e )
+            {
+                exceeded.add( e );
+            }
+        } );
+        final long now = System.currentTimeMillis();
+
+        // Bodies are built by jb while cg runs: building one does not restart the budget of cg.
+        watchdog.enter( "cg.cha", null, null );
+        watchdog.enter( "jb.ls", "a.B", "<a.B: void c()>" );
+        watchdog.exit( "jb.ls" );
+        watchdog.enter( "jb.ls", "a.D", "<a.D: void e()>" );
+        assertFalse( watchdog.check( now + 50 ) );
+        assertTrue( watchdog.check( now + 1000 ) );
+
+        assertEquals( 2, exceeded.size() );
+        assertEquals( "cg.cha", exceeded.get( 0 ).getPhase() );
+        assertNull( exceeded.get( 0 ).getClassName() );
+        assertEquals( "jb.ls", exceeded.get( 1 ).getPhase() );
+        assertEquals( "a.D", exceeded.get( 1 ).getClassName() );
+    }
+
+    @Test
+    public void testWriteRead()
+        throws IOException
+    {
+        final File file = File.createTempFile( "budget", ".txt" );
+        try
+        {
+            new BudgetWatchdog.Exceeded( "a.B", "<a.B: void c()>", "jtp.ls", 567 ).write( file );
+            new BudgetWatchdog.Exceeded( null, null, "cg.spark", 1234 ).write( file );
+            final List<BudgetWatchdog.Exceeded> read = BudgetWatchdog.Exceeded.read( file );
+            assertEquals( 2, read.size() );
+            assertEquals( "a.B", read.get( 0 ).getClassName() );
+            assertEquals( "phase jtp.ls exceeded maxMethodTime on <a.B: void c()> (567 ms)",
+                          read.get( 0 ).getReason() );
+            final BudgetWatchdog.Exceeded exceeded = read.get( 1 );
+            assertNull( exceeded.getClassName() );
+            assertNull( exceeded.getMethod() );
+            assertEquals( "cg.spark", exceeded.getPhase() );
+            assertEquals( 1234, exceeded.getElapsed() );
+            assertEquals( "phase cg.spark exceeded maxPhaseTime (1234 ms)", exceeded.getReason() );
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link net.nicoulaj.maven.plugins.soot.BuildCache}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class BuildCacheTest
+{
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @Test
+    public void testComputeKeyHashesContentNotPaths()
+        throws IOException
+    {
+        final File directory = createDirectory();
+        try
+        {
+            final Map<String, Serializable> options = new TreeMap<String, Serializable>();
+            options.put( "outputFormat", "CLASS" );
+            final List<String> versions = asList( "soot-2.5.0" );
+            write( directory, "a/classes/p/A.class", "A" );
+            write( directory, "b/classes/p/A.class", "A" );
+
+            final List<File> a = asList( new File( directory, "a/classes" ) );
+            final List<File> b = asList( new File( directory, "b/classes" ) );
+
+            final String key = BuildCache.computeKey( options, a, versions );
+            assertEquals( key, BuildCache.computeKey( options, b, versions ) );
+
+            write( directory, "b/classes/p/A.class", "modified A" );
+            assertFalse( key.equals( BuildCache.computeKey( options, b, versions ) ) );
+            assertFalse( key.equals( BuildCache.computeKey( options, a, asList( "soot-2.4.0" ) ) ) );
+
+            options.put( "outputFormat", "JIMPLE" );
+            assertFalse( key.equals( BuildCache.computeKey( options, a, versions ) ) );
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory );
+        }
+    }
+
+    @Test
+    public void testStoreRestore()
+        throws IOException
+    {
+        final File directory = createDirectory();
+        try
+        {
+            final BuildCache cache = new BuildCache( new File( directory, "cache" ), 0, 0 );
+            final File output = new File( directory, "output" );
+            final File reports = new File( directory, "reports" );
+            write( directory, "output/p/Untouched.class", "untouched" );
+            final File rewritten = write( directory, "output/p/Rewritten.class", "javac" );
+            write( directory, "reports/old.txt", "old report" );
+            final Map<String, String> outputSnapshot = BuildCache.snapshot( output );
+            final Map<String, String> reportsSnapshot = BuildCache.snapshot( reports );
+
+            // Rewritten within the timestamp resolution of the filesystem.
+            final long lastModified = rewritten.lastModified();
+            write( directory, "output/p/Rewritten.class", "soot" );
+            rewritten.setLastModified( lastModified );
+            write( directory, "output/p/Created.class", "created" );
+            write( directory, "reports/metrics.json", "{}" );
+
+            assertFalse( cache.restore( "key", output, reports ) );
+            cache.store( "key", outputSnapshot, reportsSnapshot, output, reports );
+
+            final File restoredOutput = new File( directory, "restored/output" );
+            final File restoredReports = new File( directory, "restored/reports" );
+            assertTrue( cache.restore( "key", restoredOutput, restoredReports ) );
+            assertEquals( asList( "p/Created.class", "p/Rewritten.class" ), sorted( restoredOutput ) );
+            assertEquals( "soot", FileUtils.fileRead( new File( restoredOutput, "p/Rewritten.class" ) ) );
+            assertEquals( asList( "metrics.json" ), sorted( restoredReports ) );
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory );
+        }
+    }
+
+    @Test
+    public void testStoreRestoreJar()
+        throws IOException
+    {
+        final File directory = createDirectory();
+        try
+        {
+            final BuildCache cache = new BuildCache( new File( directory, "cache" ), 0, 0 );
+            final File jar = write( directory, "output.jar", "jar" );
+            final File reports = new File( directory, "reports" );
+            cache.store( "key", Collections.<String, String>emptyMap(), BuildCache.snapshot( reports ), jar, reports );
+
+            final File restored = new File( directory, "restored.jar" );
+            assertTrue( cache.restore( "key", restored, new File( directory, "restored-reports" ) ) );
+            assertEquals( "jar", FileUtils.fileRead( restored ) );
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory );
+        }
+    }
+
+    @Test
+    public void testEvictByCount()
+        throws IOException
+    {
+        final File directory = createDirectory();
+        try
+        {
+            final File cacheDirectory = new File( directory, "cache" );
+            final long now = System.currentTimeMillis();
+            for ( int i = 0; i < 3; i++ )
+            {
+                final File entry = new File( cacheDirectory, "entry-" + i );
+                entry.mkdirs();
+                entry.setLastModified( now - ( 3 - i ) * 1000L );
+            }
+            // Using an entry makes it the most recently used.
+            assertTrue( new BuildCache( cacheDirectory, 0, 0 ).restore( "entry-0", new File( directory, "output" ),
+                                                                        new File( directory, "reports" ) ) );
+
+            new BuildCache( cacheDirectory, 2, 0 ).evict();
+            assertEquals( asList( "entry-0", "entry-2" ), names( cacheDirectory ) );
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory );
+        }
+    }
+
+    @Test
+    public void testEvictByAge()
+        throws IOException
+    {
+        final File directory = createDirectory();
+        try
+        {
+            final File cacheDirectory = new File( directory, "cache" );
+            final long now = System.currentTimeMillis();
+            final File recent = new File( cacheDirectory, "recent" );
+            final File old = new File( cacheDirectory, "old" );
+            final File temporary = new File( cacheDirectory, ".tmp-interrupted" );
+            final File writing = new File( cacheDirectory, ".tmp-writing" );
+            for ( File entry : asList( recent, old, temporary, writing ) )
+            {
+                entry.mkdirs();
+            }
+            old.setLastModified( now - 3 * DAY );
+            temporary.setLastModified( now - 2 * DAY );
+
+            new BuildCache( cacheDirectory, 0, 2 ).evict();
+            assertEquals( asList( ".tmp-writing", "recent" ), names( cacheDirectory ) );
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory );
+        }
+    }
+
+    private static File createDirectory()
+        throws IOException
+    {
+        final File directory = File.createTempFile( "cache", "" );
+        FileUtils.forceDelete( directory );
+        directory.mkdirs();
+        return directory;
+    }
+
+    private static File write( File directory, String path, String content )
+        throws IOException
+    {
+        final File file = new File( directory, path );
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite( file.getPath(), content );
+        return file;
+    }
+
+    private static List<String> sorted( File directory )
+        throws IOException
+    {
+        final List<String> paths = OutputUtils.listFiles( directory );
+        Collections.sort( paths );
+        return paths;
+    }
+
+    private static List<String> names( File directory )
+    {
+        final List<String> names = asList( directory.list() );
+        Collections.sort( names );
+        return names;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Test;
+import soot.Modifier;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Type;
+import soot.Value;
+import soot.VoidType;
+import soot.jimple.Jimple;
+import soot.jimple.Stmt;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+import soot.jimple.toolkits.callgraph.Kind;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link net.nicoulaj.maven.plugins.soot.CallGraphCache}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class CallGraphCacheTest
+{
+
+    private static final List<Type> NO_PARAMETERS = Collections.emptyList();
+
+    private static final List<Value> NO_ARGUMENTS = Collections.emptyList();
+
+    @Test
+    public void testStoreRestore()
+        throws IOException
+    {
+        final Jimple jimple = Jimple.v();
+        final SootClass sootClass = BodyBuilder.makeClass( "p.A", BodyBuilder.reset() );
+        final BodyBuilder first = new BodyBuilder( sootClass, "first", NO_PARAMETERS, VoidType.v(), Modifier.STATIC );
+        first.add( jimple.newReturnVoidStmt() );
+        final BodyBuilder second = new BodyBuilder( sootClass, "second", NO_PARAMETERS, VoidType.v(),
+                                                    Modifier.STATIC );
+        second.add( jimple.newReturnVoidStmt() );
+        final BodyBuilder run = new BodyBuilder( sootClass, "run", NO_PARAMETERS, VoidType.v(), Modifier.STATIC );
+        final Stmt firstCall = run.add( jimple.newInvokeStmt(
+            jimple.newStaticInvokeExpr( first.getMethod().makeRef(), NO_ARGUMENTS ) ) );
+        final Stmt secondCall = run.add( jimple.newInvokeStmt(
+            jimple.newStaticInvokeExpr( second.getMethod().makeRef(), NO_ARGUMENTS ) ) );
+        run.add( jimple.newReturnVoidStmt() );
+
+        final CallGraph callGraph = new CallGraph();
+        callGraph.addEdge( new Edge( run.getMethod(), secondCall, second.getMethod(), Kind.STATIC ) );
+        callGraph.addEdge( new Edge( run.getMethod(), firstCall, first.getMethod(), Kind.STATIC ) );
+        callGraph.addEdge( new Edge( first.getMethod(), null, second.getMethod(), Kind.CLINIT ) );
+        final Edge removed = new Edge( second.getMethod(), null, first.getMethod(), Kind.STATIC );
+        callGraph.addEdge( removed );
+        callGraph.removeEdge( removed );
+
+        final File directory = File.createTempFile( "callgraphs", "" );
+        FileUtils.forceDelete( directory );
+        try
+        {
+            final CallGraphCache cache = new CallGraphCache( directory, "key" );
+            assertFalse( cache.exists() );
+            assertTrue( cache.store( callGraph ) );
+            assertTrue( cache.exists() );
+            assertFalse( new CallGraphCache( directory, "other" ).exists() );
+
+            assertTrue( cache.restore() );
+            final CallGraph restored = Scene.v().getCallGraph();
+            assertNotSame( callGraph, restored );
+            assertEquals( describe( callGraph ), describe( restored ) );
+            assertEquals( 3, describe( restored ).size() );
+            assertEquals( targets( callGraph, run.getMethod() ), targets( restored, run.getMethod() ) );
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory );
+        }
+    }
+
+    private static List<SootMethod> targets( CallGraph callGraph, SootMethod method )
+    {
+        final List<SootMethod> targets = new ArrayList<SootMethod>();
+        for ( Iterator it = callGraph.edgesOutOf( method ); it.hasNext(); )
+        {
+            targets.add( ( (Edge) it.next() ).tgt() );
+        }
+        return targets;
+    }
+
+    private static List<String> describe( CallGraph callGraph )
+    {
+        final List<String> edges = new ArrayList<String>();
+        for ( Iterator it = callGraph.iterator(); it.hasNext(); )
+        {
+            final Edge edge = (Edge) it.next();
+            edges.add( edge.src() + " " + edge.srcUnit() + " " + edge.kind() + " " + edge.tgt() );
+        }
+        Collections.sort( edges );
+        return edges;
+    }
+}
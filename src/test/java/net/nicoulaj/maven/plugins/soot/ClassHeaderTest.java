@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link net.nicoulaj.maven.plugins.soot.ClassHeader}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class ClassHeaderTest
+{
+
+    @Test
+    public void testReadHierarchy()
+        throws IOException
+    {
+        final ClassHeader header = read( Sample.class );
+
+        assertEquals( Sample.class.getName(), header.getName() );
+        assertEquals( Thread.class.getName(), header.getSuperName() );
+        assertEquals( asList( Serializable.class.getName() ), header.getInterfaces() );
+        assertFalse( header.isInterface() );
+        assertTrue( read( Serializable.class ).isInterface() );
+    }
+
+    @Test
+    public void testReadMembers()
+        throws IOException
+    {
+        final ClassHeader header = read( Sample.class );
+
+        assertEquals( 2, header.getFields().size() );
+        assertEquals( "value", header.getFields().get( 0 ).getName() );
+        assertEquals( "J", header.getFields().get( 0 ).getDescriptor() );
+        assertEquals( -1, header.getFields().get( 0 ).getCodeLength() );
+
+        boolean found = false;
+        for ( ClassHeader.Member method : header.getMethods() )
+        {
+            if ( "compute".equals( method.getName() ) )
+            {
+                assertEquals( "(ID)Ljava/lang/String;", method.getDescriptor() );
+                assertTrue( method.getCodeLength() > 0 );
+                found = true;
+            }
+        }
+        assertTrue( found );
+    }
+
+    @Test( expected = IOException.class )
+    public void testReadInvalid()
+        throws IOException
+    {
+        ClassHeader.read( new byte[]{ 1, 2, 3, 4, 5, 6, 7, 8 } );
+    }
+
+    private static ClassHeader read( Class<?> type )
+        throws IOException
+    {
+        final InputStream in = type.getResourceAsStream( "/" + type.getName().replace( '.', '/' ) + ".class" );
+        try
+        {
+            return ClassHeader.read( IOUtil.toByteArray( in ) );
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+
+    @SuppressWarnings( "unused" )
+    private static class Sample
+        extends Thread
+        implements Serializable
+    {
+
+        private long value = 42L;
+
+        private final String name = "sample";
+
+        String compute( int count, double factor )
+        {
+            return name + count * factor + value;
+        }
+    }
+}
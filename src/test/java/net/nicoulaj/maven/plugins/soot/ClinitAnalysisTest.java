@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.junit.Test;
+import soot.IntType;
+import soot.Local;
+import soot.Modifier;
+import soot.RefType;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Type;
+import soot.Unit;
+import soot.Value;
+import soot.VoidType;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import soot.jimple.Stmt;
+import soot.jimple.StringConstant;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+import soot.jimple.toolkits.callgraph.Kind;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link net.nicoulaj.maven.plugins.soot.ClinitAnalysis}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class ClinitAnalysisTest
+{
+
+    private static final List<Type> NO_PARAMETERS = Collections.emptyList();
+
+    private static final List<Value> NO_ARGUMENTS = Collections.emptyList();
+
+    @Test
+    public void testCosts()
+    {
+        final Jimple jimple = Jimple.v();
+        final SootClass object = BodyBuilder.reset();
+        final SootClass classClass = BodyBuilder.makeClass( "java.lang.Class", object );
+        final SootMethod forName = new SootMethod( "forName", asList( RefType.v( "java.lang.String" ) ),
+                                                   classClass.getType(), Modifier.PUBLIC | Modifier.STATIC );
+        classClass.addMethod( forName );
+        final SootClass a = BodyBuilder.makeClass( "p.A", object );
+        final SootClass b = BodyBuilder.makeClass( "p.B", object );
+        final SootClass c = BodyBuilder.makeClass( "p.C", object );
+        final SootClass d = BodyBuilder.makeClass( "p.D", object );
+        final CallGraph callGraph = new CallGraph();
+
+        // C.<clinit>: empty.
+        final BodyBuilder cClinit = newClinit( c );
+        cClinit.add( jimple.newReturnVoidStmt() );
+
+        // B.<clinit>: triggers the initialization of C.
+        final BodyBuilder bClinit = newClinit( b );
+        final BodyBuilder cTouch = new BodyBuilder( c, "touch", NO_PARAMETERS, VoidType.v(), Modifier.STATIC );
+        cTouch.add( jimple.newReturnVoidStmt() );
+        final Stmt bCall = bClinit.add( jimple.newInvokeStmt(
+            jimple.newStaticInvokeExpr( cTouch.getMethod().makeRef(), NO_ARGUMENTS ) ) );
+        bClinit.add( jimple.newReturnVoidStmt() );
+        callGraph.addEdge( new Edge( bClinit.getMethod(), bCall, cClinit.getMethod(), Kind.CLINIT ) );
+        callGraph.addEdge( new Edge( bClinit.getMethod(), bCall, cTouch.getMethod(), Kind.STATIC ) );
+
+        // A.helper(): calls Class.forName.
+        final BodyBuilder helper = new BodyBuilder( a, "helper", NO_PARAMETERS, VoidType.v(), Modifier.STATIC );
+        final Stmt reflectionCall = helper.add( jimple.newInvokeStmt(
+            jimple.newStaticInvokeExpr( forName.makeRef(), asList( StringConstant.v( "p.D" ) ) ) ) );
+        helper.add( jimple.newReturnVoidStmt() );
+        callGraph.addEdge( new Edge( helper.getMethod(), reflectionCall, forName, Kind.STATIC ) );
+
+        // A.<clinit>: loops calling helper(), then triggers the initialization of B.
+        final BodyBuilder aClinit = newClinit( a );
+        final Local i = aClinit.local( "i0", IntType.v() );
+        final Unit end = jimple.newReturnVoidStmt();
+        final BodyBuilder bTouch = new BodyBuilder( b, "touch", NO_PARAMETERS, VoidType.v(), Modifier.STATIC );
+        bTouch.add( jimple.newReturnVoidStmt() );
+        final Stmt bInit = jimple.newInvokeStmt( jimple.newStaticInvokeExpr( bTouch.getMethod().makeRef(),
+                                                                              NO_ARGUMENTS ) );
+        aClinit.add( jimple.newAssignStmt( i, IntConstant.v( 0 ) ) );
+        final Unit header = aClinit.add( jimple.newIfStmt( jimple.newGeExpr( i, IntConstant.v( 10 ) ), bInit ) );
+        final Stmt helperCall = aClinit.add( jimple.newInvokeStmt(
+            jimple.newStaticInvokeExpr( helper.getMethod().makeRef(), NO_ARGUMENTS ) ) );
+        aClinit.add( jimple.newAssignStmt( i, jimple.newAddExpr( i, IntConstant.v( 1 ) ) ) );
+        aClinit.add( jimple.newGotoStmt( header ) );
+        aClinit.add( bInit );
+        aClinit.add( end );
+        callGraph.addEdge( new Edge( aClinit.getMethod(), helperCall, helper.getMethod(), Kind.STATIC ) );
+        callGraph.addEdge( new Edge( aClinit.getMethod(), bInit, bClinit.getMethod(), Kind.CLINIT ) );
+        callGraph.addEdge( new Edge( aClinit.getMethod(), bInit, bTouch.getMethod(), Kind.STATIC ) );
+
+        final Map<String, Integer> sizes = new HashMap<String, Integer>();
+        sizes.put( "p.A", 100 );
+        sizes.put( "p.B", 20 );
+        sizes.put( "p.C", 10 );
+        final List<ClinitAnalysis.Initializer> initializers =
+            new ClinitAnalysis( callGraph ).analyze( asList( a, b, c, d ), sizes );
+        assertEquals( 3, initializers.size() );
+
+        final ClinitAnalysis.Initializer aInitializer = initializers.get( 0 );
+        assertSame( a, aInitializer.getSootClass() );
+        assertTrue( aInitializer.hasLoops() );
+        assertEquals( 1, aInitializer.getSensitiveCalls() );
+        assertEquals( 100 + ClinitAnalysis.LOOP_COST + ClinitAnalysis.SENSITIVE_CALL_COST,
+                      aInitializer.getOwnCost() );
+        assertEquals( asList( b ), asList( aInitializer.getTriggered().toArray() ) );
+        assertEquals( asList( b, c ), asList( aInitializer.getTransitive().toArray() ) );
+        assertEquals( aInitializer.getOwnCost() + 20 + 10, aInitializer.getTransitiveCost() );
+
+        final ClinitAnalysis.Initializer bInitializer = initializers.get( 1 );
+        assertSame( b, bInitializer.getSootClass() );
+        assertFalse( bInitializer.hasLoops() );
+        assertEquals( 0, bInitializer.getSensitiveCalls() );
+        assertEquals( 20, bInitializer.getOwnCost() );
+        assertEquals( 30, bInitializer.getTransitiveCost() );
+
+        final ClinitAnalysis.Initializer cInitializer = initializers.get( 2 );
+        assertSame( c, cInitializer.getSootClass() );
+        assertTrue( cInitializer.getTriggered().isEmpty() );
+        assertEquals( 10, cInitializer.getTransitiveCost() );
+    }
+
+    private static BodyBuilder newClinit( SootClass sootClass )
+    {
+        return new BodyBuilder( sootClass, SootMethod.staticInitializerName, NO_PARAMETERS, VoidType.v(),
+                                Modifier.STATIC );
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link net.nicoulaj.maven.plugins.soot.DirectoryWatcher}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class DirectoryWatcherTest
+{
+
+    @Test
+    public void testGetClassName()
+    {
+        assertEquals( "a.b.C", DirectoryWatcher.getClassName( "a/b/C.class" ) );
+        assertEquals( "a.b.C", DirectoryWatcher.getClassName( "a.b.C.jimple" ) );
+        assertEquals( "a.b.C", DirectoryWatcher.getClassName( "a.b.C" + BinaryJimpleCodec.EXTENSION ) );
+        assertNull( DirectoryWatcher.getClassName( "a/b/c.properties" ) );
+    }
+
+    @Test
+    public void testPoll()
+        throws IOException
+    {
+        final File directory = File.createTempFile( "watch", "" );
+        FileUtils.forceDelete( directory );
+        try
+        {
+            new File( directory, "a" ).mkdirs();
+            final File kept = new File( directory, "a/Kept.class" );
+            final File modified = new File( directory, "a/Modified.class" );
+            final File removed = new File( directory, "a/Removed.class" );
+            for ( File file : asList( kept, modified, removed ) )
+            {
+                FileUtils.fileWrite( file.getPath(), "class" );
+            }
+
+            final DirectoryWatcher watcher = new DirectoryWatcher( asList( directory ) );
+            assertTrue( watcher.poll().isEmpty() );
+
+            FileUtils.fileWrite( modified.getPath(), "modified class" );
+            FileUtils.forceDelete( removed );
+            FileUtils.fileWrite( new File( directory, "a/Added.class" ).getPath(), "class" );
+            FileUtils.fileWrite( new File( directory, "a/resource.txt" ).getPath(), "resource" );
+
+            final DirectoryWatcher.Changes changes = watcher.poll();
+            assertEquals( asList( "a.Added", "a.Modified" ), asList( changes.getModified().toArray() ) );
+            assertEquals( asList( "a.Removed" ), asList( changes.getRemoved().toArray() ) );
+            assertTrue( watcher.poll().isEmpty() );
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory );
+        }
+    }
+
+    @Test
+    public void testAcknowledge()
+        throws IOException
+    {
+        final File directory = File.createTempFile( "watch", "" );
+        FileUtils.forceDelete( directory );
+        try
+        {
+            new File( directory, "a" ).mkdirs();
+            final File written = new File( directory, "a/Written.class" );
+            final File edited = new File( directory, "a/Edited.class" );
+            for ( File file : asList( written, edited ) )
+            {
+                FileUtils.fileWrite( file.getPath(), "class" );
+            }
+            final DirectoryWatcher watcher = new DirectoryWatcher( asList( directory ) );
+
+            FileUtils.fileWrite( written.getPath(), "written class" );
+            FileUtils.fileWrite( edited.getPath(), "edited class" );
+            watcher.acknowledge( asList( "a.Written" ) );
+
+            final DirectoryWatcher.Changes changes = watcher.poll();
+            assertEquals( asList( "a.Edited" ), asList( changes.getModified().toArray() ) );
+            assertTrue( changes.getRemoved().isEmpty() );
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory );
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.junit.Test;
+import soot.Local;
+import soot.Modifier;
+import soot.RefType;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.SootMethodRef;
+import soot.Type;
+import soot.Value;
+import soot.VoidType;
+import soot.jimple.Jimple;
+import soot.jimple.Stmt;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link net.nicoulaj.maven.plugins.soot.EscapeAnalysis}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class EscapeAnalysisTest
+{
+
+    private static final List<Value> NO_ARGUMENTS = Collections.emptyList();
+
+    @Test
+    public void testEscapeStates()
+    {
+        final Jimple jimple = Jimple.v();
+        final SootClass object = BodyBuilder.reset();
+        final SootClass sootClass = BodyBuilder.makeClass( "p.A", object );
+        final RefType type = sootClass.getType();
+        final SootField field = new SootField( "instance", type, Modifier.STATIC );
+        sootClass.addField( field );
+        final CallGraph callGraph = new CallGraph();
+
+        // p.A(): calls Object() only, so it does not leak its receiver.
+        final BodyBuilder init =
+            new BodyBuilder( sootClass, SootMethod.constructorName, Collections.<Type>emptyList(), VoidType.v(),
+                             Modifier.PUBLIC );
+        final Local self = init.local( "r0", type );
+        init.add( jimple.newIdentityStmt( self, jimple.newThisRef( type ) ) );
+        init.add( jimple.newInvokeStmt(
+            jimple.newSpecialInvokeExpr( self, object.getMethod( "void <init>()" ).makeRef(), NO_ARGUMENTS ) ) );
+        init.add( jimple.newReturnVoidStmt() );
+
+        // read( p.A ): does not let its parameter escape.
+        final BodyBuilder read = new BodyBuilder( sootClass, "read", asList( type ), VoidType.v(), Modifier.STATIC );
+        final Local readParameter = read.local( "r0", type );
+        read.add( jimple.newIdentityStmt( readParameter, jimple.newParameterRef( type, 0 ) ) );
+        read.add( jimple.newReturnVoidStmt() );
+
+        // store( p.A ): stores its parameter into a static field.
+        final BodyBuilder store = new BodyBuilder( sootClass, "store", asList( type ), VoidType.v(), Modifier.STATIC );
+        final Local storeParameter = store.local( "r0", type );
+        final Local copy = store.local( "r1", object.getType() );
+        final Local cast = store.local( "r2", type );
+        store.add( jimple.newIdentityStmt( storeParameter, jimple.newParameterRef( type, 0 ) ) );
+        store.add( jimple.newAssignStmt( copy, storeParameter ) );
+        store.add( jimple.newAssignStmt( cast, jimple.newCastExpr( copy, type ) ) );
+        store.add( jimple.newAssignStmt( jimple.newStaticFieldRef( field.makeRef() ), cast ) );
+        store.add( jimple.newReturnVoidStmt() );
+
+        // run(): allocates three objects, kept local, passed to read and passed to store.
+        final BodyBuilder run =
+            new BodyBuilder( sootClass, "run", Collections.<Type>emptyList(), VoidType.v(), Modifier.STATIC );
+        final Local local = run.local( "r0", type );
+        final Local argument = run.local( "r1", type );
+        final Local escaping = run.local( "r2", type );
+        final SootMethodRef constructor = init.getMethod().makeRef();
+        run.add( jimple.newAssignStmt( local, jimple.newNewExpr( type ) ) );
+        run.add( jimple.newInvokeStmt( jimple.newSpecialInvokeExpr( local, constructor, NO_ARGUMENTS ) ) );
+        run.add( jimple.newAssignStmt( argument, jimple.newNewExpr( type ) ) );
+        run.add( jimple.newInvokeStmt( jimple.newSpecialInvokeExpr( argument, constructor, NO_ARGUMENTS ) ) );
+        final Stmt readCall = run.add( jimple.newInvokeStmt(
+            jimple.newStaticInvokeExpr( read.getMethod().makeRef(), asList( argument ) ) ) );
+        run.add( jimple.newAssignStmt( escaping, jimple.newNewExpr( type ) ) );
+        run.add( jimple.newInvokeStmt( jimple.newSpecialInvokeExpr( escaping, constructor, NO_ARGUMENTS ) ) );
+        final Stmt storeCall = run.add( jimple.newInvokeStmt(
+            jimple.newStaticInvokeExpr( store.getMethod().makeRef(), asList( escaping ) ) ) );
+        run.add( jimple.newReturnVoidStmt() );
+        callGraph.addEdge( new Edge( run.getMethod(), readCall, read.getMethod() ) );
+        callGraph.addEdge( new Edge( run.getMethod(), storeCall, store.getMethod() ) );
+
+        final List<EscapeAnalysis.Allocation> allocations = new EscapeAnalysis( callGraph ).analyze(
+            asList( init.getMethod(), read.getMethod(), store.getMethod(), run.getMethod() ) );
+        assertEquals( 3, allocations.size() );
+
+        assertSame( local, allocations.get( 0 ).getStmt().getLeftOp() );
+        assertEquals( EscapeAnalysis.State.NO_ESCAPE, allocations.get( 0 ).getState() );
+        assertNull( allocations.get( 0 ).getCause() );
+
+        assertSame( argument, allocations.get( 1 ).getStmt().getLeftOp() );
+        assertEquals( EscapeAnalysis.State.ARG_ESCAPE, allocations.get( 1 ).getState() );
+        assertSame( readCall, allocations.get( 1 ).getCause() );
+
+        assertSame( escaping, allocations.get( 2 ).getStmt().getLeftOp() );
+        assertEquals( EscapeAnalysis.State.GLOBAL_ESCAPE, allocations.get( 2 ).getState() );
+        assertSame( storeCall, allocations.get( 2 ).getCause() );
+        assertEquals( "passed to escaping call", allocations.get( 2 ).getReason() );
+    }
+
+    @Test
+    public void testReturned()
+    {
+        final Jimple jimple = Jimple.v();
+        final SootClass object = BodyBuilder.reset();
+        final SootClass sootClass = BodyBuilder.makeClass( "p.A", object );
+        final RefType type = sootClass.getType();
+        final BodyBuilder make =
+            new BodyBuilder( sootClass, "make", Collections.<Type>emptyList(), type, Modifier.STATIC );
+        final Local created = make.local( "r0", type );
+        make.add( jimple.newAssignStmt( created, jimple.newNewExpr( type ) ) );
+        final Stmt ret = make.add( jimple.newReturnStmt( created ) );
+
+        final List<EscapeAnalysis.Allocation> allocations =
+            new EscapeAnalysis( new CallGraph() ).analyze( asList( make.getMethod() ) );
+        assertEquals( 1, allocations.size() );
+        assertEquals( EscapeAnalysis.State.GLOBAL_ESCAPE, allocations.get( 0 ).getState() );
+        assertSame( ret, allocations.get( 0 ).getCause() );
+        assertEquals( "returned", allocations.get( 0 ).getReason() );
+        assertSame( make.getMethod(), allocations.get( 0 ).getMethod() );
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.junit.Test;
+import soot.IntType;
+import soot.Local;
+import soot.Modifier;
+import soot.RefType;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.Type;
+import soot.Unit;
+import soot.Value;
+import soot.VoidType;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import soot.jimple.Stmt;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+import soot.jimple.toolkits.callgraph.Kind;
+
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link net.nicoulaj.maven.plugins.soot.ExceptionFlow}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class ExceptionFlowTest
+{
+
+    private static final List<Type> NO_PARAMETERS = Collections.emptyList();
+
+    private static final List<Value> NO_ARGUMENTS = Collections.emptyList();
+
+    @Test
+    public void testCatchAcrossFrames()
+    {
+        final Jimple jimple = Jimple.v();
+        final SootClass object = BodyBuilder.reset();
+        final SootClass throwable = BodyBuilder.makeClass( "java.lang.Throwable", object );
+        final SootClass error = BodyBuilder.makeClass( "java.lang.Error", throwable );
+        final SootClass runtimeException = BodyBuilder.makeClass( "java.lang.RuntimeException", throwable );
+        final SootClass sootClass = BodyBuilder.makeClass( "p.A", object );
+        final CallGraph callGraph = new CallGraph();
+
+        // fail(): throws a new RuntimeException.
+        final BodyBuilder fail = new BodyBuilder( sootClass, "fail", NO_PARAMETERS, VoidType.v(), Modifier.STATIC );
+        final Local exception = fail.local( "r0", runtimeException.getType() );
+        fail.add( jimple.newAssignStmt( exception, jimple.newNewExpr( runtimeException.getType() ) ) );
+        fail.add( jimple.newThrowStmt( exception ) );
+
+        // middle(): calls fail() in a try block only catching Error.
+        final BodyBuilder middle = new BodyBuilder( sootClass, "middle", NO_PARAMETERS, VoidType.v(),
+                                                    Modifier.STATIC );
+        final Stmt failCall = middle.add( jimple.newInvokeStmt(
+            jimple.newStaticInvokeExpr( fail.getMethod().makeRef(), NO_ARGUMENTS ) ) );
+        final Unit middleEnd = middle.add( jimple.newReturnVoidStmt() );
+        final Unit errorHandler = middle.add( jimple.newIdentityStmt( middle.local( "r1", error.getType() ),
+                                                                      jimple.newCaughtExceptionRef() ) );
+        middle.add( jimple.newReturnVoidStmt() );
+        middle.getBody().getTraps().add( jimple.newTrap( error, failCall, middleEnd, errorHandler ) );
+        callGraph.addEdge( new Edge( middle.getMethod(), failCall, fail.getMethod(), Kind.STATIC ) );
+
+        // loop(): calls middle() in a loop, in a try block catching RuntimeException.
+        final BodyBuilder loop = new BodyBuilder( sootClass, "loop", NO_PARAMETERS, VoidType.v(), Modifier.STATIC );
+        final Local i = loop.local( "i0", IntType.v() );
+        final Unit end = jimple.newReturnVoidStmt();
+        loop.add( jimple.newAssignStmt( i, IntConstant.v( 0 ) ) );
+        final Unit header = loop.add( jimple.newIfStmt( jimple.newGeExpr( i, IntConstant.v( 10 ) ), end ) );
+        final Stmt middleCall = loop.add( jimple.newInvokeStmt(
+            jimple.newStaticInvokeExpr( middle.getMethod().makeRef(), NO_ARGUMENTS ) ) );
+        final Unit increment = loop.add( jimple.newAssignStmt( i, jimple.newAddExpr( i, IntConstant.v( 1 ) ) ) );
+        loop.add( jimple.newGotoStmt( header ) );
+        loop.add( end );
+        final Unit handler = loop.add( jimple.newIdentityStmt( loop.local( "r2", runtimeException.getType() ),
+                                                               jimple.newCaughtExceptionRef() ) );
+        loop.add( jimple.newGotoStmt( increment ) );
+        loop.getBody().getTraps().add( jimple.newTrap( runtimeException, middleCall, increment, handler ) );
+        callGraph.addEdge( new Edge( loop.getMethod(), middleCall, middle.getMethod(), Kind.STATIC ) );
+
+        final List<ExceptionFlow.ThrowSite> sites =
+            new ExceptionFlow( callGraph, 2 ).analyze( asList( fail.getMethod() ) );
+        assertEquals( 1, sites.size() );
+        final ExceptionFlow.ThrowSite site = sites.get( 0 );
+        assertEquals( ExceptionFlow.Origin.NEW, site.getOrigin() );
+        assertTrue( site.isStackTrace() );
+        assertEquals( 0, site.getLoopDepth() );
+        assertEquals( 1, site.getCatches().size() );
+        final ExceptionFlow.Catch caught = site.getCatches().get( 0 );
+        assertSame( loop.getMethod(), caught.getMethod() );
+        assertSame( handler, caught.getHandler() );
+        assertEquals( 2, caught.getFrames() );
+        assertEquals( 1, caught.getLoopDepth() );
+        assertFalse( site.isUncaught() );
+        assertFalse( site.isTruncated() );
+        assertTrue( site.isHot() );
+
+        final ExceptionFlow.ThrowSite truncated =
+            new ExceptionFlow( callGraph, 1 ).analyze( asList( fail.getMethod() ) ).get( 0 );
+        assertTrue( truncated.getCatches().isEmpty() );
+        assertFalse( truncated.isUncaught() );
+        assertTrue( truncated.isTruncated() );
+        assertFalse( truncated.isHot() );
+    }
+
+    @Test
+    public void testPreallocated()
+    {
+        final Jimple jimple = Jimple.v();
+        final SootClass object = BodyBuilder.reset();
+        final SootClass throwable = BodyBuilder.makeClass( "java.lang.Throwable", object );
+        final SootClass fast = BodyBuilder.makeClass( "p.FastException", throwable );
+        fast.addMethod( new SootMethod( "fillInStackTrace", NO_PARAMETERS, throwable.getType(), Modifier.PUBLIC ) );
+        final SootClass sootClass = BodyBuilder.makeClass( "p.A", object );
+        final SootField instance = new SootField( "INSTANCE", fast.getType(), Modifier.STATIC );
+        sootClass.addField( instance );
+
+        // fail(): throws a preallocated exception, and has no callers.
+        final BodyBuilder fail = new BodyBuilder( sootClass, "fail", NO_PARAMETERS, VoidType.v(), Modifier.STATIC );
+        final Local exception = fail.local( "r0", fast.getType() );
+        fail.add( jimple.newAssignStmt( exception, jimple.newStaticFieldRef( instance.makeRef() ) ) );
+        fail.add( jimple.newThrowStmt( exception ) );
+
+        final ExceptionFlow.ThrowSite site =
+            new ExceptionFlow( new CallGraph(), 2 ).analyze( asList( fail.getMethod() ) ).get( 0 );
+        assertEquals( ExceptionFlow.Origin.PREALLOCATED, site.getOrigin() );
+        assertEquals( RefType.v( "p.FastException" ), site.getType() );
+        assertFalse( site.isStackTrace() );
+        assertTrue( site.getCatches().isEmpty() );
+        assertTrue( site.isUncaught() );
+        assertFalse( site.isTruncated() );
+        assertFalse( site.isHot() );
+    }
+}
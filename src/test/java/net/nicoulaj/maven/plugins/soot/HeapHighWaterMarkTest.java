@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+import soot.G;
+import soot.Scene;
+import soot.jimple.toolkits.pointer.DumbPointerAnalysis;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link net.nicoulaj.maven.plugins.soot.HeapHighWaterMark}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class HeapHighWaterMarkTest
+{
+
+    @Test
+    public void testExceeds()
+    {
+        final HeapHighWaterMark mark = new HeapHighWaterMark( 70, new SystemStreamLog() );
+        assertFalse( mark.exceeds( 699, 1000 ) );
+        assertTrue( mark.exceeds( 700, 1000 ) );
+        assertTrue( new HeapHighWaterMark( 0, new SystemStreamLog() ).exceeds( 0, 1000 ) );
+    }
+
+    @Test
+    public void testCheck()
+    {
+        G.reset();
+        try
+        {
+            Scene.v().setPointsToAnalysis( DumbPointerAnalysis.v() );
+            final HeapHighWaterMark mark = new HeapHighWaterMark( 0, new SystemStreamLog() );
+            assertTrue( mark.check() );
+            assertFalse( Scene.v().hasPointsToAnalysis() );
+            assertFalse( mark.check() );
+        }
+        finally
+        {
+            G.reset();
+        }
+    }
+}
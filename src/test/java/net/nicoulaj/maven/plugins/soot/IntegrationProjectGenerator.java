@@ -0,0 +1,216 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Utility object used by pre-build hook scripts to generate the sources of scaled integration test projects, or of
+ * their modules.
+ * <p/>
+ * <p>The generated classes are spread over packages, each package holding an interface and classes implementing it.
+ * Classes call each other within and across packages, and call the commons-lang, commons-io and Guava APIs, so the
+ * test projects must depend on these libraries. The generated <tt>Main</tt> class reaches all packages, for whole
+ * program analysis.</p>
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @see <a href="http://maven.apache.org/plugins/maven-invoker-plugin/examples/pre-post-build-script.html">
+ *      maven-invoker-plugin pre-build script invocation</a>
+ * @since 0.2
+ */
+public class IntegrationProjectGenerator
+{
+
+    /**
+     * The directory sources are generated into, relative to the base directory of the test project.
+     */
+    public static final String SOURCES_DIRECTORY = "src/main/java";
+
+    /**
+     * The absolute path to the base directory of the test project.
+     */
+    protected File baseDirectory;
+
+    /**
+     * Build a new {@link IntegrationProjectGenerator} instance.
+     *
+     * @param baseDirectory the absolute path to the base directory of the test project.
+     */
+    public IntegrationProjectGenerator( File baseDirectory )
+    {
+        this.baseDirectory = baseDirectory;
+    }
+
+    /**
+     * Generate the sources of the test project.
+     *
+     * @param packages          the number of packages.
+     * @param classesPerPackage the number of classes in each package, besides its interface.
+     * @return the number of generated classes, interfaces included.
+     * @throws IOException if a source file could not be written.
+     */
+    public int generate( int packages, int classesPerPackage )
+        throws IOException
+    {
+        final File sources = new File( baseDirectory, SOURCES_DIRECTORY );
+        for ( int p = 0; p < packages; p++ )
+        {
+            final String packageName = getPackageName( p );
+            final File directory = new File( sources, packageName.replace( '.', '/' ) );
+            directory.mkdirs();
+            FileUtils.fileWrite( new File( directory, "Node.java" ).getPath(), "UTF-8", generateInterface( p ) );
+            for ( int c = 0; c < classesPerPackage; c++ )
+            {
+                FileUtils.fileWrite( new File( directory, getClassName( c ) + ".java" ).getPath(), "UTF-8",
+                                     generateClass( p, c, packages, classesPerPackage ) );
+            }
+        }
+        FileUtils.fileWrite( new File( sources, "Main.java" ).getPath(), "UTF-8", generateMain( packages ) );
+        return packages * ( classesPerPackage + 1 ) + 1;
+    }
+
+    /**
+     * Generate the interface of a package.
+     *
+     * @param p the index of the package.
+     * @return the source code.
+     */
+    protected String generateInterface( int p )
+    {
+        return "package " + getPackageName( p ) + ";\n"
+               + "\n"
+               + "public interface Node\n"
+               + "{\n"
+               + "    int visit( int depth, StringBuilder trace );\n"
+               + "}\n";
+    }
+
+    /**
+     * Generate a class.
+     *
+     * @param p                 the index of the package.
+     * @param c                 the index of the class in the package.
+     * @param packages          the number of packages.
+     * @param classesPerPackage the number of classes in each package.
+     * @return the source code.
+     */
+    protected String generateClass( int p, int c, int packages, int classesPerPackage )
+    {
+        final String next = getClassName( ( c + 1 ) % classesPerPackage );
+        final String other = getPackageName( ( p + 1 ) % packages ) + "." + getClassName( c );
+        final String path = getPackageName( p ).replace( '.', '/' ) + "/" + getClassName( c ) + ".java";
+        return "package " + getPackageName( p ) + ";\n"
+               + "\n"
+               + "import com.google.common.collect.Lists;\n"
+               + "import org.apache.commons.io.FilenameUtils;\n"
+               + "import org.apache.commons.lang.StringUtils;\n"
+               + "\n"
+               + "import java.util.List;\n"
+               + "\n"
+               + "public class " + getClassName( c ) + "\n"
+               + "    implements Node\n"
+               + "{\n"
+               + "    private static final String NAME = \"" + path + "\";\n"
+               + "\n"
+               + "    private final List<String> names = Lists.newArrayList();\n"
+               + "\n"
+               + "    private int counter;\n"
+               + "\n"
+               + "    public int visit( int depth, StringBuilder trace )\n"
+               + "    {\n"
+               + "        if ( depth <= 0 )\n"
+               + "        {\n"
+               + "            return compute( " + c + " );\n"
+               + "        }\n"
+               + "        trace.append( StringUtils.capitalize( FilenameUtils.getBaseName( NAME ) ) );\n"
+               + "        names.add( FilenameUtils.getExtension( NAME ) );\n"
+               + "        final Node node = depth % 2 == 0 ? new " + next + "() : new " + other + "();\n"
+               + "        return node.visit( depth - 1, trace ) + names.size();\n"
+               + "    }\n"
+               + "\n"
+               + "    protected int compute( int seed )\n"
+               + "    {\n"
+               + "        int result = seed;\n"
+               + "        for ( int i = 0; i < 16; i++ )\n"
+               + "        {\n"
+               + "            result = result * 31 + i;\n"
+               + "            if ( result % 7 == 0 )\n"
+               + "            {\n"
+               + "                counter++;\n"
+               + "            }\n"
+               + "        }\n"
+               + "        return result + counter;\n"
+               + "    }\n"
+               + "\n"
+               + "    @Override\n"
+               + "    public String toString()\n"
+               + "    {\n"
+               + "        return StringUtils.join( names, ',' );\n"
+               + "    }\n"
+               + "}\n";
+    }
+
+    /**
+     * Generate the main class, which visits the first class of each package.
+     *
+     * @param packages the number of packages.
+     * @return the source code.
+     */
+    protected String generateMain( int packages )
+    {
+        final StringBuilder main = new StringBuilder();
+        main.append( "public class Main\n" )
+            .append( "{\n" )
+            .append( "    public static void main( String[] args )\n" )
+            .append( "    {\n" )
+            .append( "        final StringBuilder trace = new StringBuilder();\n" )
+            .append( "        int result = 0;\n" );
+        for ( int p = 0; p < packages; p++ )
+        {
+            main.append( "        result += new " ).append( getPackageName( p ) ).append( '.' ).append(
+                getClassName( 0 ) ).append( "().visit( args.length, trace );\n" );
+        }
+        main.append( "        System.out.println( trace.toString() + result );\n" )
+            .append( "    }\n" )
+            .append( "}\n" );
+        return main.toString();
+    }
+
+    /**
+     * Get the name of a generated package.
+     *
+     * @param p the index of the package.
+     * @return the package name.
+     */
+    protected String getPackageName( int p )
+    {
+        return "generated.p" + p;
+    }
+
+    /**
+     * Get the name of a generated class.
+     *
+     * @param c the index of the class in its package.
+     * @return the simple class name.
+     */
+    protected String getClassName( int c )
+    {
+        return "C" + c;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link net.nicoulaj.maven.plugins.soot.JarLayout}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class JarLayoutTest
+{
+
+    @Test
+    public void testParseClassLoadLine()
+    {
+        assertEquals( "a.B", JarLayout.parseClassLoadLine( "[Loaded a.B from file:/tmp/app.jar]" ) );
+        assertEquals( "a.B", JarLayout.parseClassLoadLine( "[0.042s][info][class,load] a.B source: file:/tmp/" ) );
+        assertEquals( "a.B$C", JarLayout.parseClassLoadLine( "a/B$C" ) );
+        assertNull( JarLayout.parseClassLoadLine( "# NOTE: Do not modify this file." ) );
+    }
+
+    @Test
+    public void testRewrite()
+        throws IOException
+    {
+        final File jar = File.createTempFile( "layout", ".jar" );
+        try
+        {
+            final ZipOutputStream out = new ZipOutputStream( new FileOutputStream( jar ) );
+            for ( String name : asList( "a/A.class", OutputUtils.MANIFEST_PATH, "a/B.class", "a/C.class", "a.txt" ) )
+            {
+                out.putNextEntry( new ZipEntry( name ) );
+                out.write( name.getBytes( "UTF-8" ) );
+                out.closeEntry();
+            }
+            out.close();
+
+            assertEquals( 2, JarLayout.rewrite( jar, asList( "a.C", "missing.D", "a.A" ), true ) );
+
+            final ZipFile zip = new ZipFile( jar );
+            try
+            {
+                final List<String> names = new ArrayList<String>();
+                for ( Enumeration<? extends ZipEntry> it = zip.entries(); it.hasMoreElements(); )
+                {
+                    final ZipEntry entry = it.nextElement();
+                    names.add( entry.getName() );
+                    assertEquals( entry.getName().equals( "a/C.class" ) || entry.getName().equals( "a/A.class" )
+                                  ? ZipEntry.STORED
+                                  : ZipEntry.DEFLATED, entry.getMethod() );
+                }
+                assertEquals( asList( OutputUtils.MANIFEST_PATH, "a/C.class", "a/A.class", "a/B.class", "a.txt" ),
+                              names );
+            }
+            finally
+            {
+                zip.close();
+            }
+        }
+        finally
+        {
+            FileUtils.forceDelete( jar );
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link net.nicoulaj.maven.plugins.soot.JitLimits}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class JitLimitsTest
+{
+
+    @Test
+    public void testGetExceededLimit()
+    {
+        final JitLimits limits = new JitLimits( 8000, 325, 35 );
+
+        assertNull( limits.getExceededLimit( 35 ) );
+        assertEquals( JitLimits.Limit.MAX_INLINE_SIZE, limits.getExceededLimit( 36 ) );
+        assertEquals( JitLimits.Limit.FREQ_INLINE_SIZE, limits.getExceededLimit( 326 ) );
+        assertEquals( JitLimits.Limit.HUGE_METHOD_LIMIT, limits.getExceededLimit( 8001 ) );
+    }
+
+    @Test
+    public void testCheck()
+        throws IOException
+    {
+        final ClassHeader header = read( Sample.class );
+        final List<JitLimits.Violation> violations = new JitLimits( 8000, 325, 1 ).check( header, header );
+
+        boolean found = false;
+        for ( JitLimits.Violation violation : violations )
+        {
+            assertEquals( Sample.class.getName(), violation.getClassName() );
+            assertEquals( violation.getSize(), violation.getInputSize() );
+            assertEquals( 0, violation.getDelta() );
+            found |= violation.getMethod().equals( "compute(I)I" );
+        }
+        assertTrue( found );
+    }
+
+    @Test
+    public void testCheckGenerated()
+        throws IOException
+    {
+        for ( JitLimits.Violation violation : new JitLimits( 1, 1, 1 ).check( read( Sample.class ), null ) )
+        {
+            assertEquals( JitLimits.Limit.HUGE_METHOD_LIMIT, violation.getLimit() );
+            assertEquals( -1, violation.getInputSize() );
+            assertEquals( 0, violation.getDelta() );
+        }
+    }
+
+    private static ClassHeader read( Class<?> type )
+        throws IOException
+    {
+        final InputStream in = type.getResourceAsStream( "/" + type.getName().replace( '.', '/' ) + ".class" );
+        try
+        {
+            return ClassHeader.read( IOUtil.toByteArray( in ) );
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+
+    @SuppressWarnings( "unused" )
+    private static class Sample
+    {
+
+        int compute( int count )
+        {
+            int result = 0;
+            for ( int i = 0; i < count; i++ )
+            {
+                result += i * count;
+            }
+            return result;
+        }
+    }
+}
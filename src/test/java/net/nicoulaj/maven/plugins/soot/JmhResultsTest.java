@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link net.nicoulaj.maven.plugins.soot.JmhResults}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class JmhResultsTest
+{
+
+    @Test
+    public void testParseLine()
+    {
+        assertEquals( asList( "a.B.c", "thrpt", "1", "", "say \"hi\"" ),
+                      JmhResults.parseLine( "\"a.B.c\",\"thrpt\",1,,\"say \"\"hi\"\"\"" ) );
+    }
+
+    @Test
+    public void testRead()
+        throws IOException
+    {
+        final File file = File.createTempFile( "jmh", ".csv" );
+        try
+        {
+            FileUtils.fileWrite( file.getPath(), "UTF-8",
+                                 "\"Benchmark\",\"Mode\",\"Threads\",\"Samples\",\"Score\",\"Score Error (99.9%)\","
+                                 + "\"Unit\",\"Param: size\"\n"
+                                 + "\"a.B.c\",\"thrpt\",1,5,200.5,1.5,\"ops/s\",10\n"
+                                 + "\"a.B.c:\u00b7gc.alloc.rate\",\"thrpt\",1,5,3.0,0.1,\"MB/sec\",10\n"
+                                 + "\"a.B.c:\u00b7gc.alloc.rate.norm\",\"thrpt\",1,5,24.0,0.0,\"B/op\",10\n"
+                                 + "\"a.B.d\",\"avgt\",1,5,3.5,NaN,\"ns/op\",\n" );
+
+            final Map<String, JmhResults.Score> scores = JmhResults.read( file );
+
+            assertEquals( asList( "a.B.c 10", "a.B.d " ), asList( scores.keySet().toArray() ) );
+            assertEquals( 200.5, scores.get( "a.B.c 10" ).getValue(), 0 );
+            assertEquals( "ops/s", scores.get( "a.B.c 10" ).getUnit() );
+            assertEquals( 24.0, scores.get( "a.B.c 10" ).getAllocation(), 0 );
+            assertTrue( Double.isNaN( scores.get( "a.B.d " ).getAllocation() ) );
+            assertTrue( Double.isNaN( scores.get( "a.B.d " ).getError() ) );
+        }
+        finally
+        {
+            FileUtils.forceDelete( file );
+        }
+    }
+
+    @Test
+    public void testGetMeanSpeedup()
+    {
+        final Map<String, JmhResults.Score> baseline = new HashMap<String, JmhResults.Score>();
+        baseline.put( "throughput", new JmhResults.Score( "thrpt", 100, 0, "ops/s" ) );
+        baseline.put( "time", new JmhResults.Score( "avgt", 10, 0, "ns/op" ) );
+        final Map<String, JmhResults.Score> scores = new HashMap<String, JmhResults.Score>();
+        scores.put( "throughput", new JmhResults.Score( "thrpt", 200, 0, "ops/s" ) );
+        scores.put( "time", new JmhResults.Score( "avgt", 20, 0, "ns/op" ) );
+
+        assertEquals( 2, scores.get( "throughput" ).getSpeedup( baseline.get( "throughput" ) ), 1e-9 );
+        assertEquals( 0.5, scores.get( "time" ).getSpeedup( baseline.get( "time" ) ), 1e-9 );
+        assertEquals( 1, JmhResults.getMeanSpeedup( baseline, scores ), 1e-9 );
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.junit.Test;
+import soot.IntType;
+import soot.Local;
+import soot.Modifier;
+import soot.SootClass;
+import soot.Unit;
+import soot.VoidType;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import soot.jimple.NopStmt;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link net.nicoulaj.maven.plugins.soot.LoopNesting}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class LoopNestingTest
+{
+
+    @Test
+    public void testStraightLine()
+    {
+        final BodyBuilder builder = newBuilder();
+        final Jimple jimple = Jimple.v();
+        final Local n = builder.local( "i0", IntType.v() );
+        final Unit first = builder.add( jimple.newIdentityStmt( n, jimple.newParameterRef( IntType.v(), 0 ) ) );
+        final Unit ret = jimple.newReturnVoidStmt();
+        final Unit branch = builder.add( jimple.newIfStmt( jimple.newLeExpr( n, IntConstant.v( 0 ) ), ret ) );
+        builder.add( ret );
+
+        final LoopNesting nesting = new LoopNesting( builder.getBody() );
+        assertEquals( 0, nesting.getLoopCount() );
+        for ( Unit unit : asList( first, branch, ret ) )
+        {
+            assertEquals( 0, nesting.getDepth( unit ) );
+        }
+    }
+
+    @Test
+    public void testNestedLoops()
+    {
+        final BodyBuilder builder = newBuilder();
+        final Jimple jimple = Jimple.v();
+        final Local n = builder.local( "i0", IntType.v() );
+        final Local i = builder.local( "i1", IntType.v() );
+        final Local j = builder.local( "i2", IntType.v() );
+        final Unit ret = jimple.newReturnVoidStmt();
+        final Unit next = jimple.newAssignStmt( i, jimple.newAddExpr( i, IntConstant.v( 1 ) ) );
+
+        // for ( i = 0; i < n; i++ ) for ( j = 0; j < n; j++ ) ;
+        final Unit parameter = builder.add( jimple.newIdentityStmt( n, jimple.newParameterRef( IntType.v(), 0 ) ) );
+        final Unit outerInit = builder.add( jimple.newAssignStmt( i, IntConstant.v( 0 ) ) );
+        final Unit outerHeader = builder.add( jimple.newIfStmt( jimple.newGeExpr( i, n ), ret ) );
+        final Unit innerInit = builder.add( jimple.newAssignStmt( j, IntConstant.v( 0 ) ) );
+        final Unit innerHeader = builder.add( jimple.newIfStmt( jimple.newGeExpr( j, n ), next ) );
+        final Unit innerIncrement =
+            builder.add( jimple.newAssignStmt( j, jimple.newAddExpr( j, IntConstant.v( 1 ) ) ) );
+        final Unit innerBack = builder.add( jimple.newGotoStmt( innerHeader ) );
+        builder.add( next );
+        final Unit outerBack = builder.add( jimple.newGotoStmt( outerHeader ) );
+        builder.add( ret );
+
+        final LoopNesting nesting = new LoopNesting( builder.getBody() );
+        assertEquals( 2, nesting.getLoopCount() );
+        for ( Unit unit : asList( parameter, outerInit, ret ) )
+        {
+            assertEquals( 0, nesting.getDepth( unit ) );
+        }
+        for ( Unit unit : asList( outerHeader, innerInit, next, outerBack ) )
+        {
+            assertEquals( 1, nesting.getDepth( unit ) );
+        }
+        for ( Unit unit : asList( innerHeader, innerIncrement, innerBack ) )
+        {
+            assertEquals( 2, nesting.getDepth( unit ) );
+        }
+    }
+
+    @Test
+    public void testBackEdgesSharingHeader()
+    {
+        final BodyBuilder builder = newBuilder();
+        final Jimple jimple = Jimple.v();
+        final Local n = builder.local( "i0", IntType.v() );
+        final Local remainder = builder.local( "i1", IntType.v() );
+        final Unit ret = jimple.newReturnVoidStmt();
+
+        // while ( n > 0 ) { if ( n % 2 == 0 ) { n--; continue; } n -= 3; }
+        builder.add( jimple.newIdentityStmt( n, jimple.newParameterRef( IntType.v(), 0 ) ) );
+        final NopStmt header = builder.add( jimple.newNopStmt() );
+        builder.add( jimple.newIfStmt( jimple.newLeExpr( n, IntConstant.v( 0 ) ), ret ) );
+        final Unit odd = jimple.newAssignStmt( n, jimple.newSubExpr( n, IntConstant.v( 3 ) ) );
+        builder.add( jimple.newAssignStmt( remainder, jimple.newRemExpr( n, IntConstant.v( 2 ) ) ) );
+        builder.add( jimple.newIfStmt( jimple.newNeExpr( remainder, IntConstant.v( 0 ) ), odd ) );
+        final Unit even = builder.add( jimple.newAssignStmt( n, jimple.newSubExpr( n, IntConstant.v( 1 ) ) ) );
+        builder.add( jimple.newGotoStmt( header ) );
+        builder.add( odd );
+        builder.add( jimple.newGotoStmt( header ) );
+        builder.add( ret );
+
+        final LoopNesting nesting = new LoopNesting( builder.getBody() );
+        assertEquals( 1, nesting.getLoopCount() );
+        assertEquals( 1, nesting.getDepth( header ) );
+        assertEquals( 1, nesting.getDepth( even ) );
+        assertEquals( 1, nesting.getDepth( odd ) );
+        assertEquals( 0, nesting.getDepth( ret ) );
+    }
+
+    private static BodyBuilder newBuilder()
+    {
+        final SootClass sootClass = BodyBuilder.makeClass( "p.A", BodyBuilder.reset() );
+        return new BodyBuilder( sootClass, "run", asList( IntType.v() ), VoidType.v(), Modifier.STATIC );
+    }
+}
@@ -17,8 +17,12 @@ package net.nicoulaj.maven.plugins.soot;
 
 import org.codehaus.plexus.util.FileUtils;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Utility object used by post-build hook scripts.
@@ -38,6 +42,11 @@ public class PostBuildScriptHelper
      */
     public static final String BUILD_LOG_FILE = "build.log";
 
+    /**
+     * The path of the metrics file written by the plugin, relative to the base directory of the test project.
+     */
+    public static final String METRICS_FILE = "target/soot-reports/metrics.json";
+
     /**
      * The absolute path to the base directory of the test project.
      */
@@ -140,7 +149,7 @@ public class PostBuildScriptHelper
         {
             throw new Exception( "The file " + path + " is missing or not a file." );
         }
-        else if ( FileUtils.fileRead( file ).length() == 0 )
+        else if ( file.length() == 0 )
         {
             throw new Exception( "The file " + path + " is empty." );
         }
@@ -156,7 +165,7 @@ public class PostBuildScriptHelper
     public void assertFileContains( String path, String search )
         throws Exception
     {
-        if ( !FileUtils.fileRead( new File( baseDirectory, path ) ).contains( search ) )
+        if ( !fileContains( path, search ) )
         {
             throw new Exception( path + " does not contain '" + search + "'." );
         }
@@ -184,7 +193,7 @@ public class PostBuildScriptHelper
     public void assertFileDoesNotContain( String path, String search )
         throws Exception
     {
-        if ( FileUtils.fileRead( new File( baseDirectory, path ) ).contains( search ) )
+        if ( fileContains( path, search ) )
         {
             throw new Exception( path + " contains '" + search + "'." );
         }
@@ -201,4 +210,120 @@ public class PostBuildScriptHelper
     {
         assertFileDoesNotContain( BUILD_LOG_FILE, search );
     }
+
+    /**
+     * Get the value of a metric recorded by the plugin, see the <tt>metrics</tt> parameter.
+     *
+     * @param name the name of the metric, for instance <tt>time.total.ms</tt>.
+     * @return the value.
+     * @throws Exception if the metrics file could not be read or does not hold the metric.
+     */
+    public double getMetric( String name )
+        throws Exception
+    {
+        final String metrics = getFileContent( METRICS_FILE );
+        final Pattern pattern = Pattern.compile( "\"" + Pattern.quote( name ) + "\":(-?[0-9.eE+-]+)" );
+        final Matcher matcher = pattern.matcher( metrics );
+        if ( !matcher.find() )
+        {
+            throw new Exception( METRICS_FILE + " does not contain metric '" + name + "'." );
+        }
+        return Double.parseDouble( matcher.group( 1 ) );
+    }
+
+    /**
+     * Assert a metric recorded by the plugin does not exceed a maximum.
+     *
+     * @param name    the name of the metric.
+     * @param maximum the maximum value.
+     * @throws Exception if conditions are not fulfilled.
+     */
+    public void assertMetricAtMost( String name, double maximum )
+        throws Exception
+    {
+        final double value = getMetric( name );
+        if ( value > maximum )
+        {
+            throw new Exception( "Metric " + name + " is " + value + ", which exceeds the budget of " + maximum + "." );
+        }
+    }
+
+    /**
+     * Assert a metric recorded by the plugin is at least a minimum.
+     *
+     * @param name    the name of the metric.
+     * @param minimum the minimum value.
+     * @throws Exception if conditions are not fulfilled.
+     */
+    public void assertMetricAtLeast( String name, double minimum )
+        throws Exception
+    {
+        final double value = getMetric( name );
+        if ( value < minimum )
+        {
+            throw new Exception( "Metric " + name + " is " + value + ", which is lower than " + minimum + "." );
+        }
+    }
+
+    /**
+     * Assert the Soot execution did not take longer than a budget.
+     *
+     * @param milliseconds the time budget.
+     * @throws Exception if conditions are not fulfilled.
+     */
+    public void assertAnalysisTimeAtMost( long milliseconds )
+        throws Exception
+    {
+        assertMetricAtMost( "time.total.ms", milliseconds );
+    }
+
+    /**
+     * Assert the peak heap usage of the Soot execution did not exceed a budget.
+     *
+     * @param megabytes the memory budget.
+     * @throws Exception if conditions are not fulfilled.
+     */
+    public void assertPeakHeapAtMost( long megabytes )
+        throws Exception
+    {
+        assertMetricAtMost( "heap.peak.bytes", megabytes * 1024 * 1024 );
+    }
+
+    /**
+     * Search a file for a string, line by line, so that large build logs are not loaded whole in memory.
+     * <p/>
+     * Strings spanning several lines are searched in the whole file content.
+     *
+     * @param path   the path to the file relative to {@link #baseDirectory}.
+     * @param search the string to search.
+     * @return true if the file contains the string.
+     * @throws Exception if the file could not be read.
+     */
+    protected boolean fileContains( String path, String search )
+        throws Exception
+    {
+        final File file = new File( baseDirectory, path );
+        if ( search.indexOf( '\n' ) >= 0 || search.indexOf( '\r' ) >= 0 )
+        {
+            return FileUtils.fileRead( file ).contains( search );
+        }
+
+        final BufferedReader reader = new BufferedReader( new FileReader( file ) );
+        try
+        {
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                if ( line.contains( search ) )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link net.nicoulaj.maven.plugins.soot.Shards}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class ShardsTest
+{
+
+    @Test
+    public void testPartitionKeepsPackagesTogether()
+    {
+        final List<List<String>> shards = Shards.partition(
+            asList( "a.A1", "a.A2", "a.A3", "b.B1", "b.B2", "c.C1", "D" ), 2 );
+
+        assertEquals( 2, shards.size() );
+        assertEquals( asList( "a.A1", "a.A2", "a.A3", "c.C1" ), shards.get( 0 ) );
+        assertEquals( asList( "b.B1", "b.B2", "D" ), shards.get( 1 ) );
+    }
+
+    @Test
+    public void testPartitionDropsEmptyShards()
+    {
+        final List<List<String>> shards = Shards.partition( asList( "a.A1", "a.A2" ), 4 );
+
+        assertEquals( 1, shards.size() );
+        assertEquals( asList( "a.A1", "a.A2" ), shards.get( 0 ) );
+    }
+
+    @Test
+    public void testPartitionEmpty()
+    {
+        assertTrue( Shards.partition( asList( new String[0] ), 3 ).isEmpty() );
+    }
+}
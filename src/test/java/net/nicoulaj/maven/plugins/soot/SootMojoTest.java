@@ -15,14 +15,30 @@
  */
 package net.nicoulaj.maven.plugins.soot;
 
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
 import org.junit.Test;
+import soot.G;
+import soot.Scene;
 import soot.options.Options;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import static java.lang.String.valueOf;
 import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -46,6 +62,7 @@ public class SootMojoTest
 
     @Test
     public void testConfigureOptions()
+        throws MojoExecutionException
     {
         final SootMojo mojo = new SootMojo();
         mojo.help = RANDOM.nextBoolean();
@@ -150,4 +167,123 @@ public class SootMojoTest
         assertEquals( mojo.time, Options.v().time() );
         assertEquals( mojo.subtractGC, Options.v().subtract_gc() );
     }
+
+    @Test
+    public void testSkipOversizedClasses()
+        throws Exception
+    {
+        final File directory = File.createTempFile( "soot", "" );
+        FileUtils.forceDelete( directory );
+        try
+        {
+            final File classes = new File( directory, "classes" );
+            final File output = new File( directory, "output" );
+            writeClass( Small.class, classes );
+            final byte[] big = writeClass( Big.class, classes );
+
+            final SootMojo mojo = new SootMojo();
+            mojo.processDirectory = asList( classes.getPath() );
+            mojo.sootClasspath = System.getProperty( "sun.boot.class.path" );
+            mojo.allowPhantomRefs = true;
+            mojo.sourcePrecedence = SootMojo.SourcePrecedence.CLASS;
+            mojo.outputDirectory = output.getPath();
+            mojo.outputFormat = SootMojo.OutputFormat.CLASS;
+            mojo.throwAnalysis = SootMojo.ThrowAnalysis.PEDANTIC;
+            mojo.reportsDirectory = new File( directory, "reports" );
+            mojo.maxMethodSize = 64;
+
+            final ClasspathIndex input = ClasspathIndex.scan( asList( classes ), 1 );
+            final Map<String, String> oversized = mojo.findOversizedClasses( input );
+            assertEquals( Collections.singleton( Big.class.getName() ), oversized.keySet() );
+
+            G.reset();
+            mojo.configureOptions();
+            mojo.skipClasses( oversized.keySet() );
+            assertEquals( asList( Small.class.getName() ), Options.v().classes() );
+            assertTrue( Options.v().process_dir().isEmpty() );
+
+            // Small calls Big, so Big is loaded, but only as a library class: Soot neither transforms nor writes it.
+            Scene.v().loadNecessaryClasses();
+            assertTrue( Scene.v().getSootClass( Small.class.getName() ).isApplicationClass() );
+            assertFalse( Scene.v().getSootClass( Big.class.getName() ).isApplicationClass() );
+
+            mojo.passThrough( input, oversized );
+            final List<String> written = OutputUtils.listFiles( output );
+            assertEquals( asList( getClassFile( Big.class ) ), written );
+            assertArrayEquals( big, read( new FileInputStream( new File( output, getClassFile( Big.class ) ) ) ) );
+        }
+        finally
+        {
+            G.reset();
+            FileUtils.deleteDirectory( directory );
+        }
+    }
+
+    private static String getClassFile( Class<?> type )
+    {
+        return type.getName().replace( '.', '/' ) + ".class";
+    }
+
+    private static byte[] read( InputStream in )
+        throws IOException
+    {
+        try
+        {
+            return IOUtil.toByteArray( in );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static byte[] writeClass( Class<?> type, File directory )
+        throws IOException
+    {
+        final byte[] bytes = read( type.getClassLoader().getResourceAsStream( getClassFile( type ) ) );
+        final File file = new File( directory, getClassFile( type ) );
+        file.getParentFile().mkdirs();
+        final OutputStream out = new FileOutputStream( file );
+        try
+        {
+            out.write( bytes );
+        }
+        finally
+        {
+            out.close();
+        }
+        return bytes;
+    }
+
+    public static class Small
+    {
+
+        public static int run( int value )
+        {
+            return Big.run( value );
+        }
+    }
+
+    public static class Big
+    {
+
+        public static int run( int value )
+        {
+            int result = value;
+            for ( int i = 0; i < value; i++ )
+            {
+                result = result * 31 + i;
+                result ^= result >>> 7;
+                result += result << 3;
+                result ^= result >>> 11;
+                result += result << 15;
+                result ^= result >>> 13;
+                result = result * 17 + value;
+                result ^= result >>> 5;
+                result += result << 9;
+                result ^= result >>> 17;
+            }
+            return result;
+        }
+    }
 }
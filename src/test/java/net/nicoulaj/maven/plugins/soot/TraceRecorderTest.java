@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012 Julien Nicoulaud <julien.nicoulaud@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.nicoulaj.maven.plugins.soot;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link net.nicoulaj.maven.plugins.soot.TraceRecorder}.
+ *
+ * @author <a href="mailto:julien.nicoulaud@gmail.com">Julien Nicoulaud</a>
+ * @since 0.2
+ */
+public class TraceRecorderTest
+{
+
+    @Test
+    public void testNestedSpans()
+    {
+        final TraceRecorder trace = new TraceRecorder();
+        trace.begin( "outer", "test" );
+        trace.begin( "inner", "test" );
+        trace.end();
+        trace.end();
+
+        final List<TraceRecorder.Event> events = trace.getEvents();
+        assertEquals( 2, events.size() );
+        final TraceRecorder.Event inner = events.get( 0 );
+        final TraceRecorder.Event outer = events.get( 1 );
+        assertEquals( "inner", inner.getName() );
+        assertEquals( "outer", outer.getName() );
+        assertEquals( Thread.currentThread().getId(), outer.getThreadId() );
+        assertTrue( outer.getTimestamp() <= inner.getTimestamp() );
+        assertTrue( outer.getTimestamp() + outer.getDuration() >= inner.getTimestamp() + inner.getDuration() );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void testEndWithoutBegin()
+    {
+        new TraceRecorder().end();
+    }
+
+    @Test
+    public void testWrite()
+        throws IOException
+    {
+        final TraceRecorder trace = new TraceRecorder();
+        final long start = System.nanoTime();
+        trace.complete( "phase", "test", start, start + 2000000 );
+        trace.counter( "heap", start, "used.bytes", 42 );
+
+        final StringWriter writer = new StringWriter();
+        trace.write( writer );
+        final String json = writer.toString();
+        assertTrue( json, json.startsWith( "{\"traceEvents\":[{\"ph\":\"M\",\"name\":\"thread_name\"" ) );
+        assertTrue( json, json.contains( "\"ph\":\"X\",\"name\":\"phase\",\"cat\":\"test\"" ) );
+        assertTrue( json, json.contains( "\"dur\":2000}" ) );
+        assertTrue( json, json.contains( "\"ph\":\"C\",\"name\":\"heap\"" ) );
+        assertTrue( json, json.contains( "\"args\":{\"used.bytes\":42}" ) );
+        assertTrue( json, json.endsWith( "],\"displayTimeUnit\":\"ms\"}" ) );
+    }
+
+    @Test
+    public void testSampling()
+    {
+        final TraceRecorder trace = new TraceRecorder();
+        trace.startSampling( 1 );
+        trace.stopSampling();
+
+        boolean heap = false;
+        for ( TraceRecorder.Event event : trace.getEvents() )
+        {
+            heap |= event.getPhase() == 'C' && "heap".equals( event.getName() );
+        }
+        assertTrue( heap );
+    }
+}